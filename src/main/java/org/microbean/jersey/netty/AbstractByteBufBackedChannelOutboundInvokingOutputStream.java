@@ -176,6 +176,32 @@ public abstract class AbstractByteBufBackedChannelOutboundInvokingOutputStream<T
     return this.createMessage(this.byteBufCreator.toByteBuf(bytes, offset, length));
   }
 
+  /**
+   * Writes the readable bytes of the supplied {@link ByteBuf} without
+   * copying them.
+   *
+   * <p>Ownership of the {@link ByteBuf} passes to this method; it will
+   * be {@linkplain ByteBuf#release() released} once it has been
+   * written.  To write the same bytes to several {@link
+   * AbstractByteBufBackedChannelOutboundInvokingOutputStream}s, supply
+   * each with a {@linkplain ByteBuf#retainedDuplicate() retained
+   * duplicate}.</p>
+   *
+   * @param content the {@link ByteBuf} to write; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if {@code content} is {@code
+   * null}
+   *
+   * @exception IOException if an error occurs
+   *
+   * @see #createMessage(ByteBuf)
+   */
+  public final void write(final ByteBuf content) throws IOException {
+    final int length = content.readableBytes();
+    this.writeMessage(this.createMessage(content), length);
+  }
+
   /**
    * Creates and returns a new message to be {@linkplain
    * ChannelOutboundInvoker#write(Object, ChannelPromise) written}.
@@ -19,16 +19,48 @@ package org.microbean.jersey.netty;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.channels.ClosedChannelException;
+
 import java.util.Objects;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundInvoker;
 import io.netty.channel.ChannelPromise;
 
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import io.netty.util.concurrent.EventExecutor;
+
 /**
  * An {@link OutputStream} that delegates writing and flushing
  * operations to a {@link ChannelOutboundInvoker}.
  *
+ * <p>Single-byte writes, and writes of fewer than 512 bytes, are
+ * copied into a small staging buffer rather than turned into
+ * messages of their own.  Staged bytes are written as one message
+ * when the staging buffer fills, before any larger write, and when
+ * the stream is {@linkplain #flush() flushed} or {@linkplain
+ * #close() closed}.</p>
+ *
+ * <p>If the {@link ChannelOutboundInvoker} is a {@link Channel} or a
+ * {@link ChannelHandlerContext}, messages written from a thread other
+ * than the {@link Channel}'s event loop are queued and handed to the
+ * event loop together, as one task, when the stream is flushed or
+ * closed or once 16 messages have been queued, instead of each write
+ * becoming a task of its own.  If the {@link Channel} closes while
+ * messages are queued, they are released and their promises
+ * failed.  Messages that this package writes to the {@link Channel}
+ * other than through the stream most recently created for it are
+ * kept in order with the ones the stream has queued.</p>
+ *
  * <h2>Thread Safety</h2>
  *
  * <p>Instances of this class are safe for concurrent use by multiple
@@ -45,6 +77,29 @@ import io.netty.channel.ChannelPromise;
 public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends OutputStream {
 
 
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The size, in bytes, of the staging buffer in which small writes
+   * accumulate.
+   */
+  static final int STAGING_BUFFER_SIZE = 512;
+
+  /**
+   * The number of messages that may be queued for the event loop
+   * before they are handed to it without waiting for a flush.
+   */
+  static final int MAX_BATCHED_WRITES = 16;
+
+  // The stream most recently created for a Channel whose writes may
+  // be batched.
+  private static final AttributeKey<AbstractChannelOutboundInvokingOutputStream<?>> outputStreamAttributeKey =
+    AttributeKey.valueOf(AbstractChannelOutboundInvokingOutputStream.class, "outputStream");
+
+
   /*
    * Instance fields.
    */
@@ -77,7 +132,39 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
 
   private final int flushThreshold;
 
-  private volatile int bytesWritten;
+  // The number of bytes handed to the ChannelOutboundInvoker since
+  // the last flush.  Guarded by this, like the staging buffer, so it
+  // is counted here on the writing side rather than by listeners on
+  // the event loop.
+  private long bytesWritten;
+
+  private byte[] stagingBuffer;
+
+  private int stagedBytes;
+
+  // The event loop to which writes from other threads are handed in
+  // batches, or null if writes are never batched.
+  private final EventExecutor eventLoop;
+
+  // The close future of the Channel whose event loop that is, or
+  // null if writes are never batched.
+  private final ChannelFuture closeFuture;
+
+  // Discards queued messages when the Channel closes; added to the
+  // close future when a message is first queued and removed when this
+  // stream is closed.  Guarded by this.
+  private ChannelFutureListener closeListener;
+
+  // Queued messages and their promises, alternately.  Guarded by
+  // this.
+  private Object[] batch;
+
+  private int batchedWrites;
+
+  // The number of batches handed to the event loop that it has not
+  // yet written; while this is positive, even writes made on the
+  // event loop itself must be queued to preserve their order.
+  private final AtomicInteger pendingBatches;
 
 
   /*
@@ -169,6 +256,25 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
     this.flushThreshold = Math.max(0, flushThreshold);
     this.channelOutboundInvoker = Objects.requireNonNull(channelOutboundInvoker);
     this.closeChannelOutboundInvoker = closeChannelOutboundInvoker;
+    final Channel channel;
+    if (channelOutboundInvoker instanceof ChannelHandlerContext) {
+      channel = ((ChannelHandlerContext)channelOutboundInvoker).channel();
+    } else if (channelOutboundInvoker instanceof Channel) {
+      channel = (Channel)channelOutboundInvoker;
+    } else {
+      channel = null;
+    }
+    if (channel == null || !channel.isRegistered()) {
+      this.eventLoop = null;
+      this.closeFuture = null;
+    } else {
+      this.eventLoop = channel.eventLoop();
+      this.closeFuture = channel.closeFuture();
+    }
+    this.pendingBatches = new AtomicInteger();
+    if (this.eventLoop != null) {
+      channel.attr(outputStreamAttributeKey).set(this);
+    }
   }
 
 
@@ -210,8 +316,14 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
   }
 
   @Override
-  public final void write(final int singleByte) throws IOException {
-    this.write(this.createMessage(singleByte), 1);
+  public final synchronized void write(final int singleByte) throws IOException {
+    if (this.stagedBytes == STAGING_BUFFER_SIZE) {
+      this.writeStagedBytes();
+    }
+    if (this.stagingBuffer == null) {
+      this.stagingBuffer = new byte[STAGING_BUFFER_SIZE];
+    }
+    this.stagingBuffer[this.stagedBytes++] = (byte)singleByte;
   }
 
   @Override
@@ -220,42 +332,169 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
   }
 
   @Override
-  public final void write(final byte[] bytes, final int offset, final int length) throws IOException {
+  public final synchronized void write(final byte[] bytes, final int offset, final int length) throws IOException {
     if (offset < 0 || length < 0 || offset + length > bytes.length) {
       throw new IndexOutOfBoundsException();
     }
-    this.write(this.createMessage(bytes, offset, length), length);
+    if (length >= STAGING_BUFFER_SIZE) {
+      this.writeMessage(this.createMessage(bytes, offset, length), length);
+    } else if (length > 0) {
+      if (this.stagedBytes + length > STAGING_BUFFER_SIZE) {
+        this.writeStagedBytes();
+      }
+      if (this.stagingBuffer == null) {
+        this.stagingBuffer = new byte[STAGING_BUFFER_SIZE];
+      }
+      System.arraycopy(bytes, offset, this.stagingBuffer, this.stagedBytes, length);
+      this.stagedBytes += length;
+    }
+  }
+
+  /**
+   * {@linkplain ChannelOutboundInvoker#write(Object, ChannelPromise)
+   * Writes} the supplied message, which represents the supplied number
+   * of bytes, {@linkplain #flush() flushing} first if the {@linkplain
+   * #getFlushThreshold() flush threshold} calls for it.
+   *
+   * <p>This method is called by the various {@link #write(byte[], int,
+   * int) write} methods, and may be called by subclasses that can
+   * create messages without copying.  Any staged bytes are written
+   * first.</p>
+   *
+   * @param message the message to write; must not be {@code null}
+   *
+   * @param length the number of bytes the message represents
+   *
+   * @exception IOException if the write fails
+   */
+  protected final synchronized void writeMessage(final T message, final int length) throws IOException {
+    this.writeStagedBytes();
+    this.doWriteMessage(message, length);
+  }
+
+  private final void writeStagedBytes() throws IOException {
+    final int stagedBytes = this.stagedBytes;
+    if (stagedBytes > 0) {
+      // The message may wrap the staging buffer rather than copy it,
+      // so hand it over and start a new one next time.
+      final byte[] stagingBuffer = this.stagingBuffer;
+      this.stagingBuffer = null;
+      this.stagedBytes = 0;
+      this.doWriteMessage(this.createMessage(stagingBuffer, 0, stagedBytes), stagedBytes);
+    }
   }
 
-  private final void write(final T message, final int length) throws IOException {
+  private final void doWriteMessage(final T message, final int length) throws IOException {
     final ChannelPromise channelPromise = this.newPromise();
     final int flushThreshold = this.getFlushThreshold();
     switch (flushThreshold) {
     case 0:
       // Flush previous writes, if any
-      this.channelOutboundInvoker.flush();
+      this.flushWrites();
       break;
     case Integer.MAX_VALUE:
       break;
     default:
-      final int bytesWritten = this.bytesWritten; // volatile read
-      if (bytesWritten > flushThreshold) {
+      if (this.bytesWritten > flushThreshold) {
         // Flush previous writes, if any, and set our "days since
         // flush" back to 0 (see #flush())
         this.flush();
-      } else if (channelPromise.isVoid()) {
-        // Optimistically assume the write will succeed; if we get
-        // this wrong, all that happens is maybe we don't flush as
-        // often as expected.
-        this.bytesWritten = bytesWritten + length;
-      } else {
-        channelPromise.addListener(f -> this.bytesWritten = bytesWritten + length); // volatile write
       }
+      // Optimistically assume the write will succeed; if we get this
+      // wrong, all that happens is maybe we flush a little early.
+      this.bytesWritten += length;
     }
-    this.channelOutboundInvoker.write(message, channelPromise);
+    this.writeOrQueue(message, channelPromise);
     maybeThrow(channelPromise.cause());
   }
 
+  private final void writeOrQueue(final Object message, final ChannelPromise channelPromise) {
+    if (this.eventLoop == null ||
+        (this.batchedWrites == 0 && this.pendingBatches.get() == 0 && this.eventLoop.inEventLoop())) {
+      this.channelOutboundInvoker.write(message, channelPromise);
+    } else if (this.closeFuture.isDone()) {
+      // Nothing would ever hand this message to the event loop.
+      discard(new Object[] { message, channelPromise }, 1, new ClosedChannelException());
+    } else {
+      if (this.batch == null) {
+        this.batch = new Object[MAX_BATCHED_WRITES * 2];
+      }
+      if (this.closeListener == null) {
+        this.closeListener = f -> this.discardQueuedWrites(new ClosedChannelException());
+        this.closeFuture.addListener(this.closeListener);
+      }
+      this.batch[this.batchedWrites * 2] = message;
+      this.batch[this.batchedWrites * 2 + 1] = channelPromise;
+      this.batchedWrites++;
+      if (this.batchedWrites == MAX_BATCHED_WRITES) {
+        this.handOffBatch(false, null);
+      }
+    }
+  }
+
+  private final void flushWrites() {
+    if (this.batchedWrites > 0 || this.pendingBatches.get() > 0) {
+      // A direct flush could overtake writes the event loop has not
+      // made yet.
+      this.handOffBatch(true, null);
+    } else {
+      this.channelOutboundInvoker.flush();
+    }
+  }
+
+  // Hands any queued messages to the event loop as one task that
+  // writes them, then flushes if so instructed, then closes the
+  // ChannelOutboundInvoker if closePromise is not null.
+  private final void handOffBatch(final boolean flush, final ChannelPromise closePromise) {
+    final Object[] batch = this.batch;
+    final int batchedWrites = this.batchedWrites;
+    this.batch = null;
+    this.batchedWrites = 0;
+    this.pendingBatches.incrementAndGet();
+    try {
+      this.eventLoop.execute(() -> {
+          try {
+            for (int i = 0; i < batchedWrites; i++) {
+              this.channelOutboundInvoker.write(batch[i * 2], (ChannelPromise)batch[i * 2 + 1]);
+            }
+            if (flush) {
+              this.channelOutboundInvoker.flush();
+            }
+            if (closePromise != null) {
+              this.channelOutboundInvoker.close(closePromise);
+            }
+          } finally {
+            this.pendingBatches.decrementAndGet();
+          }
+        });
+    } catch (final RejectedExecutionException rejectedExecutionException) {
+      this.pendingBatches.decrementAndGet();
+      discard(batch, batchedWrites, rejectedExecutionException);
+      if (closePromise != null && !closePromise.isVoid()) {
+        closePromise.tryFailure(rejectedExecutionException);
+      }
+      throw rejectedExecutionException;
+    }
+  }
+
+  // Hands any queued messages to the event loop and returns true if
+  // it has not yet written all of the messages handed to it.
+  private final synchronized boolean handOffQueuedWrites() {
+    if (this.batchedWrites > 0) {
+      this.handOffBatch(false, null);
+    }
+    return this.pendingBatches.get() > 0;
+  }
+
+  // Releases any messages still queued and fails their promises.
+  private final synchronized void discardQueuedWrites(final Throwable cause) {
+    final Object[] batch = this.batch;
+    final int batchedWrites = this.batchedWrites;
+    this.batch = null;
+    this.batchedWrites = 0;
+    discard(batch, batchedWrites, cause);
+  }
+
   /**
    * Returns a new message representing the single supplied {@code
    * byte} to be {@linkplain ChannelOutboundInvoker#write(Object,
@@ -274,6 +513,9 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
    * int)} and returns its result.  Subclasses are encouraged, but not
    * required, to override this method to be more efficient.</p>
    *
+   * <p>{@link #write(int)} does not call this method; it stages
+   * single bytes instead.</p>
+   *
    * <p>Overrides of this method should be stateless.</p>
    *
    * @param singleByte an {@code int} whose low-order bits hold a
@@ -384,10 +626,14 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
   }
 
   /**
-   * Calls the {@link ChannelOutboundInvoker#flush()} method on the
-   * {@link ChannelOutboundInvoker} {@linkplain
+   * Writes any staged bytes and then calls the {@link
+   * ChannelOutboundInvoker#flush()} method on the {@link
+   * ChannelOutboundInvoker} {@linkplain
    * #AbstractChannelOutboundInvokingOutputStream(ChannelOutboundInvoker,
-   * int, boolean) supplied at construction time}.
+   * int, boolean) supplied at construction time}, handing any queued
+   * messages to the event loop along with the flush.
+   *
+   * @exception IOException if staged bytes could not be written
    *
    * @see ChannelOutboundInvoker#flush()
    *
@@ -398,14 +644,16 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
    * int, boolean)
    */
   @Override
-  public final void flush() {
-    this.channelOutboundInvoker.flush();
-    this.bytesWritten = 0; // volatile write
+  public final synchronized void flush() throws IOException {
+    this.writeStagedBytes();
+    this.flushWrites();
+    this.bytesWritten = 0;
   }
 
   /**
    * {@linkplain OutputStream#close() Closes} this {@link
-   * AbstractChannelOutboundInvokingOutputStream}, optionally
+   * AbstractChannelOutboundInvokingOutputStream}, writing any staged
+   * bytes and then optionally
    * {@linkplain ChannelOutboundInvoker#writeAndFlush(Object,
    * ChannelPromise) writing and flushing} a {@linkplain
    * #createLastMessage() final message}, or simply just {@linkplain
@@ -425,26 +673,38 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
    * int, boolean)
    */
   @Override
-  public final void close() throws IOException {
+  public final synchronized void close() throws IOException {
     super.close();
-    final Object lastMessage = this.createLastMessage();
-    if (lastMessage == null) {
-      this.flush();
-    } else {
-      final ChannelPromise channelPromise = this.newPromise();
-      if (channelPromise.isVoid()) {
-        this.channelOutboundInvoker.writeAndFlush(lastMessage, channelPromise);
-        this.bytesWritten = 0; // volatile write
+    try {
+      this.writeStagedBytes();
+      final Object lastMessage = this.createLastMessage();
+      if (lastMessage == null) {
+        this.flush();
       } else {
-        channelPromise.addListener(f -> this.bytesWritten = 0); // volatile write
-        this.channelOutboundInvoker.writeAndFlush(lastMessage, channelPromise);
+        final ChannelPromise channelPromise = this.newPromise();
+        this.writeOrQueue(lastMessage, channelPromise);
+        this.flushWrites();
+        this.bytesWritten = 0;
+        maybeThrow(channelPromise.cause());
+      }
+      if (this.closeChannelOutboundInvoker) {
+        final ChannelPromise channelPromise = this.newPromise();
+        if (this.eventLoop != null && this.pendingBatches.get() > 0) {
+          // Don't overtake writes the event loop has not made yet.
+          this.handOffBatch(false, channelPromise);
+        } else {
+          this.channelOutboundInvoker.close(channelPromise);
+        }
+        maybeThrow(channelPromise.cause());
+      }
+    } finally {
+      if (this.closeListener != null) {
+        // Don't accumulate listeners on a long-lived Channel; anything
+        // still queued is discarded here instead.
+        this.closeFuture.removeListener(this.closeListener);
+        this.closeListener = null;
+        this.discardQueuedWrites(new ClosedChannelException());
       }
-      maybeThrow(channelPromise.cause());
-    }
-    if (this.closeChannelOutboundInvoker) {
-      final ChannelPromise channelPromise = this.newPromise();
-      this.channelOutboundInvoker.close(channelPromise);
-      maybeThrow(channelPromise.cause());
     }
   }
 
@@ -454,6 +714,53 @@ public abstract class AbstractChannelOutboundInvokingOutputStream<T> extends Out
    */
 
 
+  /**
+   * Hands any messages queued by the {@link
+   * AbstractChannelOutboundInvokingOutputStream} most recently
+   * created for the supplied {@link Channel} to the {@link Channel}'s
+   * event loop, so that a message subsequently written to the {@link
+   * Channel} some other way, from a thread other than its event loop,
+   * is written after them.
+   *
+   * <p>If this method returns {@code true}, a message written
+   * directly from the event loop itself would still overtake messages
+   * handed to it earlier, and must instead be handed to the event
+   * loop as a task of its own.</p>
+   *
+   * @param channel the {@link Channel} about to be written to; must
+   * not be {@code null}
+   *
+   * @return {@code true} if the event loop has not yet written all of
+   * the messages handed to it
+   *
+   * @exception NullPointerException if {@code channel} is {@code
+   * null}
+   */
+  static final boolean handOffQueuedWrites(final Channel channel) {
+    boolean returnValue = false;
+    if (channel.hasAttr(outputStreamAttributeKey)) {
+      final AbstractChannelOutboundInvokingOutputStream<?> outputStream = channel.attr(outputStreamAttributeKey).get();
+      if (outputStream != null) {
+        try {
+          returnValue = outputStream.handOffQueuedWrites();
+        } catch (final RejectedExecutionException rejectedExecutionException) {
+          // The queued messages have been discarded.
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final void discard(final Object[] batch, final int batchedWrites, final Throwable cause) {
+    for (int i = 0; i < batchedWrites; i++) {
+      ReferenceCountUtil.release(batch[i * 2]);
+      final ChannelPromise channelPromise = (ChannelPromise)batch[i * 2 + 1];
+      if (!channelPromise.isVoid()) {
+        channelPromise.tryFailure(cause);
+      }
+    }
+  }
+
   private static final void maybeThrow(final Throwable cause) throws IOException {
     if (cause == null) {
       return;
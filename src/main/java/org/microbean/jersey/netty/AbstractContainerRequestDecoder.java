@@ -16,16 +16,22 @@
  */
 package org.microbean.jersey.netty;
 
+import java.io.EOFException;
+
 import java.lang.reflect.Type;
 
+import java.net.SocketTimeoutException;
 import java.net.URI;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
+import java.util.concurrent.TimeUnit;
+
 import java.util.function.Supplier;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ws.rs.core.Configuration;
@@ -42,6 +48,8 @@ import io.netty.channel.ChannelPipeline; // for javadoc only
 
 import io.netty.handler.codec.MessageToMessageDecoder;
 
+import io.netty.util.concurrent.ScheduledFuture;
+
 import org.glassfish.jersey.internal.PropertiesDelegate;
 
 import org.glassfish.jersey.internal.util.collection.Ref;
@@ -58,6 +66,18 @@ import org.glassfish.jersey.server.internal.ContainerUtils;
  * ChannelPipeline} by instances of the {@link
  * AbstractContainerRequestHandlingResponseWriter} class.</p>
  *
+ * <p>A {@link ContainerRequest} with an entity is normally passed on
+ * as soon as the first piece of its entity arrives, and the rest is
+ * streamed to it.  If the {@linkplain
+ * NettyContainerProperties#MAX_AGGREGATED_CONTENT_LENGTH maximum
+ * aggregated content length} is set, a request that declares a
+ * {@code Content-Length} no greater than it is instead passed on
+ * only once its entity is complete.  Conversely, if {@linkplain
+ * NettyContainerProperties#EARLY_DISPATCH early dispatch} is enabled,
+ * any other request that will have an entity is passed on as soon
+ * as its headers arrive, so that resource matching and filtering
+ * overlap with the upload of the entity.</p>
+ *
  * @param <T> the common supertype of messages that can be decoded
  *
  * @param <H> the type of {@linkplain #isHeaders(Object) "headers" messages}
@@ -89,6 +109,10 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
 
   private static final Type channelHandlerContextRefType = ChannelHandlerContextReferencingFactory.genericRefType.getType();
 
+  // SecurityContextAdapter is immutable, so every request can share
+  // one.
+  private static final SecurityContext defaultSecurityContext = new SecurityContextAdapter();
+
 
   /*
    * Instance fields.
@@ -109,6 +133,47 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
 
   private ContainerRequest containerRequestUnderConstruction;
 
+  private long lastBodyReadNanos;
+
+  private ScheduledFuture<?> bodyReadTimeout;
+
+  /**
+   * The {@link Settings} read from the {@link Configuration} supplied
+   * at construction time.
+   */
+  private Settings defaultSettings;
+
+  /**
+   * The {@link Settings} most recently read from a routed
+   * application's {@link Configuration}, cached since consecutive
+   * requests on a channel are usually routed alike.
+   */
+  private Settings routedSettings;
+
+  /**
+   * The {@link Settings} in effect for {@link
+   * #containerRequestUnderConstruction}.
+   */
+  private Settings settings;
+
+  /**
+   * The {@link ApplicationRoutingHandler} in this decoder's pipeline,
+   * if any; {@code null} until first found.
+   */
+  private ApplicationRoutingHandler applicationRoutingHandler;
+
+  /**
+   * Whether the entity of {@link #containerRequestUnderConstruction}
+   * is being accumulated in full before the request is passed on.
+   */
+  private boolean aggregating;
+
+  /**
+   * The number of entity bytes accumulated so far while {@link
+   * #aggregating}.
+   */
+  private long aggregatedBytes;
+
 
   /*
    * Constructors.
@@ -216,6 +281,73 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    */
 
 
+  /**
+   * Reads the {@linkplain NettyContainerProperties#BODY_READ_TIMEOUT
+   * body read timeout}, {@linkplain
+   * NettyContainerProperties#MAX_AGGREGATED_CONTENT_LENGTH maximum
+   * aggregated content length} and {@linkplain
+   * NettyContainerProperties#EARLY_DISPATCH early dispatch} settings,
+   * if any, from the {@link Configuration}
+   * supplied at construction time, and determines whether the {@link
+   * ChannelHandlerContext} and "headers" messages need to be made
+   * available for dependency injection.
+   *
+   * <p>Requests that an {@link ApplicationRoutingHandler} in the same
+   * pipeline routes to another application are decoded using that
+   * application's {@link Configuration} and settings instead.</p>
+   *
+   * <p>Overrides must call {@code super.handlerAdded(channelHandlerContext)}.</p>
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext} in
+   * effect; must not be {@code null}
+   *
+   * @exception Exception if an error occurs
+   *
+   * @see NettyContainerProperties#BODY_READ_TIMEOUT
+   */
+  @Override
+  public void handlerAdded(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    super.handlerAdded(channelHandlerContext);
+    this.defaultSettings = new Settings(this.configurationSupplier.get(), this.headersClass);
+    this.settings = this.defaultSettings;
+  }
+
+  /**
+   * {@linkplain TerminableByteBufInputStream#abort(Throwable) Aborts}
+   * any request whose entity is still arriving, so that a thread
+   * reading it does not block forever.
+   *
+   * <p>Overrides must call {@code
+   * super.handlerRemoved(channelHandlerContext)}.</p>
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext} in
+   * effect; must not be {@code null}
+   *
+   * @exception Exception if an error occurs
+   */
+  @Override
+  public void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.abortRequestUnderConstruction(new EOFException("Decoder removed before the request entity was fully received"));
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  /**
+   * {@linkplain TerminableByteBufInputStream#abort(Throwable) Aborts}
+   * any request whose entity is still arriving, so that a thread
+   * reading it does not block forever, and then calls the superclass
+   * implementation.
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext} in
+   * effect; must not be {@code null}
+   *
+   * @exception Exception if an error occurs
+   */
+  @Override
+  public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.abortRequestUnderConstruction(new EOFException("Connection closed before the request entity was fully received"));
+    super.channelInactive(channelHandlerContext);
+  }
+
   /**
    * Overrides the {@link
    * ChannelInboundHandlerAdapter#channelReadComplete(ChannelHandlerContext)}
@@ -316,6 +448,27 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    */
   protected abstract String getMethod(final H message);
 
+  /**
+   * Extracts and returns a {@link String} representing the authority
+   * (host and optional port) the request is addressed to from the
+   * supplied message, which is guaranteed to be a {@linkplain
+   * #isHeaders(Object) "headers" message}.
+   *
+   * <p>The authority is used to {@linkplain ApplicationRouter route}
+   * the request before it is decoded.</p>
+   *
+   * <p>This implementation returns {@code null}.</p>
+   *
+   * @param message the message to interrogate; will not be {@code
+   * null}
+   *
+   * @return a {@link String} representing the request's authority, or
+   * {@code null}
+   */
+  protected String getAuthority(final H message) {
+    return null;
+  }
+
   /**
    * Creates and returns a {@link SecurityContext} appropriate for the
    * supplied message, which is guaranteed to be a {@linkplain
@@ -324,14 +477,17 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    * <p>Implementations of this method must not return {@code
    * null}.</p>
    *
+   * <p>This implementation returns a shared, immutable {@link
+   * SecurityContextAdapter}.</p>
+   *
    * @param message the {@linkplain #isHeaders(Object) "headers"
-   * message} for which a new {@link SecurityContext} is to be
-   * returned; will not be {@code null}
+   * message} for which a {@link SecurityContext} is to be returned;
+   * will not be {@code null}
    *
-   * @return a new, non-{@code null} {@link SecurityContext}
+   * @return a non-{@code null} {@link SecurityContext}
    */
   protected SecurityContext createSecurityContext(final H message) {
-    return new SecurityContextAdapter();
+    return defaultSecurityContext;
   }
 
   /**
@@ -342,6 +498,9 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    * <p>Implementations of this method must not return {@code
    * null}.</p>
    *
+   * <p>This implementation returns a new {@link
+   * ArrayBackedPropertiesDelegate}.</p>
+   *
    * @param message the {@linkplain #isHeaders(Object) "headers"
    * message} for which a new {@link PropertiesDelegate} is to be
    * returned; will not be {@code null}
@@ -349,7 +508,7 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    * @return a new, non-{@code null} {@link PropertiesDelegate}
    */
   protected PropertiesDelegate createPropertiesDelegate(final H message) {
-    return new MapBackedPropertiesDelegate();
+    return new ArrayBackedPropertiesDelegate();
   }
 
   /**
@@ -360,7 +519,12 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    * ContainerRequest#setProperty(String, Object)} with the
    * {@linkplain Class#getName() fully-qualified class name} of the
    * headers class supplied at construction time as the key, and the
-   * supplied {@code message} as the value.</p>
+   * supplied {@code message} as the value.  It also does the same
+   * for the supplied {@link ChannelHandlerContext}.  Reading these
+   * properties (for example via {@link
+   * javax.ws.rs.container.ContainerRequestContext#getProperty(String)})
+   * is cheaper than having them injected, and works whether or not
+   * they are made available for dependency injection.</p>
    *
    * @param channelHandlerContext the {@link ChannelHandlerContext} in
    * effect; will not be {@code null}; supplied for convenience;
@@ -381,6 +545,56 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
     containerRequest.setProperty(this.headersClass.getName(), message);
   }
 
+  /**
+   * Arranges for the supplied {@link ChannelHandlerContext} and
+   * "headers" message, if non-{@code null}, to be made available for
+   * dependency injection in the request scope of the supplied {@link
+   * ContainerRequest}.
+   *
+   * @param containerRequest the {@link ContainerRequest}; must not be
+   * {@code null}
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext} to
+   * make available, or {@code null} if it is not injected
+   *
+   * @param headersMessage the "headers" message to make available, or
+   * {@code null} if it is not injected
+   *
+   * @param headersClassRefType the {@link Type} of the {@link Ref}
+   * that holds the "headers" message; may be {@code null} only if
+   * {@code headersMessage} is {@code null}
+   *
+   * @exception NullPointerException if {@code containerRequest} is
+   * {@code null}
+   */
+  static final void installRequestScopedInitializer(final ContainerRequest containerRequest,
+                                                    final ChannelHandlerContext channelHandlerContext,
+                                                    final Object headersMessage,
+                                                    final Type headersClassRefType) {
+    containerRequest.setRequestScopedInitializer(injectionManager -> {
+        // See JerseyChannelInitializer, where the factories of
+        // factories that produce references of the things we're
+        // interested in are installed.  Here, in request scope
+        // itself, we set the actual target of those references.
+        // This is apparently the proper way to do this sort of
+        // thing in Jersey (!) and examples of this pattern show
+        // up throughout its codebase.  With jaw somewhat agape,
+        // we follow suit.
+        if (channelHandlerContext != null) {
+          final Ref<ChannelHandlerContext> channelHandlerContextRef = injectionManager.getInstance(channelHandlerContextRefType);
+          if (channelHandlerContextRef != null) {
+            channelHandlerContextRef.set(channelHandlerContext);
+          }
+        }
+        if (headersMessage != null) {
+          final Ref<Object> headersRef = injectionManager.getInstance(headersClassRefType);
+          if (headersRef != null) {
+            headersRef.set(headersMessage);
+          }
+        }
+      });
+  }
+
   /**
    * Returns {@code true} if the supplied message represents a
    * "data" message (as distinguished from a "headers" message).
@@ -421,6 +635,29 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
     return returnValue;
   }
 
+  /**
+   * Returns {@code true} if the request represented by the supplied
+   * {@linkplain #isHeaders(Object) "headers" message}, which is
+   * guaranteed not to be {@linkplain #isLast(Object) the last}
+   * message of its request, will be followed by a non-empty entity.
+   *
+   * <p>This method is consulted only when {@linkplain
+   * NettyContainerProperties#EARLY_DISPATCH early dispatch} is
+   * enabled, to avoid passing on requests, early, that turn out not
+   * to have entities after all.</p>
+   *
+   * <p>This implementation returns {@code true}.</p>
+   *
+   * @param message the "headers" message to interrogate; will not be
+   * {@code null}
+   *
+   * @return {@code true} if an entity is expected to follow the
+   * supplied message; {@code false} otherwise
+   */
+  protected boolean isEntityExpected(final H message) {
+    return true;
+  }
+
   /**
    * Returns {@code true} if there will be no further message
    * components in an overall larger message after the supplied one.
@@ -475,6 +712,20 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
           } else {
             requestUri = this.baseUri.resolve(ContainerUtils.encodeUnsafeCharacters(requestUriString));
           }
+          // Route the request first so that it is built with, and
+          // decoded according to, the configuration of the
+          // application that will actually handle it.
+          final ApplicationRouter.Route route = this.route(channelHandlerContext, headersMessage, requestUri);
+          final Configuration configuration;
+          final Settings settings;
+          if (route == null) {
+            configuration = this.configurationSupplier.get();
+            settings = this.defaultSettings;
+          } else {
+            configuration = route.getApplicationHandler().getConfiguration();
+            settings = this.getRoutedSettings(configuration);
+          }
+          this.settings = settings;
           final String method = this.getMethod(headersMessage);
           final SecurityContext securityContext = this.createSecurityContext(headersMessage);
           final PropertiesDelegate propertiesDelegate = this.createPropertiesDelegate(headersMessage);
@@ -482,32 +733,37 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
             new ContainerRequest(this.baseUri,
                                  requestUri,
                                  method,
-                                 securityContext == null ? new SecurityContextAdapter() : securityContext,
-                                 propertiesDelegate == null ? new MapBackedPropertiesDelegate() : propertiesDelegate,
-                                 this.configurationSupplier.get());
+                                 securityContext == null ? defaultSecurityContext : securityContext,
+                                 propertiesDelegate == null ? new ArrayBackedPropertiesDelegate() : propertiesDelegate,
+                                 configuration);
+          if (route != null) {
+            containerRequest.setProperty(ApplicationRoutingHandler.ROUTE_PROPERTY_NAME, route);
+          }
           this.installMessage(channelHandlerContext, headersMessage, containerRequest);
-          containerRequest.setRequestScopedInitializer(injectionManager -> {
-              // See JerseyChannelInitializer, where the factories of
-              // factories that produce references of the things we're
-              // interested in are installed.  Here, in request scope
-              // itself, we set the actual target of those references.
-              // This is apparently the proper way to do this sort of
-              // thing in Jersey (!) and examples of this pattern show
-              // up throughout its codebase.  With jaw somewhat agape,
-              // we follow suit.
-              final Ref<ChannelHandlerContext> channelHandlerContextRef = injectionManager.getInstance(channelHandlerContextRefType);
-              if (channelHandlerContextRef != null) {
-                channelHandlerContextRef.set(channelHandlerContext);
-              }
-              final Ref<H> headersRef = injectionManager.getInstance(this.headersClassRefType);
-              if (headersRef != null) {
-                headersRef.set(headersMessage);
-              }
-            });
+          if (settings.injectChannelHandlerContext || settings.injectHeaders) {
+            installRequestScopedInitializer(containerRequest,
+                                            settings.injectChannelHandlerContext ? channelHandlerContext : null,
+                                            settings.injectHeaders ? headersMessage : null,
+                                            this.headersClassRefType);
+          }
           if (this.isLast(message)) {
             out.add(containerRequest);
           } else {
             this.containerRequestUnderConstruction = containerRequest;
+            // A small entity of known length is cheaper to wait for
+            // here, on the event loop, than on a Jersey thread
+            // blocked reading it.
+            final long contentLength = containerRequest.getLength();
+            this.aggregating = contentLength > 0L && contentLength <= settings.maxAggregatedContentLength;
+            this.aggregatedBytes = 0L;
+            if (!this.aggregating && settings.earlyDispatch && this.isEntityExpected(headersMessage)) {
+              // Let Jersey match and filter the request while its
+              // entity is still arriving.
+              final TerminableByteBufInputStream newlyCreatedTerminableByteBufInputStream = this.createTerminableByteBufInputStream(channelHandlerContext.alloc());
+              this.terminableByteBufInputStream = newlyCreatedTerminableByteBufInputStream;
+              containerRequest.setEntityStream(newlyCreatedTerminableByteBufInputStream);
+              out.add(containerRequest);
+            }
           }
         } else {
           throw new IllegalStateException("this.terminableByteBufInputStream != null: " + this.terminableByteBufInputStream);
@@ -532,7 +788,12 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
           } else if (this.containerRequestUnderConstruction == null) {
             throw new IllegalStateException("this.containerRequestUnderConstruction == null && this.terminableByteBufInputStream != null: " + this.terminableByteBufInputStream);
           } else {
-            out.add(this.containerRequestUnderConstruction);
+            if (this.aggregating) {
+              out.add(this.containerRequestUnderConstruction);
+              this.aggregating = false;
+            }
+            // Otherwise the request went out with its headers or its
+            // first chunk.
             this.containerRequestUnderConstruction = null;
             this.terminableByteBufInputStream.terminate();
             this.terminableByteBufInputStream = null;
@@ -557,7 +818,11 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
         } else {
           terminableByteBufInputStream = this.terminableByteBufInputStream;
           this.terminableByteBufInputStream = null;
+          if (this.aggregating) {
+            out.add(this.containerRequestUnderConstruction);
+          }
         }
+        this.aggregating = false;
         assert this.terminableByteBufInputStream == null;
         assert terminableByteBufInputStream != null;
         content.retain(); // see https://github.com/microbean/microbean-jersey-netty/issues/12
@@ -569,7 +834,18 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
           final TerminableByteBufInputStream newlyCreatedTerminableByteBufInputStream = this.createTerminableByteBufInputStream(channelHandlerContext.alloc());
           this.terminableByteBufInputStream = newlyCreatedTerminableByteBufInputStream;
           this.containerRequestUnderConstruction.setEntityStream(newlyCreatedTerminableByteBufInputStream);
-          out.add(this.containerRequestUnderConstruction);
+          if (!this.aggregating) {
+            out.add(this.containerRequestUnderConstruction);
+          }
+        }
+        if (this.aggregating) {
+          this.aggregatedBytes += content.readableBytes();
+          if (this.aggregatedBytes > this.settings.maxAggregatedContentLength) {
+            // The declared length was wrong; stop buffering and
+            // stream the rest.
+            this.aggregating = false;
+            out.add(this.containerRequestUnderConstruction);
+          }
         }
         content.retain(); // see https://github.com/microbean/microbean-jersey-netty/issues/12
         this.terminableByteBufInputStream.addByteBuf(content);
@@ -577,6 +853,126 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
     } else {
       throw new IllegalArgumentException("Unexpected message: " + message);
     }
+    if (this.settings.bodyReadTimeoutNanos > 0L) {
+      if (this.containerRequestUnderConstruction == null) {
+        this.cancelBodyReadTimeout();
+      } else {
+        // Rather than rescheduling a task for every chunk, just
+        // record when this one arrived; the task reschedules itself
+        // if it fires early.
+        this.lastBodyReadNanos = System.nanoTime();
+        if (this.bodyReadTimeout == null) {
+          this.scheduleBodyReadTimeout(channelHandlerContext, this.settings.bodyReadTimeoutNanos);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link ApplicationRouter.Route} that the request
+   * represented by the supplied "headers" message and request {@link
+   * URI} should be handed to, or {@code null} if there is no {@link
+   * ApplicationRoutingHandler} in the pipeline or no route matches.
+   */
+  private final ApplicationRouter.Route route(final ChannelHandlerContext channelHandlerContext,
+                                              final H headersMessage,
+                                              final URI requestUri) {
+    ApplicationRoutingHandler applicationRoutingHandler = this.applicationRoutingHandler;
+    if (applicationRoutingHandler == null) {
+      applicationRoutingHandler = channelHandlerContext.pipeline().get(ApplicationRoutingHandler.class);
+      this.applicationRoutingHandler = applicationRoutingHandler;
+    }
+    final ApplicationRouter.Route returnValue;
+    if (applicationRoutingHandler == null) {
+      returnValue = null;
+    } else {
+      // Compute the path as ContainerRequest#getPath(false) would.
+      String path = requestUri.getRawPath();
+      if (path == null) {
+        path = "";
+      } else {
+        final String basePath = this.baseUri.getRawPath();
+        if (basePath != null && path.startsWith(basePath)) {
+          path = path.substring(basePath.length());
+        }
+      }
+      returnValue = applicationRoutingHandler.getApplicationRouter().match(this.getAuthority(headersMessage), path);
+    }
+    return returnValue;
+  }
+
+  private final Settings getRoutedSettings(final Configuration configuration) {
+    Settings returnValue = this.routedSettings;
+    if (returnValue == null || returnValue.configuration != configuration) {
+      returnValue = new Settings(configuration, this.headersClass);
+      this.routedSettings = returnValue;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Called on the Netty event loop when a request's entity has not
+   * progressed within the {@linkplain
+   * NettyContainerProperties#BODY_READ_TIMEOUT body read timeout}.
+   *
+   * <p>By the time this method is called the request has been
+   * abandoned and its {@link TerminableByteBufInputStream}, if any,
+   * has been {@linkplain TerminableByteBufInputStream#abort(Throwable)
+   * aborted}.</p>
+   *
+   * <p>This implementation {@linkplain ChannelHandlerContext#close()
+   * closes} the channel, since there is no way to resynchronize with
+   * the client.  For an HTTP/2 stream channel this resets the
+   * stream with a {@code CANCEL} error code and leaves the
+   * connection open.</p>
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext} in
+   * effect; will not be {@code null}
+   *
+   * @see NettyContainerProperties#BODY_READ_TIMEOUT
+   */
+  protected void bodyReadTimedOut(final ChannelHandlerContext channelHandlerContext) {
+    channelHandlerContext.close();
+  }
+
+  private final void scheduleBodyReadTimeout(final ChannelHandlerContext channelHandlerContext, final long nanos) {
+    this.bodyReadTimeout =
+      channelHandlerContext.executor().schedule(() -> this.checkBodyReadTimeout(channelHandlerContext), nanos, TimeUnit.NANOSECONDS);
+  }
+
+  private final void cancelBodyReadTimeout() {
+    final ScheduledFuture<?> bodyReadTimeout = this.bodyReadTimeout;
+    if (bodyReadTimeout != null) {
+      this.bodyReadTimeout = null;
+      bodyReadTimeout.cancel(false);
+    }
+  }
+
+  private final void checkBodyReadTimeout(final ChannelHandlerContext channelHandlerContext) {
+    this.bodyReadTimeout = null;
+    if (this.containerRequestUnderConstruction != null) {
+      final long remainingNanos = this.settings.bodyReadTimeoutNanos - (System.nanoTime() - this.lastBodyReadNanos);
+      if (remainingNanos > 0L) {
+        this.scheduleBodyReadTimeout(channelHandlerContext, remainingNanos);
+      } else {
+        if (logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, cn, "checkBodyReadTimeout", "Request entity read timed out on {0}", channelHandlerContext.channel());
+        }
+        this.abortRequestUnderConstruction(new SocketTimeoutException("Request entity read timed out"));
+        this.bodyReadTimedOut(channelHandlerContext);
+      }
+    }
+  }
+
+  private final void abortRequestUnderConstruction(final Throwable cause) {
+    this.cancelBodyReadTimeout();
+    final TerminableByteBufInputStream terminableByteBufInputStream = this.terminableByteBufInputStream;
+    this.terminableByteBufInputStream = null;
+    this.containerRequestUnderConstruction = null;
+    this.aggregating = false;
+    if (terminableByteBufInputStream != null) {
+      terminableByteBufInputStream.abort(cause);
+    }
   }
 
   /**
@@ -616,6 +1012,42 @@ public abstract class AbstractContainerRequestDecoder<T, H extends T, D extends
    */
 
 
+  /**
+   * The decoding settings read from a {@link Configuration}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Settings {
+
+    private final Configuration configuration;
+
+    private final long bodyReadTimeoutNanos;
+
+    private final long maxAggregatedContentLength;
+
+    private final boolean earlyDispatch;
+
+    private final boolean injectChannelHandlerContext;
+
+    private final boolean injectHeaders;
+
+    private Settings(final Configuration configuration, final Class<?> headersClass) {
+      super();
+      this.configuration = configuration;
+      this.bodyReadTimeoutNanos =
+        NettyContainerProperties.getTimeoutNanos(configuration, NettyContainerProperties.BODY_READ_TIMEOUT);
+      this.maxAggregatedContentLength =
+        NettyContainerProperties.getValue(configuration, NettyContainerProperties.MAX_AGGREGATED_CONTENT_LENGTH, Long.valueOf(0L), Long.class).longValue();
+      this.earlyDispatch =
+        NettyContainerProperties.getValue(configuration, NettyContainerProperties.EARLY_DISPATCH, Boolean.FALSE, Boolean.class).booleanValue();
+      final InjectionAnalysis injectionAnalysis = InjectionAnalysis.of(configuration);
+      this.injectChannelHandlerContext = injectionAnalysis.isInjected(ChannelHandlerContext.class);
+      this.injectHeaders = injectionAnalysis.isInjected(headersClass);
+    }
+
+  }
+
   private static final class ParameterizedType implements java.lang.reflect.ParameterizedType {
 
     private final Type rawType;
@@ -16,14 +16,28 @@
  */
 package org.microbean.jersey.netty;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Queue;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -31,8 +45,15 @@ import java.util.function.BiConsumer;
 import java.util.function.UnaryOperator;
 import java.util.function.Supplier;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import io.netty.channel.Channel; // for javadoc only
 import io.netty.channel.ChannelConfig; // for javadoc only
 import io.netty.channel.ChannelHandlerContext;
@@ -114,6 +135,39 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
 
   private final ByteBufCreator byteBufCreator;
 
+  /**
+   * The {@link AdaptiveConcurrencyLimiter.Permit}s carried by
+   * requests admitted by a {@link ConcurrencyLimitHandler} that have
+   * not yet completed, oldest first.
+   *
+   * <p>HTTP 1.1 responses are written in request order, so the
+   * oldest {@link AdaptiveConcurrencyLimiter.Permit} always belongs
+   * to the request that completes next.</p>
+   */
+  private final Queue<AdaptiveConcurrencyLimiter.Permit> permits;
+
+  /**
+   * Whether a {@link ContainerRequest} is being handled on a {@link
+   * Bulkhead} rather than on this {@link
+   * AbstractContainerRequestHandlingResponseWriter}'s own {@link
+   * io.netty.util.concurrent.EventExecutor}.
+   *
+   * <p>Accessed only on this {@link
+   * AbstractContainerRequestHandlingResponseWriter}'s own {@link
+   * io.netty.util.concurrent.EventExecutor}.</p>
+   */
+  private boolean offloaded;
+
+  /**
+   * {@link ContainerRequest}s that arrived while {@link #offloaded}
+   * was {@code true}, oldest first.
+   *
+   * <p>Accessed only on this {@link
+   * AbstractContainerRequestHandlingResponseWriter}'s own {@link
+   * io.netty.util.concurrent.EventExecutor}.</p>
+   */
+  private final Queue<ContainerRequest> pendingRequests;
+
 
   /*
    * Constructors.
@@ -271,6 +325,8 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
     }
     this.flushThreshold = Math.max(0, flushThreshold);
     this.byteBufCreator = byteBufCreator;
+    this.permits = new ConcurrentLinkedQueue<>();
+    this.pendingRequests = new ArrayDeque<>(2);
   }
 
 
@@ -329,6 +385,29 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
    * and will invoke {@link
    * ApplicationHandler#handle(ContainerRequest)}.
    *
+   * <p>If an {@link ApplicationRoutingHandler} earlier in the
+   * pipeline has routed the {@link ContainerRequest} to a particular
+   * {@link ApplicationHandler}, that {@link ApplicationHandler} is
+   * used instead of the one supplied at construction time.</p>
+   *
+   * <p>If a {@link ConcurrencyLimitHandler} earlier in the pipeline
+   * has admitted the {@link ContainerRequest}, the permit it carries
+   * is released when the request completes.</p>
+   *
+   * <p>If the configuration of the {@link ApplicationHandler} sets
+   * the {@link NettyContainerProperties#BULKHEADS} property, and the
+   * {@link Bulkheads} it names assign the {@link ContainerRequest} to
+   * a {@link Bulkhead}, the request is handled on that {@link
+   * Bulkhead}'s threads instead of on this {@link
+   * AbstractContainerRequestHandlingResponseWriter}'s own {@link
+   * io.netty.util.concurrent.EventExecutor}; any {@link
+   * ContainerRequest}s that arrive on the same channel in the
+   * meantime wait until it has been handled.  A request the {@link
+   * Bulkhead} will not accept is refused without being handled: over
+   * HTTP 1.1 a {@code 503 Service Unavailable} response is written,
+   * and over HTTP/2 the stream is reset with a {@code REFUSED_STREAM}
+   * error code.</p>
+   *
    * <p>In all other cases this method will simply call {@link
    * ChannelInboundHandlerAdapter#channelRead(ChannelHandlerContext,
    * Object)} with the supplied {@code message}.</p>
@@ -358,21 +437,121 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
   public final void channelRead(final ChannelHandlerContext channelHandlerContext,
                                 final Object message)
     throws Exception {
+    if (!this.offloaded) {
+      this.dispatch(channelHandlerContext, message);
+    } else if (message instanceof ContainerRequest) {
+      // Responses on a channel are written in request order, and this
+      // writer serves one request at a time.
+      this.pendingRequests.add((ContainerRequest)message);
+    } else {
+      // A Bulkhead's thread owns this.channelHandlerContext.
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  private final void dispatch(final ChannelHandlerContext channelHandlerContext,
+                              final Object message)
+    throws Exception {
     if (this.getChannelHandlerContext() != null) {
       throw new IllegalStateException("this.getChannelHandlerContext() != null: " + this.getChannelHandlerContext());
     }
+    Runnable offloadedTask = null;
+    Bulkhead bulkhead = null;
     this.channelHandlerContext = Objects.requireNonNull(channelHandlerContext);
     try {
       if (message instanceof ContainerRequest) {
         final ContainerRequest containerRequest = (ContainerRequest)message;
+        final Object permit = containerRequest.getProperty(ConcurrencyLimitHandler.PERMIT_PROPERTY_NAME);
+        if (permit instanceof AdaptiveConcurrencyLimiter.Permit) {
+          this.permits.add((AdaptiveConcurrencyLimiter.Permit)permit);
+        }
         containerRequest.setWriter(this);
-        this.applicationHandlerSupplier.get().handle(containerRequest);
+        // Lets a DirectEntityWriterInterceptor know that we can
+        // write certain entities ourselves.
+        containerRequest.setProperty(AbstractContainerRequestHandlingResponseWriter.class.getName(), this);
+        // An ApplicationRoutingHandler may have chosen a different
+        // application for this request.
+        final Object routedApplicationHandler =
+          containerRequest.getProperty(ApplicationRoutingHandler.APPLICATION_HANDLER_PROPERTY_NAME);
+        ApplicationHandler applicationHandler;
+        if (routedApplicationHandler instanceof ApplicationHandler) {
+          applicationHandler = (ApplicationHandler)routedApplicationHandler;
+          // A routed ApplicationHandler cannot be chosen again here;
+          // if it has been drained in the meantime, it handles the
+          // request anyway.
+          SimpleContainer.beginDispatch(applicationHandler, containerRequest);
+        } else {
+          applicationHandler = this.applicationHandlerSupplier.get();
+          while (!SimpleContainer.beginDispatch(applicationHandler, containerRequest)) {
+            // A SimpleContainer swapped it out and drained it since
+            // we obtained it.
+            applicationHandler = this.applicationHandlerSupplier.get();
+          }
+        }
+        final Bulkheads bulkheads =
+          NettyContainerProperties.getValue(applicationHandler.getConfiguration(), NettyContainerProperties.BULKHEADS, null, Bulkheads.class);
+        bulkhead = bulkheads == null ? null : bulkheads.select(applicationHandler, containerRequest);
+        if (bulkhead == null) {
+          applicationHandler.handle(containerRequest);
+        } else {
+          final ApplicationHandler offloadedApplicationHandler = applicationHandler;
+          offloadedTask = () -> this.handleOffloaded(channelHandlerContext, offloadedApplicationHandler, containerRequest);
+        }
       } else {
         super.channelRead(channelHandlerContext, message);
       }
     } finally {
       this.channelHandlerContext = null;
     }
+    if (offloadedTask != null) {
+      // Only now that this thread is done with
+      // this.channelHandlerContext may the bulkhead's thread take it
+      // over.
+      this.offloaded = true;
+      if (!bulkhead.execute(offloadedTask)) {
+        this.offloaded = false;
+        if (logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, cn, "channelRead", "Refusing {0}; {1}", new Object[] { message, bulkhead });
+        }
+        this.releasePermit(false);
+        SimpleContainer.abandonDispatch((ContainerRequest)message);
+        ImmediateResponses.refuse(channelHandlerContext, (ContainerRequest)message);
+        this.drainPendingRequests(channelHandlerContext);
+      }
+    }
+  }
+
+  /**
+   * Runs on a {@link Bulkhead}'s thread and {@linkplain
+   * ApplicationHandler#handle(ContainerRequest) handles} the supplied
+   * {@link ContainerRequest}, then resumes processing on this {@link
+   * AbstractContainerRequestHandlingResponseWriter}'s own {@link
+   * io.netty.util.concurrent.EventExecutor}.
+   */
+  private final void handleOffloaded(final ChannelHandlerContext channelHandlerContext,
+                                     final ApplicationHandler applicationHandler,
+                                     final ContainerRequest containerRequest) {
+    this.channelHandlerContext = channelHandlerContext;
+    try {
+      applicationHandler.handle(containerRequest);
+    } finally {
+      this.channelHandlerContext = null;
+      channelHandlerContext.executor().execute(() -> {
+          this.offloaded = false;
+          this.drainPendingRequests(channelHandlerContext);
+        });
+    }
+  }
+
+  private final void drainPendingRequests(final ChannelHandlerContext channelHandlerContext) {
+    ContainerRequest containerRequest;
+    while (!this.offloaded && (containerRequest = this.pendingRequests.poll()) != null) {
+      try {
+        this.channelRead(channelHandlerContext, containerRequest);
+      } catch (final Exception exception) {
+        channelHandlerContext.fireExceptionCaught(exception);
+      }
+    }
   }
 
   /**
@@ -425,6 +604,41 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
     return this.channelHandlerContext;
   }
 
+  /**
+   * Overrides {@link
+   * ChannelInboundHandlerAdapter#handlerRemoved(ChannelHandlerContext)}
+   * to release any outstanding {@link ConcurrencyLimitHandler}
+   * permits, since the requests that hold them can no longer
+   * complete, and to
+   * discard any requests waiting for a {@link Bulkhead}.
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext} in
+   * effect; must not be {@code null}
+   *
+   * @exception Exception if {@link
+   * ChannelInboundHandlerAdapter#handlerRemoved(ChannelHandlerContext)}
+   * throws an {@link Exception}
+   */
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    ContainerRequest pendingRequest;
+    while ((pendingRequest = this.pendingRequests.poll()) != null) {
+      ImmediateResponses.discardEntity(pendingRequest);
+    }
+    AdaptiveConcurrencyLimiter.Permit permit;
+    while ((permit = this.permits.poll()) != null) {
+      permit.release(false);
+    }
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  private final void releasePermit(final boolean success) {
+    final AdaptiveConcurrencyLimiter.Permit permit = this.permits.poll();
+    if (permit != null) {
+      permit.release(success);
+    }
+  }
+
   /*
    * ContainerResponseWriter overrides.
    */
@@ -490,6 +704,23 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
    *
    * <p>In all other cases, this method returns {@code null}.</p>
    *
+   * <p>If the response is a {@code text/event-stream}, the {@link
+   * OutputStream} returned is a {@link ServerSentEventOutputStream}
+   * that flushes at the end of each event and sends {@linkplain
+   * NettyContainerProperties#SSE_HEARTBEAT_INTERVAL heartbeats} from
+   * the channel's event loop.</p>
+   *
+   * <p>If a {@link DirectEntityWriterInterceptor} has arranged for
+   * the response entity to be written directly, the supplied {@code
+   * contentLength} is ignored in favor of the size of the entity, the
+   * entity is written by either the {@link
+   * #writeFileContent(FileChannel, long, ContainerResponse)} method or
+   * the {@link #writeByteBufContent(ByteBuf, ContainerResponse)}
+   * method, and this method returns {@code null}.  The same is true
+   * of a {@link ServerSentEventBroadcaster.Subscription}, except that
+   * the response is left open and handed to its {@link
+   * ServerSentEventBroadcaster}.</p>
+   *
    * @param contentLength the content length as determined by the
    * logic encapsulated by the {@link
    * ApplicationHandler#handle(ContainerRequest)} method; a value less
@@ -505,6 +736,9 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
    * @exception NullPointerException if {@code containerResponse} is
    * {@code null}
    *
+   * @exception ContainerException if an entity that was to be written
+   * directly could not be read
+   *
    * @see #writeStatusAndHeaders(long, ContainerResponse)
    *
    * @see #createOutputStream(long, ContainerResponse)
@@ -515,14 +749,41 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
   public final OutputStream writeResponseStatusAndHeaders(final long contentLength,
                                                           final ContainerResponse containerResponse) {
     final OutputStream returnValue;
-    if (this.writeStatusAndHeaders(contentLength, Objects.requireNonNull(containerResponse)) && contentLength != 0L) {
-      returnValue = this.createOutputStream(contentLength, containerResponse);
+    final ContainerRequest containerRequest = Objects.requireNonNull(containerResponse).getRequestContext();
+    // Status, headers and direct entities are written to the
+    // ChannelHandlerContext directly and must not overtake an earlier
+    // response's queued content.
+    AbstractChannelOutboundInvokingOutputStream.handOffQueuedWrites(Objects.requireNonNull(this.getChannelHandlerContext()).channel());
+    final Object directEntity =
+      containerRequest == null ? null : containerRequest.getProperty(DirectEntityWriterInterceptor.ENTITY_PROPERTY_NAME);
+    if (directEntity != null) {
+      containerRequest.removeProperty(DirectEntityWriterInterceptor.ENTITY_PROPERTY_NAME);
+      this.writeDirectEntity(directEntity, containerResponse);
+      returnValue = null;
+    } else if (this.writeStatusAndHeaders(contentLength, containerResponse) && contentLength != 0L) {
+      final OutputStream outputStream = this.createOutputStream(contentLength, containerResponse);
+      if (outputStream != null && isEventStream(containerResponse)) {
+        returnValue = this.createEventStream(outputStream, containerRequest);
+      } else {
+        returnValue = outputStream;
+      }
     } else {
       returnValue = null;
     }
     return returnValue;
   }
 
+  private final ServerSentEventOutputStream createEventStream(final OutputStream outputStream,
+                                                              final ContainerRequest containerRequest) {
+    final long heartbeatIntervalNanos =
+      NettyContainerProperties.getTimeoutNanos(containerRequest == null ? null : containerRequest.getConfiguration(),
+                                               NettyContainerProperties.SSE_HEARTBEAT_INTERVAL);
+    final ChannelHandlerContext channelHandlerContext = Objects.requireNonNull(this.getChannelHandlerContext());
+    // Heartbeats are scheduled on the event loop, not on the
+    // (possibly busy) executor this writer runs on.
+    return new ServerSentEventOutputStream(outputStream, channelHandlerContext.channel().eventLoop(), heartbeatIntervalNanos);
+  }
+
   /**
    * Writes the status and headers portion of the response present in
    * the supplied {@link ContainerResponse} and returns {@code true}
@@ -589,6 +850,162 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
   protected abstract AbstractChannelOutboundInvokingOutputStream<? extends T> createOutputStream(final long contentLength,
                                                                                                  final ContainerResponse containerResponse);
 
+  /**
+   * Writes the entire contents of the supplied {@link FileChannel} as
+   * the body of the response whose status and headers have just been
+   * {@linkplain #writeStatusAndHeaders(long, ContainerResponse)
+   * written}, and ends the response.
+   *
+   * <p>Ownership of the {@link FileChannel} passes to this method,
+   * which must arrange for it to be closed.</p>
+   *
+   * <p>This implementation copies the file into the {@link
+   * OutputStream} returned by the {@link #createOutputStream(long,
+   * ContainerResponse)} method.  Overrides will normally hand the
+   * file to Netty instead.</p>
+   *
+   * @param fileChannel the {@link FileChannel} to write; must not be
+   * {@code null}
+   *
+   * @param length the number of bytes to write; always greater than
+   * {@code 0L}
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code fileChannel} or {@code
+   * containerResponse} is {@code null}
+   *
+   * @exception IOException if an input or output error occurs
+   *
+   * @see DirectEntityWriterInterceptor
+   */
+  protected void writeFileContent(final FileChannel fileChannel,
+                                  final long length,
+                                  final ContainerResponse containerResponse)
+    throws IOException {
+    try (final InputStream inputStream = Channels.newInputStream(fileChannel);
+         final OutputStream outputStream = this.createOutputStream(length, containerResponse)) {
+      if (outputStream != null) {
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) >= 0) {
+          outputStream.write(buffer, 0, bytesRead);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the supplied {@link ByteBuf} as the body of the response
+   * whose status and headers have just been {@linkplain
+   * #writeStatusAndHeaders(long, ContainerResponse) written}, and ends
+   * the response.
+   *
+   * <p>Ownership of the {@link ByteBuf} passes to this method, which
+   * must arrange for it to be {@linkplain ByteBuf#release()
+   * released}.  It is a retained duplicate (or wrapper) of the
+   * application's entity, so its contents must not be modified.</p>
+   *
+   * <p>This implementation copies the {@link ByteBuf}'s readable
+   * bytes into the {@link OutputStream} returned by the {@link
+   * #createOutputStream(long, ContainerResponse)} method.  Overrides
+   * will normally write the {@link ByteBuf} itself to the
+   * channel.</p>
+   *
+   * @param content the {@link ByteBuf} to write; must not be {@code
+   * null} and must be {@linkplain ByteBuf#isReadable() readable}
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code content} or {@code
+   * containerResponse} is {@code null}
+   *
+   * @exception IOException if an output error occurs
+   *
+   * @see DirectEntityWriterInterceptor
+   */
+  protected void writeByteBufContent(final ByteBuf content,
+                                     final ContainerResponse containerResponse)
+    throws IOException {
+    try (final OutputStream outputStream = this.createOutputStream(content.readableBytes(), containerResponse)) {
+      if (outputStream != null) {
+        content.getBytes(content.readerIndex(), outputStream, content.readableBytes());
+      }
+    } finally {
+      content.release();
+    }
+  }
+
+  private final void writeDirectEntity(final Object entity, final ContainerResponse containerResponse) {
+    if (entity instanceof ServerSentEventBroadcaster.Subscription) {
+      if (containerResponse.getMediaType() == null) {
+        containerResponse.getHeaders().putSingle(HttpHeaders.CONTENT_TYPE, MediaType.SERVER_SENT_EVENTS);
+      }
+      if (this.writeStatusAndHeaders(-1L, containerResponse)) {
+        final OutputStream outputStream = this.createOutputStream(-1L, containerResponse);
+        if (outputStream != null) {
+          ((ServerSentEventBroadcaster.Subscription)entity)
+            .attach(this.createEventStream(outputStream, containerResponse.getRequestContext()),
+                    this.getChannelHandlerContext().channel());
+        }
+      }
+    } else if (entity instanceof ByteBuf || entity instanceof ByteBuffer) {
+      final ByteBuf content;
+      if (entity instanceof ByteBuf) {
+        content = ((ByteBuf)entity).retainedDuplicate();
+      } else {
+        // Does not disturb the ByteBuffer's position.
+        content = Unpooled.wrappedBuffer((ByteBuffer)entity);
+      }
+      final long length = content.readableBytes();
+      boolean handedOff = false;
+      try {
+        if (this.writeStatusAndHeaders(length, containerResponse) && length != 0L) {
+          handedOff = true;
+          this.writeByteBufContent(content, containerResponse);
+        }
+      } catch (final IOException ioException) {
+        throw new ContainerException(ioException.getMessage(), ioException);
+      } finally {
+        if (!handedOff) {
+          content.release();
+        }
+      }
+    } else {
+      this.writeFileEntity(entity, containerResponse);
+    }
+  }
+
+  private final void writeFileEntity(final Object entity, final ContainerResponse containerResponse) {
+    FileChannel fileChannel = null;
+    try {
+      if (entity instanceof File) {
+        fileChannel = FileChannel.open(((File)entity).toPath(), StandardOpenOption.READ);
+      } else if (entity instanceof Path) {
+        fileChannel = FileChannel.open((Path)entity, StandardOpenOption.READ);
+      } else {
+        throw new IllegalArgumentException("entity: " + entity);
+      }
+      final long length = fileChannel.size();
+      if (this.writeStatusAndHeaders(length, containerResponse) && length != 0L) {
+        this.writeFileContent(fileChannel, length, containerResponse);
+      } else {
+        fileChannel.close();
+      }
+    } catch (final IOException ioException) {
+      if (fileChannel != null) {
+        try {
+          fileChannel.close();
+        } catch (final IOException suppressMe) {
+          ioException.addSuppressed(suppressMe);
+        }
+      }
+      throw new ContainerException(ioException.getMessage(), ioException);
+    }
+  }
+
   /**
    * Returns the minimum number of bytes that an {@link
    * AbstractChannelOutboundInvokingOutputStream} returned by the
@@ -628,6 +1045,32 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
     return this.flushThreshold;
   }
 
+  /**
+   * Returns the minimum number of bytes that an {@link
+   * AbstractChannelOutboundInvokingOutputStream} returned by the
+   * {@link #createOutputStream(long, ContainerResponse)} method for
+   * the supplied {@link ContainerResponse} must write before an
+   * automatic {@linkplain
+   * AbstractChannelOutboundInvokingOutputStream#flush() flush} may
+   * take place.
+   *
+   * <p>This method returns {@link Integer#MAX_VALUE} for {@code
+   * text/event-stream} responses, which are flushed at the end of
+   * each event instead (see {@link ServerSentEventOutputStream}), and
+   * the return value of {@link #getFlushThreshold()} otherwise.</p>
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; may be {@code null}
+   *
+   * @return the flush threshold for the supplied {@link
+   * ContainerResponse}; always {@code 0} or a positive {@code int}
+   *
+   * @see #getFlushThreshold()
+   */
+  protected final int getFlushThreshold(final ContainerResponse containerResponse) {
+    return isEventStream(containerResponse) ? Integer.MAX_VALUE : this.getFlushThreshold();
+  }
+
   /**
    * Returns a {@link ByteBufCreator} that may be used to create the
    * {@link AbstractChannelOutboundInvokingOutputStream}
@@ -669,7 +1112,9 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
    * ApplicationHandler#handle(ContainerRequest)} method, but not
    * both.</p>
    *
-   * <p>This implementation does nothing.</p>
+   * <p>This implementation reports the time the request took to the
+   * {@link AdaptiveConcurrencyLimiter} that admitted it, if there is
+   * one.  Overrides must call it.</p>
    *
    * @see ContainerResponseWriter#commit()
    *
@@ -677,7 +1122,7 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
    */
   @Override
   public void commit() {
-
+    this.releasePermit(true);
   }
 
   @Override
@@ -752,7 +1197,11 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
    */
   @Override
   public final void failure(final Throwable failureCause) {
+    this.releasePermit(false);
     final ChannelHandlerContext channelHandlerContext = Objects.requireNonNull(this.getChannelHandlerContext());
+    // The failure message must not overtake whatever part of the
+    // response has already been queued.
+    AbstractChannelOutboundInvokingOutputStream.handOffQueuedWrites(channelHandlerContext.channel());
     Throwable outerWriteProblem = null;
     try {
       this.writeFailureMessage(failureCause);
@@ -863,4 +1312,22 @@ public abstract class AbstractContainerRequestHandlingResponseWriter<T> extends
     }
   }
 
+  /**
+   * Returns {@code true} if the supplied {@link ContainerResponse}
+   * has a {@code text/event-stream} body.
+   *
+   * @param containerResponse the {@link ContainerResponse} to test;
+   * may be {@code null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link ContainerResponse}
+   * has a {@code text/event-stream} body
+   */
+  static final boolean isEventStream(final ContainerResponse containerResponse) {
+    final MediaType mediaType = containerResponse == null ? null : containerResponse.getMediaType();
+    return
+      mediaType != null &&
+      MediaType.SERVER_SENT_EVENTS_TYPE.getType().equalsIgnoreCase(mediaType.getType()) &&
+      MediaType.SERVER_SENT_EVENTS_TYPE.getSubtype().equalsIgnoreCase(mediaType.getSubtype());
+  }
+
 }
@@ -0,0 +1,464 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.glassfish.jersey.server.ApplicationHandler; // for javadoc only
+import org.glassfish.jersey.server.ContainerRequest; // for javadoc only
+
+/**
+ * A thread-safe limit on the number of requests that may be inside
+ * {@link ApplicationHandler#handle(ContainerRequest)} at once that
+ * tunes itself from the latencies it observes, in the manner of
+ * additive-increase/multiplicative-decrease (AIMD) congestion
+ * control.
+ *
+ * <p>Each completed request contributes a latency sample.  Samples
+ * feed two exponentially weighted moving averages: a short-term one
+ * that tracks current latency, and a long-term one that serves as a
+ * baseline.  When the short-term average rises above the baseline by
+ * more than a {@linkplain #getTolerance() tolerance} factor, the limit
+ * is multiplied by a {@linkplain #getBackoffRatio() backoff ratio};
+ * otherwise, provided at least half of the current limit was
+ * actually in use when the request started, the limit grows by one.
+ * The limit never leaves the range {@code [}{@link
+ * #getMinLimit()}{@code , }{@link #getMaxLimit()}{@code ]}.  A lasting
+ * change in latency is eventually absorbed into the baseline, so the
+ * limit recovers once latency is stable again, even if it is stable
+ * at a higher level.</p>
+ *
+ * <p>Instances of this class also serve as a source of metrics via
+ * their {@code get*} methods.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ConcurrencyLimitHandler
+ *
+ * @see NettyContainerProperties#CONCURRENCY_LIMIT
+ *
+ * @see NettyContainerProperties#MAX_CONCURRENCY_LIMIT
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final double SHORT_SMOOTHING = 0.2;
+
+  private static final double LONG_SMOOTHING = 0.01;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final double tolerance;
+
+  private final double backoffRatio;
+
+  private final AtomicInteger inFlightRequests;
+
+  private final LongAdder admittedRequests;
+
+  private final LongAdder rejectedRequests;
+
+  private volatile int limit;
+
+  private double shortLatencyNanos;
+
+  private double longLatencyNanos;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link AdaptiveConcurrencyLimiter} with a minimum
+   * limit of {@code 1}, a tolerance of {@code 1.5} and a backoff
+   * ratio of {@code 0.9}.
+   *
+   * @param initialLimit the initial limit; will be clamped to the
+   * range {@code [1, maxLimit]}
+   *
+   * @param maxLimit the maximum limit; if less than or equal to
+   * {@code 0} {@link Integer#MAX_VALUE} will be used instead
+   *
+   * @see #AdaptiveConcurrencyLimiter(int, int, int, double, double)
+   */
+  public AdaptiveConcurrencyLimiter(final int initialLimit, final int maxLimit) {
+    this(initialLimit, 1, maxLimit, 1.5, 0.9);
+  }
+
+  /**
+   * Creates a new {@link AdaptiveConcurrencyLimiter}.
+   *
+   * @param initialLimit the initial limit; will be clamped to the
+   * range {@code [minLimit, maxLimit]}
+   *
+   * @param minLimit the minimum limit; if less than {@code 1} {@code
+   * 1} will be used instead
+   *
+   * @param maxLimit the maximum limit; if less than or equal to
+   * {@code 0} {@link Integer#MAX_VALUE} will be used instead
+   *
+   * @param tolerance the factor by which current latency must exceed
+   * baseline latency before the limit is reduced; must be greater
+   * than or equal to {@code 1.0}
+   *
+   * @param backoffRatio the factor by which the limit is multiplied
+   * when it is reduced; must be greater than {@code 0.0} and less
+   * than {@code 1.0}
+   *
+   * @exception IllegalArgumentException if {@code minLimit} is
+   * greater than a positive {@code maxLimit}, or if {@code tolerance}
+   * or {@code backoffRatio} is out of range
+   */
+  public AdaptiveConcurrencyLimiter(final int initialLimit,
+                                    final int minLimit,
+                                    final int maxLimit,
+                                    final double tolerance,
+                                    final double backoffRatio) {
+    super();
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = maxLimit <= 0 ? Integer.MAX_VALUE : maxLimit;
+    if (this.minLimit > this.maxLimit) {
+      throw new IllegalArgumentException("minLimit > maxLimit: " + minLimit + " > " + maxLimit);
+    }
+    if (!(tolerance >= 1.0)) {
+      throw new IllegalArgumentException("tolerance < 1.0: " + tolerance);
+    }
+    if (!(backoffRatio > 0.0 && backoffRatio < 1.0)) {
+      throw new IllegalArgumentException("backoffRatio: " + backoffRatio);
+    }
+    this.tolerance = tolerance;
+    this.backoffRatio = backoffRatio;
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    this.inFlightRequests = new AtomicInteger();
+    this.admittedRequests = new LongAdder();
+    this.rejectedRequests = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the current limit.
+   *
+   * @return the current limit; always between {@link #getMinLimit()}
+   * and {@link #getMaxLimit()}, inclusive
+   */
+  public final int getLimit() {
+    return this.limit;
+  }
+
+  /**
+   * Returns the minimum limit.
+   *
+   * @return the minimum limit; always {@code 1} or greater
+   */
+  public final int getMinLimit() {
+    return this.minLimit;
+  }
+
+  /**
+   * Returns the maximum limit.
+   *
+   * @return the maximum limit
+   */
+  public final int getMaxLimit() {
+    return this.maxLimit;
+  }
+
+  /**
+   * Returns the factor by which current latency must exceed baseline
+   * latency before the limit is reduced.
+   *
+   * @return the tolerance; always {@code 1.0} or greater
+   */
+  public final double getTolerance() {
+    return this.tolerance;
+  }
+
+  /**
+   * Returns the factor by which the limit is multiplied when it is
+   * reduced.
+   *
+   * @return the backoff ratio; always greater than {@code 0.0} and
+   * less than {@code 1.0}
+   */
+  public final double getBackoffRatio() {
+    return this.backoffRatio;
+  }
+
+  /**
+   * Returns the number of requests currently in flight.
+   *
+   * @return the number of requests currently in flight; never
+   * negative
+   */
+  public final int getInFlightRequests() {
+    return this.inFlightRequests.get();
+  }
+
+  /**
+   * Returns the number of requests admitted so far.
+   *
+   * @return the number of requests admitted so far
+   */
+  public final long getAdmittedRequests() {
+    return this.admittedRequests.sum();
+  }
+
+  /**
+   * Returns the number of requests rejected so far.
+   *
+   * @return the number of requests rejected so far
+   */
+  public final long getRejectedRequests() {
+    return this.rejectedRequests.sum();
+  }
+
+  /**
+   * Returns the current baseline (long-term average) latency in the
+   * supplied {@link TimeUnit}, or {@code 0} if no samples have been
+   * recorded.
+   *
+   * @param timeUnit the {@link TimeUnit} in which to express the
+   * result; must not be {@code null}
+   *
+   * @return the current baseline latency
+   *
+   * @exception NullPointerException if {@code timeUnit} is {@code
+   * null}
+   */
+  public final long getBaselineLatency(final TimeUnit timeUnit) {
+    final double longLatencyNanos;
+    synchronized (this) {
+      longLatencyNanos = this.longLatencyNanos;
+    }
+    return timeUnit.convert((long)longLatencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Admits a request if the current limit would not be exceeded, and
+   * returns {@code true} if it was admitted.
+   *
+   * <p>Every successful call must eventually be balanced by a call
+   * to either {@link #release(long, int)} or {@link #release()}.</p>
+   *
+   * @return {@code true} if the request was admitted; {@code false}
+   * if it must be rejected
+   *
+   * @see #release(long, int)
+   *
+   * @see #release()
+   */
+  public final boolean tryAcquire() {
+    boolean returnValue = false;
+    int inFlightRequests;
+    while ((inFlightRequests = this.inFlightRequests.get()) < this.limit) {
+      if (this.inFlightRequests.compareAndSet(inFlightRequests, inFlightRequests + 1)) {
+        returnValue = true;
+        break;
+      }
+    }
+    if (returnValue) {
+      this.admittedRequests.increment();
+    } else {
+      this.rejectedRequests.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Admits a request if the current limit would not be exceeded, and
+   * returns a {@link Permit} recording its admission, or {@code null}
+   * if it was not admitted.
+   *
+   * <p>Every non-{@code null} {@link Permit} must eventually be
+   * {@linkplain Permit#release(boolean) released}.</p>
+   *
+   * @return a {@link Permit}, or {@code null}
+   *
+   * @see #tryAcquire()
+   */
+  final Permit tryAcquirePermit() {
+    return this.tryAcquire() ? new Permit(this, System.nanoTime(), this.getInFlightRequests()) : null;
+  }
+
+  /**
+   * Records that a request {@linkplain #tryAcquire() admitted}
+   * earlier has completed normally and adjusts the limit
+   * accordingly.
+   *
+   * @param latencyNanos the time the request took, in nanoseconds;
+   * if not positive, no sample is recorded
+   *
+   * @param inFlightRequests the number of requests that were in
+   * flight, including this one, when it was admitted
+   *
+   * @see #tryAcquire()
+   */
+  public final void release(final long latencyNanos, final int inFlightRequests) {
+    this.inFlightRequests.decrementAndGet();
+    if (latencyNanos > 0L) {
+      synchronized (this) {
+        if (this.longLatencyNanos <= 0.0) {
+          this.shortLatencyNanos = latencyNanos;
+          this.longLatencyNanos = latencyNanos;
+        } else {
+          this.shortLatencyNanos += SHORT_SMOOTHING * (latencyNanos - this.shortLatencyNanos);
+          this.longLatencyNanos += LONG_SMOOTHING * (latencyNanos - this.longLatencyNanos);
+        }
+        final int limit = this.limit;
+        final int newLimit;
+        if (this.shortLatencyNanos > this.longLatencyNanos * this.tolerance) {
+          newLimit = Math.max(this.minLimit, (int)(limit * this.backoffRatio));
+          // Require fresh evidence before backing off again, so that
+          // one latency spike does not collapse the limit.
+          this.shortLatencyNanos = this.longLatencyNanos;
+        } else if (inFlightRequests * 2 >= limit && limit < this.maxLimit) {
+          newLimit = limit + 1;
+        } else {
+          newLimit = limit;
+        }
+        if (newLimit != limit) {
+          this.limit = newLimit;
+        }
+      }
+    }
+  }
+
+  /**
+   * Records that a request {@linkplain #tryAcquire() admitted}
+   * earlier has completed abnormally, or was abandoned, without
+   * contributing a latency sample.
+   *
+   * @see #tryAcquire()
+   */
+  public final void release() {
+    this.inFlightRequests.decrementAndGet();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * AdaptiveConcurrencyLimiter}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link AdaptiveConcurrencyLimiter}
+   */
+  @Override
+  public final String toString() {
+    return
+      "inFlight: " + this.getInFlightRequests() + "/" + this.getLimit() +
+      ", admitted: " + this.getAdmittedRequests() +
+      ", rejected: " + this.getRejectedRequests();
+  }
+
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A record of a request's admission by an {@link
+   * AdaptiveConcurrencyLimiter} that may be {@linkplain
+   * #release(boolean) released} safely from any thread, and more than
+   * once.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see AdaptiveConcurrencyLimiter#tryAcquirePermit()
+   */
+  static final class Permit {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    private final long startNanos;
+
+    private final int inFlightRequests;
+
+    private final AtomicBoolean released;
+
+    private Permit(final AdaptiveConcurrencyLimiter limiter, final long startNanos, final int inFlightRequests) {
+      super();
+      this.limiter = limiter;
+      this.startNanos = startNanos;
+      this.inFlightRequests = inFlightRequests;
+      this.released = new AtomicBoolean();
+    }
+
+    /**
+     * Returns {@code true} if this {@link Permit} has been
+     * {@linkplain #release(boolean) released}.
+     *
+     * @return {@code true} if this {@link Permit} has been released
+     */
+    final boolean isReleased() {
+      return this.released.get();
+    }
+
+    /**
+     * Returns this {@link Permit} to the {@link
+     * AdaptiveConcurrencyLimiter} that issued it, if it has not been
+     * returned already.
+     *
+     * @param success whether the request completed normally, in
+     * which case the time since its admission is recorded as a
+     * latency sample
+     *
+     * @see AdaptiveConcurrencyLimiter#release(long, int)
+     *
+     * @see AdaptiveConcurrencyLimiter#release()
+     */
+    final void release(final boolean success) {
+      if (this.released.compareAndSet(false, true)) {
+        if (success) {
+          this.limiter.release(System.nanoTime() - this.startNanos, this.inFlightRequests);
+        } else {
+          this.limiter.release();
+        }
+      }
+    }
+
+  }
+
+}
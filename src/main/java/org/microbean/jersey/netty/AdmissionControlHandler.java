@@ -0,0 +1,230 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Objects;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline; // for javadoc only
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits between an {@link
+ * AbstractContainerRequestDecoder} and an {@link
+ * AbstractContainerRequestHandlingResponseWriter} and, on the Netty
+ * event loop, refuses {@link ContainerRequest}s that an {@link
+ * AdmissionController} will not admit, so that they never reach the
+ * Jersey {@link EventExecutor}.
+ *
+ * <p>Refused HTTP 1.1 requests receive a {@code 503 Service
+ * Unavailable} response; refused HTTP/2 requests have their streams
+ * reset with a {@code REFUSED_STREAM} error code, which tells the
+ * client the request was not processed and may be retried.  Any
+ * request entity is discarded.</p>
+ *
+ * <p>The queue depth consulted is the number of {@linkplain
+ * SingleThreadEventExecutor#pendingTasks() pending tasks} of the
+ * {@link EventExecutor} on which the {@link
+ * AbstractContainerRequestHandlingResponseWriter} in the same {@link
+ * ChannelPipeline} runs.  A request stops being in flight when the
+ * last part of its response is written, or when its channel becomes
+ * inactive.</p>
+ *
+ * <p>An HTTP 1.1 request that arrives (pipelined) while an earlier
+ * request on the same connection is still in flight counts against
+ * the {@linkplain AdmissionController#getMaxInFlightRequests()
+ * in-flight limit} like any other.  Since its refusal cannot be
+ * written ahead of the earlier responses, a refused pipelined
+ * request is held until they have been written, and is then answered
+ * with a {@code 503 Service Unavailable} response carrying a {@code
+ * Connection: close} header, after which the connection is closed.
+ * Requests pipelined behind a refused one are discarded.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}, but any number
+ * of them may share an {@link AdmissionController}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see AdmissionController
+ */
+public final class AdmissionControlHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = AdmissionControlHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final HttpHeaders CONNECTION_CLOSE =
+    new DefaultHttpHeaders().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final AdmissionController admissionController;
+
+  private SingleThreadEventExecutor jerseyEventExecutor;
+
+  private int inFlightRequests;
+
+  // A pipelined HTTP 1.1 request that was refused and that will be
+  // answered, and the connection closed, once the requests ahead of
+  // it have been answered.
+  private ContainerRequest refusedRequest;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link AdmissionControlHandler}.
+   *
+   * @param admissionController the {@link AdmissionController} that
+   * decides whether requests are admitted; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code admissionController} is
+   * {@code null}
+   */
+  public AdmissionControlHandler(final AdmissionController admissionController) {
+    super();
+    this.admissionController = Objects.requireNonNull(admissionController);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      if (this.refusedRequest != null) {
+        // The connection is about to be closed.
+        ImmediateResponses.discardEntity(containerRequest);
+      } else {
+        final boolean pipelined = this.inFlightRequests > 0 && !ImmediateResponses.isHttp2(channelHandlerContext.channel());
+        // A pipelined request would not wait in the Jersey queue
+        // behind others, but behind the requests ahead of it on its
+        // own connection, so only the in-flight limit applies.
+        final boolean admitted = this.admissionController.tryAcquire(pipelined ? 0 : this.getQueueDepth(channelHandlerContext));
+        if (admitted) {
+          this.inFlightRequests++;
+          super.channelRead(channelHandlerContext, message);
+        } else {
+          if (logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "channelRead", "Refusing {0}; {1}", new Object[] { message, this.admissionController });
+          }
+          if (pipelined) {
+            ImmediateResponses.discardEntity(containerRequest);
+            this.refusedRequest = containerRequest;
+          } else {
+            ImmediateResponses.refuse(channelHandlerContext, containerRequest);
+          }
+        }
+      }
+    } else {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    final boolean endOfResponse = this.inFlightRequests > 0 && ImmediateResponses.isEndOfResponse(message);
+    if (endOfResponse) {
+      this.inFlightRequests--;
+      this.admissionController.release();
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+    if (endOfResponse && this.inFlightRequests == 0 && this.refusedRequest != null) {
+      final ContainerRequest refusedRequest = this.refusedRequest;
+      this.refusedRequest = null;
+      ImmediateResponses.writeResponse(channelHandlerContext,
+                                       refusedRequest,
+                                       HttpResponseStatus.SERVICE_UNAVAILABLE,
+                                       CONNECTION_CLOSE,
+                                       null);
+    }
+  }
+
+  @Override
+  public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  private final void releaseAll() {
+    this.refusedRequest = null;
+    while (this.inFlightRequests > 0) {
+      this.inFlightRequests--;
+      this.admissionController.release();
+    }
+  }
+
+  private final int getQueueDepth(final ChannelHandlerContext channelHandlerContext) {
+    SingleThreadEventExecutor jerseyEventExecutor = this.jerseyEventExecutor;
+    if (jerseyEventExecutor == null) {
+      final ChannelHandlerContext writerContext =
+        channelHandlerContext.pipeline().context(AbstractContainerRequestHandlingResponseWriter.class);
+      if (writerContext != null) {
+        final EventExecutor executor = writerContext.executor();
+        if (executor instanceof SingleThreadEventExecutor) {
+          jerseyEventExecutor = (SingleThreadEventExecutor)executor;
+          this.jerseyEventExecutor = jerseyEventExecutor;
+        }
+      }
+    }
+    return jerseyEventExecutor == null ? 0 : jerseyEventExecutor.pendingTasks();
+  }
+
+}
@@ -0,0 +1,226 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe gatekeeper, shared by all connections served by a
+ * {@link JerseyChannelInitializer}, that decides whether a request
+ * may be handed to Jersey based on the number of requests already in
+ * flight and the depth of the queue in front of the Jersey {@link
+ * io.netty.util.concurrent.EventExecutor} that would handle it.
+ *
+ * <p>Instances of this class also serve as a source of metrics via
+ * their {@code get*} methods.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see AdmissionControlHandler
+ *
+ * @see NettyContainerProperties#MAX_IN_FLIGHT_REQUESTS
+ *
+ * @see NettyContainerProperties#MAX_QUEUE_DEPTH
+ */
+public final class AdmissionController {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final int maxInFlightRequests;
+
+  private final int maxQueueDepth;
+
+  private final AtomicInteger inFlightRequests;
+
+  private final LongAdder admittedRequests;
+
+  private final LongAdder rejectedRequests;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link AdmissionController}.
+   *
+   * @param maxInFlightRequests the maximum number of requests that
+   * may be in flight at once; if less than or equal to {@code 0}
+   * there is no limit
+   *
+   * @param maxQueueDepth the maximum number of tasks that may be
+   * waiting to run on a Jersey {@link
+   * io.netty.util.concurrent.EventExecutor} before requests destined
+   * for it are refused; if less than or equal to {@code 0} there is
+   * no limit
+   */
+  public AdmissionController(final int maxInFlightRequests, final int maxQueueDepth) {
+    super();
+    this.maxInFlightRequests = Math.max(0, maxInFlightRequests);
+    this.maxQueueDepth = Math.max(0, maxQueueDepth);
+    this.inFlightRequests = new AtomicInteger();
+    this.admittedRequests = new LongAdder();
+    this.rejectedRequests = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum number of requests that may be in flight at
+   * once, or {@code 0} if there is no limit.
+   *
+   * @return the maximum number of requests that may be in flight at
+   * once, or {@code 0}
+   */
+  public final int getMaxInFlightRequests() {
+    return this.maxInFlightRequests;
+  }
+
+  /**
+   * Returns the maximum permitted Jersey executor queue depth, or
+   * {@code 0} if there is no limit.
+   *
+   * @return the maximum permitted Jersey executor queue depth, or
+   * {@code 0}
+   */
+  public final int getMaxQueueDepth() {
+    return this.maxQueueDepth;
+  }
+
+  /**
+   * Returns the number of requests currently in flight.
+   *
+   * @return the number of requests currently in flight; never
+   * negative
+   */
+  public final int getInFlightRequests() {
+    return this.inFlightRequests.get();
+  }
+
+  /**
+   * Returns the number of requests admitted so far.
+   *
+   * @return the number of requests admitted so far
+   */
+  public final long getAdmittedRequests() {
+    return this.admittedRequests.sum();
+  }
+
+  /**
+   * Returns the number of requests refused so far.
+   *
+   * @return the number of requests refused so far
+   */
+  public final long getRejectedRequests() {
+    return this.rejectedRequests.sum();
+  }
+
+  /**
+   * Admits a request if neither limit would be exceeded, and returns
+   * {@code true} if it was admitted.
+   *
+   * <p>Every successful call must eventually be balanced by a call
+   * to {@link #release()}.</p>
+   *
+   * @param queueDepth the number of tasks currently waiting to run
+   * on the Jersey {@link io.netty.util.concurrent.EventExecutor} that
+   * would handle the request
+   *
+   * @return {@code true} if the request was admitted; {@code false}
+   * if it must be refused
+   *
+   * @see #release()
+   */
+  public final boolean tryAcquire(final int queueDepth) {
+    final boolean returnValue;
+    if (this.maxQueueDepth > 0 && queueDepth >= this.maxQueueDepth) {
+      returnValue = false;
+    } else if (this.maxInFlightRequests > 0) {
+      boolean acquired = false;
+      int inFlightRequests;
+      while ((inFlightRequests = this.inFlightRequests.get()) < this.maxInFlightRequests) {
+        if (this.inFlightRequests.compareAndSet(inFlightRequests, inFlightRequests + 1)) {
+          acquired = true;
+          break;
+        }
+      }
+      returnValue = acquired;
+    } else {
+      this.inFlightRequests.incrementAndGet();
+      returnValue = true;
+    }
+    if (returnValue) {
+      this.admittedRequests.increment();
+    } else {
+      this.rejectedRequests.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Admits a request unconditionally.
+   *
+   * <p>This is for requests that cannot be refused.  Every call must
+   * eventually be balanced by a call to {@link #release()}.</p>
+   *
+   * @see #release()
+   */
+  public final void acquire() {
+    this.inFlightRequests.incrementAndGet();
+    this.admittedRequests.increment();
+  }
+
+  /**
+   * Records that a request {@linkplain #tryAcquire(int) admitted}
+   * earlier is no longer in flight.
+   *
+   * @see #tryAcquire(int)
+   */
+  public final void release() {
+    this.inFlightRequests.decrementAndGet();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * AdmissionController}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link AdmissionController}
+   */
+  @Override
+  public final String toString() {
+    return
+      "inFlight: " + this.getInFlightRequests() + "/" + this.getMaxInFlightRequests() +
+      ", maxQueueDepth: " + this.getMaxQueueDepth() +
+      ", admitted: " + this.getAdmittedRequests() +
+      ", rejected: " + this.getRejectedRequests();
+  }
+
+}
@@ -0,0 +1,484 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest; // for javadoc only
+
+/**
+ * A {@link Supplier} of {@link ApplicationHandler}s that also routes
+ * {@link ContainerRequest}s to one of several {@link
+ * ApplicationHandler}s by {@code Host} and path prefix, so that
+ * several applications may share one {@link
+ * JerseyChannelInitializer} and therefore one port, one set of
+ * channel pipelines, event loops and buffer pools.
+ *
+ * <p>Supply an {@link ApplicationRouter} to a {@link
+ * JerseyChannelInitializer} as its {@link ApplicationHandler} {@link
+ * Supplier}.  The {@link #get()} method returns the <em>default</em>
+ * {@link ApplicationHandler}, which handles requests that no route
+ * matches and whose {@linkplain ApplicationHandler#getConfiguration()
+ * configuration} governs the Netty side of things, such as timeouts,
+ * admission control and caching, for every application.</p>
+ *
+ * <p>Routes are compiled into a trie keyed by host and path segment
+ * whenever one is {@linkplain #route(String, String, Supplier)
+ * added}, so that matching a request costs one lookup per path
+ * segment and does not involve locking.  A route for a specific host
+ * is preferred to a route for any host; among routes for the same
+ * host, the one with the longest matching path prefix wins.  Path
+ * prefixes match whole segments only, so a prefix of {@code /a}
+ * matches {@code /a} and {@code /a/b} but not {@code /ab}.</p>
+ *
+ * <p>A request that matches a route is handed to that route's
+ * application with the path prefix moved from its {@linkplain
+ * ContainerRequest#getPath(boolean) path} into its {@linkplain
+ * ContainerRequest#getBaseUri() base <code>URI</code>}, exactly as
+ * if the application were deployed at that prefix.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ApplicationRoutingHandler
+ *
+ * @see JerseyChannelInitializer
+ */
+public final class ApplicationRouter implements Supplier<ApplicationHandler> {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final Supplier<? extends ApplicationHandler> defaultApplicationHandlerSupplier;
+
+  /**
+   * The {@link Route}s added so far, in the order in which they were
+   * added.
+   *
+   * <p>Guarded by {@code this}.</p>
+   */
+  private final List<Route> routes;
+
+  /**
+   * {@link Consumer}s applied to the default and every routed {@link
+   * ApplicationHandler} {@link Supplier}, including those added
+   * later.
+   *
+   * <p>Guarded by {@code this}.</p>
+   *
+   * @see #addRouteInitializer(Consumer)
+   */
+  private final List<Consumer<? super Supplier<? extends ApplicationHandler>>> routeInitializers;
+
+  /**
+   * The compiled form of {@link #routes}; never {@code null}.
+   */
+  private volatile Trie trie;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ApplicationRouter}.
+   *
+   * @param defaultApplicationHandler the {@link ApplicationHandler}
+   * that handles requests no route matches; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code
+   * defaultApplicationHandler} is {@code null}
+   */
+  public ApplicationRouter(final ApplicationHandler defaultApplicationHandler) {
+    this(new ImmutableSupplier<>(Objects.requireNonNull(defaultApplicationHandler)));
+  }
+
+  /**
+   * Creates a new {@link ApplicationRouter}.
+   *
+   * @param defaultApplicationHandlerSupplier a {@link Supplier} of the
+   * {@link ApplicationHandler} that handles requests no route
+   * matches; must not be {@code null}; may be, for example, a {@link
+   * SimpleContainer}
+   *
+   * @exception NullPointerException if {@code
+   * defaultApplicationHandlerSupplier} is {@code null}
+   */
+  public ApplicationRouter(final Supplier<? extends ApplicationHandler> defaultApplicationHandlerSupplier) {
+    super();
+    this.defaultApplicationHandlerSupplier = Objects.requireNonNull(defaultApplicationHandlerSupplier);
+    this.routes = new ArrayList<>();
+    this.routeInitializers = new ArrayList<>();
+    this.trie = new Trie(Collections.emptyList());
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the default {@link ApplicationHandler}, which handles
+   * requests that no route matches.
+   *
+   * @return the default {@link ApplicationHandler}
+   */
+  @Override
+  public final ApplicationHandler get() {
+    return this.defaultApplicationHandlerSupplier.get();
+  }
+
+  /**
+   * Routes requests for any host whose path begins with the supplied
+   * prefix to the supplied {@link ApplicationHandler}, and returns
+   * this {@link ApplicationRouter}.
+   *
+   * @param pathPrefix the path prefix, such as {@code /orders}; must
+   * not be {@code null}; see {@link #route(String, String, Supplier)}
+   *
+   * @param applicationHandler the {@link ApplicationHandler} to route
+   * to; must not be {@code null}
+   *
+   * @return this {@link ApplicationRouter}
+   *
+   * @exception NullPointerException if any argument is {@code null}
+   *
+   * @exception IllegalArgumentException if a route for any host and
+   * the same path prefix already exists
+   *
+   * @see #route(String, String, Supplier)
+   */
+  public final ApplicationRouter route(final String pathPrefix, final ApplicationHandler applicationHandler) {
+    return this.route(null, pathPrefix, new ImmutableSupplier<>(Objects.requireNonNull(applicationHandler)));
+  }
+
+  /**
+   * Routes requests for the supplied host whose path begins with the
+   * supplied prefix to the {@link ApplicationHandler} returned by the
+   * supplied {@link Supplier}, and returns this {@link
+   * ApplicationRouter}.
+   *
+   * <p>Host names are compared without regard to case or port.  Path
+   * prefixes are compared segment by segment against the raw
+   * (encoded) path of each request, relative to the {@linkplain
+   * JerseyChannelInitializer#JerseyChannelInitializer(java.net.URI,
+   * io.netty.handler.ssl.SslContext, boolean, long,
+   * io.netty.util.concurrent.EventExecutorGroup, boolean, Supplier,
+   * int,
+   * AbstractByteBufBackedChannelOutboundInvokingOutputStream.ByteBufCreator)
+   * base <code>URI</code>}; leading, trailing and repeated slashes are
+   * ignored, so a prefix of {@code /} or the empty string matches
+   * every path.</p>
+   *
+   * @param host the host, such as {@code api.example.com}; may be
+   * {@code null}, empty or {@code *} to route requests for any host
+   *
+   * @param pathPrefix the path prefix, such as {@code /orders}; must
+   * not be {@code null}
+   *
+   * @param applicationHandlerSupplier a {@link Supplier} of the
+   * {@link ApplicationHandler} to route to; must not be {@code null};
+   * may be, for example, a {@link SimpleContainer}
+   *
+   * @return this {@link ApplicationRouter}
+   *
+   * @exception NullPointerException if {@code pathPrefix} or {@code
+   * applicationHandlerSupplier} is {@code null}
+   *
+   * @exception IllegalArgumentException if a route for the same host
+   * and path prefix already exists
+   */
+  public final synchronized ApplicationRouter route(final String host,
+                                                    final String pathPrefix,
+                                                    final Supplier<? extends ApplicationHandler> applicationHandlerSupplier) {
+    final Route route = new Route(normalizeHost(host), normalizePathPrefix(pathPrefix), applicationHandlerSupplier);
+    for (final Route existingRoute : this.routes) {
+      if (Objects.equals(existingRoute.host, route.host) && existingRoute.pathPrefix.equals(route.pathPrefix)) {
+        throw new IllegalArgumentException("A route for " + route + " already exists");
+      }
+    }
+    for (final Consumer<? super Supplier<? extends ApplicationHandler>> routeInitializer : this.routeInitializers) {
+      routeInitializer.accept(applicationHandlerSupplier);
+    }
+    this.routes.add(route);
+    this.trie = new Trie(this.routes);
+    return this;
+  }
+
+  /**
+   * Returns the {@link Route} that best matches the supplied host and
+   * path, or {@code null} if no route matches.
+   *
+   * <p>This method does not lock.</p>
+   *
+   * @param host the value of the request's {@code Host} header; may be
+   * {@code null}
+   *
+   * @param path the raw request path relative to the base {@link
+   * java.net.URI}, as returned by {@link
+   * ContainerRequest#getPath(boolean) getPath(false)}; may be {@code
+   * null}
+   *
+   * @return the best matching {@link Route}, or {@code null}
+   */
+  final Route match(final String host, final String path) {
+    return this.trie.match(host, path == null ? "" : path);
+  }
+
+  /**
+   * Applies the supplied {@link Consumer} to the default {@link
+   * ApplicationHandler} {@link Supplier} and to the {@link Supplier}
+   * of every route, both now and as routes are added.
+   *
+   * <p>{@link JerseyChannelInitializer} uses this to make sure every
+   * routed application is set up the same way.</p>
+   *
+   * @param routeInitializer the {@link Consumer} to apply; must not
+   * be {@code null}
+   *
+   * @exception NullPointerException if {@code routeInitializer} is
+   * {@code null}
+   */
+  final synchronized void addRouteInitializer(final Consumer<? super Supplier<? extends ApplicationHandler>> routeInitializer) {
+    Objects.requireNonNull(routeInitializer);
+    routeInitializer.accept(this.defaultApplicationHandlerSupplier);
+    for (final Route route : this.routes) {
+      routeInitializer.accept(route.applicationHandlerSupplier);
+    }
+    this.routeInitializers.add(routeInitializer);
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the supplied host lowercased and without any port, or
+   * {@code null} if it denotes any host.
+   *
+   * @param host the host to normalize; may be {@code null}
+   *
+   * @return the normalized host, or {@code null}
+   */
+  static final String normalizeHost(final String host) {
+    String returnValue = host == null ? null : host.trim();
+    if (returnValue != null) {
+      if (returnValue.isEmpty() || returnValue.equals("*")) {
+        returnValue = null;
+      } else {
+        // IPv6 literals look like [::1]:8080.
+        final int colonIndex = returnValue.lastIndexOf(':');
+        if (colonIndex >= 0 && colonIndex > returnValue.lastIndexOf(']')) {
+          returnValue = returnValue.substring(0, colonIndex);
+        }
+        returnValue = returnValue.toLowerCase(Locale.ROOT);
+      }
+    }
+    return returnValue;
+  }
+
+  private static final String normalizePathPrefix(final String pathPrefix) {
+    final StringBuilder sb = new StringBuilder(pathPrefix.length());
+    for (final String segment : pathPrefix.split("/")) {
+      if (!segment.isEmpty()) {
+        if (sb.length() > 0) {
+          sb.append('/');
+        }
+        sb.append(segment);
+      }
+    }
+    return sb.toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An immutable association of a host and path prefix with a {@link
+   * Supplier} of an {@link ApplicationHandler}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Route {
+
+    private final String host;
+
+    private final String pathPrefix;
+
+    private final Supplier<? extends ApplicationHandler> applicationHandlerSupplier;
+
+    private Route(final String host,
+                  final String pathPrefix,
+                  final Supplier<? extends ApplicationHandler> applicationHandlerSupplier) {
+      super();
+      this.host = host;
+      this.pathPrefix = pathPrefix;
+      this.applicationHandlerSupplier = Objects.requireNonNull(applicationHandlerSupplier);
+    }
+
+    /**
+     * Returns the normalized host this {@link Route} applies to, or
+     * {@code null} if it applies to any host.
+     *
+     * @return the host, or {@code null}
+     */
+    final String getHost() {
+      return this.host;
+    }
+
+    /**
+     * Returns the normalized path prefix this {@link Route} applies
+     * to, without leading or trailing slashes; never {@code null} but
+     * possibly empty.
+     *
+     * @return the non-{@code null} path prefix
+     */
+    final String getPathPrefix() {
+      return this.pathPrefix;
+    }
+
+    /**
+     * Returns the {@link ApplicationHandler} requests matching this
+     * {@link Route} should be handed to.
+     *
+     * @return the {@link ApplicationHandler}
+     */
+    final ApplicationHandler getApplicationHandler() {
+      return this.applicationHandlerSupplier.get();
+    }
+
+    @Override
+    public final String toString() {
+      return (this.host == null ? "*" : this.host) + "/" + this.pathPrefix;
+    }
+
+  }
+
+  /**
+   * An immutable trie of {@link Route}s keyed first by host and then
+   * by path segment.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Trie {
+
+    private final Map<String, Node> hosts;
+
+    private final Node anyHost;
+
+    private Trie(final List<? extends Route> routes) {
+      super();
+      this.hosts = new HashMap<>();
+      this.anyHost = new Node();
+      for (final Route route : routes) {
+        final Node root;
+        if (route.host == null) {
+          root = this.anyHost;
+        } else {
+          root = this.hosts.computeIfAbsent(route.host, h -> new Node());
+        }
+        Node node = root;
+        if (!route.pathPrefix.isEmpty()) {
+          for (final String segment : route.pathPrefix.split("/")) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+          }
+        }
+        node.route = route;
+      }
+    }
+
+    private final Route match(final String host, final String path) {
+      Route returnValue = null;
+      if (!this.hosts.isEmpty()) {
+        final String normalizedHost = normalizeHost(host);
+        if (normalizedHost != null) {
+          final Node root = this.hosts.get(normalizedHost);
+          if (root != null) {
+            returnValue = root.match(path);
+          }
+        }
+      }
+      if (returnValue == null) {
+        returnValue = this.anyHost.match(path);
+      }
+      return returnValue;
+    }
+
+  }
+
+  private static final class Node {
+
+    private final Map<String, Node> children;
+
+    private Route route;
+
+    private Node() {
+      super();
+      this.children = new HashMap<>();
+    }
+
+    /**
+     * Returns the {@link Route} of the deepest {@link Node} reachable
+     * from this one along the segments of the supplied path, or
+     * {@code null} if there is none.
+     */
+    private final Route match(final String path) {
+      Route returnValue = this.route;
+      Node node = this;
+      final int length = path.length();
+      int start = 0;
+      while (node != null && !node.children.isEmpty() && start < length) {
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+          end = length;
+        }
+        if (end > start) {
+          node = node.children.get(path.substring(start, end));
+          if (node != null && node.route != null) {
+            returnValue = node.route;
+          }
+        }
+        start = end + 1;
+      }
+      return returnValue;
+    }
+
+  }
+
+}
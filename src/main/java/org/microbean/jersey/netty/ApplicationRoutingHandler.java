@@ -0,0 +1,249 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.Objects;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+
+import io.netty.handler.ssl.SslHandler;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelInboundHandlerAdapter} that sits immediately after
+ * a request decoder and uses an {@link ApplicationRouter} to decide
+ * which {@link ApplicationHandler} each {@link ContainerRequest}
+ * belongs to.
+ *
+ * <p>A request that matches a route has the route's path prefix
+ * moved into its {@linkplain ContainerRequest#getBaseUri() base
+ * <code>URI</code>} and is marked so that the {@link
+ * AbstractContainerRequestHandlingResponseWriter} hands it to the
+ * route's {@link ApplicationHandler}.  If the route names a host and
+ * the request's URIs are relative, they are made absolute using that
+ * host, so that requests for different hosts are never confused by
+ * the {@link ResponseCache}, {@link ValidatorRegistry} or {@link
+ * RequestCoalescer}, which key on the request {@link URI}.  Requests
+ * that match no route are passed on untouched and are handled by the
+ * {@linkplain ApplicationRouter#get() default application}.</p>
+ *
+ * <p>An {@link AbstractContainerRequestDecoder} in the same pipeline
+ * consults this handler's {@link ApplicationRouter} before it builds
+ * each {@link ContainerRequest}, so that a routed request is built
+ * with its application's {@linkplain
+ * ApplicationHandler#getConfiguration() configuration}, and is
+ * decoded according to that application's {@linkplain
+ * NettyContainerProperties#BODY_READ_TIMEOUT body read timeout},
+ * {@linkplain NettyContainerProperties#MAX_AGGREGATED_CONTENT_LENGTH
+ * maximum aggregated content length}, {@linkplain
+ * NettyContainerProperties#EARLY_DISPATCH early dispatch} and
+ * injection settings rather than the default application's.  {@link
+ * ContainerRequest}s that arrive from elsewhere are matched here
+ * instead; they keep the configuration they were built with, but
+ * request-scoped injection is arranged for the application they are
+ * routed to.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}, but any number
+ * of them may share an {@link ApplicationRouter}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ApplicationRouter
+ */
+public final class ApplicationRoutingHandler extends ChannelInboundHandlerAdapter {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ApplicationRoutingHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  /**
+   * The name of the {@linkplain ContainerRequest#getProperty(String)
+   * request property} under which the {@link ApplicationHandler} a
+   * request has been routed to is stored.
+   */
+  static final String APPLICATION_HANDLER_PROPERTY_NAME = ApplicationRouter.class.getName();
+
+  /**
+   * The name of the {@linkplain ContainerRequest#getProperty(String)
+   * request property} under which an {@link
+   * AbstractContainerRequestDecoder} stores the {@link
+   * ApplicationRouter.Route} it matched a request to.
+   */
+  static final String ROUTE_PROPERTY_NAME = ApplicationRouter.Route.class.getName();
+
+  private static final String AUTHORITY = ":authority";
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final ApplicationRouter applicationRouter;
+
+  /**
+   * The scheme to use when making request URIs absolute; {@code
+   * null} until first needed.
+   */
+  private String scheme;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ApplicationRoutingHandler}.
+   *
+   * @param applicationRouter the {@link ApplicationRouter} to use;
+   * must not be {@code null}
+   *
+   * @exception NullPointerException if {@code applicationRouter} is
+   * {@code null}
+   */
+  public ApplicationRoutingHandler(final ApplicationRouter applicationRouter) {
+    super();
+    this.applicationRouter = Objects.requireNonNull(applicationRouter);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link ApplicationRouter} this {@link
+   * ApplicationRoutingHandler} uses.
+   *
+   * @return the non-{@code null} {@link ApplicationRouter}
+   */
+  final ApplicationRouter getApplicationRouter() {
+    return this.applicationRouter;
+  }
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      final Object decodedRoute = containerRequest.getProperty(ROUTE_PROPERTY_NAME);
+      if (decodedRoute != null) {
+        // The decoder has already matched the request and built it
+        // for the routed application.
+        containerRequest.removeProperty(ROUTE_PROPERTY_NAME);
+        this.route(channelHandlerContext, containerRequest, (ApplicationRouter.Route)decodedRoute, false);
+      } else {
+        String host = containerRequest.getHeaderString(HttpHeaderNames.HOST.toString());
+        if (host == null) {
+          host = containerRequest.getHeaderString(AUTHORITY);
+        }
+        final ApplicationRouter.Route route = this.applicationRouter.match(host, containerRequest.getPath(false));
+        if (route != null) {
+          this.route(channelHandlerContext, containerRequest, route, true);
+        }
+      }
+    }
+    super.channelRead(channelHandlerContext, message);
+  }
+
+  private final void route(final ChannelHandlerContext channelHandlerContext,
+                           final ContainerRequest containerRequest,
+                           final ApplicationRouter.Route route,
+                           final boolean reinject) {
+    final ApplicationHandler applicationHandler = route.getApplicationHandler();
+    URI baseUri = containerRequest.getBaseUri();
+    URI requestUri = containerRequest.getRequestUri();
+    if (route.getHost() != null && !requestUri.isAbsolute()) {
+      final String prefix = this.getScheme(channelHandlerContext.channel()) + "://" + route.getHost();
+      baseUri = URI.create(prefix + baseUri.toString());
+      requestUri = URI.create(prefix + requestUri.toString());
+    }
+    if (!route.getPathPrefix().isEmpty()) {
+      baseUri = baseUri.resolve(route.getPathPrefix() + "/");
+    }
+    containerRequest.setRequestUri(baseUri, requestUri);
+    containerRequest.setProperty(APPLICATION_HANDLER_PROPERTY_NAME, applicationHandler);
+    if (reinject && applicationHandler != this.applicationRouter.get()) {
+      // The request was built for the default application; redo
+      // request-scoped injection for the one that will actually run.
+      final InjectionAnalysis injectionAnalysis = InjectionAnalysis.of(applicationHandler.getConfiguration());
+      if (injectionAnalysis.isAnyInjected()) {
+        final Object channelHandlerContextToInject;
+        if (injectionAnalysis.isInjected(ChannelHandlerContext.class)) {
+          channelHandlerContextToInject = containerRequest.getProperty(ChannelHandlerContext.class.getName());
+        } else {
+          channelHandlerContextToInject = null;
+        }
+        final Object httpRequest = containerRequest.getProperty(HttpRequest.class.getName());
+        if (httpRequest != null) {
+          AbstractContainerRequestDecoder.installRequestScopedInitializer(containerRequest,
+                                                                          (ChannelHandlerContext)channelHandlerContextToInject,
+                                                                          injectionAnalysis.isInjected(HttpRequest.class) ? httpRequest : null,
+                                                                          HttpRequestReferencingFactory.genericRefType.getType());
+        } else {
+          final Object http2HeadersFrame = containerRequest.getProperty(Http2HeadersFrame.class.getName());
+          AbstractContainerRequestDecoder.installRequestScopedInitializer(containerRequest,
+                                                                          (ChannelHandlerContext)channelHandlerContextToInject,
+                                                                          injectionAnalysis.isInjected(Http2HeadersFrame.class) ? http2HeadersFrame : null,
+                                                                          Http2HeadersFrameReferencingFactory.genericRefType.getType());
+        }
+      }
+    }
+    if (logger.isLoggable(Level.FINER)) {
+      logger.logp(Level.FINER, cn, "route", "Routed {0} to {1}", new Object[] { requestUri, route });
+    }
+  }
+
+  private final String getScheme(final Channel channel) {
+    if (this.scheme == null) {
+      // HTTP/2 stream channels are children of the channel whose
+      // pipeline holds the SslHandler.
+      final Channel parent = channel.parent();
+      if (channel.pipeline().get(SslHandler.class) != null ||
+          (parent != null && parent.pipeline().get(SslHandler.class) != null)) {
+        this.scheme = "https";
+      } else {
+        this.scheme = "http";
+      }
+    }
+    return this.scheme;
+  }
+
+}
@@ -0,0 +1,239 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.glassfish.jersey.internal.PropertiesDelegate;
+
+/**
+ * A {@link PropertiesDelegate} that stores its properties in a
+ * single array of alternating names and values, suitable for the
+ * small number of properties that a typical request carries.
+ *
+ * <p>Lookups are linear.  Each name is first compared by identity,
+ * which succeeds without calling {@link String#equals(Object)} for
+ * names that are constants or that come from {@link Class#getName()},
+ * as the names set by {@link
+ * AbstractContainerRequestDecoder#installMessage(io.netty.channel.ChannelHandlerContext,
+ * Object, org.glassfish.jersey.server.ContainerRequest)} do.  Unlike a
+ * {@link MapBackedPropertiesDelegate}, an instance allocates no
+ * per-entry objects and no hash table; its one array is allocated
+ * when the first property is set and grows only if more than {@value
+ * #DEFAULT_CAPACITY} properties are set.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are <strong>not</strong> safe for
+ * concurrent use by multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see PropertiesDelegate
+ *
+ * @see MapBackedPropertiesDelegate
+ */
+public class ArrayBackedPropertiesDelegate implements PropertiesDelegate {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The number of properties an {@link ArrayBackedPropertiesDelegate}
+   * can hold before its storage must grow, unless another capacity
+   * is {@linkplain #ArrayBackedPropertiesDelegate(int) supplied}.
+   */
+  public static final int DEFAULT_CAPACITY = 8;
+
+  private static final Collection<String> EMPTY_STRING_SET = Collections.emptySet();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final int initialCapacity;
+
+  // Names at even indices, values at the following odd indices.
+  private Object[] entries;
+
+  private int size;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ArrayBackedPropertiesDelegate} with a
+   * capacity of {@value #DEFAULT_CAPACITY} properties.
+   *
+   * @see #ArrayBackedPropertiesDelegate(int)
+   */
+  public ArrayBackedPropertiesDelegate() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new {@link ArrayBackedPropertiesDelegate}.
+   *
+   * @param initialCapacity the number of properties that may be set
+   * before storage must grow; if less than {@code 1} then {@code 1}
+   * will be used instead
+   */
+  public ArrayBackedPropertiesDelegate(final int initialCapacity) {
+    super();
+    this.initialCapacity = Math.max(1, initialCapacity);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the property value indexed under the supplied {@code
+   * name}, or {@code null} if the property value is itself {@code
+   * null} or if no such property exists.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param name the name of the property; may be {@code null}
+   *
+   * @return the property value, or {@code null}
+   */
+  @Override
+  public final Object getProperty(final String name) {
+    final int index = this.indexOf(name);
+    return index < 0 ? null : this.entries[index + 1];
+  }
+
+  /**
+   * Returns a {@link Collection} of the names of properties that this
+   * {@link ArrayBackedPropertiesDelegate} stores.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The returned {@link Collection} is an unmodifiable snapshot;
+   * it does not reflect subsequent changes.  Its elements are in the
+   * order in which their properties were first set.</p>
+   *
+   * @return a non-{@code null} {@link Collection} of property names
+   */
+  @Override
+  public final Collection<String> getPropertyNames() {
+    final int size = this.size;
+    final Collection<String> returnValue;
+    if (size <= 0) {
+      returnValue = EMPTY_STRING_SET;
+    } else {
+      final List<String> names = new ArrayList<>(size);
+      final Object[] entries = this.entries;
+      for (int i = 0; i < size; i++) {
+        names.add((String)entries[i * 2]);
+      }
+      returnValue = Collections.unmodifiableList(names);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Sets the supplied {@code value} as the property value to be
+   * indexed under the supplied {@code name}.
+   *
+   * @param name the name of the property to set; may be {@code null}
+   *
+   * @param value the value of the property to set; may be {@code
+   * null}
+   */
+  @Override
+  public final void setProperty(final String name, final Object value) {
+    final int index = this.indexOf(name);
+    if (index >= 0) {
+      this.entries[index + 1] = value;
+    } else {
+      Object[] entries = this.entries;
+      final int size = this.size;
+      if (entries == null) {
+        entries = new Object[this.initialCapacity * 2];
+        this.entries = entries;
+      } else if (size * 2 >= entries.length) {
+        entries = Arrays.copyOf(entries, entries.length * 2);
+        this.entries = entries;
+      }
+      entries[size * 2] = name;
+      entries[size * 2 + 1] = value;
+      this.size = size + 1;
+    }
+  }
+
+  /**
+   * Removes any property value indexed under the supplied property
+   * name.
+   *
+   * @param name the name of the property to remove; may be {@code
+   * null}
+   */
+  @Override
+  public final void removeProperty(final String name) {
+    final int index = this.indexOf(name);
+    if (index >= 0) {
+      final Object[] entries = this.entries;
+      final int end = this.size * 2;
+      System.arraycopy(entries, index + 2, entries, index, end - index - 2);
+      entries[end - 2] = null;
+      entries[end - 1] = null;
+      this.size--;
+    }
+  }
+
+  private final int indexOf(final String name) {
+    final Object[] entries = this.entries;
+    int returnValue = -1;
+    if (entries != null) {
+      final int end = this.size * 2;
+      // Identity first: known keys are usually the very same String.
+      for (int i = 0; i < end; i += 2) {
+        if (entries[i] == name) {
+          returnValue = i;
+          break;
+        }
+      }
+      if (returnValue < 0 && name != null) {
+        for (int i = 0; i < end; i += 2) {
+          if (name.equals(entries[i])) {
+            returnValue = i;
+            break;
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+}
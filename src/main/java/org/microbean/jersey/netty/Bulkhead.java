@@ -0,0 +1,357 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Objects;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * A named pool of threads, with a limit on the number of requests
+ * that may wait for it, on which a subset of an
+ * application's requests are {@linkplain
+ * org.glassfish.jersey.server.ApplicationHandler#handle(org.glassfish.jersey.server.ContainerRequest)
+ * handled} so that they cannot starve the rest.
+ *
+ * <p>Requests are assigned to {@link Bulkhead}s by {@link
+ * Bulkheads}.  A request that would exceed a {@link Bulkhead}'s
+ * {@linkplain #getMaxQueueDepth() maximum queue depth} is refused
+ * rather than queued.</p>
+ *
+ * <p>A {@link Bulkhead} {@linkplain #Bulkhead(String, int, int)
+ * created with a number of threads} queues waiting requests on a
+ * single queue shared by all of its threads, so that a request waits
+ * only until any thread is free.  A {@link Bulkhead} {@linkplain
+ * #Bulkhead(String, EventExecutorGroup, int) backed by an
+ * <code>EventExecutorGroup</code>} assigns each request to the
+ * {@linkplain EventExecutorGroup#next() next} {@link
+ * io.netty.util.concurrent.EventExecutor} in turn, each with its own
+ * queue, so a request may wait behind a slow one while other threads
+ * are idle.</p>
+ *
+ * <p>Instances of this class also serve as a source of saturation
+ * metrics via their {@code get*} methods.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Bulkheads
+ */
+public final class Bulkhead implements AutoCloseable {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final String name;
+
+  private final EventExecutorGroup eventExecutorGroup;
+
+  private final ThreadPoolExecutor threadPoolExecutor;
+
+  private final int maxQueueDepth;
+
+  private final AtomicInteger queueDepth;
+
+  private final AtomicInteger activeRequests;
+
+  private final LongAdder completedRequests;
+
+  private final LongAdder rejectedRequests;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link Bulkhead} backed by a new {@link
+   * ThreadPoolExecutor}, whose threads take requests from a single
+   * shared queue, and that it {@linkplain #close() shuts down} when
+   * it is closed.
+   *
+   * @param name the name of the {@link Bulkhead}, also used to name
+   * its threads; must not be {@code null}
+   *
+   * @param threads the number of threads; must be positive
+   *
+   * @param maxQueueDepth the maximum number of requests that may
+   * wait for a thread; if less than or equal to {@code 0} there is no
+   * limit
+   *
+   * @exception NullPointerException if {@code name} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code threads} is not
+   * positive
+   */
+  public Bulkhead(final String name, final int threads, final int maxQueueDepth) {
+    this(name,
+         null,
+         new ThreadPoolExecutor(threads,
+                                threads,
+                                0L,
+                                TimeUnit.MILLISECONDS,
+                                newQueue(maxQueueDepth),
+                                new DefaultThreadFactory(Objects.requireNonNull(name))),
+         maxQueueDepth);
+  }
+
+  /**
+   * Creates a new {@link Bulkhead} backed by the supplied {@link
+   * EventExecutorGroup}, which it does not shut down.
+   *
+   * <p>Each request is handled by the {@linkplain
+   * EventExecutorGroup#next() next} {@link
+   * io.netty.util.concurrent.EventExecutor} of the supplied {@link
+   * EventExecutorGroup}, and waits in that {@link
+   * io.netty.util.concurrent.EventExecutor}'s own queue.</p>
+   *
+   * @param name the name of the {@link Bulkhead}; must not be {@code
+   * null}
+   *
+   * @param eventExecutorGroup the {@link EventExecutorGroup} on which
+   * requests are handled; must not be {@code null}
+   *
+   * @param maxQueueDepth the maximum number of requests that may
+   * wait for a thread; if less than or equal to {@code 0} there is no
+   * limit
+   *
+   * @exception NullPointerException if {@code name} or {@code
+   * eventExecutorGroup} is {@code null}
+   */
+  public Bulkhead(final String name, final EventExecutorGroup eventExecutorGroup, final int maxQueueDepth) {
+    this(name, Objects.requireNonNull(eventExecutorGroup), null, maxQueueDepth);
+  }
+
+  private Bulkhead(final String name,
+                   final EventExecutorGroup eventExecutorGroup,
+                   final ThreadPoolExecutor threadPoolExecutor,
+                   final int maxQueueDepth) {
+    super();
+    this.name = Objects.requireNonNull(name);
+    this.eventExecutorGroup = eventExecutorGroup;
+    this.threadPoolExecutor = threadPoolExecutor;
+    this.maxQueueDepth = Math.max(0, maxQueueDepth);
+    this.queueDepth = new AtomicInteger();
+    this.activeRequests = new AtomicInteger();
+    this.completedRequests = new LongAdder();
+    this.rejectedRequests = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the name of this {@link Bulkhead}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} name of this {@link Bulkhead}
+   */
+  public final String getName() {
+    return this.name;
+  }
+
+  /**
+   * Returns the {@link EventExecutorGroup} on which this {@link
+   * Bulkhead} handles requests, or {@code null} if this {@link
+   * Bulkhead} was {@linkplain #Bulkhead(String, int, int) created
+   * with its own threads}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the {@link EventExecutorGroup} supplied at construction
+   * time, or {@code null}
+   */
+  public final EventExecutorGroup getEventExecutorGroup() {
+    return this.eventExecutorGroup;
+  }
+
+  /**
+   * Returns the maximum number of requests that may wait for a
+   * thread, or {@code 0} if there is no limit.
+   *
+   * @return the maximum queue depth, or {@code 0}
+   */
+  public final int getMaxQueueDepth() {
+    return this.maxQueueDepth;
+  }
+
+  /**
+   * Returns the number of requests currently waiting for a thread.
+   *
+   * @return the number of requests currently waiting for a thread;
+   * never negative
+   */
+  public final int getQueueDepth() {
+    return this.queueDepth.get();
+  }
+
+  /**
+   * Returns the number of requests currently being handled.
+   *
+   * @return the number of requests currently being handled; never
+   * negative
+   */
+  public final int getActiveRequests() {
+    return this.activeRequests.get();
+  }
+
+  /**
+   * Returns the number of requests handled so far.
+   *
+   * @return the number of requests handled so far
+   */
+  public final long getCompletedRequests() {
+    return this.completedRequests.sum();
+  }
+
+  /**
+   * Returns the number of requests refused so far because the
+   * {@linkplain #getMaxQueueDepth() maximum queue depth} was reached
+   * or the underlying threads would not accept them.
+   *
+   * @return the number of requests refused so far
+   */
+  public final long getRejectedRequests() {
+    return this.rejectedRequests.sum();
+  }
+
+  /**
+   * Arranges for the supplied {@link Runnable} to be run on one of
+   * this {@link Bulkhead}'s threads, and returns {@code true}, or
+   * returns {@code false} if it was refused.
+   *
+   * @param task the {@link Runnable} to run; must not be {@code null}
+   *
+   * @return {@code true} if the task will run; {@code false} if it
+   * was refused
+   *
+   * @exception NullPointerException if {@code task} is {@code null}
+   */
+  final boolean execute(final Runnable task) {
+    Objects.requireNonNull(task);
+    boolean returnValue;
+    if (this.maxQueueDepth <= 0) {
+      this.queueDepth.incrementAndGet();
+      returnValue = true;
+    } else {
+      returnValue = false;
+      int queueDepth;
+      while ((queueDepth = this.queueDepth.get()) < this.maxQueueDepth) {
+        if (this.queueDepth.compareAndSet(queueDepth, queueDepth + 1)) {
+          returnValue = true;
+          break;
+        }
+      }
+    }
+    if (returnValue) {
+      final Executor executor = this.eventExecutorGroup == null ? this.threadPoolExecutor : this.eventExecutorGroup.next();
+      try {
+        executor.execute(() -> {
+            this.queueDepth.decrementAndGet();
+            this.activeRequests.incrementAndGet();
+            try {
+              task.run();
+            } finally {
+              this.activeRequests.decrementAndGet();
+              this.completedRequests.increment();
+            }
+          });
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        this.queueDepth.decrementAndGet();
+        returnValue = false;
+      }
+    }
+    if (!returnValue) {
+      this.rejectedRequests.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Shuts down this {@link Bulkhead}'s threads, letting requests
+   * already accepted finish, if this {@link Bulkhead} created them.
+   */
+  @Override
+  public final void close() {
+    if (this.threadPoolExecutor != null) {
+      this.threadPoolExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * Bulkhead}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link Bulkhead}
+   */
+  @Override
+  public final String toString() {
+    return
+      this.name +
+      ": active: " + this.getActiveRequests() +
+      ", queued: " + this.getQueueDepth() + "/" + this.maxQueueDepth +
+      ", completed: " + this.getCompletedRequests() +
+      ", rejected: " + this.getRejectedRequests();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final BlockingQueue<Runnable> newQueue(final int maxQueueDepth) {
+    final BlockingQueue<Runnable> returnValue;
+    if (maxQueueDepth <= 0) {
+      returnValue = new LinkedBlockingQueue<>();
+    } else {
+      // execute(Runnable) enforces the limit; the capacity is a
+      // backstop.
+      returnValue = new ArrayBlockingQueue<>(maxQueueDepth);
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,482 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.HttpMethod;
+
+import org.glassfish.jersey.internal.inject.InjectionManager;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ExtendedResourceContext;
+
+import org.glassfish.jersey.server.model.Invocable;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+
+import org.glassfish.jersey.uri.PathPattern;
+
+/**
+ * A set of named {@link Bulkhead}s together with the rules that
+ * assign requests to them.
+ *
+ * <p>To use bulkheads, set the {@link
+ * NettyContainerProperties#BULKHEADS} property of an application's
+ * configuration to an instance of this class.  Each request is then
+ * assigned, by its {@link
+ * AbstractContainerRequestHandlingResponseWriter}, to at most one
+ * {@link Bulkhead}, and handled on that {@link Bulkhead}'s threads
+ * instead of the Jersey {@link
+ * io.netty.util.concurrent.EventExecutor} of its channel.  Requests
+ * assigned to no {@link Bulkhead} are handled as usual.</p>
+ *
+ * <p>A request is assigned by the first of these that matches:</p>
+ *
+ * <ol>
+ *
+ * <li>A {@linkplain #route(String, String) path rule}, in the order
+ * in which they were added.  Its regular expression must match the
+ * whole request path, relative to the base URI, still encoded, and
+ * with a leading {@code /}.</li>
+ *
+ * <li>An {@link InBulkhead} annotation in the application's resource
+ * model.  On a root resource class it covers every request for the
+ * class' path and anything beneath it; on a sub-resource locator it
+ * covers every request for the locator's path and anything beneath
+ * it; and on a resource method or sub-resource method it covers
+ * requests for the method's path with the method's request method
+ * (and {@code HEAD} requests if that is {@code GET}).</li>
+ *
+ * </ol>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Bulkhead
+ *
+ * @see InBulkhead
+ *
+ * @see NettyContainerProperties#BULKHEADS
+ */
+public final class Bulkheads implements AutoCloseable {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = Bulkheads.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Bulkhead}s, indexed by name.
+   *
+   * <p>Guarded by {@code this}.</p>
+   */
+  private final Map<String, Bulkhead> bulkheads;
+
+  /**
+   * The {@linkplain #route(String, String) path rules}; replaced, not
+   * modified, when a rule is added.
+   */
+  private volatile List<PathRule> pathRules;
+
+  /**
+   * The {@link InBulkhead}-derived rules of each application seen so
+   * far.
+   *
+   * <p>Guarded by itself.</p>
+   */
+  private final Map<ApplicationHandler, List<AnnotationRule>> annotationRules;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new, empty {@link Bulkheads}.
+   */
+  public Bulkheads() {
+    super();
+    this.bulkheads = new LinkedHashMap<>();
+    this.pathRules = Collections.emptyList();
+    this.annotationRules = new WeakHashMap<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Adds the supplied {@link Bulkhead} and returns this {@link
+   * Bulkheads}.
+   *
+   * @param bulkhead the {@link Bulkhead} to add; must not be {@code
+   * null}
+   *
+   * @return this {@link Bulkheads}
+   *
+   * @exception NullPointerException if {@code bulkhead} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if a {@link Bulkhead} with
+   * the same {@linkplain Bulkhead#getName() name} has already been
+   * added
+   */
+  public final synchronized Bulkheads add(final Bulkhead bulkhead) {
+    final String name = bulkhead.getName();
+    if (this.bulkheads.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate bulkhead: " + name);
+    }
+    this.bulkheads.put(name, bulkhead);
+    return this;
+  }
+
+  /**
+   * Assigns requests whose paths match the supplied regular
+   * expression to the named {@link Bulkhead} and returns this {@link
+   * Bulkheads}.
+   *
+   * @param pathRegex a regular expression that must match the whole
+   * request path, relative to the base URI, still encoded, and with a
+   * leading {@code /}; must not be {@code null}
+   *
+   * @param bulkheadName the {@linkplain Bulkhead#getName() name} of a
+   * {@linkplain #add(Bulkhead) previously added} {@link Bulkhead};
+   * must not be {@code null}
+   *
+   * @return this {@link Bulkheads}
+   *
+   * @exception NullPointerException if either argument is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if there is no such {@link
+   * Bulkhead}, or if {@code pathRegex} is not a valid regular
+   * expression
+   */
+  public final synchronized Bulkheads route(final String pathRegex, final String bulkheadName) {
+    final Bulkhead bulkhead = this.bulkheads.get(Objects.requireNonNull(bulkheadName));
+    if (bulkhead == null) {
+      throw new IllegalArgumentException("No such bulkhead: " + bulkheadName);
+    }
+    final List<PathRule> pathRules = new ArrayList<>(this.pathRules);
+    pathRules.add(new PathRule(Pattern.compile(pathRegex), bulkhead));
+    this.pathRules = Collections.unmodifiableList(pathRules);
+    return this;
+  }
+
+  /**
+   * Returns the {@link Bulkhead} with the supplied name, or {@code
+   * null} if there is no such {@link Bulkhead}.
+   *
+   * @param name the name; may be {@code null} in which case {@code
+   * null} will be returned
+   *
+   * @return the named {@link Bulkhead}, or {@code null}
+   */
+  public final synchronized Bulkhead get(final String name) {
+    return this.bulkheads.get(name);
+  }
+
+  /**
+   * Returns an immutable snapshot of the {@link Bulkhead}s, in the
+   * order in which they were added, for example to report their
+   * saturation metrics.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link Collection} of
+   * {@link Bulkhead}s
+   */
+  public final synchronized Collection<Bulkhead> getBulkheads() {
+    return Collections.unmodifiableList(new ArrayList<>(this.bulkheads.values()));
+  }
+
+  /**
+   * {@linkplain Bulkhead#close() Closes} every {@link Bulkhead}.
+   */
+  @Override
+  public final void close() {
+    for (final Bulkhead bulkhead : this.getBulkheads()) {
+      bulkhead.close();
+    }
+  }
+
+  /**
+   * Returns the {@link Bulkhead} to which the supplied {@link
+   * ContainerRequest}, bound for the supplied {@link
+   * ApplicationHandler}, is assigned, or {@code null} if it is
+   * assigned to none.
+   *
+   * @param applicationHandler the {@link ApplicationHandler} that
+   * will handle the request; may be {@code null}
+   *
+   * @param containerRequest the request; must not be {@code null}
+   *
+   * @return a {@link Bulkhead}, or {@code null}
+   *
+   * @exception NullPointerException if {@code containerRequest} is
+   * {@code null}
+   */
+  final Bulkhead select(final ApplicationHandler applicationHandler, final ContainerRequest containerRequest) {
+    Bulkhead returnValue = null;
+    final String path = "/" + containerRequest.getPath(false);
+    for (final PathRule pathRule : this.pathRules) {
+      if (pathRule.pattern.matcher(path).matches()) {
+        returnValue = pathRule.bulkhead;
+        break;
+      }
+    }
+    if (returnValue == null && applicationHandler != null) {
+      final String method = containerRequest.getMethod();
+      for (final AnnotationRule annotationRule : this.getAnnotationRules(applicationHandler)) {
+        if (annotationRule.matches(method, path)) {
+          returnValue = annotationRule.bulkhead;
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private final List<AnnotationRule> getAnnotationRules(final ApplicationHandler applicationHandler) {
+    List<AnnotationRule> returnValue;
+    synchronized (this.annotationRules) {
+      returnValue = this.annotationRules.get(applicationHandler);
+    }
+    if (returnValue == null) {
+      returnValue = this.computeAnnotationRules(applicationHandler);
+      synchronized (this.annotationRules) {
+        this.annotationRules.putIfAbsent(applicationHandler, returnValue);
+      }
+    }
+    return returnValue;
+  }
+
+  private final List<AnnotationRule> computeAnnotationRules(final ApplicationHandler applicationHandler) {
+    final List<AnnotationRule> returnValue = new ArrayList<>();
+    final InjectionManager injectionManager = applicationHandler.getInjectionManager();
+    final ExtendedResourceContext resourceContext =
+      injectionManager == null ? null : injectionManager.getInstance(ExtendedResourceContext.class);
+    final ResourceModel resourceModel = resourceContext == null ? null : resourceContext.getResourceModel();
+    if (resourceModel != null) {
+      for (final Resource root : resourceModel.getRootResources()) {
+        Bulkhead classBulkhead = null;
+        for (final Class<?> handlerClass : root.getHandlerClasses()) {
+          classBulkhead = this.getBulkhead(handlerClass);
+          if (classBulkhead != null) {
+            break;
+          }
+        }
+        if (classBulkhead != null) {
+          returnValue.add(new AnnotationRule(root.getPathPattern(), null, null, classBulkhead));
+        }
+        this.addMethodRules(root.getPathPattern(), null, root, returnValue);
+        for (final Resource child : root.getChildResources()) {
+          this.addMethodRules(root.getPathPattern(), child.getPathPattern(), child, returnValue);
+        }
+      }
+    }
+    if (logger.isLoggable(Level.FINE)) {
+      logger.logp(Level.FINE, cn, "computeAnnotationRules", "Annotation rules: {0}", returnValue);
+    }
+    // More specific rules first, so that a method's annotation wins
+    // over its class'.
+    Collections.reverse(returnValue);
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  private final void addMethodRules(final PathPattern rootPattern,
+                                    final PathPattern childPattern,
+                                    final Resource resource,
+                                    final Collection<? super AnnotationRule> rules) {
+    for (final ResourceMethod resourceMethod : resource.getResourceMethods()) {
+      final Bulkhead bulkhead = this.getBulkhead(resourceMethod.getInvocable());
+      if (bulkhead != null) {
+        rules.add(new AnnotationRule(rootPattern, childPattern, resourceMethod.getHttpMethod(), bulkhead));
+      }
+    }
+    final ResourceMethod locator = resource.getResourceLocator();
+    if (locator != null && childPattern != null) {
+      final Bulkhead bulkhead = this.getBulkhead(locator.getInvocable());
+      if (bulkhead != null) {
+        rules.add(new AnnotationRule(rootPattern, childPattern, null, bulkhead));
+      }
+    }
+  }
+
+  private final Bulkhead getBulkhead(final Invocable invocable) {
+    Bulkhead returnValue = null;
+    if (invocable != null) {
+      final Method definitionMethod = invocable.getDefinitionMethod();
+      returnValue = this.getBulkhead(definitionMethod);
+      if (returnValue == null) {
+        final Method handlingMethod = invocable.getHandlingMethod();
+        if (handlingMethod != null && !handlingMethod.equals(definitionMethod)) {
+          returnValue = this.getBulkhead(handlingMethod);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private final Bulkhead getBulkhead(final AnnotatedElement annotatedElement) {
+    Bulkhead returnValue = null;
+    final InBulkhead inBulkhead = annotatedElement == null ? null : annotatedElement.getAnnotation(InBulkhead.class);
+    if (inBulkhead != null) {
+      returnValue = this.get(inBulkhead.value());
+      if (returnValue == null && logger.isLoggable(Level.WARNING)) {
+        logger.logp(Level.WARNING, cn, "getBulkhead", "No such bulkhead: {0} (named by {1})", new Object[] { inBulkhead.value(), annotatedElement });
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final boolean isExhausted(final String rightHandPath) {
+    return rightHandPath == null || rightHandPath.isEmpty() || "/".equals(rightHandPath);
+  }
+
+  private static final String getRightHandPath(final MatchResult matchResult) {
+    return matchResult.groupCount() > 0 ? matchResult.group(matchResult.groupCount()) : null;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  private static final class PathRule {
+
+    private final Pattern pattern;
+
+    private final Bulkhead bulkhead;
+
+    private PathRule(final Pattern pattern, final Bulkhead bulkhead) {
+      super();
+      this.pattern = pattern;
+      this.bulkhead = bulkhead;
+    }
+
+  }
+
+  private static final class AnnotationRule {
+
+    private final PathPattern rootPattern;
+
+    private final PathPattern childPattern;
+
+    /**
+     * The request method covered, or {@code null} if this rule
+     * covers a whole subtree.
+     */
+    private final String httpMethod;
+
+    private final Bulkhead bulkhead;
+
+    private AnnotationRule(final PathPattern rootPattern,
+                           final PathPattern childPattern,
+                           final String httpMethod,
+                           final Bulkhead bulkhead) {
+      super();
+      this.rootPattern = rootPattern;
+      this.childPattern = childPattern;
+      this.httpMethod = httpMethod;
+      this.bulkhead = bulkhead;
+    }
+
+    private final boolean matches(final String method, final String path) {
+      boolean returnValue = false;
+      final MatchResult rootMatch = this.rootPattern.match(path);
+      if (rootMatch != null) {
+        String rightHandPath = getRightHandPath(rootMatch);
+        boolean pathMatches = true;
+        if (this.childPattern != null) {
+          final MatchResult childMatch = isExhausted(rightHandPath) ? null : this.childPattern.match(rightHandPath);
+          if (childMatch == null) {
+            pathMatches = false;
+          } else {
+            rightHandPath = getRightHandPath(childMatch);
+          }
+        }
+        if (pathMatches) {
+          if (this.httpMethod == null) {
+            returnValue = true;
+          } else if (isExhausted(rightHandPath)) {
+            returnValue =
+              this.httpMethod.equalsIgnoreCase(method) ||
+              (HttpMethod.GET.equals(this.httpMethod) && HttpMethod.HEAD.equalsIgnoreCase(method));
+          }
+        }
+      }
+      return returnValue;
+    }
+
+    @Override
+    public final String toString() {
+      return
+        this.rootPattern.getTemplate().getTemplate() +
+        (this.childPattern == null ? "" : this.childPattern.getTemplate().getTemplate()) +
+        (this.httpMethod == null ? " (all)" : " " + this.httpMethod) +
+        " -> " + this.bulkhead.getName();
+    }
+
+  }
+
+}
@@ -0,0 +1,130 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.annotation.Annotation;
+
+import java.lang.reflect.Type;
+
+import java.nio.ByteBuffer;
+
+import javax.ws.rs.Produces;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link MessageBodyWriter} that serializes {@link ByteBuf} and
+ * {@link ByteBuffer} entities by copying their readable (or
+ * remaining) bytes.
+ *
+ * <p>This is the fallback for such entities when a {@link
+ * DirectEntityWriterInterceptor} cannot arrange for them to be
+ * written without copying.  Neither the {@linkplain
+ * ByteBuf#readerIndex() reader index} of a {@link ByteBuf} nor the
+ * {@linkplain ByteBuffer#position() position} of a {@link
+ * ByteBuffer} is disturbed, and neither is released.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DirectEntityWriterInterceptor
+ */
+@Produces({ MediaType.APPLICATION_OCTET_STREAM, MediaType.WILDCARD })
+public final class ByteBufMessageBodyWriter implements MessageBodyWriter<Object> {
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ByteBufMessageBodyWriter}.
+   */
+  public ByteBufMessageBodyWriter() {
+    super();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final boolean isWriteable(final Class<?> type,
+                                   final Type genericType,
+                                   final Annotation[] annotations,
+                                   final MediaType mediaType) {
+    return type != null && (ByteBuf.class.isAssignableFrom(type) || ByteBuffer.class.isAssignableFrom(type));
+  }
+
+  @Override
+  public final long getSize(final Object entity,
+                            final Class<?> type,
+                            final Type genericType,
+                            final Annotation[] annotations,
+                            final MediaType mediaType) {
+    final long returnValue;
+    if (entity instanceof ByteBuf) {
+      returnValue = ((ByteBuf)entity).readableBytes();
+    } else if (entity instanceof ByteBuffer) {
+      returnValue = ((ByteBuffer)entity).remaining();
+    } else {
+      returnValue = -1L;
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final void writeTo(final Object entity,
+                            final Class<?> type,
+                            final Type genericType,
+                            final Annotation[] annotations,
+                            final MediaType mediaType,
+                            final MultivaluedMap<String, Object> httpHeaders,
+                            final OutputStream entityStream)
+    throws IOException {
+    if (entity instanceof ByteBuf) {
+      final ByteBuf byteBuf = (ByteBuf)entity;
+      byteBuf.getBytes(byteBuf.readerIndex(), entityStream, byteBuf.readableBytes());
+    } else if (entity instanceof ByteBuffer) {
+      final ByteBuffer byteBuffer = ((ByteBuffer)entity).duplicate();
+      if (byteBuffer.hasArray()) {
+        entityStream.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+      } else {
+        final byte[] buffer = new byte[Math.min(8192, byteBuffer.remaining())];
+        while (byteBuffer.hasRemaining()) {
+          final int length = Math.min(buffer.length, byteBuffer.remaining());
+          byteBuffer.get(buffer, 0, length);
+          entityStream.write(buffer, 0, length);
+        }
+      }
+    } else {
+      throw new IllegalArgumentException("entity: " + entity);
+    }
+  }
+
+}
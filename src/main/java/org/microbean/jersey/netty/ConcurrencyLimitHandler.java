@@ -0,0 +1,217 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.server.ApplicationHandler; // for javadoc only
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits immediately in front of an
+ * {@link AbstractContainerRequestHandlingResponseWriter} and, on the
+ * Netty event loop, refuses {@link ContainerRequest}s that an {@link
+ * AdaptiveConcurrencyLimiter} will not admit, so that they never
+ * reach the Jersey {@link io.netty.util.concurrent.EventExecutor}.
+ *
+ * <p>Refused HTTP 1.1 requests receive a {@code 503 Service
+ * Unavailable} response; refused HTTP/2 requests have their streams
+ * reset with a {@code REFUSED_STREAM} error code.  Any request entity
+ * is discarded.  As with an {@link AdmissionControlHandler}, a
+ * refused HTTP 1.1 request pipelined behind outstanding responses is
+ * answered once they have been written, with a {@code Connection:
+ * close} header, and the connection is then closed.</p>
+ *
+ * <p>An admitted {@link ContainerRequest} carries its permit as a
+ * {@linkplain ContainerRequest#getProperty(String) property}, and
+ * the {@link AbstractContainerRequestHandlingResponseWriter} that
+ * {@linkplain ApplicationHandler#handle(ContainerRequest) handles} it
+ * releases the permit when the request completes, so that the
+ * limiter learns how long it took.  Permits still outstanding when the channel
+ * becomes inactive are released without a latency sample.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}, but any number
+ * of them may share an {@link AdaptiveConcurrencyLimiter}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see AdaptiveConcurrencyLimiter
+ */
+public final class ConcurrencyLimitHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ConcurrencyLimitHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final HttpHeaders CONNECTION_CLOSE =
+    new DefaultHttpHeaders().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+
+  /**
+   * The name of the {@link ContainerRequest} property under which an
+   * admitted request's {@link AdaptiveConcurrencyLimiter.Permit} is
+   * stored.
+   */
+  static final String PERMIT_PROPERTY_NAME = AdaptiveConcurrencyLimiter.Permit.class.getName();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  // Oldest first; released permits are pruned as responses end.
+  private final Queue<AdaptiveConcurrencyLimiter.Permit> permits;
+
+  private int inFlightRequests;
+
+  // A pipelined HTTP 1.1 request that was refused and that will be
+  // answered, and the connection closed, once the requests ahead of
+  // it have been answered.
+  private ContainerRequest refusedRequest;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ConcurrencyLimitHandler}.
+   *
+   * @param concurrencyLimiter the {@link AdaptiveConcurrencyLimiter}
+   * that decides whether requests are admitted; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if {@code concurrencyLimiter} is
+   * {@code null}
+   */
+  public ConcurrencyLimitHandler(final AdaptiveConcurrencyLimiter concurrencyLimiter) {
+    super();
+    this.concurrencyLimiter = Objects.requireNonNull(concurrencyLimiter);
+    this.permits = new ArrayDeque<>(2);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      if (this.refusedRequest != null) {
+        // The connection is about to be closed.
+        ImmediateResponses.discardEntity(containerRequest);
+      } else {
+        final AdaptiveConcurrencyLimiter.Permit permit = this.concurrencyLimiter.tryAcquirePermit();
+        if (permit != null) {
+          this.inFlightRequests++;
+          this.permits.add(permit);
+          containerRequest.setProperty(PERMIT_PROPERTY_NAME, permit);
+          super.channelRead(channelHandlerContext, message);
+        } else {
+          if (logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "channelRead", "Refusing {0}; {1}", new Object[] { message, this.concurrencyLimiter });
+          }
+          if (this.inFlightRequests > 0 && !ImmediateResponses.isHttp2(channelHandlerContext.channel())) {
+            ImmediateResponses.discardEntity(containerRequest);
+            this.refusedRequest = containerRequest;
+          } else {
+            ImmediateResponses.refuse(channelHandlerContext, containerRequest);
+          }
+        }
+      }
+    } else {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    final boolean endOfResponse = this.inFlightRequests > 0 && ImmediateResponses.isEndOfResponse(message);
+    if (endOfResponse) {
+      this.inFlightRequests--;
+      AdaptiveConcurrencyLimiter.Permit permit;
+      while ((permit = this.permits.peek()) != null && permit.isReleased()) {
+        this.permits.poll();
+      }
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+    if (endOfResponse && this.inFlightRequests == 0 && this.refusedRequest != null) {
+      final ContainerRequest refusedRequest = this.refusedRequest;
+      this.refusedRequest = null;
+      ImmediateResponses.writeResponse(channelHandlerContext,
+                                       refusedRequest,
+                                       HttpResponseStatus.SERVICE_UNAVAILABLE,
+                                       CONNECTION_CLOSE,
+                                       null);
+    }
+  }
+
+  @Override
+  public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  private final void releaseAll() {
+    this.refusedRequest = null;
+    this.inFlightRequests = 0;
+    AdaptiveConcurrencyLimiter.Permit permit;
+    while ((permit = this.permits.poll()) != null) {
+      // Does nothing if the writer has released it already.
+      permit.release(false);
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Objects;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.HttpMethod;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits immediately after an
+ * {@link AbstractContainerRequestDecoder} and answers conditional
+ * {@code GET} and {@code HEAD} {@link ContainerRequest}s with {@code
+ * 304 Not Modified} on the Netty event loop when a {@link
+ * ValidatorRegistry} shows that the client's copy is current, so that
+ * such requests never reach Jersey.
+ *
+ * <p>{@code If-None-Match} and {@code If-Modified-Since} are
+ * honored.  A request with an unsafe method withdraws the validators
+ * of its URI.  Every other request is made aware of the {@link
+ * ValidatorRegistry} by way of the {@linkplain
+ * ContainerRequest#getProperty(String) request property} named by
+ * {@link ValidatorRegistry#PROPERTY_NAME} and passed on.</p>
+ *
+ * <p>An HTTP 1.1 request that arrives (pipelined) while an earlier
+ * request on the same connection is still being answered is passed
+ * on, since a {@code 304} response could not be written ahead of
+ * the earlier one.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}, but any number
+ * of them may share a {@link ValidatorRegistry}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ValidatorRegistry
+ */
+public final class ConditionalRequestHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ConditionalRequestHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final ValidatorRegistry validatorRegistry;
+
+  private int inFlightRequests;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ConditionalRequestHandler}.
+   *
+   * @param validatorRegistry the {@link ValidatorRegistry} to
+   * consult; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code validatorRegistry} is
+   * {@code null}
+   */
+  public ConditionalRequestHandler(final ValidatorRegistry validatorRegistry) {
+    super();
+    this.validatorRegistry = Objects.requireNonNull(validatorRegistry);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    boolean answered = false;
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      final String method = containerRequest.getMethod();
+      if (HttpMethod.GET.equalsIgnoreCase(method) || HttpMethod.HEAD.equalsIgnoreCase(method)) {
+        if (this.inFlightRequests == 0 || ImmediateResponses.isHttp2(channelHandlerContext.channel())) {
+          final String ifNoneMatch = containerRequest.getHeaderString(HttpHeaderNames.IF_NONE_MATCH.toString());
+          final String ifModifiedSince = containerRequest.getHeaderString(HttpHeaderNames.IF_MODIFIED_SINCE.toString());
+          if (ifNoneMatch != null || ifModifiedSince != null) {
+            final ValidatorRegistry.Validators validators =
+              this.validatorRegistry.get(containerRequest.getRequestUri().toString());
+            if (validators != null && validators.isNotModified(ifNoneMatch, ifModifiedSince)) {
+              if (logger.isLoggable(Level.FINE)) {
+                logger.logp(Level.FINE, cn, "channelRead", "{0} not modified", containerRequest.getRequestUri());
+              }
+              final HttpHeaders headers = new DefaultHttpHeaders();
+              if (validators.getEntityTag() != null) {
+                headers.set(HttpHeaderNames.ETAG, validators.getEntityTag());
+              }
+              if (validators.getLastModified() != null) {
+                headers.set(HttpHeaderNames.LAST_MODIFIED, validators.getLastModified());
+              }
+              ImmediateResponses.writeResponse(channelHandlerContext, containerRequest, HttpResponseStatus.NOT_MODIFIED, headers, null);
+              this.validatorRegistry.notModified();
+              answered = true;
+            }
+          }
+        }
+      } else if (!HttpMethod.OPTIONS.equalsIgnoreCase(method)) {
+        this.validatorRegistry.remove(containerRequest.getRequestUri().toString());
+      }
+      if (!answered) {
+        containerRequest.setProperty(ValidatorRegistry.PROPERTY_NAME, this.validatorRegistry);
+        this.inFlightRequests++;
+      }
+    }
+    if (!answered) {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    if (this.inFlightRequests > 0 && ImmediateResponses.isEndOfResponse(message)) {
+      this.inFlightRequests--;
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+  }
+
+}
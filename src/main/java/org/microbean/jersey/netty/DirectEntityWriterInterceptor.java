@@ -0,0 +1,209 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.file.Path;
+
+import javax.annotation.Priority;
+
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.HttpHeaders;
+
+import javax.ws.rs.ext.MessageBodyWriter; // for javadoc only
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf; // for javadoc only
+
+import io.netty.channel.DefaultFileRegion; // for javadoc only
+
+import io.netty.handler.stream.ChunkedNioFile; // for javadoc only
+import io.netty.handler.stream.ChunkedWriteHandler; // for javadoc only
+
+import org.glassfish.jersey.server.ContainerRequest; // for javadoc only
+import org.glassfish.jersey.server.ResourceConfig; // for javadoc only
+
+/**
+ * A {@link WriterInterceptor} that, when a response is being written
+ * by an {@link AbstractContainerRequestHandlingResponseWriter},
+ * prevents certain kinds of entity from being serialized by a {@link
+ * MessageBodyWriter} and instead hands them to the {@link
+ * AbstractContainerRequestHandlingResponseWriter} so that it can pass
+ * them to Netty without copying them.
+ *
+ * <p>The entities concerned are {@link File}s, {@link Path}s, {@link
+ * ByteBuf}s (including {@link CompositeByteBuf}s) and {@link
+ * ByteBuffer}s.  Over cleartext HTTP 1.1 the contents of files are
+ * sent with a {@link DefaultFileRegion}, which uses {@code sendfile}
+ * where the transport supports it; over TLS and HTTP/2 they are sent
+ * with a {@link ChunkedNioFile}.  The readable bytes of a {@link
+ * ByteBuf}, or the remaining bytes of a {@link ByteBuffer}, are sent
+ * as a single content message wrapping a retained duplicate of it;
+ * the application keeps its own reference and neither the index nor
+ * the position of the entity is disturbed.  The {@code
+ * Content-Length} of the response is the size of the entity.</p>
+ *
+ * <p>A {@link ServerSentEventBroadcaster.Subscription} entity is
+ * not written at all: the response headers are written, and the
+ * still-open response body is handed to the {@link
+ * ServerSentEventBroadcaster} that created it.</p>
+ *
+ * <p>Since a {@link ByteBuf} or {@link ByteBuffer} entity may still
+ * need to be serialized when this interceptor proceeds, applications
+ * returning them should also register a {@link
+ * ByteBufMessageBodyWriter}.</p>
+ *
+ * <p>To use this interceptor, {@linkplain
+ * ResourceConfig#register(Class) register} it with the application.
+ * A {@link JerseyChannelInitializer} notices the registration and
+ * installs the {@link ChunkedWriteHandler} that chunked transfers
+ * require.  When the response is not being written by an {@link
+ * AbstractContainerRequestHandlingResponseWriter}, or when an earlier
+ * interceptor has set a {@code Content-Encoding} header (and so has
+ * presumably wrapped the entity stream), this interceptor simply
+ * {@linkplain WriterInterceptorContext#proceed() proceeds}.  It runs
+ * after all other interceptors.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see AbstractContainerRequestHandlingResponseWriter#writeFileContent(java.nio.channels.FileChannel,
+ * long, org.glassfish.jersey.server.ContainerResponse)
+ */
+@Priority(Integer.MAX_VALUE)
+public final class DirectEntityWriterInterceptor implements WriterInterceptor {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The name of the {@linkplain ContainerRequest#getProperty(String)
+   * request property} under which an entity that is to be written
+   * directly is stored.
+   */
+  static final String ENTITY_PROPERTY_NAME = DirectEntityWriterInterceptor.class.getName() + ".entity";
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link DirectEntityWriterInterceptor}.
+   */
+  public DirectEntityWriterInterceptor() {
+    super();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * If the entity in the supplied {@link WriterInterceptorContext}
+   * can be written directly, stores it for the {@link
+   * AbstractContainerRequestHandlingResponseWriter} to find and
+   * returns without {@linkplain WriterInterceptorContext#proceed()
+   * proceeding}; otherwise proceeds.
+   *
+   * @param context the {@link WriterInterceptorContext} in effect;
+   * must not be {@code null}
+   *
+   * @exception NullPointerException if {@code context} is {@code
+   * null}
+   *
+   * @exception IOException if {@link
+   * WriterInterceptorContext#proceed()} throws an {@link
+   * IOException}
+   */
+  @Override
+  public final void aroundWriteTo(final WriterInterceptorContext context) throws IOException {
+    final Object entity = context.getEntity();
+    if (isDirectEntity(entity) &&
+        context.getProperty(AbstractContainerRequestHandlingResponseWriter.class.getName())
+        instanceof AbstractContainerRequestHandlingResponseWriter &&
+        !context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+      context.setProperty(ENTITY_PROPERTY_NAME, entity);
+    } else {
+      context.proceed();
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns {@code true} if the supplied entity is of a kind that
+   * this interceptor can arrange to have written directly.
+   *
+   * @param entity the entity to test; may be {@code null}
+   *
+   * @return {@code true} if the supplied entity can be written
+   * directly
+   */
+  static final boolean isDirectEntity(final Object entity) {
+    return
+      entity instanceof File ||
+      entity instanceof Path ||
+      entity instanceof ByteBuf ||
+      entity instanceof ByteBuffer ||
+      entity instanceof ServerSentEventBroadcaster.Subscription;
+  }
+
+  /**
+   * Returns {@code true} if a {@link DirectEntityWriterInterceptor}
+   * is registered with the supplied {@link Configuration}.
+   *
+   * @param configuration the {@link Configuration} to interrogate;
+   * may be {@code null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if a {@link DirectEntityWriterInterceptor}
+   * is registered with the supplied {@link Configuration}
+   */
+  static final boolean isRegistered(final Configuration configuration) {
+    boolean returnValue = false;
+    if (configuration != null) {
+      if (configuration.isRegistered(DirectEntityWriterInterceptor.class)) {
+        returnValue = true;
+      } else {
+        for (final Object instance : configuration.getInstances()) {
+          if (instance instanceof DirectEntityWriterInterceptor) {
+            returnValue = true;
+            break;
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+}
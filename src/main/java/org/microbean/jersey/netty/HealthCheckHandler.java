@@ -0,0 +1,273 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.function.Supplier;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits immediately after an
+ * {@link AbstractContainerRequestDecoder} and, on the Netty event
+ * loop, answers {@code GET} and {@code HEAD} requests for a liveness
+ * path and a readiness path with precomputed responses, so that
+ * health probes never wait behind application requests for a Jersey
+ * thread.
+ *
+ * <p>A request for the liveness path always receives a {@code 200
+ * OK} response: if the event loop can answer it, the server is
+ * alive.  A request for the readiness path receives a {@code 200 OK}
+ * response unless this handler's {@linkplain #isReady() readiness
+ * check} fails, in which case it receives a {@code 503 Service
+ * Unavailable} response.</p>
+ *
+ * <p>An HTTP 1.1 request that arrives (pipelined) while an earlier
+ * request on the same connection is still being answered is passed
+ * on, since a response could not be written ahead of the earlier
+ * one.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see NettyContainerProperties#LIVENESS_PATH
+ *
+ * @see NettyContainerProperties#READINESS_PATH
+ *
+ * @see NettyContainerProperties#READINESS_MAX_QUEUE_DEPTH
+ */
+public final class HealthCheckHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = HealthCheckHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final ByteBuf UP = newContent("UP\n");
+
+  private static final ByteBuf DOWN = newContent("DOWN\n");
+
+  private static final HttpHeaders HEADERS = new DefaultHttpHeaders()
+    .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN)
+    .set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_STORE);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final String livenessPath;
+
+  private final String readinessPath;
+
+  private final EventExecutorGroup jerseyEventExecutorGroup;
+
+  private final int maxQueueDepth;
+
+  private final Supplier<? extends ApplicationHandler> applicationHandlerSupplier;
+
+  private int inFlightRequests;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link HealthCheckHandler}.
+   *
+   * @param livenessPath the path, relative to the base URI and with
+   * or without a leading slash, of the liveness endpoint; may be
+   * {@code null} in which case there is no liveness endpoint
+   *
+   * @param readinessPath the path, relative to the base URI and with
+   * or without a leading slash, of the readiness endpoint; may be
+   * {@code null} in which case there is no readiness endpoint
+   *
+   * @param jerseyEventExecutorGroup the {@link EventExecutorGroup}
+   * on which Jersey handles requests; may be {@code null}
+   *
+   * @param maxQueueDepth the number of tasks that may be waiting, in
+   * total, to run on the supplied {@code jerseyEventExecutorGroup}
+   * before this handler reports that the server is not ready; if less
+   * than or equal to {@code 0} queue depth is not considered
+   *
+   * @param applicationHandlerSupplier the {@link Supplier} of {@link
+   * ApplicationHandler}s in use; may be {@code null}; if it is a
+   * {@link SimpleContainer} then the server is reported as not ready
+   * while it is {@linkplain SimpleContainer#isReloading() reloading}
+   *
+   * @see #isReady()
+   */
+  public HealthCheckHandler(final String livenessPath,
+                            final String readinessPath,
+                            final EventExecutorGroup jerseyEventExecutorGroup,
+                            final int maxQueueDepth,
+                            final Supplier<? extends ApplicationHandler> applicationHandlerSupplier) {
+    super();
+    this.livenessPath = normalize(livenessPath);
+    this.readinessPath = normalize(readinessPath);
+    this.jerseyEventExecutorGroup = jerseyEventExecutorGroup;
+    this.maxQueueDepth = Math.max(0, maxQueueDepth);
+    this.applicationHandlerSupplier = applicationHandlerSupplier;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    boolean answered = false;
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      if (this.inFlightRequests == 0 || ImmediateResponses.isHttp2(channelHandlerContext.channel())) {
+        final String method = containerRequest.getMethod();
+        if (HttpMethod.GET.name().equalsIgnoreCase(method) || HttpMethod.HEAD.name().equalsIgnoreCase(method)) {
+          final String path = normalize(containerRequest.getPath(false));
+          final boolean up;
+          if (path.equals(this.livenessPath)) {
+            up = true;
+            answered = true;
+          } else if (path.equals(this.readinessPath)) {
+            up = this.isReady();
+            answered = true;
+          } else {
+            up = false;
+          }
+          if (answered) {
+            if (logger.isLoggable(Level.FINE)) {
+              logger.logp(Level.FINE, cn, "channelRead", "{0} {1}: {2}",
+                          new Object[] { method, containerRequest.getRequestUri(), up ? "UP" : "DOWN" });
+            }
+            ImmediateResponses.writeResponse(channelHandlerContext,
+                                             containerRequest,
+                                             up ? HttpResponseStatus.OK : HttpResponseStatus.SERVICE_UNAVAILABLE,
+                                             HEADERS,
+                                             (up ? UP : DOWN).duplicate());
+          }
+        }
+      }
+      if (!answered) {
+        this.inFlightRequests++;
+      }
+    }
+    if (!answered) {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    if (this.inFlightRequests > 0 && ImmediateResponses.isEndOfResponse(message)) {
+      this.inFlightRequests--;
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+  }
+
+  /**
+   * Returns {@code true} if the server is ready to accept new
+   * requests.
+   *
+   * <p>The server is not ready if the {@link Supplier} of {@link
+   * ApplicationHandler}s supplied at construction time is a {@link
+   * SimpleContainer} that is {@linkplain SimpleContainer#isReloading()
+   * reloading}, or if the total number of {@linkplain
+   * SingleThreadEventExecutor#pendingTasks() pending tasks} across
+   * the Jersey {@link EventExecutorGroup} is greater than or equal to
+   * the maximum queue depth supplied at construction time.</p>
+   *
+   * @return {@code true} if the server is ready
+   */
+  public final boolean isReady() {
+    boolean returnValue =
+      !(this.applicationHandlerSupplier instanceof SimpleContainer) ||
+      !((SimpleContainer)this.applicationHandlerSupplier).isReloading();
+    if (returnValue && this.maxQueueDepth > 0 && this.jerseyEventExecutorGroup != null) {
+      int queueDepth = 0;
+      for (final EventExecutor eventExecutor : this.jerseyEventExecutorGroup) {
+        if (eventExecutor instanceof SingleThreadEventExecutor) {
+          queueDepth += ((SingleThreadEventExecutor)eventExecutor).pendingTasks();
+        }
+      }
+      returnValue = queueDepth < this.maxQueueDepth;
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final String normalize(final String path) {
+    String returnValue = path;
+    if (returnValue != null) {
+      while (returnValue.startsWith("/")) {
+        returnValue = returnValue.substring(1);
+      }
+      while (returnValue.endsWith("/")) {
+        returnValue = returnValue.substring(0, returnValue.length() - 1);
+      }
+    }
+    return returnValue;
+  }
+
+  private static final ByteBuf newContent(final String content) {
+    return Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(content, StandardCharsets.US_ASCII).asReadOnly());
+  }
+
+}
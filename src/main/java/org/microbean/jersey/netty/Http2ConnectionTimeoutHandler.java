@@ -0,0 +1,202 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline; // for javadoc only
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2MultiplexHandler; // for javadoc only
+import io.netty.handler.codec.http2.Http2StreamFrame;
+
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * A {@link ChannelDuplexHandler} that closes HTTP/2 connections that
+ * have had no active streams for too long.
+ *
+ * <p>Instances of this class belong in a {@link ChannelPipeline}
+ * immediately after an {@link Http2FrameCodec} and before an {@link
+ * Http2MultiplexHandler}, where they can see every stream frame in
+ * both directions.  Frames that do not belong to a stream, such as
+ * {@code PING} and {@code SETTINGS} frames, do not count as
+ * activity.  Closing the connection causes the {@link
+ * Http2FrameCodec} to send a {@code GOAWAY} frame.</p>
+ *
+ * <p>The timeout is checked with a single scheduled task per
+ * connection that reschedules itself; stream frames merely record
+ * the time at which they passed.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see NettyContainerProperties#IDLE_TIMEOUT
+ *
+ * @see HttpConnectionTimeoutHandler
+ */
+public final class Http2ConnectionTimeoutHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = Http2ConnectionTimeoutHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final long idleTimeoutNanos;
+
+  private final Runnable timeoutTask;
+
+  private ChannelHandlerContext channelHandlerContext;
+
+  private ScheduledFuture<?> timeout;
+
+  private long lastActivityNanos;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link Http2ConnectionTimeoutHandler}.
+   *
+   * @param idleTimeout the amount of time a connection may remain
+   * open with no active streams; if less than or equal to {@code 0}
+   * idle connections will not be closed
+   *
+   * @param timeUnit the {@link TimeUnit} in which {@code idleTimeout}
+   * is expressed; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code timeUnit} is {@code
+   * null}
+   */
+  public Http2ConnectionTimeoutHandler(final long idleTimeout, final TimeUnit timeUnit) {
+    super();
+    Objects.requireNonNull(timeUnit);
+    this.idleTimeoutNanos = idleTimeout <= 0L ? 0L : timeUnit.toNanos(idleTimeout);
+    this.timeoutTask = this::timedOut;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void handlerAdded(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.channelHandlerContext = channelHandlerContext;
+    this.lastActivityNanos = System.nanoTime();
+    if (this.idleTimeoutNanos > 0L && this.timeout == null) {
+      this.scheduleTimeout(this.idleTimeoutNanos);
+    }
+    super.handlerAdded(channelHandlerContext);
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.cancelTimeout();
+    this.channelHandlerContext = null;
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  @Override
+  public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.cancelTimeout();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    if (message instanceof Http2StreamFrame) {
+      this.lastActivityNanos = System.nanoTime();
+    }
+    super.channelRead(channelHandlerContext, message);
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    if (message instanceof Http2StreamFrame) {
+      this.lastActivityNanos = System.nanoTime();
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+  }
+
+  private final void scheduleTimeout(final long nanos) {
+    this.timeout = this.channelHandlerContext.executor().schedule(this.timeoutTask, nanos, TimeUnit.NANOSECONDS);
+  }
+
+  private final void cancelTimeout() {
+    final ScheduledFuture<?> timeout = this.timeout;
+    if (timeout != null) {
+      this.timeout = null;
+      timeout.cancel(false);
+    }
+  }
+
+  private final void timedOut() {
+    this.timeout = null;
+    final ChannelHandlerContext channelHandlerContext = this.channelHandlerContext;
+    if (channelHandlerContext != null && channelHandlerContext.channel().isActive()) {
+      final long now = System.nanoTime();
+      final Http2FrameCodec http2FrameCodec = channelHandlerContext.pipeline().get(Http2FrameCodec.class);
+      if (http2FrameCodec != null && http2FrameCodec.connection().numActiveStreams() > 0) {
+        // Streams are open, perhaps waiting on a slow resource
+        // method; that is not idleness.
+        this.lastActivityNanos = now;
+        this.scheduleTimeout(this.idleTimeoutNanos);
+      } else {
+        final long remainingNanos = this.idleTimeoutNanos - (now - this.lastActivityNanos);
+        if (remainingNanos > 0L) {
+          this.scheduleTimeout(remainingNanos);
+        } else {
+          if (logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "timedOut", "Closing idle connection {0}", channelHandlerContext.channel());
+          }
+          channelHandlerContext.close();
+        }
+      }
+    }
+  }
+
+}
@@ -18,6 +18,8 @@ package org.microbean.jersey.netty;
 
 import java.io.IOException;
 
+import java.nio.channels.FileChannel;
+
 import java.util.Objects;
 
 import java.util.function.Supplier;
@@ -30,21 +32,30 @@ import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response.Status;
 
+import io.netty.buffer.ByteBuf;
+
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
 import io.netty.handler.codec.http2.DefaultHttp2Headers;
 import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
 import io.netty.handler.codec.http2.Http2DataFrame; // for javadoc only
 import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2DataChunkedInput;
 import io.netty.handler.codec.http2.Http2HeadersFrame; // for javadoc only
+import io.netty.handler.codec.http2.Http2StreamChannel;
+
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest; // for javadoc only
 import org.glassfish.jersey.server.ContainerResponse;
 
 import org.microbean.jersey.netty.AbstractByteBufBackedChannelOutboundInvokingOutputStream.ByteBufCreator;
@@ -274,8 +285,9 @@ public final class Http2ContainerRequestHandlingResponseWriter extends AbstractC
    *
    * @param containerResponse a {@link ContainerResponse} for which an
    * {@link AbstractChannelOutboundInvokingOutputStream} is being
-   * created and returned; must not be {@code null}; ignored by this
-   * implementation
+   * created and returned; must not be {@code null}; used only to
+   * {@linkplain #getFlushThreshold(ContainerResponse) determine the
+   * flush threshold}
    *
    * @return a new {@link
    * ByteBufBackedChannelOutboundInvokingHttp2DataFrameOutputStream}
@@ -296,7 +308,7 @@ public final class Http2ContainerRequestHandlingResponseWriter extends AbstractC
       throw new IllegalArgumentException("contentLength == 0L");
     }
     return new ByteBufBackedChannelOutboundInvokingHttp2DataFrameOutputStream(this.getChannelHandlerContext(),
-                                                                              this.getFlushThreshold(),
+                                                                              this.getFlushThreshold(containerResponse),
                                                                               false,
                                                                               this.getByteBufCreator()) {
       @Override
@@ -310,6 +322,85 @@ public final class Http2ContainerRequestHandlingResponseWriter extends AbstractC
     };
   }
 
+  /**
+   * Writes the entire contents of the supplied {@link FileChannel} as
+   * the body of the current response without copying it onto the
+   * heap.
+   *
+   * <p>If the current {@link Channel} is an {@link
+   * Http2StreamChannel} and there is a {@link ChunkedWriteHandler} in
+   * its pipeline, the file is written as an {@link
+   * Http2DataChunkedInput} wrapping a {@link ChunkedNioFile}, which
+   * ends the stream once the file has been sent.  Otherwise the
+   * superclass implementation is used.</p>
+   *
+   * @param fileChannel the {@link FileChannel} to write; must not be
+   * {@code null}
+   *
+   * @param length the number of bytes to write; always greater than
+   * {@code 0L}
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code fileChannel} is {@code
+   * null} or if {@link #getChannelHandlerContext()} returns {@code
+   * null}
+   *
+   * @exception IOException if an input or output error occurs
+   *
+   * @see DirectEntityWriterInterceptor
+   */
+  @Override
+  protected final void writeFileContent(final FileChannel fileChannel,
+                                        final long length,
+                                        final ContainerResponse containerResponse)
+    throws IOException {
+    final ChannelHandlerContext channelHandlerContext = Objects.requireNonNull(this.getChannelHandlerContext());
+    final Channel channel = channelHandlerContext.channel();
+    if (channel instanceof Http2StreamChannel && channelHandlerContext.pipeline().get(ChunkedWriteHandler.class) != null) {
+      final ChannelPromise channelPromise = channelHandlerContext.newPromise();
+      assert channelPromise != null;
+      channelPromise.addListener(listener);
+      channelHandlerContext.writeAndFlush(new Http2DataChunkedInput(new ChunkedNioFile(fileChannel),
+                                                                    ((Http2StreamChannel)channel).stream()),
+                                          channelPromise);
+    } else {
+      super.writeFileContent(fileChannel, length, containerResponse);
+    }
+  }
+
+  /**
+   * Writes the supplied {@link ByteBuf} as the body of the current
+   * response by wrapping it in a {@link DefaultHttp2DataFrame} that
+   * ends the stream, without copying it.
+   *
+   * <p>The HTTP/2 codec splits the frame as flow control and the
+   * maximum frame size require.</p>
+   *
+   * @param content the {@link ByteBuf} to write; must not be {@code
+   * null}
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; must not be {@code null}; ignored by this
+   * implementation
+   *
+   * @exception NullPointerException if {@code content} is {@code
+   * null} or if {@link #getChannelHandlerContext()} returns {@code
+   * null}
+   *
+   * @see DirectEntityWriterInterceptor
+   */
+  @Override
+  protected final void writeByteBufContent(final ByteBuf content,
+                                           final ContainerResponse containerResponse) {
+    final ChannelHandlerContext channelHandlerContext = Objects.requireNonNull(this.getChannelHandlerContext());
+    final ChannelPromise channelPromise = channelHandlerContext.newPromise();
+    assert channelPromise != null;
+    channelPromise.addListener(listener);
+    channelHandlerContext.writeAndFlush(new DefaultHttp2DataFrame(content, true), channelPromise);
+  }
+
   /**
    * Writes an appropriate failure message using the return value of
    * the {@link #getChannelHandlerContext()} method.
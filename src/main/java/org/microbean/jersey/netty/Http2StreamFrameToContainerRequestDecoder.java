@@ -151,6 +151,26 @@ public class Http2StreamFrameToContainerRequestDecoder extends AbstractContainer
     return http2HeadersFrame.headers().method().toString();
   }
 
+  /**
+   * Extracts and returns the authority (host and optional port) the
+   * supplied message is addressed to, which is guaranteed to be a
+   * {@linkplain #isHeaders(Object) "headers" message}.
+   *
+   * <p>This implementation returns the value of the supplied {@link
+   * Http2HeadersFrame}'s {@code :authority} pseudo-header.</p>
+   *
+   * @param http2HeadersFrame the message to interrogate; will not be
+   * {@code null}
+   *
+   * @return the value of the {@code :authority} pseudo-header, or
+   * {@code null}
+   */
+  @Override
+  protected final String getAuthority(final Http2HeadersFrame http2HeadersFrame) {
+    final CharSequence authority = http2HeadersFrame.headers().authority();
+    return authority == null ? null : authority.toString();
+  }
+
   /**
    * Overrides the {@link
    * AbstractContainerRequestDecoder#installMessage(ChannelHandlerContext,
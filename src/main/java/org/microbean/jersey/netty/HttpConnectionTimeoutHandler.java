@@ -0,0 +1,320 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline; // for javadoc only
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec; // for javadoc only
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * A {@link ChannelDuplexHandler} that closes HTTP 1.1 connections
+ * that sit idle between requests for too long, and that answers
+ * requests whose headers take too long to arrive with a {@code 408
+ * Request Timeout} response before closing the connection.
+ *
+ * <p>Instances of this class belong in a {@link ChannelPipeline}
+ * after an {@link HttpServerCodec} (and any {@link
+ * io.netty.handler.codec.http.HttpServerExpectContinueHandler}) and
+ * before an {@link HttpObjectToContainerRequestDecoder}.  A request
+ * is deemed to have started arriving when a read completes without
+ * the {@link HttpServerCodec} having produced a message from it, and
+ * is deemed to have been completely answered when the {@link
+ * LastHttpContent} of its response has been written.</p>
+ *
+ * <p>Request entities are not governed by this class; see {@link
+ * NettyContainerProperties#BODY_READ_TIMEOUT}.</p>
+ *
+ * <p>An instance of this class removes itself from its pipeline if
+ * the connection is upgraded to HTTP/2.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see NettyContainerProperties#IDLE_TIMEOUT
+ *
+ * @see NettyContainerProperties#REQUEST_HEADER_TIMEOUT
+ *
+ * @see Http2ConnectionTimeoutHandler
+ */
+public final class HttpConnectionTimeoutHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = HttpConnectionTimeoutHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final int AWAITING_REQUEST = 0;
+
+  private static final int READING_HEADERS = 1;
+
+  private static final int READING_BODY = 2;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final long idleTimeoutNanos;
+
+  private final long requestHeaderTimeoutNanos;
+
+  private final Runnable timeoutTask;
+
+  private final ChannelFutureListener responseWrittenListener;
+
+  private ChannelHandlerContext channelHandlerContext;
+
+  private ScheduledFuture<?> timeout;
+
+  private int state;
+
+  private int pendingResponses;
+
+  private boolean readMessage;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link HttpConnectionTimeoutHandler}.
+   *
+   * @param idleTimeout the amount of time a connection may remain
+   * open with no request outstanding; if less than or equal to {@code
+   * 0} idle connections will not be closed
+   *
+   * @param requestHeaderTimeout the amount of time a client may take
+   * to send a request line and its headers; if less than or equal to
+   * {@code 0} there will be no limit
+   *
+   * @param timeUnit the {@link TimeUnit} in which both timeouts are
+   * expressed; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code timeUnit} is {@code
+   * null}
+   */
+  public HttpConnectionTimeoutHandler(final long idleTimeout,
+                                      final long requestHeaderTimeout,
+                                      final TimeUnit timeUnit) {
+    super();
+    Objects.requireNonNull(timeUnit);
+    this.idleTimeoutNanos = idleTimeout <= 0L ? 0L : timeUnit.toNanos(idleTimeout);
+    this.requestHeaderTimeoutNanos = requestHeaderTimeout <= 0L ? 0L : timeUnit.toNanos(requestHeaderTimeout);
+    this.timeoutTask = this::timedOut;
+    this.responseWrittenListener = f -> this.responseWritten();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void handlerAdded(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.channelHandlerContext = channelHandlerContext;
+    if (channelHandlerContext.channel().isActive()) {
+      this.awaitRequest();
+    }
+    super.handlerAdded(channelHandlerContext);
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.cancelTimeout();
+    this.channelHandlerContext = null;
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  @Override
+  public final void channelActive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.awaitRequest();
+    super.channelActive(channelHandlerContext);
+  }
+
+  @Override
+  public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.cancelTimeout();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    if (message instanceof HttpObject) {
+      this.readMessage = true;
+      if (message instanceof HttpRequest) {
+        this.cancelTimeout();
+        this.pendingResponses++;
+        this.state = message instanceof LastHttpContent ? AWAITING_REQUEST : READING_BODY;
+      } else if (message instanceof LastHttpContent) {
+        this.state = AWAITING_REQUEST;
+      }
+    }
+    super.channelRead(channelHandlerContext, message);
+  }
+
+  @Override
+  public final void channelReadComplete(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    if (!this.readMessage && this.state == AWAITING_REQUEST) {
+      // Bytes arrived but the codec could not yet make a request out
+      // of them: a request has started.
+      this.state = READING_HEADERS;
+      this.cancelTimeout();
+      if (this.requestHeaderTimeoutNanos > 0L) {
+        this.scheduleTimeout(this.requestHeaderTimeoutNanos);
+      }
+    }
+    this.readMessage = false;
+    super.channelReadComplete(channelHandlerContext);
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    if (message instanceof LastHttpContent) {
+      // Don't start the idle clock until the response has actually
+      // left, so that slow readers of large responses aren't
+      // mistaken for idle connections.
+      final ChannelPromise unvoidedChannelPromise = channelPromise.unvoid();
+      unvoidedChannelPromise.addListener(this.responseWrittenListener);
+      super.write(channelHandlerContext, message, unvoidedChannelPromise);
+    } else {
+      super.write(channelHandlerContext, message, channelPromise);
+    }
+  }
+
+  @Override
+  public final void userEventTriggered(final ChannelHandlerContext channelHandlerContext, final Object event) throws Exception {
+    if (event instanceof HttpServerUpgradeHandler.UpgradeEvent ||
+        event instanceof CleartextHttp2ServerUpgradeHandler.PriorKnowledgeUpgradeEvent) {
+      // HTTP/2 is in effect; Http2ConnectionTimeoutHandler takes
+      // over.
+      channelHandlerContext.pipeline().remove(this);
+    }
+    super.userEventTriggered(channelHandlerContext, event);
+  }
+
+  private final void responseWritten() {
+    if (this.pendingResponses > 0) {
+      this.pendingResponses--;
+    }
+    if (this.pendingResponses == 0 && this.state == AWAITING_REQUEST) {
+      this.awaitRequest();
+    }
+  }
+
+  private final void awaitRequest() {
+    this.state = AWAITING_REQUEST;
+    this.cancelTimeout();
+    if (this.idleTimeoutNanos > 0L && this.pendingResponses == 0) {
+      this.scheduleTimeout(this.idleTimeoutNanos);
+    }
+  }
+
+  private final void scheduleTimeout(final long nanos) {
+    final ChannelHandlerContext channelHandlerContext = this.channelHandlerContext;
+    if (channelHandlerContext != null) {
+      this.timeout = channelHandlerContext.executor().schedule(this.timeoutTask, nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private final void cancelTimeout() {
+    final ScheduledFuture<?> timeout = this.timeout;
+    if (timeout != null) {
+      this.timeout = null;
+      timeout.cancel(false);
+    }
+  }
+
+  private final void timedOut() {
+    this.timeout = null;
+    final ChannelHandlerContext channelHandlerContext = this.channelHandlerContext;
+    if (channelHandlerContext != null && channelHandlerContext.channel().isActive()) {
+      switch (this.state) {
+      case AWAITING_REQUEST:
+        if (this.pendingResponses == 0) {
+          if (logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "timedOut", "Closing idle connection {0}", channelHandlerContext.channel());
+          }
+          channelHandlerContext.close();
+        }
+        break;
+      case READING_HEADERS:
+        if (logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, cn, "timedOut", "Request headers timed out on {0}", channelHandlerContext.channel());
+        }
+        if (this.pendingResponses == 0) {
+          final FullHttpResponse response =
+            new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUEST_TIMEOUT, Unpooled.EMPTY_BUFFER);
+          response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+          response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+          channelHandlerContext.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        } else {
+          // An earlier response is still being written; a 408 can't
+          // be interleaved with it.
+          channelHandlerContext.close();
+        }
+        break;
+      case READING_BODY:
+        break;
+      default:
+        throw new IllegalStateException("Unexpected state: " + this.state);
+      }
+    }
+  }
+
+}
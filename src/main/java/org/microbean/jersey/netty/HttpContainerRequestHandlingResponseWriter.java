@@ -16,8 +16,11 @@
  */
 package org.microbean.jersey.netty;
 
+import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.channels.FileChannel;
+
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -31,11 +34,17 @@ import javax.ws.rs.HttpMethod;
 
 import javax.ws.rs.core.Response.StatusType;
 
+import io.netty.buffer.ByteBuf;
+
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultFileRegion;
 
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpChunkedInput;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMessage;
@@ -44,6 +53,12 @@ import io.netty.handler.codec.http.HttpResponse; // for javadoc only
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.handler.ssl.SslHandler;
+
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -336,7 +351,9 @@ public final class HttpContainerRequestHandlingResponseWriter extends AbstractCo
    *
    * @param containerResponse a {@link ContainerResponse} for which an
    * {@link OutputStream} is being created and returned; must not be
-   * {@code null}; ignored by this implementation
+   * {@code null}; used only to {@linkplain
+   * #getFlushThreshold(ContainerResponse) determine the flush
+   * threshold}
    *
    * @return a new {@link
    * ByteBufBackedChannelOutboundInvokingHttpContentOutputStream}
@@ -357,7 +374,7 @@ public final class HttpContainerRequestHandlingResponseWriter extends AbstractCo
       throw new IllegalArgumentException("contentLength == 0L");
     }
     return new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(this.getChannelHandlerContext(),
-                                                                           this.getFlushThreshold(),
+                                                                           this.getFlushThreshold(containerResponse),
                                                                            false,
                                                                            this.getByteBufCreator()) {
       @Override
@@ -371,10 +388,90 @@ public final class HttpContainerRequestHandlingResponseWriter extends AbstractCo
     };
   }
 
+  /**
+   * Writes the entire contents of the supplied {@link FileChannel} as
+   * the body of the current response without copying it.
+   *
+   * <p>If there is no {@link SslHandler} in the {@link
+   * ChannelPipeline}, the file is written as a {@link
+   * DefaultFileRegion} followed by an empty {@link LastHttpContent},
+   * so that the transport may use {@code sendfile}.  Otherwise, if
+   * there is a {@link ChunkedWriteHandler} in the {@link
+   * ChannelPipeline}, it is written as an {@link HttpChunkedInput}
+   * wrapping a {@link ChunkedNioFile}.  Failing both, the superclass
+   * implementation is used.</p>
+   *
+   * @param fileChannel the {@link FileChannel} to write; must not be
+   * {@code null}
+   *
+   * @param length the number of bytes to write; always greater than
+   * {@code 0L}
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code fileChannel} is {@code
+   * null} or if {@link #getChannelHandlerContext()} returns {@code
+   * null}
+   *
+   * @exception IOException if an input or output error occurs
+   *
+   * @see DirectEntityWriterInterceptor
+   */
+  @Override
+  protected final void writeFileContent(final FileChannel fileChannel,
+                                        final long length,
+                                        final ContainerResponse containerResponse)
+    throws IOException {
+    final ChannelHandlerContext channelHandlerContext = Objects.requireNonNull(this.getChannelHandlerContext());
+    final ChannelPipeline channelPipeline = channelHandlerContext.pipeline();
+    if (channelPipeline.get(SslHandler.class) == null) {
+      channelHandlerContext.write(new DefaultFileRegion(fileChannel, 0L, length), this.newPromise(channelHandlerContext));
+      channelHandlerContext.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT, this.newPromise(channelHandlerContext));
+    } else if (channelPipeline.get(ChunkedWriteHandler.class) != null) {
+      channelHandlerContext.writeAndFlush(new HttpChunkedInput(new ChunkedNioFile(fileChannel)), this.newPromise(channelHandlerContext));
+    } else {
+      super.writeFileContent(fileChannel, length, containerResponse);
+    }
+  }
+
+  /**
+   * Writes the supplied {@link ByteBuf} as the body of the current
+   * response by wrapping it in a {@link DefaultLastHttpContent},
+   * without copying it.
+   *
+   * @param content the {@link ByteBuf} to write; must not be {@code
+   * null}
+   *
+   * @param containerResponse the {@link ContainerResponse} being
+   * written; must not be {@code null}; ignored by this
+   * implementation
+   *
+   * @exception NullPointerException if {@code content} is {@code
+   * null} or if {@link #getChannelHandlerContext()} returns {@code
+   * null}
+   *
+   * @see DirectEntityWriterInterceptor
+   */
+  @Override
+  protected final void writeByteBufContent(final ByteBuf content,
+                                           final ContainerResponse containerResponse) {
+    final ChannelHandlerContext channelHandlerContext = Objects.requireNonNull(this.getChannelHandlerContext());
+    channelHandlerContext.writeAndFlush(new DefaultLastHttpContent(content), this.newPromise(channelHandlerContext));
+  }
+
+  private final ChannelPromise newPromise(final ChannelHandlerContext channelHandlerContext) {
+    final ChannelPromise returnValue = channelHandlerContext.newPromise();
+    assert returnValue != null;
+    returnValue.addListener(listener);
+    return returnValue;
+  }
+
   /**
    * Overrides {@link
-   * AbstractContainerRequestHandlingResponseWriter#commit()} to still
-   * effectively do nothing, but clean up some internal state.
+   * AbstractContainerRequestHandlingResponseWriter#commit()} to clean
+   * up some internal state before calling the superclass
+   * implementation.
    *
    * @see AbstractContainerRequestHandlingResponseWriter#commit()
    */
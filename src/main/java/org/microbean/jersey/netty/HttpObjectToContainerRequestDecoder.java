@@ -33,6 +33,7 @@ import io.netty.channel.ChannelHandlerContext; // for javadoc only
 
 import io.netty.handler.codec.http.FullHttpMessage;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpObject;
@@ -157,6 +158,47 @@ public final class HttpObjectToContainerRequestDecoder extends AbstractContainer
     return httpRequest.method().name();
   }
 
+  /**
+   * Extracts and returns the authority (host and optional port) the
+   * supplied message is addressed to, which is guaranteed to be a
+   * {@linkplain #isHeaders(Object) "headers" message}.
+   *
+   * <p>This implementation returns the value of the supplied {@link
+   * HttpRequest}'s {@code Host} header.</p>
+   *
+   * @param httpRequest the message to interrogate; will not be {@code
+   * null}
+   *
+   * @return the value of the {@code Host} header, or {@code null}
+   */
+  @Override
+  protected final String getAuthority(final HttpRequest httpRequest) {
+    return httpRequest.headers().get(HttpHeaderNames.HOST);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link HttpRequest}, which
+   * is guaranteed not to be {@linkplain #isLast(HttpObject) the last}
+   * message of its request, declares an entity.
+   *
+   * <p>This implementation returns {@code true} if the request's
+   * {@linkplain HttpUtil#getContentLength(HttpMessage, long) content
+   * length} is positive or it is {@linkplain
+   * HttpUtil#isTransferEncodingChunked(HttpMessage) chunked}.  An
+   * HTTP/1.1 request with neither is followed only by an empty
+   * {@link LastHttpContent}.</p>
+   *
+   * @param httpRequest the message to interrogate; will not be {@code
+   * null}
+   *
+   * @return {@code true} if an entity is expected to follow the
+   * supplied message; {@code false} otherwise
+   */
+  @Override
+  protected final boolean isEntityExpected(final HttpRequest httpRequest) {
+    return HttpUtil.getContentLength(httpRequest, -1L) > 0L || HttpUtil.isTransferEncodingChunked(httpRequest);
+  }
+
   /**
    * Overrides the {@link
    * AbstractContainerRequestDecoder#installMessage(ChannelHandlerContext,
@@ -0,0 +1,318 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.HttpMethod;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2ResetFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * Utility methods for answering a {@link ContainerRequest} directly
+ * from the Netty event loop, without involving Jersey, over either
+ * HTTP 1.1 or HTTP/2.
+ *
+ * <p>A response written by these methods never overtakes response
+ * content that an {@link AbstractChannelOutboundInvokingOutputStream}
+ * has queued for the same {@link Channel} but that the event loop has
+ * not yet written.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+final class ImmediateResponses {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ImmediateResponses.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Constructors.
+   */
+
+
+  private ImmediateResponses() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns {@code true} if the supplied {@link Channel} is an HTTP/2
+   * stream channel.
+   *
+   * @param channel the {@link Channel} to test; may be {@code null}
+   *
+   * @return {@code true} if the supplied {@link Channel} is an HTTP/2
+   * stream channel
+   */
+  static final boolean isHttp2(final Channel channel) {
+    return channel instanceof Http2StreamChannel;
+  }
+
+  /**
+   * Returns {@code true} if the supplied outbound message ends a
+   * response.
+   *
+   * @param message the message to test; may be {@code null}
+   *
+   * @return {@code true} if the supplied outbound message ends a
+   * response
+   */
+  static final boolean isEndOfResponse(final Object message) {
+    final boolean returnValue;
+    if (message instanceof LastHttpContent) {
+      returnValue = true;
+    } else if (message instanceof Http2HeadersFrame) {
+      returnValue = ((Http2HeadersFrame)message).isEndStream();
+    } else if (message instanceof Http2DataFrame) {
+      returnValue = ((Http2DataFrame)message).isEndStream();
+    } else {
+      returnValue = message instanceof Http2ResetFrame;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Writes and flushes a complete response to the supplied {@link
+   * ContainerRequest}, which has not been and will not be handled by
+   * Jersey.
+   *
+   * <p>Any entity the request may have is {@linkplain
+   * #discardEntity(ContainerRequest) discarded}.  The supplied {@code
+   * content} is not sent in response to a {@code HEAD} request, but
+   * is always released.  Over HTTP 1.1, the connection is closed
+   * afterwards unless the request asked for it to be kept alive and
+   * the supplied {@code headers} do not include a {@code Connection:
+   * close} header.</p>
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext}
+   * from which to write; must not be {@code null}
+   *
+   * @param containerRequest the request being answered; must not be
+   * {@code null}
+   *
+   * @param status the response status; must not be {@code null}
+   *
+   * @param headers additional response headers; may be {@code null};
+   * a {@code Content-Length} header is always set, except on a {@code
+   * 304 Not Modified} response
+   *
+   * @param content the response entity, ownership of which passes to
+   * this method; may be {@code null}
+   *
+   * @return the {@link ChannelFuture} for the final write; never
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code channelHandlerContext},
+   * {@code containerRequest} or {@code status} is {@code null}
+   */
+  static final ChannelFuture writeResponse(final ChannelHandlerContext channelHandlerContext,
+                                           final ContainerRequest containerRequest,
+                                           final HttpResponseStatus status,
+                                           final HttpHeaders headers,
+                                           ByteBuf content) {
+    discardEntity(containerRequest);
+    if (content == null) {
+      content = Unpooled.EMPTY_BUFFER;
+    }
+    final int contentLength = content.readableBytes();
+    final boolean setContentLength = status.code() != HttpResponseStatus.NOT_MODIFIED.code();
+    if (HttpMethod.HEAD.equalsIgnoreCase(containerRequest.getMethod())) {
+      content.release();
+      content = Unpooled.EMPTY_BUFFER;
+    }
+    final boolean defer = mustDefer(channelHandlerContext.channel());
+    final ChannelPromise returnValue = channelHandlerContext.newPromise();
+    if (isHttp2(channelHandlerContext.channel())) {
+      final Http2Headers http2Headers;
+      if (headers == null) {
+        http2Headers = new DefaultHttp2Headers();
+      } else {
+        http2Headers = HttpConversionUtil.toHttp2Headers(headers, false);
+      }
+      http2Headers.status(status.codeAsText());
+      if (setContentLength) {
+        http2Headers.setInt(HttpHeaderNames.CONTENT_LENGTH, contentLength);
+      }
+      if (content.isReadable()) {
+        write(channelHandlerContext, new DefaultHttp2HeadersFrame(http2Headers, false), channelHandlerContext.newPromise(), false, defer);
+        write(channelHandlerContext, new DefaultHttp2DataFrame(content, true), returnValue, true, defer);
+      } else {
+        content.release();
+        write(channelHandlerContext, new DefaultHttp2HeadersFrame(http2Headers, true), returnValue, true, defer);
+      }
+    } else {
+      final Object httpRequestValue = containerRequest.getProperty(HttpRequest.class.getName());
+      final HttpRequest httpRequest = httpRequestValue instanceof HttpRequest ? (HttpRequest)httpRequestValue : null;
+      final HttpVersion httpVersion = httpRequest == null ? HttpVersion.HTTP_1_1 : httpRequest.protocolVersion();
+      final FullHttpResponse response = new DefaultFullHttpResponse(httpVersion, status, content);
+      if (headers != null) {
+        response.headers().set(headers);
+      }
+      if (setContentLength) {
+        HttpUtil.setContentLength(response, contentLength);
+      }
+      final boolean keepAlive =
+        httpRequest != null &&
+        HttpUtil.isKeepAlive(httpRequest) &&
+        (headers == null || !headers.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE, true));
+      HttpUtil.setKeepAlive(response, keepAlive);
+      write(channelHandlerContext, response, returnValue, true, defer);
+      if (!keepAlive) {
+        returnValue.addListener(ChannelFutureListener.CLOSE);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Refuses the supplied {@link ContainerRequest}, which has not been
+   * and will not be handled by Jersey, in a way that tells the client
+   * it may safely retry: over HTTP/2 the stream is reset with a
+   * {@link Http2Error#REFUSED_STREAM REFUSED_STREAM} error code, and
+   * over HTTP 1.1 a {@code 503 Service Unavailable} response is
+   * written.
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext}
+   * from which to write; must not be {@code null}
+   *
+   * @param containerRequest the request being refused; must not be
+   * {@code null}
+   *
+   * @return the {@link ChannelFuture} for the write; never {@code
+   * null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  static final ChannelFuture refuse(final ChannelHandlerContext channelHandlerContext,
+                                    final ContainerRequest containerRequest) {
+    final ChannelFuture returnValue;
+    if (isHttp2(channelHandlerContext.channel())) {
+      discardEntity(containerRequest);
+      final ChannelPromise channelPromise = channelHandlerContext.newPromise();
+      write(channelHandlerContext,
+            new DefaultHttp2ResetFrame(Http2Error.REFUSED_STREAM),
+            channelPromise,
+            true,
+            mustDefer(channelHandlerContext.channel()));
+      returnValue = channelPromise;
+    } else {
+      returnValue = writeResponse(channelHandlerContext, containerRequest, HttpResponseStatus.SERVICE_UNAVAILABLE, null, null);
+    }
+    return returnValue;
+  }
+
+  // Returns true if a message written now would overtake response
+  // content that an AbstractChannelOutboundInvokingOutputStream has
+  // handed to the event loop, which is running this method, but that
+  // the event loop has not yet written.
+  private static final boolean mustDefer(final Channel channel) {
+    return AbstractChannelOutboundInvokingOutputStream.handOffQueuedWrites(channel) && channel.eventLoop().inEventLoop();
+  }
+
+  private static final void write(final ChannelHandlerContext channelHandlerContext,
+                                  final Object message,
+                                  final ChannelPromise channelPromise,
+                                  final boolean flush,
+                                  final boolean defer) {
+    if (defer) {
+      // Tasks run in order, so this runs after the pending writes.
+      channelHandlerContext.channel().eventLoop().execute(() -> write(channelHandlerContext, message, channelPromise, flush, false));
+    } else if (flush) {
+      channelHandlerContext.writeAndFlush(message, channelPromise);
+    } else {
+      channelHandlerContext.write(message, channelPromise);
+    }
+  }
+
+  /**
+   * Closes the entity stream of the supplied {@link
+   * ContainerRequest}, if it has one, so that any of its content
+   * that has arrived, or that will arrive, is released.
+   *
+   * @param containerRequest the {@link ContainerRequest} whose entity
+   * is to be discarded; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code containerRequest} is
+   * {@code null}
+   *
+   * @see TerminableByteBufInputStream#close()
+   */
+  static final void discardEntity(final ContainerRequest containerRequest) {
+    final InputStream entityStream = containerRequest.getEntityStream();
+    if (entityStream instanceof TerminableByteBufInputStream) {
+      try {
+        entityStream.close();
+      } catch (final IOException ignore) {
+        if (logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, cn, "discardEntity", ignore.getMessage(), ignore);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,428 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.lang.annotation.Annotation;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import javax.ws.rs.BeanParam;
+import javax.ws.rs.Path;
+
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Context;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+
+import org.glassfish.jersey.internal.inject.Binder;
+
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.glassfish.jersey.server.model.Resource;
+
+/**
+ * A record of which of the Netty types that a {@link
+ * JerseyChannelInitializer} can make available for dependency
+ * injection are actually injected by the classes registered with a
+ * given {@link Configuration}.
+ *
+ * <p>The analysis is performed only if the {@link
+ * NettyContainerProperties#ANALYZE_INJECTION} property is {@code
+ * true}, once per {@link Configuration}, by reflection, and its
+ * result is cached.  It examines every registered class (including
+ * resource classes and providers), the handler classes of any
+ * programmatic {@link Resource}s, the types of any {@link BeanParam}
+ * parameters, the return types of any sub-resource locators, and,
+ * transitively, the types of any injection points it finds.  A field, constructor, method or parameter
+ * annotated with {@link Context} or {@link Inject} whose type
+ * mentions {@link ChannelHandlerContext}, {@link HttpRequest} or
+ * {@link Http2HeadersFrame} (including as a type argument, as in
+ * {@code Provider<ChannelHandlerContext>}) counts as an injection of
+ * that type.  A class that cannot be examined is assumed to inject
+ * all of them, and so is a {@link Configuration} that registers any
+ * {@link Binder}, since the services it binds cannot be seen.</p>
+ *
+ * <p>Injections the analysis cannot see, such as programmatic
+ * lookups through an {@link
+ * org.glassfish.jersey.internal.inject.InjectionManager}, are why
+ * the {@link NettyContainerProperties#ANALYZE_INJECTION} property
+ * must be set explicitly.  Regardless of the analysis, the {@link
+ * ChannelHandlerContext} and the "headers" message are always
+ * available, without any dependency injection overhead, as
+ * {@linkplain
+ * org.glassfish.jersey.server.ContainerRequest#getProperty(String)
+ * request properties}; see {@link
+ * AbstractContainerRequestDecoder#installMessage(ChannelHandlerContext,
+ * Object, org.glassfish.jersey.server.ContainerRequest)}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #of(Configuration)
+ *
+ * @see NettyContainerProperties#ANALYZE_INJECTION
+ */
+final class InjectionAnalysis {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = InjectionAnalysis.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final Class<?>[] injectableTypes = new Class<?>[] { ChannelHandlerContext.class, HttpRequest.class, Http2HeadersFrame.class };
+
+  /**
+   * An {@link InjectionAnalysis} indicating that every injectable
+   * type is injected.
+   */
+  static final InjectionAnalysis ALL = new InjectionAnalysis(true, true, true);
+
+  private static final Map<Configuration, InjectionAnalysis> cache = new WeakHashMap<>();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final boolean channelHandlerContextInjected;
+
+  private final boolean httpRequestInjected;
+
+  private final boolean http2HeadersFrameInjected;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  private InjectionAnalysis(final boolean channelHandlerContextInjected,
+                            final boolean httpRequestInjected,
+                            final boolean http2HeadersFrameInjected) {
+    super();
+    this.channelHandlerContextInjected = channelHandlerContextInjected;
+    this.httpRequestInjected = httpRequestInjected;
+    this.http2HeadersFrameInjected = http2HeadersFrameInjected;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns {@code true} if the supplied type is one of {@link
+   * ChannelHandlerContext}, {@link HttpRequest} or {@link
+   * Http2HeadersFrame} and is injected somewhere.
+   *
+   * @param type the type to test; may be {@code null} in which case
+   * {@code false} will be returned
+   *
+   * @return {@code true} if the supplied type is injected
+   */
+  final boolean isInjected(final Class<?> type) {
+    final boolean returnValue;
+    if (ChannelHandlerContext.class.equals(type)) {
+      returnValue = this.channelHandlerContextInjected;
+    } else if (HttpRequest.class.equals(type)) {
+      returnValue = this.httpRequestInjected;
+    } else if (Http2HeadersFrame.class.equals(type)) {
+      returnValue = this.http2HeadersFrameInjected;
+    } else {
+      returnValue = false;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if any of the types this class analyzes is
+   * injected somewhere.
+   *
+   * @return {@code true} if any injectable type is injected
+   */
+  final boolean isAnyInjected() {
+    return this.channelHandlerContextInjected || this.httpRequestInjected || this.http2HeadersFrameInjected;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * InjectionAnalysis}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link InjectionAnalysis}
+   */
+  @Override
+  public final String toString() {
+    return
+      "ChannelHandlerContext: " + this.channelHandlerContextInjected +
+      ", HttpRequest: " + this.httpRequestInjected +
+      ", Http2HeadersFrame: " + this.http2HeadersFrameInjected;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns an {@link InjectionAnalysis} for the supplied {@link
+   * Configuration}, performing the analysis if it has not already
+   * been performed.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param configuration the {@link Configuration} to analyze; may
+   * be {@code null} in which case {@link #ALL} will be returned
+   *
+   * @return a non-{@code null} {@link InjectionAnalysis}
+   *
+   * @see NettyContainerProperties#ANALYZE_INJECTION
+   */
+  static final InjectionAnalysis of(final Configuration configuration) {
+    InjectionAnalysis returnValue;
+    if (configuration == null) {
+      returnValue = ALL;
+    } else {
+      synchronized (cache) {
+        returnValue = cache.get(configuration);
+      }
+      if (returnValue == null) {
+        returnValue = analyze(configuration);
+        synchronized (cache) {
+          cache.putIfAbsent(configuration, returnValue);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, cn, "of", "Injected Netty types: {0}", returnValue);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final InjectionAnalysis analyze(final Configuration configuration) {
+    final InjectionAnalysis returnValue;
+    if (!NettyContainerProperties.getValue(configuration, NettyContainerProperties.ANALYZE_INJECTION, Boolean.FALSE, Boolean.class).booleanValue() ||
+        registersBinder(configuration)) {
+      returnValue = ALL;
+    } else {
+      final Deque<Class<?>> classes = new ArrayDeque<>(configuration.getClasses());
+      for (final Object instance : configuration.getInstances()) {
+        if (instance != null) {
+          classes.add(instance.getClass());
+        }
+      }
+      if (configuration instanceof ResourceConfig) {
+        addHandlerClasses(((ResourceConfig)configuration).getResources(), classes);
+      }
+      final boolean[] injected = new boolean[injectableTypes.length];
+      final Set<Class<?>> seen = new HashSet<>();
+      while (!classes.isEmpty() && !all(injected)) {
+        final Class<?> c = classes.removeFirst();
+        if (c != null && seen.add(c)) {
+          try {
+            scan(c, injected, classes);
+          } catch (final LinkageError | SecurityException | TypeNotPresentException e) {
+            if (logger.isLoggable(Level.FINE)) {
+              logger.logp(Level.FINE, cn, "analyze", "Could not analyze " + c + "; assuming it injects everything", e);
+            }
+            for (int i = 0; i < injected.length; i++) {
+              injected[i] = true;
+            }
+          }
+        }
+      }
+      returnValue = new InjectionAnalysis(injected[0], injected[1], injected[2]);
+    }
+    return returnValue;
+  }
+
+  private static final boolean registersBinder(final Configuration configuration) {
+    boolean returnValue = false;
+    for (final Class<?> c : configuration.getClasses()) {
+      if (isBinder(c)) {
+        returnValue = true;
+        break;
+      }
+    }
+    if (!returnValue) {
+      for (final Object instance : configuration.getInstances()) {
+        if (instance != null && isBinder(instance.getClass())) {
+          returnValue = true;
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final boolean isBinder(final Class<?> c) {
+    boolean returnValue = c != null && Binder.class.isAssignableFrom(c);
+    // HK2's own Binder interface, without depending on HK2 directly.
+    for (Class<?> type = c; !returnValue && type != null; type = type.getSuperclass()) {
+      for (final Class<?> iface : type.getInterfaces()) {
+        if ("org.glassfish.hk2.utilities.Binder".equals(iface.getName())) {
+          returnValue = true;
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final void addHandlerClasses(final Collection<? extends Resource> resources, final Deque<Class<?>> classes) {
+    for (final Resource resource : resources) {
+      classes.addAll(resource.getHandlerClasses());
+      for (final Object handlerInstance : resource.getHandlerInstances()) {
+        if (handlerInstance != null) {
+          classes.add(handlerInstance.getClass());
+        }
+      }
+      addHandlerClasses(resource.getChildResources(), classes);
+    }
+  }
+
+  private static final void scan(final Class<?> c, final boolean[] injected, final Deque<Class<?>> classes) {
+    for (Class<?> type = c; type != null && !Object.class.equals(type); type = type.getSuperclass()) {
+      for (final Field field : type.getDeclaredFields()) {
+        if (isInjectionPoint(field)) {
+          mark(field.getGenericType(), injected, classes);
+        }
+      }
+      for (final Constructor<?> constructor : type.getDeclaredConstructors()) {
+        scan(constructor, injected, classes);
+      }
+      for (final Method method : type.getDeclaredMethods()) {
+        scan(method, injected, classes);
+        if (method.isAnnotationPresent(Path.class) && method.getReturnType() != void.class) {
+          // Probably a sub-resource locator.
+          classes.add(method.getReturnType());
+        }
+      }
+      for (final Class<?> iface : type.getInterfaces()) {
+        // Resource interfaces may carry annotated method parameters.
+        classes.add(iface);
+      }
+    }
+  }
+
+  private static final void scan(final Executable executable, final boolean[] injected, final Deque<Class<?>> classes) {
+    final boolean all = isInjectionPoint(executable);
+    final Type[] parameterTypes = executable.getGenericParameterTypes();
+    final Annotation[][] parameterAnnotations = executable.getParameterAnnotations();
+    // Parameter annotations can be shorter than parameter types
+    // (e.g. for the implicit parameters of inner class
+    // constructors), so align them at the end.
+    final int offset = parameterTypes.length - parameterAnnotations.length;
+    for (int i = 0; i < parameterTypes.length; i++) {
+      final Annotation[] annotations = i < offset ? new Annotation[0] : parameterAnnotations[i - offset];
+      if (all || contains(annotations, Context.class) || contains(annotations, Inject.class)) {
+        mark(parameterTypes[i], injected, classes);
+      } else if (contains(annotations, BeanParam.class)) {
+        classes.add(executable.getParameterTypes()[i]);
+      }
+    }
+  }
+
+  private static final boolean isInjectionPoint(final AnnotatedElement element) {
+    return element.isAnnotationPresent(Context.class) || element.isAnnotationPresent(Inject.class);
+  }
+
+  private static final boolean contains(final Annotation[] annotations, final Class<? extends Annotation> annotationType) {
+    boolean returnValue = false;
+    for (final Annotation annotation : annotations) {
+      if (annotationType.equals(annotation.annotationType())) {
+        returnValue = true;
+        break;
+      }
+    }
+    return returnValue;
+  }
+
+  private static final void mark(final Type type, final boolean[] injected, final Deque<Class<?>> classes) {
+    if (type instanceof Class) {
+      final Class<?> c = (Class<?>)type;
+      for (int i = 0; i < injectableTypes.length; i++) {
+        if (injectableTypes[i].equals(c)) {
+          injected[i] = true;
+        }
+      }
+      // The injected service may itself inject Netty types.
+      if (!c.isPrimitive() && !c.isArray() && !c.getName().startsWith("java.") && !c.getName().startsWith("javax.")) {
+        classes.add(c);
+      }
+    } else if (type instanceof ParameterizedType) {
+      final ParameterizedType parameterizedType = (ParameterizedType)type;
+      mark(parameterizedType.getRawType(), injected, classes);
+      for (final Type typeArgument : parameterizedType.getActualTypeArguments()) {
+        mark(typeArgument, injected, classes);
+      }
+    } else if (type instanceof WildcardType) {
+      for (final Type upperBound : ((WildcardType)type).getUpperBounds()) {
+        mark(upperBound, injected, classes);
+      }
+    } else if (type instanceof GenericArrayType) {
+      mark(((GenericArrayType)type).getGenericComponentType(), injected, classes);
+    }
+  }
+
+  private static final boolean all(final boolean[] injected) {
+    boolean returnValue = true;
+    for (final boolean b : injected) {
+      if (!b) {
+        returnValue = false;
+        break;
+      }
+    }
+    return returnValue;
+  }
+
+}
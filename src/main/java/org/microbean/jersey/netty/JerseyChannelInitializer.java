@@ -18,13 +18,23 @@ package org.microbean.jersey.netty;
 
 import java.net.URI;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.Configuration;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
@@ -35,17 +45,29 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
 
+import io.netty.channel.embedded.EmbeddedChannel;
+
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import io.netty.util.concurrent.EventExecutorGroup;
 
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
 import io.netty.handler.codec.http.HttpServerUpgradeHandler;
 import io.netty.handler.codec.http.HttpServerUpgradeHandler.SourceCodec; // for javadoc only
 import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
 import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodecFactory;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
 
 import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
 import io.netty.handler.codec.http2.Http2CodecUtil;
@@ -60,6 +82,8 @@ import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 
+import io.netty.handler.stream.ChunkedWriteHandler;
+
 import io.netty.util.AsciiString;
 import io.netty.util.ReferenceCountUtil;
 
@@ -109,6 +133,13 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    */
 
 
+  private static final String cn = JerseyChannelInitializer.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final int DEFAULT_WARM_UP_ITERATIONS = 100;
+
+
   /*
    * Instance fields.
    */
@@ -163,6 +194,75 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
 
   private final ByteBufCreator byteBufCreator;
 
+  /**
+   * The {@link AdmissionController} shared by all {@link
+   * AdmissionControlHandler}s this {@link JerseyChannelInitializer}
+   * installs.
+   *
+   * <p>This field may be {@code null}, in which case admission
+   * control is disabled.</p>
+   *
+   * @see #getAdmissionController()
+   */
+  private final AdmissionController admissionController;
+
+  /**
+   * The {@link AdaptiveConcurrencyLimiter} shared by all {@link
+   * ConcurrencyLimitHandler}s this {@link JerseyChannelInitializer}
+   * installs.
+   *
+   * <p>This field may be {@code null}, in which case there is no
+   * concurrency limit.</p>
+   *
+   * @see #getConcurrencyLimiter()
+   */
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   * The {@link ResponseCache} shared by all {@link
+   * ResponseCacheHandler}s this {@link JerseyChannelInitializer}
+   * installs.
+   *
+   * <p>This field may be {@code null}, in which case responses are
+   * not cached.</p>
+   *
+   * @see #getResponseCache()
+   */
+  private final ResponseCache responseCache;
+
+  /**
+   * The {@link ValidatorRegistry} shared by all {@link
+   * ConditionalRequestHandler}s this {@link JerseyChannelInitializer}
+   * installs.
+   *
+   * <p>This field may be {@code null}, in which case conditional
+   * requests are always handled by Jersey.</p>
+   *
+   * @see #getValidatorRegistry()
+   */
+  private final ValidatorRegistry validatorRegistry;
+
+  /**
+   * The {@link RequestCoalescer} shared by all {@link
+   * RequestCoalescingHandler}s this {@link JerseyChannelInitializer}
+   * installs.
+   *
+   * <p>This field may be {@code null}, in which case requests are
+   * not coalesced.</p>
+   *
+   * @see #getRequestCoalescer()
+   */
+  private final RequestCoalescer requestCoalescer;
+
+  /**
+   * The collaborators shared by every per-connection and per-stream
+   * {@link ChannelPipeline} this {@link JerseyChannelInitializer}
+   * assembles.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final PipelineComponents pipelineComponents;
+
 
   /*
    * Constructors.
@@ -938,7 +1038,11 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    * constructs like {@link ChannelHandlerContext} will be made
    * available for dependency injection in user applications using
    * Jersey's native dependency injection facilities; if {@code false}
-   * then these facilities will not be used or referenced
+   * then these facilities will not be used or referenced; even if
+   * {@code true}, types that no registered class injects are not
+   * made available if {@link
+   * NettyContainerProperties#ANALYZE_INJECTION injection analysis} is
+   * enabled
    *
    * @param applicationHandlerSupplier a {@link Supplier} of an {@link
    * ApplicationHandler} representing a <a
@@ -946,7 +1050,11 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    * target="_parent">Jakarta RESTful Web Services application</a>
    * whose {@link ApplicationHandler#handle(ContainerRequest)} method
    * will serve as the bridge between Netty and Jersey; may be {@code
-   * null} somewhat pathologically but normally is not.
+   * null} somewhat pathologically but normally is not; if it is an
+   * {@link ApplicationRouter}, an {@link ApplicationRoutingHandler}
+   * is installed immediately after every request decoder so that
+   * several applications may be served by this one {@link
+   * JerseyChannelInitializer}
    *
    * @param flushThreshold the minimum number of bytes that an {@link
    * AbstractByteBufBackedChannelOutboundInvokingOutputStream}
@@ -968,6 +1076,63 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    * <code>AbstractContainerRequestHandlingResponseWriter</code>}
    * implementation; may be {@code null}
    *
+   * <p>If the {@linkplain ApplicationHandler#getConfiguration()
+   * configuration} of the {@link ApplicationHandler} supplied by
+   * {@code applicationHandlerSupplier} sets either of the {@link
+   * NettyContainerProperties#MAX_IN_FLIGHT_REQUESTS} or {@link
+   * NettyContainerProperties#MAX_QUEUE_DEPTH} properties to a
+   * positive value, an {@link AdmissionControlHandler} backed by a
+   * single {@linkplain #getAdmissionController() shared
+   * <code>AdmissionController</code>} is installed in front of every
+   * {@link AbstractContainerRequestHandlingResponseWriter}.</p>
+   *
+   * <p>Similarly, if that configuration sets the {@link
+   * NettyContainerProperties#CONCURRENCY_LIMIT} property to a positive
+   * value, a {@link ConcurrencyLimitHandler} backed by a single
+   * {@linkplain #getConcurrencyLimiter() shared
+   * <code>AdaptiveConcurrencyLimiter</code>} is installed immediately
+   * in front of every {@link
+   * AbstractContainerRequestHandlingResponseWriter}.</p>
+   *
+   * <p>If that configuration sets the {@link
+   * NettyContainerProperties#RESPONSE_CACHE_SIZE} property to a
+   * positive value, a {@link ResponseCacheHandler} backed by a single
+   * {@linkplain #getResponseCache() shared
+   * <code>ResponseCache</code>} is installed immediately after every
+   * request decoder, ahead of any {@link AdmissionControlHandler}, so
+   * that cached responses are served even under load.</p>
+   *
+   * <p>If that configuration sets the {@link
+   * NettyContainerProperties#VALIDATOR_REGISTRY_SIZE} property to a
+   * positive value, a {@link ConditionalRequestHandler} backed by a
+   * single {@linkplain #getValidatorRegistry() shared
+   * <code>ValidatorRegistry</code>} is installed immediately after
+   * every request decoder, ahead even of any {@link
+   * ResponseCacheHandler}, which records validators in it.</p>
+   *
+   * <p>If that configuration sets the {@link
+   * NettyContainerProperties#REJECT_UNROUTABLE_REQUESTS} property to
+   * {@code true}, an {@link UnroutableRequestHandler} is installed
+   * immediately after every request decoder (and any {@link
+   * ApplicationRoutingHandler}), ahead of all of the handlers above,
+   * and the resource model of every application is indexed at
+   * startup.</p>
+   *
+   * <p>If that configuration sets the {@link
+   * NettyContainerProperties#LIVENESS_PATH} or {@link
+   * NettyContainerProperties#READINESS_PATH} property, a {@link
+   * HealthCheckHandler} is installed immediately after every request
+   * decoder, ahead of everything else, so that health probes are
+   * answered on the event loop even when Jersey's threads are
+   * saturated.</p>
+   *
+   * <p>If that configuration sets the {@link
+   * NettyContainerProperties#MAX_COALESCED_RESPONSE_SIZE} property to
+   * a positive value, a {@link RequestCoalescingHandler} backed by a
+   * single {@linkplain #getRequestCoalescer() shared
+   * <code>RequestCoalescer</code>} is installed in front of every
+   * {@link AbstractContainerRequestHandlingResponseWriter}.</p>
+   *
    * @see ContainerRequest
    *
    * @see SslContext
@@ -987,6 +1152,16 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    * @see Http2StreamFrameToContainerRequestDecoder
    *
    * @see Http2ContainerRequestHandlingResponseWriter
+   *
+   * @see #getAdmissionController()
+   *
+   * @see #getConcurrencyLimiter()
+   *
+   * @see #getResponseCache()
+   *
+   * @see #getValidatorRegistry()
+   *
+   * @see #getRequestCoalescer()
    */
   public JerseyChannelInitializer(final URI baseUri,
                                   final SslContext sslContext,
@@ -1021,43 +1196,79 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
       applicationHandlerSupplier = new ImmutableSupplier<>(applicationHandler);
     }
     if (useJerseyInjection) {
-      // The idiom you see before you is apparently the right and only
-      // way to install non-proxiable objects into request scope: you
-      // install a factory that makes factories of mutable references
-      // that produce the object you want, then elsewhere set the
-      // payload of those references when you're actually in request
-      // scope.  Really.  You'll find this pattern throughout the
-      // Jersey codebase.  We follow suit here.
-      final InjectionManager injectionManager = applicationHandlerSupplier.get().getInjectionManager();
-      if (injectionManager != null) {
-        injectionManager.register(Bindings.supplier(ChannelHandlerContextReferencingFactory.class)
-                                    .to(ChannelHandlerContext.class)
-                                    .proxy(false)
-                                    .in(RequestScoped.class));
-        injectionManager.register(Bindings.supplier(ReferencingFactory.<ChannelHandlerContext>referenceFactory())
-                                    .to(ChannelHandlerContextReferencingFactory.genericRefType)
-                                    .in(RequestScoped.class));
-        injectionManager.register(Bindings.supplier(HttpRequestReferencingFactory.class)
-                                    .to(HttpRequest.class)
-                                    .proxy(false)
-                                    .in(RequestScoped.class));
-        injectionManager.register(Bindings.supplier(ReferencingFactory.<HttpRequest>referenceFactory())
-                                    .to(HttpRequestReferencingFactory.genericRefType)
-                                    .in(RequestScoped.class));
-        if (http2Support) {
-          injectionManager.register(Bindings.supplier(Http2HeadersFrameReferencingFactory.class)
-                                      .to(Http2HeadersFrame.class)
-                                      .proxy(false)
-                                      .in(RequestScoped.class));
-          injectionManager.register(Bindings.supplier(ReferencingFactory.<Http2HeadersFrame>referenceFactory())
-                                      .to(Http2HeadersFrameReferencingFactory.genericRefType)
-                                      .in(RequestScoped.class));
-        }
+      final Consumer<ApplicationHandler> registrar = handler -> registerInjectionBindings(handler, http2Support);
+      if (applicationHandlerSupplier instanceof ApplicationRouter) {
+        // Every application it routes to, including those added
+        // later, needs the same bindings.
+        ((ApplicationRouter)applicationHandlerSupplier).addRouteInitializer(supplier -> initializeInjection(supplier, registrar));
+      } else {
+        initializeInjection(applicationHandlerSupplier, registrar);
       }
     }
     this.applicationHandlerSupplier = applicationHandlerSupplier;
     this.flushThreshold = Math.max(0, flushThreshold);
     this.byteBufCreator = byteBufCreator;
+    final ApplicationHandler applicationHandler = applicationHandlerSupplier.get();
+    final Configuration configuration = applicationHandler == null ? null : applicationHandler.getConfiguration();
+    if (NettyContainerProperties.getValue(configuration, NettyContainerProperties.REJECT_UNROUTABLE_REQUESTS, Boolean.FALSE, Boolean.class).booleanValue()) {
+      // Index resource models now rather than on the first request.
+      if (applicationHandlerSupplier instanceof ApplicationRouter) {
+        ((ApplicationRouter)applicationHandlerSupplier).addRouteInitializer(supplier -> ResourceModelIndex.of(supplier.get()));
+      } else {
+        ResourceModelIndex.of(applicationHandler);
+      }
+    }
+    final int maxInFlightRequests =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.MAX_IN_FLIGHT_REQUESTS, Integer.valueOf(0), Integer.class).intValue();
+    final int maxQueueDepth =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.MAX_QUEUE_DEPTH, Integer.valueOf(0), Integer.class).intValue();
+    if (maxInFlightRequests > 0 || maxQueueDepth > 0) {
+      this.admissionController = new AdmissionController(maxInFlightRequests, maxQueueDepth);
+    } else {
+      this.admissionController = null;
+    }
+    final int concurrencyLimit =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.CONCURRENCY_LIMIT, Integer.valueOf(0), Integer.class).intValue();
+    if (concurrencyLimit > 0) {
+      final int maxConcurrencyLimit =
+        NettyContainerProperties.getValue(configuration, NettyContainerProperties.MAX_CONCURRENCY_LIMIT, Integer.valueOf(0), Integer.class).intValue();
+      this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(concurrencyLimit, maxConcurrencyLimit);
+    } else {
+      this.concurrencyLimiter = null;
+    }
+    final long responseCacheSize =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.RESPONSE_CACHE_SIZE, Long.valueOf(0L), Long.class).longValue();
+    if (responseCacheSize > 0L) {
+      final long responseCacheMaxEntrySize =
+        NettyContainerProperties.getValue(configuration, NettyContainerProperties.RESPONSE_CACHE_MAX_ENTRY_SIZE, Long.valueOf(0L), Long.class).longValue();
+      this.responseCache = new ResponseCache(responseCacheSize, responseCacheMaxEntrySize);
+    } else {
+      this.responseCache = null;
+    }
+    final int validatorRegistrySize =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.VALIDATOR_REGISTRY_SIZE, Integer.valueOf(0), Integer.class).intValue();
+    if (validatorRegistrySize > 0) {
+      this.validatorRegistry = new ValidatorRegistry(validatorRegistrySize);
+    } else {
+      this.validatorRegistry = null;
+    }
+    final int maxCoalescedResponseSize =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.MAX_COALESCED_RESPONSE_SIZE, Integer.valueOf(0), Integer.class).intValue();
+    if (maxCoalescedResponseSize > 0) {
+      this.requestCoalescer = new RequestCoalescer(maxCoalescedResponseSize);
+    } else {
+      this.requestCoalescer = null;
+    }
+    this.pipelineComponents = new PipelineComponents(this.jerseyEventExecutorGroup,
+                                                     this.baseUri,
+                                                     this.applicationHandlerSupplier,
+                                                     this.flushThreshold,
+                                                     this.byteBufCreator,
+                                                     this.admissionController,
+                                                     this.concurrencyLimiter,
+                                                     this.responseCache,
+                                                     this.validatorRegistry,
+                                                     this.requestCoalescer);
   }
 
 
@@ -1106,6 +1317,289 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
     return this.baseUri;
   }
 
+  /**
+   * Returns the {@link AdmissionController} shared by all
+   * connections this {@link JerseyChannelInitializer} initializes,
+   * or {@code null} if admission control is disabled.
+   *
+   * <p>The return value may be used as a source of load-shedding
+   * metrics.</p>
+   *
+   * @return the {@link AdmissionController} in effect, or {@code
+   * null}
+   *
+   * @see NettyContainerProperties#MAX_IN_FLIGHT_REQUESTS
+   *
+   * @see NettyContainerProperties#MAX_QUEUE_DEPTH
+   */
+  public final AdmissionController getAdmissionController() {
+    return this.admissionController;
+  }
+
+  /**
+   * Returns the {@link AdaptiveConcurrencyLimiter} shared by all
+   * connections this {@link JerseyChannelInitializer} initializes,
+   * or {@code null} if there is no concurrency limit.
+   *
+   * <p>The return value may be used as a source of metrics, such as
+   * the {@linkplain AdaptiveConcurrencyLimiter#getLimit() current
+   * limit} and the {@linkplain
+   * AdaptiveConcurrencyLimiter#getRejectedRequests() number of
+   * rejected requests}.</p>
+   *
+   * @return the {@link AdaptiveConcurrencyLimiter} in effect, or
+   * {@code null}
+   *
+   * @see NettyContainerProperties#CONCURRENCY_LIMIT
+   */
+  public final AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+    return this.concurrencyLimiter;
+  }
+
+  /**
+   * Returns the {@link ResponseCache} shared by all connections this
+   * {@link JerseyChannelInitializer} initializes, or {@code null} if
+   * responses are not cached.
+   *
+   * <p>The return value may be used as a source of metrics, such as
+   * the number of {@linkplain ResponseCache#getHits() hits} and
+   * {@linkplain ResponseCache#getMisses() misses}.</p>
+   *
+   * @return the {@link ResponseCache} in effect, or {@code null}
+   *
+   * @see NettyContainerProperties#RESPONSE_CACHE_SIZE
+   */
+  public final ResponseCache getResponseCache() {
+    return this.responseCache;
+  }
+
+  /**
+   * Returns the {@link ValidatorRegistry} shared by all connections
+   * this {@link JerseyChannelInitializer} initializes, or {@code null}
+   * if conditional requests are always handled by Jersey.
+   *
+   * <p>Resources may use the return value to publish their current
+   * validators, and as a source of metrics.</p>
+   *
+   * @return the {@link ValidatorRegistry} in effect, or {@code null}
+   *
+   * @see NettyContainerProperties#VALIDATOR_REGISTRY_SIZE
+   */
+  public final ValidatorRegistry getValidatorRegistry() {
+    return this.validatorRegistry;
+  }
+
+  /**
+   * Returns the {@link RequestCoalescer} shared by all connections
+   * this {@link JerseyChannelInitializer} initializes, or {@code null}
+   * if requests are not coalesced.
+   *
+   * <p>The return value may be used as a source of metrics.</p>
+   *
+   * @return the {@link RequestCoalescer} in effect, or {@code null}
+   *
+   * @see NettyContainerProperties#MAX_COALESCED_RESPONSE_SIZE
+   */
+  public final RequestCoalescer getRequestCoalescer() {
+    return this.requestCoalescer;
+  }
+
+  /**
+   * Sends the synthetic requests named by the {@link
+   * NettyContainerProperties#WARM_UP_REQUESTS} property, each as many
+   * times as the {@link NettyContainerProperties#WARM_UP_ITERATIONS}
+   * property says, through the application, and returns a report of
+   * the results.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link WarmUpResult}
+   *
+   * @exception IllegalArgumentException if the {@link
+   * NettyContainerProperties#WARM_UP_REQUESTS} property is malformed
+   *
+   * @see #warmUp(Collection, int)
+   */
+  public final WarmUpResult warmUp() {
+    final ApplicationHandler applicationHandler = this.applicationHandlerSupplier.get();
+    final Configuration configuration = applicationHandler == null ? null : applicationHandler.getConfiguration();
+    final String warmUpRequests =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.WARM_UP_REQUESTS, "", String.class);
+    final int iterations =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.WARM_UP_ITERATIONS, Integer.valueOf(0), Integer.class).intValue();
+    final List<FullHttpRequest> requests = new ArrayList<>();
+    final WarmUpResult returnValue;
+    try {
+      for (final String warmUpRequest : warmUpRequests.split(",")) {
+        final String trimmed = warmUpRequest.trim();
+        if (!trimmed.isEmpty()) {
+          final int space = trimmed.indexOf(' ');
+          final HttpMethod method = space < 0 ? HttpMethod.GET : HttpMethod.valueOf(trimmed.substring(0, space));
+          final String uri = space < 0 ? trimmed : trimmed.substring(space + 1).trim();
+          requests.add(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, uri, Unpooled.EMPTY_BUFFER));
+        }
+      }
+      returnValue = this.warmUp(requests, iterations <= 0 ? DEFAULT_WARM_UP_ITERATIONS : iterations);
+    } finally {
+      for (final FullHttpRequest request : requests) {
+        request.release();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Sends each of the supplied synthetic requests {@code iterations}
+   * times through a real {@link HttpObjectToContainerRequestDecoder}
+   * and {@link HttpContainerRequestHandlingResponseWriter} on an
+   * {@link EmbeddedChannel}, so that Jersey's resource model,
+   * providers and the JIT compiler are warmed up before the caller
+   * binds a server and real traffic arrives, and returns a report of
+   * the results.
+   *
+   * <p>Each request is sent on its own {@link EmbeddedChannel}, on
+   * the calling thread.  None of the shared handlers (such as a
+   * {@link ResponseCacheHandler} or an {@link
+   * AdmissionControlHandler}) is involved, so warm-up responses are
+   * never cached.  Requests are sent for real: they should be
+   * idempotent.  Only a complete response with a {@code 2xx} or
+   * {@code 3xx} status code counts as a success.  Responses that are
+   * not completed on the calling thread, such as those of
+   * asynchronous resource methods, count as failures.  A {@code 4xx}
+   * response, which usually means that a warm-up request is
+   * misconfigured and that it did not warm up what it was meant to,
+   * counts as a failure, is {@linkplain WarmUpResult#getClientErrors()
+   * reported separately} and causes a warning to be logged.</p>
+   *
+   * <p>After the warm-up the first request is sent once more and
+   * timed, which approximates the latency the first real request will
+   * see.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param requests the requests to send; must not be {@code null};
+   * ownership of them is not transferred; {@code Host} and {@code
+   * Content-Length} headers are added to copies if necessary
+   *
+   * @param iterations the number of times to send each request; if
+   * less than {@code 1} no requests will be sent
+   *
+   * @return a non-{@code null} {@link WarmUpResult}
+   *
+   * @exception NullPointerException if {@code requests} is {@code
+   * null}
+   *
+   * @see NettyContainerProperties#WARM_UP_REQUESTS
+   */
+  public final WarmUpResult warmUp(final Collection<? extends FullHttpRequest> requests, final int iterations) {
+    Objects.requireNonNull(requests);
+    final long start = System.nanoTime();
+    final long[] latencyNanos = new long[1];
+    int sent = 0;
+    int failures = 0;
+    int clientErrors = 0;
+    long coldLatencyNanos = -1L;
+    long warmLatencyNanos = -1L;
+    if (!requests.isEmpty() && iterations > 0) {
+      for (int i = 0; i <= iterations; i++) {
+        // The extra, final iteration sends only the first request
+        // again.
+        for (final FullHttpRequest request : requests) {
+          final int statusCode = this.sendWarmUpRequest(request, latencyNanos);
+          final boolean success = statusCode >= 200 && statusCode < 400;
+          if (sent == 0) {
+            coldLatencyNanos = success ? latencyNanos[0] : -1L;
+          }
+          sent++;
+          if (!success) {
+            failures++;
+            if (statusCode >= 400 && statusCode < 500) {
+              clientErrors++;
+              if (logger.isLoggable(Level.FINE)) {
+                logger.logp(Level.FINE, cn, "warmUp", "Warm-up request {0} {1} received a {2} response",
+                            new Object[] { request.method(), request.uri(), Integer.valueOf(statusCode) });
+              }
+            }
+          }
+          if (i == iterations) {
+            warmLatencyNanos = success ? latencyNanos[0] : -1L;
+            break;
+          }
+        }
+      }
+    }
+    final WarmUpResult returnValue =
+      new WarmUpResult(sent, failures, clientErrors, System.nanoTime() - start, coldLatencyNanos, warmLatencyNanos);
+    if (clientErrors > 0) {
+      if (logger.isLoggable(Level.WARNING)) {
+        logger.logp(Level.WARNING, cn, "warmUp", "Warm-up complete, but {0} requests received client error responses; check the warm-up requests; {1}",
+                    new Object[] { Integer.valueOf(clientErrors), returnValue });
+      }
+    } else if (sent > 0 && logger.isLoggable(Level.INFO)) {
+      logger.logp(Level.INFO, cn, "warmUp", "Warm-up complete; {0}", returnValue);
+    }
+    return returnValue;
+  }
+
+  private final int sendWarmUpRequest(final FullHttpRequest template, final long[] latencyNanos) {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final ChannelPipeline channelPipeline = channel.pipeline();
+    final Supplier<? extends Configuration> configurationSupplier = toConfigurationSupplier(this.applicationHandlerSupplier);
+    channelPipeline.addLast(HttpObjectToContainerRequestDecoder.class.getSimpleName(),
+                            new HttpObjectToContainerRequestDecoder(this.baseUri, configurationSupplier));
+    if (this.applicationHandlerSupplier instanceof ApplicationRouter) {
+      channelPipeline.addLast(ApplicationRoutingHandler.class.getSimpleName(),
+                              new ApplicationRoutingHandler((ApplicationRouter)this.applicationHandlerSupplier));
+    }
+    if (DirectEntityWriterInterceptor.isRegistered(configurationSupplier.get())) {
+      channelPipeline.addLast(ChunkedWriteHandler.class.getSimpleName(), new ChunkedWriteHandler());
+    }
+    channelPipeline.addLast(HttpContainerRequestHandlingResponseWriter.class.getSimpleName(),
+                            new HttpContainerRequestHandlingResponseWriter(this.applicationHandlerSupplier,
+                                                                           this.flushThreshold,
+                                                                           this.byteBufCreator));
+    // The decoder expects what HttpServerCodec produces: headers,
+    // then content.
+    final HttpRequest request = new DefaultHttpRequest(template.protocolVersion(), template.method(), template.uri(), template.headers().copy());
+    final ByteBuf content = template.content();
+    if (!request.headers().contains(HttpHeaderNames.HOST)) {
+      request.headers().set(HttpHeaderNames.HOST, "localhost");
+    }
+    request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+    int returnValue = -1;
+    try {
+      final long start = System.nanoTime();
+      channel.writeInbound(request, new DefaultLastHttpContent(content.retainedDuplicate()));
+      channel.runPendingTasks();
+      HttpResponseStatus status = null;
+      boolean complete = false;
+      Object message;
+      while ((message = channel.readOutbound()) != null) {
+        try {
+          if (message instanceof HttpResponse) {
+            status = ((HttpResponse)message).status();
+          }
+          if (message instanceof LastHttpContent) {
+            complete = true;
+          }
+        } finally {
+          ReferenceCountUtil.release(message);
+        }
+      }
+      latencyNanos[0] = System.nanoTime() - start;
+      if (complete && status != null) {
+        returnValue = status.code();
+      }
+    } catch (final RuntimeException e) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.logp(Level.FINE, cn, "sendWarmUpRequest", "Warm-up request " + template.method() + " " + template.uri() + " failed", e);
+      }
+    } finally {
+      channel.finishAndReleaseAll();
+    }
+    return returnValue;
+  }
+
   /**
    * Initializes the supplied {@link Channel} using an appropriate
    * sequencing of several {@link ChannelHandler}s and other Netty
@@ -1145,12 +1639,23 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    *
    * <li>{@link HttpNegotiationHandler}</li>
    *
+   * <li>{@link HttpConnectionTimeoutHandler}</li>
+   *
+   * <li>{@link Http2ConnectionTimeoutHandler}</li>
+   *
    * </ul>
    *
    * <p>All of these classes collaborate to form a {@link
    * ChannelPipeline} that can handle HTTP 1.0, HTTP 1.1 and HTTP/2
    * scenarios, including upgrades.</p>
    *
+   * <p>The {@linkplain NettyContainerProperties#IDLE_TIMEOUT idle}
+   * and {@linkplain NettyContainerProperties#REQUEST_HEADER_TIMEOUT
+   * request header} timeouts, if any, are read from the {@linkplain
+   * ApplicationHandler#getConfiguration() configuration} of the
+   * {@link ApplicationHandler} current at the time the {@link
+   * Channel} is initialized.</p>
+   *
    * @param channel the {@link Channel} to initialize; must not be
    * {@code null}
    *
@@ -1163,6 +1668,11 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
     Objects.requireNonNull(channel);
     final ChannelPipeline channelPipeline = Objects.requireNonNull(channel.pipeline());
 
+    final ApplicationHandler applicationHandler = this.applicationHandlerSupplier.get();
+    final Configuration configuration = applicationHandler == null ? null : applicationHandler.getConfiguration();
+    final long idleTimeoutNanos = NettyContainerProperties.getTimeoutNanos(configuration, NettyContainerProperties.IDLE_TIMEOUT);
+    final long requestHeaderTimeoutNanos = NettyContainerProperties.getTimeoutNanos(configuration, NettyContainerProperties.REQUEST_HEADER_TIMEOUT);
+
     final SslHandler sslHandler;
     if (this.sslContext == null) {
       sslHandler = null;
@@ -1192,13 +1702,20 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
                   !AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocolName)) {
                 returnValue = null;
               } else {
-                returnValue =
-                  new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().build(),
-                                              new Http2MultiplexHandler(new Http2JerseyChannelInitializer(getJerseyEventExecutorGroup(),
-                                                                                                          baseUri,
-                                                                                                          applicationHandlerSupplier,
-                                                                                                          flushThreshold,
-                                                                                                          byteBufCreator)));
+                final Http2MultiplexHandler http2MultiplexHandler =
+                  new Http2MultiplexHandler(new Http2JerseyChannelInitializer(pipelineComponents));
+                if (idleTimeoutNanos > 0L) {
+                  // The upgrade codec adds these handlers, in order,
+                  // right after the Http2FrameCodec.
+                  returnValue =
+                    new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().build(),
+                                                new Http2ConnectionTimeoutHandler(idleTimeoutNanos, TimeUnit.NANOSECONDS),
+                                                http2MultiplexHandler);
+                } else {
+                  returnValue =
+                    new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().build(),
+                                                http2MultiplexHandler);
+                }
               }
               return returnValue;
             }
@@ -1258,12 +1775,9 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
                                                      final ChannelPipeline channelPipeline = channel.pipeline();
                                                      channelPipeline.addLast(Http2FrameCodec.class.getSimpleName(),
                                                                              Http2FrameCodecBuilder.forServer().build());
+                                                     addHttp2ConnectionTimeoutHandler(channelPipeline, idleTimeoutNanos);
                                                      channelPipeline.addLast(Http2MultiplexHandler.class.getSimpleName(),
-                                                                             new Http2MultiplexHandler(new Http2JerseyChannelInitializer(getJerseyEventExecutorGroup(),
-                                                                                                                                         baseUri,
-                                                                                                                                         applicationHandlerSupplier,
-                                                                                                                                         flushThreshold,
-                                                                                                                                         byteBufCreator)));
+                                                                             new Http2MultiplexHandler(new Http2JerseyChannelInitializer(pipelineComponents)));
                                                    }
                                                  });
         channelPipeline.addLast(cleartextHttp2ServerUpgradeHandler);
@@ -1299,27 +1813,26 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
               // ChunkedWriteHandler followed by the main Jersey
               // integration.
               channelPipeline.addLast("HttpJerseyChannelInitializer",
-                                      new HttpJerseyChannelInitializer(getJerseyEventExecutorGroup(),
-                                                                       baseUri,
-                                                                       applicationHandlerSupplier,
-                                                                       flushThreshold,
-                                                                       byteBufCreator));
+                                      new HttpJerseyChannelInitializer(pipelineComponents));
 
               // Forward the event on as we never touched it.
               channelHandlerContext.fireChannelRead(ReferenceCountUtil.retain(httpMessage));
             }
           });
+
+        // Timeouts for the HTTP 1.1 case go after the handler above
+        // (and so after the HttpServerExpectContinueHandler that will
+        // replace it).  The timeout handler removes itself if HTTP/2
+        // ends up being used instead.
+        addHttpConnectionTimeoutHandler(channelPipeline, idleTimeoutNanos, requestHeaderTimeoutNanos);
       } else {
         channelPipeline.addLast(HttpServerCodec.class.getSimpleName(),
                                 httpServerCodec);
         channelPipeline.addLast(HttpServerExpectContinueHandler.class.getSimpleName(),
                                 new HttpServerExpectContinueHandler());
+        addHttpConnectionTimeoutHandler(channelPipeline, idleTimeoutNanos, requestHeaderTimeoutNanos);
         channelPipeline.addLast("HttpJerseyChannelInitializer",
-                                new HttpJerseyChannelInitializer(this.getJerseyEventExecutorGroup(),
-                                                                 baseUri,
-                                                                 applicationHandlerSupplier,
-                                                                 flushThreshold,
-                                                                 byteBufCreator));
+                                new HttpJerseyChannelInitializer(this.pipelineComponents));
       }
 
 
@@ -1334,11 +1847,7 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
       // whether it's HTTP 1.1 or HTTP/2; see the private inner
       // class below for details.
       channelPipeline.addLast(HttpNegotiationHandler.class.getSimpleName(),
-                              new HttpNegotiationHandler(this.getJerseyEventExecutorGroup(),
-                                                         baseUri,
-                                                         applicationHandlerSupplier,
-                                                         flushThreshold,
-                                                         byteBufCreator));
+                              new HttpNegotiationHandler(this.pipelineComponents, idleTimeoutNanos, requestHeaderTimeoutNanos));
 
     }
 
@@ -1390,6 +1899,155 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
     return applicationHandlerSupplier == null ? JerseyChannelInitializer::returnNullConfiguration : new ConfigurationSupplier(applicationHandlerSupplier);
   }
 
+  private static final void initializeInjection(final Supplier<? extends ApplicationHandler> applicationHandlerSupplier,
+                                                final Consumer<ApplicationHandler> registrar) {
+    registrar.accept(applicationHandlerSupplier.get());
+    if (applicationHandlerSupplier instanceof SimpleContainer) {
+      // Applications it loads later need the same bindings.
+      ((SimpleContainer)applicationHandlerSupplier).addApplicationHandlerInitializer(registrar);
+    }
+  }
+
+  private static final void registerInjectionBindings(final ApplicationHandler applicationHandler, final boolean http2Support) {
+    // The idiom you see before you is apparently the right and only
+    // way to install non-proxiable objects into request scope: you
+    // install a factory that makes factories of mutable references
+    // that produce the object you want, then elsewhere set the
+    // payload of those references when you're actually in request
+    // scope.  Really.  You'll find this pattern throughout the
+    // Jersey codebase.  We follow suit here.
+    //
+    // Types that nothing injects are not bound at all; see
+    // InjectionAnalysis.
+    final InjectionManager injectionManager = applicationHandler.getInjectionManager();
+    final InjectionAnalysis injectionAnalysis = InjectionAnalysis.of(applicationHandler.getConfiguration());
+    if (injectionManager != null && injectionAnalysis.isInjected(ChannelHandlerContext.class)) {
+      injectionManager.register(Bindings.supplier(ChannelHandlerContextReferencingFactory.class)
+                                  .to(ChannelHandlerContext.class)
+                                  .proxy(false)
+                                  .in(RequestScoped.class));
+      injectionManager.register(Bindings.supplier(ReferencingFactory.<ChannelHandlerContext>referenceFactory())
+                                  .to(ChannelHandlerContextReferencingFactory.genericRefType)
+                                  .in(RequestScoped.class));
+    }
+    if (injectionManager != null && injectionAnalysis.isInjected(HttpRequest.class)) {
+      injectionManager.register(Bindings.supplier(HttpRequestReferencingFactory.class)
+                                  .to(HttpRequest.class)
+                                  .proxy(false)
+                                  .in(RequestScoped.class));
+      injectionManager.register(Bindings.supplier(ReferencingFactory.<HttpRequest>referenceFactory())
+                                  .to(HttpRequestReferencingFactory.genericRefType)
+                                  .in(RequestScoped.class));
+    }
+    if (http2Support && injectionManager != null && injectionAnalysis.isInjected(Http2HeadersFrame.class)) {
+      injectionManager.register(Bindings.supplier(Http2HeadersFrameReferencingFactory.class)
+                                  .to(Http2HeadersFrame.class)
+                                  .proxy(false)
+                                  .in(RequestScoped.class));
+      injectionManager.register(Bindings.supplier(ReferencingFactory.<Http2HeadersFrame>referenceFactory())
+                                  .to(Http2HeadersFrameReferencingFactory.genericRefType)
+                                  .in(RequestScoped.class));
+    }
+  }
+
+  private static final void addHttpConnectionTimeoutHandler(final ChannelPipeline channelPipeline,
+                                                           final long idleTimeoutNanos,
+                                                           final long requestHeaderTimeoutNanos) {
+    if (idleTimeoutNanos > 0L || requestHeaderTimeoutNanos > 0L) {
+      channelPipeline.addLast(HttpConnectionTimeoutHandler.class.getSimpleName(),
+                              new HttpConnectionTimeoutHandler(idleTimeoutNanos, requestHeaderTimeoutNanos, TimeUnit.NANOSECONDS));
+    }
+  }
+
+  private static final void addHttp2ConnectionTimeoutHandler(final ChannelPipeline channelPipeline,
+                                                            final long idleTimeoutNanos) {
+    if (idleTimeoutNanos > 0L) {
+      channelPipeline.addLast(Http2ConnectionTimeoutHandler.class.getSimpleName(),
+                              new Http2ConnectionTimeoutHandler(idleTimeoutNanos, TimeUnit.NANOSECONDS));
+    }
+  }
+
+  /**
+   * {@linkplain ChannelPipeline#addLast(String, ChannelHandler) Adds}
+   * to the supplied {@link ChannelPipeline}, in order, each of the
+   * request handlers that sits between a decoder and a writer and
+   * that is enabled by the supplied {@link PipelineComponents} or
+   * {@link Configuration}.
+   *
+   * <p>The handlers are, in order: a {@link HealthCheckHandler}, an
+   * {@link ApplicationRoutingHandler}, an {@link
+   * UnroutableRequestHandler}, a {@link ConditionalRequestHandler}, a
+   * {@link ResponseCacheHandler}, an {@link AdmissionControlHandler},
+   * a {@link RequestCoalescingHandler}, a {@link
+   * ConcurrencyLimitHandler} and a {@link ChunkedWriteHandler}.  The
+   * {@link ConcurrencyLimitHandler} follows the {@link
+   * RequestCoalescingHandler} so that only requests that will
+   * actually be handled by Jersey take permits.</p>
+   *
+   * @param channelPipeline the {@link ChannelPipeline} to add to;
+   * must not be {@code null}
+   *
+   * @param pipelineComponents the {@link PipelineComponents} to use;
+   * must not be {@code null}
+   *
+   * @param configuration the {@link Configuration} of the
+   * application; may be {@code null}
+   *
+   * @exception NullPointerException if {@code channelPipeline} or
+   * {@code pipelineComponents} is {@code null}
+   */
+  private static final void addRequestHandlers(final ChannelPipeline channelPipeline,
+                                               final PipelineComponents pipelineComponents,
+                                               final Configuration configuration) {
+    final Supplier<? extends ApplicationHandler> applicationHandlerSupplier = pipelineComponents.applicationHandlerSupplier;
+    final String livenessPath =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.LIVENESS_PATH, null, String.class);
+    final String readinessPath =
+      NettyContainerProperties.getValue(configuration, NettyContainerProperties.READINESS_PATH, null, String.class);
+    if (livenessPath != null || readinessPath != null) {
+      channelPipeline.addLast(HealthCheckHandler.class.getSimpleName(),
+                              new HealthCheckHandler(livenessPath,
+                                                     readinessPath,
+                                                     pipelineComponents.jerseyEventExecutorGroup,
+                                                     NettyContainerProperties.getValue(configuration,
+                                                                                       NettyContainerProperties.READINESS_MAX_QUEUE_DEPTH,
+                                                                                       Integer.valueOf(0),
+                                                                                       Integer.class).intValue(),
+                                                     applicationHandlerSupplier));
+    }
+    if (applicationHandlerSupplier instanceof ApplicationRouter) {
+      channelPipeline.addLast(ApplicationRoutingHandler.class.getSimpleName(),
+                              new ApplicationRoutingHandler((ApplicationRouter)applicationHandlerSupplier));
+    }
+    if (NettyContainerProperties.getValue(configuration, NettyContainerProperties.REJECT_UNROUTABLE_REQUESTS, Boolean.FALSE, Boolean.class).booleanValue()) {
+      channelPipeline.addLast(UnroutableRequestHandler.class.getSimpleName(),
+                              new UnroutableRequestHandler(applicationHandlerSupplier));
+    }
+    if (pipelineComponents.validatorRegistry != null) {
+      channelPipeline.addLast(ConditionalRequestHandler.class.getSimpleName(),
+                              new ConditionalRequestHandler(pipelineComponents.validatorRegistry));
+    }
+    if (pipelineComponents.responseCache != null) {
+      channelPipeline.addLast(ResponseCacheHandler.class.getSimpleName(),
+                              new ResponseCacheHandler(pipelineComponents.responseCache, pipelineComponents.validatorRegistry));
+    }
+    if (pipelineComponents.admissionController != null) {
+      channelPipeline.addLast(AdmissionControlHandler.class.getSimpleName(),
+                              new AdmissionControlHandler(pipelineComponents.admissionController));
+    }
+    if (pipelineComponents.requestCoalescer != null) {
+      channelPipeline.addLast(RequestCoalescingHandler.class.getSimpleName(),
+                              new RequestCoalescingHandler(pipelineComponents.requestCoalescer));
+    }
+    if (pipelineComponents.concurrencyLimiter != null) {
+      channelPipeline.addLast(ConcurrencyLimitHandler.class.getSimpleName(),
+                              new ConcurrencyLimitHandler(pipelineComponents.concurrencyLimiter));
+    }
+    if (DirectEntityWriterInterceptor.isRegistered(configuration)) {
+      channelPipeline.addLast(ChunkedWriteHandler.class.getSimpleName(), new ChunkedWriteHandler());
+    }
+  }
+
   private static final Configuration returnNullConfiguration() {
     return null;
   }
@@ -1422,18 +2080,19 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
   }
 
   /**
-   * A {@link ChannelInitializer} that {@linkplain
-   * ChannelPipeline#addLast(String, ChannelHandler) adds} an {@link
-   * HttpObjectToContainerRequestDecoder} followed by an {@link
-   * HttpContainerRequestHandlingResponseWriter} (which is added with
-   * its own {@link EventExecutorGroup}).
+   * The collaborators shared by every per-connection and per-stream
+   * {@link ChannelPipeline} a {@link JerseyChannelInitializer}
+   * assembles, bundled so that they can be handed as one to the
+   * nested {@link ChannelInitializer}s and to the {@link
+   * HttpNegotiationHandler}.
    *
    * @author <a href="https://about.me/lairdnelson"
    * target="_parent">Laird Nelson</a>
    *
-   * @see ChannelInitializer
+   * @see JerseyChannelInitializer#addRequestHandlers(ChannelPipeline,
+   * PipelineComponents, Configuration)
    */
-  private static final class HttpJerseyChannelInitializer extends ChannelInitializer<Channel> {
+  private static final class PipelineComponents {
 
     private final EventExecutorGroup jerseyEventExecutorGroup;
 
@@ -1447,14 +2106,26 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
 
     private final ByteBufCreator byteBufCreator;
 
-    /**
-     * Creates a new {@link HttpJerseyChannelInitializer}.
-     */
-    private HttpJerseyChannelInitializer(final EventExecutorGroup jerseyEventExecutorGroup,
-                                         final URI baseUri,
-                                         final Supplier<? extends ApplicationHandler> applicationHandlerSupplier,
-                                         final int flushThreshold,
-                                         final ByteBufCreator byteBufCreator) {
+    private final AdmissionController admissionController;
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final ResponseCache responseCache;
+
+    private final ValidatorRegistry validatorRegistry;
+
+    private final RequestCoalescer requestCoalescer;
+
+    private PipelineComponents(final EventExecutorGroup jerseyEventExecutorGroup,
+                               final URI baseUri,
+                               final Supplier<? extends ApplicationHandler> applicationHandlerSupplier,
+                               final int flushThreshold,
+                               final ByteBufCreator byteBufCreator,
+                               final AdmissionController admissionController,
+                               final AdaptiveConcurrencyLimiter concurrencyLimiter,
+                               final ResponseCache responseCache,
+                               final ValidatorRegistry validatorRegistry,
+                               final RequestCoalescer requestCoalescer) {
       super();
       this.jerseyEventExecutorGroup = Objects.requireNonNull(jerseyEventExecutorGroup);
       this.baseUri = baseUri;
@@ -1462,6 +2133,37 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
       this.configurationSupplier = toConfigurationSupplier(applicationHandlerSupplier);
       this.flushThreshold = Math.max(0, flushThreshold);
       this.byteBufCreator = byteBufCreator;
+      this.admissionController = admissionController;
+      this.concurrencyLimiter = concurrencyLimiter;
+      this.responseCache = responseCache;
+      this.validatorRegistry = validatorRegistry;
+      this.requestCoalescer = requestCoalescer;
+    }
+
+  }
+
+  /**
+   * A {@link ChannelInitializer} that {@linkplain
+   * ChannelPipeline#addLast(String, ChannelHandler) adds} an {@link
+   * HttpObjectToContainerRequestDecoder} followed by an {@link
+   * HttpContainerRequestHandlingResponseWriter} (which is added with
+   * its own {@link EventExecutorGroup}).
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ChannelInitializer
+   */
+  private static final class HttpJerseyChannelInitializer extends ChannelInitializer<Channel> {
+
+    private final PipelineComponents pipelineComponents;
+
+    /**
+     * Creates a new {@link HttpJerseyChannelInitializer}.
+     */
+    private HttpJerseyChannelInitializer(final PipelineComponents pipelineComponents) {
+      super();
+      this.pipelineComponents = Objects.requireNonNull(pipelineComponents);
     }
 
     /**
@@ -1471,20 +2173,27 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
      * HttpContainerRequestHandlingResponseWriter} (which is added with
      * its own {@link EventExecutorGroup})
      *
+     * <p>Any request handlers that are enabled are {@linkplain
+     * JerseyChannelInitializer#addRequestHandlers(ChannelPipeline,
+     * PipelineComponents, Configuration) added} between the two.</p>
+     *
      * @param channel the {@link Channel} being configured; must
      * not be {@code null}
      *
      */
     @Override
     protected final void initChannel(final Channel channel) {
+      final PipelineComponents pipelineComponents = this.pipelineComponents;
       final ChannelPipeline channelPipeline = channel.pipeline();
       channelPipeline.addLast(HttpObjectToContainerRequestDecoder.class.getSimpleName(),
-                              new HttpObjectToContainerRequestDecoder(baseUri, this.configurationSupplier));
-      channelPipeline.addLast(jerseyEventExecutorGroup,
+                              new HttpObjectToContainerRequestDecoder(pipelineComponents.baseUri,
+                                                                      pipelineComponents.configurationSupplier));
+      addRequestHandlers(channelPipeline, pipelineComponents, pipelineComponents.configurationSupplier.get());
+      channelPipeline.addLast(pipelineComponents.jerseyEventExecutorGroup,
                               HttpContainerRequestHandlingResponseWriter.class.getSimpleName(),
-                              new HttpContainerRequestHandlingResponseWriter(applicationHandlerSupplier,
-                                                                             flushThreshold,
-                                                                             byteBufCreator));
+                              new HttpContainerRequestHandlingResponseWriter(pipelineComponents.applicationHandlerSupplier,
+                                                                             pipelineComponents.flushThreshold,
+                                                                             pipelineComponents.byteBufCreator));
     }
 
   }
@@ -1504,33 +2213,14 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    */
   private static final class Http2JerseyChannelInitializer extends ChannelInitializer<Channel> {
 
-    private final EventExecutorGroup jerseyEventExecutorGroup;
-
-    private final URI baseUri;
-
-    private final Supplier<? extends ApplicationHandler> applicationHandlerSupplier;
-
-    private final Supplier<? extends Configuration> configurationSupplier;
-
-    private final int flushThreshold;
-
-    private final ByteBufCreator byteBufCreator;
+    private final PipelineComponents pipelineComponents;
 
     /**
      * Creates a new {@link Http2JerseyChannelInitializer}.
      */
-    private Http2JerseyChannelInitializer(final EventExecutorGroup jerseyEventExecutorGroup,
-                                          final URI baseUri,
-                                          final Supplier<? extends ApplicationHandler> applicationHandlerSupplier,
-                                          final int flushThreshold,
-                                          final ByteBufCreator byteBufCreator) {
+    private Http2JerseyChannelInitializer(final PipelineComponents pipelineComponents) {
       super();
-      this.jerseyEventExecutorGroup = Objects.requireNonNull(jerseyEventExecutorGroup);
-      this.baseUri = baseUri;
-      this.applicationHandlerSupplier = applicationHandlerSupplier;
-      this.configurationSupplier = toConfigurationSupplier(applicationHandlerSupplier);
-      this.flushThreshold = Math.max(0, flushThreshold);
-      this.byteBufCreator = byteBufCreator;
+      this.pipelineComponents = Objects.requireNonNull(pipelineComponents);
     }
 
     /**
@@ -1540,6 +2230,10 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
      * Http2ContainerRequestHandlingResponseWriter} (which is added with
      * its own {@link EventExecutorGroup}).
      *
+     * <p>Any request handlers that are enabled are {@linkplain
+     * JerseyChannelInitializer#addRequestHandlers(ChannelPipeline,
+     * PipelineComponents, Configuration) added} between the two.</p>
+     *
      * @param channel the {@link Channel} being configured; must
      * not be {@code null}
      *
@@ -1548,12 +2242,17 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
      */
     @Override
     protected final void initChannel(final Channel channel) {
+      final PipelineComponents pipelineComponents = this.pipelineComponents;
       final ChannelPipeline channelPipeline = channel.pipeline();
       channelPipeline.addLast(Http2StreamFrameToContainerRequestDecoder.class.getSimpleName(),
-                              new Http2StreamFrameToContainerRequestDecoder(baseUri, this.configurationSupplier));
-      channelPipeline.addLast(jerseyEventExecutorGroup,
+                              new Http2StreamFrameToContainerRequestDecoder(pipelineComponents.baseUri,
+                                                                            pipelineComponents.configurationSupplier));
+      addRequestHandlers(channelPipeline, pipelineComponents, pipelineComponents.configurationSupplier.get());
+      channelPipeline.addLast(pipelineComponents.jerseyEventExecutorGroup,
                               Http2ContainerRequestHandlingResponseWriter.class.getSimpleName(),
-                              new Http2ContainerRequestHandlingResponseWriter(this.applicationHandlerSupplier));
+                              new Http2ContainerRequestHandlingResponseWriter(pipelineComponents.applicationHandlerSupplier,
+                                                                              pipelineComponents.flushThreshold,
+                                                                              pipelineComponents.byteBufCreator));
     }
 
   }
@@ -1570,29 +2269,22 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
    */
   private static final class HttpNegotiationHandler extends ApplicationProtocolNegotiationHandler {
 
-    private final EventExecutorGroup jerseyEventExecutorGroup;
+    private final PipelineComponents pipelineComponents;
 
-    private final URI baseUri;
-
-    private final Supplier<? extends ApplicationHandler> applicationHandlerSupplier;
+    private final long idleTimeoutNanos;
 
-    private final int flushThreshold;
+    private final long requestHeaderTimeoutNanos;
 
-    private final ByteBufCreator byteBufCreator;
     /**
      * Creates a new {@link HttpNegotiationHandler}.
      */
-    private HttpNegotiationHandler(final EventExecutorGroup jerseyEventExecutorGroup,
-                                   final URI baseUri,
-                                   final Supplier<? extends ApplicationHandler> applicationHandlerSupplier,
-                                   final int flushThreshold,
-                                   final ByteBufCreator byteBufCreator) {
+    private HttpNegotiationHandler(final PipelineComponents pipelineComponents,
+                                   final long idleTimeoutNanos,
+                                   final long requestHeaderTimeoutNanos) {
       super(ApplicationProtocolNames.HTTP_1_1);
-      this.jerseyEventExecutorGroup = Objects.requireNonNull(jerseyEventExecutorGroup);
-      this.baseUri = baseUri;
-      this.applicationHandlerSupplier = applicationHandlerSupplier;
-      this.flushThreshold = Math.max(0, flushThreshold);
-      this.byteBufCreator = byteBufCreator;
+      this.pipelineComponents = Objects.requireNonNull(pipelineComponents);
+      this.idleTimeoutNanos = idleTimeoutNanos;
+      this.requestHeaderTimeoutNanos = requestHeaderTimeoutNanos;
     }
 
     /**
@@ -1623,24 +2315,18 @@ public class JerseyChannelInitializer extends ChannelInitializer<Channel> {
       case ApplicationProtocolNames.HTTP_2:
         channelPipeline.addLast(Http2FrameCodec.class.getSimpleName(),
                                 Http2FrameCodecBuilder.forServer().build());
+        addHttp2ConnectionTimeoutHandler(channelPipeline, this.idleTimeoutNanos);
         channelPipeline.addLast(Http2MultiplexHandler.class.getSimpleName(),
-                                new Http2MultiplexHandler(new Http2JerseyChannelInitializer(jerseyEventExecutorGroup,
-                                                                                            baseUri,
-                                                                                            applicationHandlerSupplier,
-                                                                                            flushThreshold,
-                                                                                            byteBufCreator)));
+                                new Http2MultiplexHandler(new Http2JerseyChannelInitializer(this.pipelineComponents)));
         break;
       case ApplicationProtocolNames.HTTP_1_1:
         channelPipeline.addLast(HttpServerCodec.class.getSimpleName(),
                                 new HttpServerCodec());
         channelPipeline.addLast(HttpServerExpectContinueHandler.class.getSimpleName(),
                                 new HttpServerExpectContinueHandler());
+        addHttpConnectionTimeoutHandler(channelPipeline, this.idleTimeoutNanos, this.requestHeaderTimeoutNanos);
         channelPipeline.addLast("HttpJerseyChannelInitializer",
-                                new HttpJerseyChannelInitializer(jerseyEventExecutorGroup,
-                                                                 baseUri,
-                                                                 applicationHandlerSupplier,
-                                                                 flushThreshold,
-                                                                 byteBufCreator));
+                                new HttpJerseyChannelInitializer(this.pipelineComponents));
         break;
       default:
         throw new IllegalArgumentException("protocol: " + protocol);
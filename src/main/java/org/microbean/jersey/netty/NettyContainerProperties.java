@@ -0,0 +1,447 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Configuration;
+
+import org.glassfish.jersey.server.ResourceConfig; // for javadoc only
+import org.glassfish.jersey.server.ServerProperties;
+
+/**
+ * Names of {@linkplain Configuration#getProperty(String) configuration
+ * properties} that govern how the Netty side of a Jersey application
+ * behaves.
+ *
+ * <p>Set these properties on the {@link ResourceConfig} (or return
+ * them from {@link javax.ws.rs.core.Application#getProperties()})
+ * that backs the {@link org.glassfish.jersey.server.ApplicationHandler}
+ * supplied to a {@link JerseyChannelInitializer}.  Values may be
+ * {@link Number}s or {@link String}s.  Unless otherwise documented,
+ * a property that is absent, or whose value is less than or equal to
+ * {@code 0}, disables the feature it governs.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see JerseyChannelInitializer
+ */
+public final class NettyContainerProperties {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The name of a property whose value is the number of milliseconds
+   * a connection may remain open without an outstanding request
+   * before it is closed.
+   *
+   * <p>For HTTP 1.1 connections the clock starts once the last
+   * response has been written and stops when the next request begins
+   * to arrive.  For HTTP/2 connections the clock runs whenever the
+   * connection has no active streams; frames that do not belong to a
+   * stream (such as {@code PING}s) do not reset it.  An HTTP/2
+   * connection is closed with a {@code GOAWAY} frame.</p>
+   *
+   * @see HttpConnectionTimeoutHandler
+   *
+   * @see Http2ConnectionTimeoutHandler
+   */
+  public static final String IDLE_TIMEOUT = "org.microbean.jersey.netty.idleTimeout";
+
+  /**
+   * The name of a property whose value is the number of milliseconds
+   * an HTTP 1.1 client may take to send a complete request line and
+   * set of headers, measured from the arrival of the first bytes of
+   * the request.
+   *
+   * <p>On expiry a {@code 408 Request Timeout} response is written
+   * (if no earlier response is still being written) and the
+   * connection is closed.  HTTP/2 has no equivalent: a request's
+   * headers are delivered as a unit once their last frame arrives,
+   * and a connection that has started but not finished a header
+   * block has no active streams and so is governed by the {@linkplain
+   * #IDLE_TIMEOUT idle timeout}.</p>
+   *
+   * @see HttpConnectionTimeoutHandler
+   */
+  public static final String REQUEST_HEADER_TIMEOUT = "org.microbean.jersey.netty.requestHeaderTimeout";
+
+  /**
+   * The name of a property whose value is the number of milliseconds
+   * that may elapse between successive pieces of a request entity
+   * (or between the headers and the first piece) before the request
+   * is abandoned.
+   *
+   * <p>On expiry any thread reading the request entity receives an
+   * {@link java.io.IOException} and the connection (HTTP 1.1) or
+   * stream (HTTP/2) is closed; closing an HTTP/2 stream channel
+   * resets the stream with a {@code CANCEL} error code.</p>
+   *
+   * @see
+   * AbstractContainerRequestDecoder#bodyReadTimedOut(io.netty.channel.ChannelHandlerContext)
+   */
+  public static final String BODY_READ_TIMEOUT = "org.microbean.jersey.netty.bodyReadTimeout";
+
+  /**
+   * The name of a property whose value is a {@link Boolean}
+   * indicating whether a request that will have an entity is handed
+   * to Jersey as soon as its headers arrive, rather than when the
+   * first piece of its entity arrives.
+   *
+   * <p>Resource matching, filters and authentication then run while
+   * the entity is still being uploaded, and a resource method that
+   * reads the entity blocks until it arrives.  Requests whose
+   * entities are {@linkplain #MAX_AGGREGATED_CONTENT_LENGTH
+   * aggregated} are not affected.  If absent, {@code false} is
+   * assumed.</p>
+   *
+   * @see AbstractContainerRequestDecoder
+   */
+  public static final String EARLY_DISPATCH = "org.microbean.jersey.netty.earlyDispatch";
+
+  /**
+   * The name of a property whose value is the largest declared
+   * {@code Content-Length}, in bytes, of a request entity that is
+   * received in full before the request is handed to Jersey.
+   *
+   * <p>Requests whose entities are no larger than this are passed on
+   * only once their last byte has arrived, so that the Jersey thread
+   * that handles them never blocks waiting for a slow client.
+   * Larger entities, and entities of unknown length, are streamed to
+   * Jersey as they arrive.  If absent or not positive, all entities
+   * are streamed.</p>
+   *
+   * @see AbstractContainerRequestDecoder
+   */
+  public static final String MAX_AGGREGATED_CONTENT_LENGTH = "org.microbean.jersey.netty.maxAggregatedContentLength";
+
+  /**
+   * The name of a property whose value is the path, relative to the
+   * base URI, at which {@code GET} and {@code HEAD} liveness probes
+   * are answered on the Netty event loop, without involving Jersey.
+   *
+   * <p>If absent, there is no liveness endpoint.</p>
+   *
+   * @see HealthCheckHandler
+   */
+  public static final String LIVENESS_PATH = "org.microbean.jersey.netty.livenessPath";
+
+  /**
+   * The name of a property whose value is the path, relative to the
+   * base URI, at which {@code GET} and {@code HEAD} readiness probes
+   * are answered on the Netty event loop, without involving Jersey.
+   *
+   * <p>If absent, there is no readiness endpoint.</p>
+   *
+   * @see HealthCheckHandler#isReady()
+   */
+  public static final String READINESS_PATH = "org.microbean.jersey.netty.readinessPath";
+
+  /**
+   * The name of a property whose value is the number of tasks that
+   * may be waiting, in total, to run on the Jersey {@link
+   * io.netty.util.concurrent.EventExecutorGroup} before readiness
+   * probes report that the server is not ready.
+   *
+   * <p>If absent, or less than or equal to {@code 0}, queue depth
+   * does not affect readiness.</p>
+   *
+   * @see #READINESS_PATH
+   *
+   * @see HealthCheckHandler#isReady()
+   */
+  public static final String READINESS_MAX_QUEUE_DEPTH = "org.microbean.jersey.netty.readinessMaxQueueDepth";
+
+  /**
+   * The name of a property whose value is a {@link Boolean}
+   * indicating whether requests that no resource could handle are
+   * answered with {@code 404 Not Found} or {@code 405 Method Not
+   * Allowed} on the Netty event loop, without involving Jersey.
+   *
+   * <p>If absent, {@code false} is assumed.</p>
+   *
+   * @see UnroutableRequestHandler
+   */
+  public static final String REJECT_UNROUTABLE_REQUESTS = "org.microbean.jersey.netty.rejectUnroutableRequests";
+
+  /**
+   * The name of a property whose value is the maximum number of
+   * requests, across all connections, that may be handed to Jersey
+   * but not yet fully answered.
+   *
+   * <p>Requests beyond this limit are refused on the Netty event
+   * loop without ever reaching Jersey: HTTP 1.1 requests receive a
+   * {@code 503 Service Unavailable} response, and HTTP/2 streams are
+   * reset with a {@code REFUSED_STREAM} error code.</p>
+   *
+   * @see AdmissionController
+   *
+   * @see AdmissionControlHandler
+   */
+  public static final String MAX_IN_FLIGHT_REQUESTS = "org.microbean.jersey.netty.maxInFlightRequests";
+
+  /**
+   * The name of a property whose value is the number of tasks that
+   * may be waiting to run on a Jersey {@link
+   * io.netty.util.concurrent.EventExecutor} before further requests
+   * destined for it are refused in the manner described by {@link
+   * #MAX_IN_FLIGHT_REQUESTS}.
+   *
+   * @see AdmissionController
+   *
+   * @see AdmissionControlHandler
+   */
+  public static final String MAX_QUEUE_DEPTH = "org.microbean.jersey.netty.maxQueueDepth";
+
+  /**
+   * The name of a property whose value is the initial number of
+   * requests, across all connections, that may be inside {@link
+   * org.glassfish.jersey.server.ApplicationHandler#handle(org.glassfish.jersey.server.ContainerRequest)}
+   * at once.
+   *
+   * <p>The limit then adapts to observed latency: it grows while
+   * latency is stable and shrinks when latency rises.  Requests
+   * beyond it are refused in the manner described by {@link
+   * #MAX_IN_FLIGHT_REQUESTS}.</p>
+   *
+   * @see AdaptiveConcurrencyLimiter
+   *
+   * @see ConcurrencyLimitHandler
+   *
+   * @see #MAX_CONCURRENCY_LIMIT
+   */
+  public static final String CONCURRENCY_LIMIT = "org.microbean.jersey.netty.concurrencyLimit";
+
+  /**
+   * The name of a property whose value is the largest value to which
+   * the {@linkplain #CONCURRENCY_LIMIT adaptive concurrency limit}
+   * may grow.
+   *
+   * <p>If absent or not positive, the limit may grow without bound
+   * (though it only grows while at least half of it is in use).</p>
+   *
+   * @see AdaptiveConcurrencyLimiter#getMaxLimit()
+   */
+  public static final String MAX_CONCURRENCY_LIMIT = "org.microbean.jersey.netty.maxConcurrencyLimit";
+
+  /**
+   * The name of a property whose value is the maximum total size, in
+   * bytes, of a {@link ResponseCache} shared by all connections.
+   *
+   * <p>If absent or not positive, no responses are cached.
+   * Otherwise cacheable responses to {@code GET} requests are stored
+   * and subsequently served on the Netty event loop, without
+   * involving Jersey.</p>
+   *
+   * @see ResponseCacheHandler
+   *
+   * @see #RESPONSE_CACHE_MAX_ENTRY_SIZE
+   */
+  public static final String RESPONSE_CACHE_SIZE = "org.microbean.jersey.netty.responseCacheSize";
+
+  /**
+   * The name of a property whose value is the maximum size, in
+   * bytes, of the body of any one response stored in the {@linkplain
+   * #RESPONSE_CACHE_SIZE response cache}.
+   *
+   * <p>If absent or not positive, one sixteenth of the {@linkplain
+   * #RESPONSE_CACHE_SIZE cache size} is used.</p>
+   *
+   * @see ResponseCache#getMaxEntrySize()
+   */
+  public static final String RESPONSE_CACHE_MAX_ENTRY_SIZE = "org.microbean.jersey.netty.responseCacheMaxEntrySize";
+
+  /**
+   * The name of a property whose value is the maximum number of URIs
+   * whose validators may be held in a {@link ValidatorRegistry}
+   * shared by all connections.
+   *
+   * <p>If absent or not positive, conditional requests are always
+   * handled by Jersey.  Otherwise a conditional {@code GET} or {@code
+   * HEAD} request for a resource whose current validators are known
+   * is answered with {@code 304 Not Modified} on the Netty event
+   * loop.</p>
+   *
+   * @see ConditionalRequestHandler
+   */
+  public static final String VALIDATOR_REGISTRY_SIZE = "org.microbean.jersey.netty.validatorRegistrySize";
+
+  /**
+   * The name of a property whose value is the maximum size, in bytes,
+   * of the body of a response that may be shared among identical
+   * concurrent {@code GET} requests.
+   *
+   * <p>If absent or not positive, requests are not coalesced.
+   * Otherwise a {@code GET} request that arrives while an identical
+   * one is being handled waits for, and is answered with, that
+   * request's response.</p>
+   *
+   * @see RequestCoalescer
+   */
+  public static final String MAX_COALESCED_RESPONSE_SIZE = "org.microbean.jersey.netty.maxCoalescedResponseSize";
+
+  /**
+   * The name of a property whose value is a {@link Bulkheads}
+   * assigning some of an application's requests to {@link
+   * Bulkhead}s, each with its own threads and queue limit, so that
+   * slow requests cannot starve the rest.
+   *
+   * <p>If absent, all requests are handled on the Jersey {@link
+   * io.netty.util.concurrent.EventExecutorGroup} supplied to the
+   * {@link JerseyChannelInitializer}.</p>
+   *
+   * @see Bulkheads
+   */
+  public static final String BULKHEADS = "org.microbean.jersey.netty.bulkheads";
+
+  /**
+   * The name of a property whose value is a {@link Boolean}
+   * indicating whether the registered classes of an application
+   * should be examined at startup to see which Netty types, if any,
+   * they inject.
+   *
+   * <p>If {@code true}, Netty types that nothing injects are neither
+   * bound into Jersey's dependency injection system nor set up for
+   * each request, which removes that per-request overhead entirely
+   * for applications that do not use it.  Leave this property unset,
+   * or set it to {@code false}, if the application obtains these
+   * types in ways that cannot be discovered by reflection, such as
+   * programmatic lookups.  Applications that register a {@code
+   * Binder} are never analyzed.</p>
+   *
+   * <p>If absent, {@code false} is assumed.</p>
+   *
+   * @see JerseyChannelInitializer
+   */
+  public static final String ANALYZE_INJECTION = "org.microbean.jersey.netty.analyzeInjection";
+
+  /**
+   * The name of a property whose value is a comma-separated list of
+   * synthetic requests that {@link JerseyChannelInitializer#warmUp()}
+   * sends through the application before it serves real traffic.
+   *
+   * <p>Each request is a request URI, such as {@code /greetings?x=y},
+   * optionally preceded by a method name and a space, such as {@code
+   * HEAD /greetings}; the method defaults to {@code GET}.  If absent
+   * or empty, no warm-up is performed.</p>
+   *
+   * @see #WARM_UP_ITERATIONS
+   */
+  public static final String WARM_UP_REQUESTS = "org.microbean.jersey.netty.warmUpRequests";
+
+  /**
+   * The name of a property whose value is the number of times each
+   * of the {@linkplain #WARM_UP_REQUESTS warm-up requests} is sent.
+   *
+   * <p>If absent or not positive, {@code 100} is used.</p>
+   *
+   * @see JerseyChannelInitializer#warmUp()
+   */
+  public static final String WARM_UP_ITERATIONS = "org.microbean.jersey.netty.warmUpIterations";
+
+  /**
+   * The name of a property whose value is the number of milliseconds
+   * a {@code text/event-stream} response may go without any output
+   * before a heartbeat comment is sent on it.
+   *
+   * <p>Heartbeats keep intermediaries from closing idle streams and
+   * let the server notice clients that have gone away.  They are
+   * scheduled on the channel's event loop and are only ever sent
+   * between events.  If absent or not positive, no heartbeats are
+   * sent.</p>
+   *
+   * @see ServerSentEventBroadcaster
+   */
+  public static final String SSE_HEARTBEAT_INTERVAL = "org.microbean.jersey.netty.sseHeartbeatInterval";
+
+
+  /*
+   * Constructors.
+   */
+
+
+  private NettyContainerProperties() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the value of the named property in the supplied {@link
+   * Configuration}, converted to the supplied type, or the supplied
+   * default value if there is no such property.
+   *
+   * @param <T> the type of the value
+   *
+   * @param configuration the {@link Configuration} to interrogate;
+   * may be {@code null} in which case {@code defaultValue} will be
+   * returned
+   *
+   * @param name the name of the property; must not be {@code null}
+   *
+   * @param defaultValue the value to return if there is no such
+   * property; may be {@code null}
+   *
+   * @param type the type of the value; must not be {@code null}
+   *
+   * @return the value of the property, or {@code defaultValue}
+   *
+   * @see ServerProperties#getValue(java.util.Map, String, Object,
+   * Class)
+   */
+  static final <T> T getValue(final Configuration configuration,
+                              final String name,
+                              final T defaultValue,
+                              final Class<T> type) {
+    final T returnValue;
+    if (configuration == null) {
+      returnValue = defaultValue;
+    } else {
+      returnValue = ServerProperties.getValue(configuration.getProperties(), name, defaultValue, type);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the value of the named property in the supplied {@link
+   * Configuration}, interpreted as a number of milliseconds and
+   * converted to nanoseconds, or {@code 0L} if there is no such
+   * property or its value is not positive.
+   *
+   * @param configuration the {@link Configuration} to interrogate;
+   * may be {@code null} in which case {@code 0L} will be returned
+   *
+   * @param name the name of the property; must not be {@code null}
+   *
+   * @return a timeout in nanoseconds, or {@code 0L} if the timeout
+   * is disabled
+   */
+  static final long getTimeoutNanos(final Configuration configuration, final String name) {
+    final Long millis = getValue(configuration, name, Long.valueOf(0L), Long.class);
+    return millis == null || millis.longValue() <= 0L ? 0L : TimeUnit.MILLISECONDS.toNanos(millis.longValue());
+  }
+
+}
@@ -0,0 +1,317 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.buffer.ByteBuf;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.server.ApplicationHandler; // for javadoc only
+
+/**
+ * A thread-safe registry of in-flight requests, shared by all
+ * connections served by a {@link JerseyChannelInitializer}, that
+ * lets identical concurrent requests share a single {@linkplain
+ * ApplicationHandler#handle(org.glassfish.jersey.server.ContainerRequest)
+ * execution} ("single flight").
+ *
+ * <p>The first of a set of identical requests (the <em>leader</em>)
+ * is handled normally; those that arrive while it is in flight (the
+ * <em>followers</em>) wait, and when the leader's response is
+ * complete its serialized bytes are written to each follower as a
+ * retained duplicate.  If the leader's response cannot be shared,
+ * each follower is handled normally instead.</p>
+ *
+ * <p>Instances of this class also serve as a source of metrics via
+ * their {@code get*} methods.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see RequestCoalescingHandler
+ *
+ * @see NettyContainerProperties#MAX_COALESCED_RESPONSE_SIZE
+ */
+public final class RequestCoalescer {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final int maxResponseSize;
+
+  private final Map<String, Flight> flights;
+
+  private final LongAdder leaders;
+
+  private final LongAdder followers;
+
+  private final LongAdder abandonedFlights;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link RequestCoalescer}.
+   *
+   * @param maxResponseSize the maximum size, in bytes, of the body of
+   * a response that may be shared; must be positive
+   *
+   * @exception IllegalArgumentException if {@code maxResponseSize} is
+   * not positive
+   */
+  public RequestCoalescer(final int maxResponseSize) {
+    super();
+    if (maxResponseSize <= 0) {
+      throw new IllegalArgumentException("maxResponseSize <= 0: " + maxResponseSize);
+    }
+    this.maxResponseSize = maxResponseSize;
+    this.flights = new HashMap<>();
+    this.leaders = new LongAdder();
+    this.followers = new LongAdder();
+    this.abandonedFlights = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum size, in bytes, of the body of a response
+   * that may be shared.
+   *
+   * @return the maximum size of the body of a response that may be
+   * shared
+   */
+  public final int getMaxResponseSize() {
+    return this.maxResponseSize;
+  }
+
+  /**
+   * Returns the number of requests that have been handled on behalf
+   * of others so far.
+   *
+   * @return the number of leading requests so far
+   */
+  public final long getLeaders() {
+    return this.leaders.sum();
+  }
+
+  /**
+   * Returns the number of requests that have waited for an identical
+   * request so far.
+   *
+   * @return the number of following requests so far
+   */
+  public final long getFollowers() {
+    return this.followers.sum();
+  }
+
+  /**
+   * Returns the number of leading requests so far whose responses
+   * could not be shared, so that their followers had to be handled
+   * normally.
+   *
+   * @return the number of abandoned flights so far
+   */
+  public final long getAbandonedFlights() {
+    return this.abandonedFlights.sum();
+  }
+
+  /**
+   * Returns the number of requests that are currently leading.
+   *
+   * @return the number of requests that are currently leading
+   */
+  public final synchronized int getInFlightLeaders() {
+    return this.flights.size();
+  }
+
+  /**
+   * Either adds the supplied {@link RequestCoalescingHandler.Follower}
+   * to the {@link Flight} in progress for the supplied key and returns
+   * {@code null}, or, if there is no such {@link Flight}, starts and
+   * returns a new one, whose leader is the request that the {@link
+   * RequestCoalescingHandler.Follower} represents.
+   *
+   * @param key a {@link String} identifying equivalent requests; must
+   * not be {@code null}
+   *
+   * @param follower the {@link RequestCoalescingHandler.Follower}
+   * representing the request; must not be {@code null}
+   *
+   * @return a new {@link Flight}, or {@code null} if the request is
+   * to follow an existing one
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  final Flight join(final String key, final RequestCoalescingHandler.Follower follower) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(follower);
+    Flight returnValue = null;
+    synchronized (this) {
+      final Flight flight = this.flights.get(key);
+      if (flight == null) {
+        returnValue = new Flight(key);
+        this.flights.put(key, returnValue);
+      } else {
+        flight.followers.add(follower);
+      }
+    }
+    if (returnValue == null) {
+      this.followers.increment();
+    } else {
+      this.leaders.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Completes the supplied {@link Flight} by {@linkplain
+   * RequestCoalescingHandler.Follower#answer(HttpResponseStatus,
+   * HttpHeaders, ByteBuf) answering} each of its followers with the
+   * supplied response.
+   *
+   * <p>Ownership of {@code content} passes to this method.</p>
+   *
+   * @param flight the {@link Flight} to complete; must not be {@code
+   * null}
+   *
+   * @param status the response status; must not be {@code null}
+   *
+   * @param headers the response headers, which will not be modified;
+   * must not be {@code null}
+   *
+   * @param content the response body; must not be {@code null}
+   *
+   * @exception NullPointerException if any parameter is {@code null}
+   */
+  final void complete(final Flight flight,
+                      final HttpResponseStatus status,
+                      final HttpHeaders headers,
+                      final ByteBuf content) {
+    try {
+      final List<RequestCoalescingHandler.Follower> followers = this.land(flight);
+      if (followers != null) {
+        for (final RequestCoalescingHandler.Follower follower : followers) {
+          follower.answer(status, headers, content.retainedDuplicate());
+        }
+      }
+    } finally {
+      content.release();
+    }
+  }
+
+  /**
+   * Abandons the supplied {@link Flight} by {@linkplain
+   * RequestCoalescingHandler.Follower#dispatch() dispatching} each of
+   * its followers normally.
+   *
+   * @param flight the {@link Flight} to abandon; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if {@code flight} is {@code null}
+   */
+  final void abandon(final Flight flight) {
+    final List<RequestCoalescingHandler.Follower> followers = this.land(flight);
+    if (followers != null && !followers.isEmpty()) {
+      this.abandonedFlights.increment();
+      for (final RequestCoalescingHandler.Follower follower : followers) {
+        follower.dispatch();
+      }
+    }
+  }
+
+  private final synchronized List<RequestCoalescingHandler.Follower> land(final Flight flight) {
+    final List<RequestCoalescingHandler.Follower> returnValue;
+    if (flight.landed) {
+      returnValue = null;
+    } else {
+      flight.landed = true;
+      this.flights.remove(flight.key, flight);
+      returnValue = flight.followers;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * RequestCoalescer}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link RequestCoalescer}
+   */
+  @Override
+  public final String toString() {
+    return
+      "leaders: " + this.getLeaders() +
+      ", followers: " + this.getFollowers() +
+      ", abandonedFlights: " + this.getAbandonedFlights();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A request in flight on behalf of itself and any number of
+   * identical requests.
+   *
+   * <p>The state of a {@link Flight} is guarded by the {@link
+   * RequestCoalescer} that created it.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Flight {
+
+    private final String key;
+
+    private final List<RequestCoalescingHandler.Follower> followers;
+
+    private boolean landed;
+
+    private Flight(final String key) {
+      super();
+      this.key = key;
+      this.followers = new ArrayList<>(4);
+    }
+
+  }
+
+}
@@ -0,0 +1,431 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Queue;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.HttpMethod;
+
+import javax.ws.rs.core.MediaType;
+
+import io.netty.buffer.ByteBuf;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import io.netty.util.ReferenceCountUtil;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits in front of an {@link
+ * AbstractContainerRequestHandlingResponseWriter} and uses a {@link
+ * RequestCoalescer} so that identical {@code GET} {@link
+ * ContainerRequest}s in flight at the same time, on any connections,
+ * share a single {@linkplain
+ * org.glassfish.jersey.server.ApplicationHandler#handle(ContainerRequest)
+ * execution}.
+ *
+ * <p>Requests are identical if they have the same request URI and
+ * the same {@code Accept}, {@code Accept-Encoding} and {@code
+ * Accept-Language} headers.  Requests that carry credentials,
+ * cookies or an entity, or that accept {@code text/event-stream}
+ * responses, are never coalesced.  A response is shared
+ * only if it is complete, no larger than the {@linkplain
+ * RequestCoalescer#getMaxResponseSize() maximum size}, sets no
+ * cookies and is not marked {@code private}; otherwise each waiting
+ * request is handled normally.</p>
+ *
+ * <p>While a request on an HTTP 1.1 connection waits, later
+ * (pipelined) messages on that connection are held back so that
+ * responses are written in order, and a request that arrives while
+ * an earlier one on the same connection is still being answered is
+ * not coalesced.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}, but any number
+ * of them may share a {@link RequestCoalescer}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see RequestCoalescer
+ */
+public final class RequestCoalescingHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = RequestCoalescingHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final RequestCoalescer requestCoalescer;
+
+  /**
+   * A {@link Queue} of {@link Lead}s, one for each request that has
+   * been passed on and not yet completely answered, in the order in
+   * which the requests arrived.
+   */
+  private final Queue<Lead> leads;
+
+  /**
+   * Inbound messages held back while {@link #follower} waits.
+   */
+  private final Queue<Object> heldMessages;
+
+  /**
+   * The {@link Follower} representing a request on this channel that
+   * is waiting for an identical request to be answered; may be
+   * {@code null}.
+   */
+  private Follower follower;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link RequestCoalescingHandler}.
+   *
+   * @param requestCoalescer the {@link RequestCoalescer} to use; must
+   * not be {@code null}
+   *
+   * @exception NullPointerException if {@code requestCoalescer} is
+   * {@code null}
+   */
+  public RequestCoalescingHandler(final RequestCoalescer requestCoalescer) {
+    super();
+    this.requestCoalescer = Objects.requireNonNull(requestCoalescer);
+    this.leads = new ArrayDeque<>(2);
+    this.heldMessages = new ArrayDeque<>(2);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    if (this.follower != null) {
+      this.heldMessages.add(message);
+    } else if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      Lead lead = Lead.NONE;
+      if ((this.leads.isEmpty() || ImmediateResponses.isHttp2(channelHandlerContext.channel())) &&
+          isCoalescable(containerRequest)) {
+        final Follower follower = new Follower(this, channelHandlerContext, containerRequest);
+        final RequestCoalescer.Flight flight = this.requestCoalescer.join(key(containerRequest), follower);
+        if (flight == null) {
+          if (logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "channelRead", "Coalescing {0}", containerRequest.getRequestUri());
+          }
+          this.follower = follower;
+        } else {
+          lead = new Lead(flight, new ResponseCapture(this.requestCoalescer.getMaxResponseSize()));
+        }
+      }
+      if (this.follower == null) {
+        this.leads.add(lead);
+        super.channelRead(channelHandlerContext, message);
+      }
+    } else {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    final Lead lead = this.leads.peek();
+    if (lead != null) {
+      if (lead != Lead.NONE) {
+        final ResponseCapture response = lead.response;
+        if (response.isActive()) {
+          if (response.add(channelHandlerContext, message)) {
+            final ByteBuf content = response.takeContent();
+            if (isShareable(response.getHeaders())) {
+              this.requestCoalescer.complete(lead.flight, response.getStatus(), response.getHeaders(), content);
+            } else {
+              content.release();
+              this.requestCoalescer.abandon(lead.flight);
+            }
+          } else if (!response.isActive()) {
+            this.requestCoalescer.abandon(lead.flight);
+          }
+        }
+      }
+      if (ImmediateResponses.isEndOfResponse(message)) {
+        this.leads.remove();
+        lead.release(this.requestCoalescer);
+      }
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+  }
+
+  @Override
+  public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  private final void releaseAll() {
+    Lead lead;
+    while ((lead = this.leads.poll()) != null) {
+      lead.release(this.requestCoalescer);
+    }
+    if (this.follower != null) {
+      ImmediateResponses.discardEntity(this.follower.containerRequest);
+      this.follower = null;
+    }
+    Object message;
+    while ((message = this.heldMessages.poll()) != null) {
+      if (message instanceof ContainerRequest) {
+        ImmediateResponses.discardEntity((ContainerRequest)message);
+      } else {
+        ReferenceCountUtil.release(message);
+      }
+    }
+  }
+
+  /**
+   * Writes a shared response to the request represented by the
+   * supplied {@link Follower}.
+   *
+   * <p>This method must be called on the event loop of this
+   * handler's channel.</p>
+   */
+  private final void answered(final Follower follower,
+                              final HttpResponseStatus status,
+                              final HttpHeaders headers,
+                              final ByteBuf content) {
+    if (this.follower == follower) {
+      this.follower = null;
+      final ChannelHandlerContext channelHandlerContext = follower.channelHandlerContext;
+      ImmediateResponses.writeResponse(channelHandlerContext,
+                                       follower.containerRequest,
+                                       status,
+                                       new DefaultHttpHeaders().set(headers),
+                                       content);
+      this.releaseHeldMessages(channelHandlerContext);
+    } else {
+      content.release();
+    }
+  }
+
+  /**
+   * Passes the request represented by the supplied {@link Follower}
+   * on to be handled normally.
+   *
+   * <p>This method must be called on the event loop of this
+   * handler's channel.</p>
+   */
+  private final void dispatched(final Follower follower) {
+    if (this.follower == follower) {
+      this.follower = null;
+      final ChannelHandlerContext channelHandlerContext = follower.channelHandlerContext;
+      this.leads.add(Lead.NONE);
+      channelHandlerContext.fireChannelRead(follower.containerRequest);
+      this.releaseHeldMessages(channelHandlerContext);
+    }
+  }
+
+  private final void releaseHeldMessages(final ChannelHandlerContext channelHandlerContext) {
+    try {
+      Object message;
+      while (this.follower == null && (message = this.heldMessages.poll()) != null) {
+        this.channelRead(channelHandlerContext, message);
+      }
+      if (this.follower == null) {
+        channelHandlerContext.fireChannelReadComplete();
+      }
+    } catch (final Exception exception) {
+      channelHandlerContext.fireExceptionCaught(exception);
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final boolean isCoalescable(final ContainerRequest containerRequest) {
+    final String contentLength = containerRequest.getHeaderString(HttpHeaderNames.CONTENT_LENGTH.toString());
+    final String accept = containerRequest.getHeaderString(HttpHeaderNames.ACCEPT.toString());
+    return
+      HttpMethod.GET.equalsIgnoreCase(containerRequest.getMethod()) &&
+      // Event streams never complete, so followers would wait forever.
+      (accept == null || !accept.toLowerCase(Locale.ROOT).contains(MediaType.SERVER_SENT_EVENTS)) &&
+      containerRequest.getHeaderString(HttpHeaderNames.AUTHORIZATION.toString()) == null &&
+      containerRequest.getHeaderString(HttpHeaderNames.COOKIE.toString()) == null &&
+      containerRequest.getHeaderString(HttpHeaderNames.TRANSFER_ENCODING.toString()) == null &&
+      (contentLength == null || "0".equals(contentLength.trim()));
+  }
+
+  private static final boolean isShareable(final HttpHeaders headers) {
+    final String cacheControl = headers.get(HttpHeaderNames.CACHE_CONTROL);
+    return
+      !headers.contains(HttpHeaderNames.SET_COOKIE) &&
+      (cacheControl == null || !cacheControl.toLowerCase().contains("private"));
+  }
+
+  private static final String key(final ContainerRequest containerRequest) {
+    return
+      containerRequest.getRequestUri() + "\n" +
+      containerRequest.getHeaderString(HttpHeaderNames.ACCEPT.toString()) + "\n" +
+      containerRequest.getHeaderString(HttpHeaderNames.ACCEPT_ENCODING.toString()) + "\n" +
+      containerRequest.getHeaderString(HttpHeaderNames.ACCEPT_LANGUAGE.toString());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A request waiting for an identical request to be answered.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Follower {
+
+    private final RequestCoalescingHandler handler;
+
+    private final ChannelHandlerContext channelHandlerContext;
+
+    private final ContainerRequest containerRequest;
+
+    private Follower(final RequestCoalescingHandler handler,
+                     final ChannelHandlerContext channelHandlerContext,
+                     final ContainerRequest containerRequest) {
+      super();
+      this.handler = handler;
+      this.channelHandlerContext = channelHandlerContext;
+      this.containerRequest = containerRequest;
+    }
+
+    /**
+     * Arranges for the supplied response to be written to this
+     * {@link Follower}'s channel.
+     *
+     * <p>Ownership of {@code content} passes to this method.</p>
+     *
+     * @param status the response status; must not be {@code null}
+     *
+     * @param headers the response headers, which will not be
+     * modified; must not be {@code null}
+     *
+     * @param content the response body; must not be {@code null}
+     */
+    final void answer(final HttpResponseStatus status, final HttpHeaders headers, final ByteBuf content) {
+      try {
+        this.channelHandlerContext.executor().execute(() -> this.handler.answered(this, status, headers, content));
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        content.release();
+      }
+    }
+
+    /**
+     * Arranges for this {@link Follower}'s request to be handled
+     * normally.
+     */
+    final void dispatch() {
+      try {
+        this.channelHandlerContext.executor().execute(() -> this.handler.dispatched(this));
+      } catch (final RejectedExecutionException rejectedExecutionException) {
+        ImmediateResponses.discardEntity(this.containerRequest);
+      }
+    }
+
+  }
+
+  /**
+   * The state of a request being handled on behalf of its followers.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Lead {
+
+    /**
+     * A {@link Lead} representing a request with no followers.
+     */
+    private static final Lead NONE = new Lead(null, null);
+
+    private final RequestCoalescer.Flight flight;
+
+    private final ResponseCapture response;
+
+    private Lead(final RequestCoalescer.Flight flight, final ResponseCapture response) {
+      super();
+      this.flight = flight;
+      this.response = response;
+    }
+
+    /**
+     * Releases the resources held by this {@link Lead} and, if its
+     * response has not been shared, lets its followers be handled
+     * normally.
+     */
+    private final void release(final RequestCoalescer requestCoalescer) {
+      if (this.flight != null) {
+        this.response.release();
+        requestCoalescer.abandon(this.flight);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,426 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.util.regex.MatchResult;
+
+import javax.ws.rs.HttpMethod;
+
+import javax.ws.rs.container.PreMatching;
+
+import javax.ws.rs.core.Configuration;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.internal.inject.InjectionManager;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ExtendedResourceContext;
+
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+
+import org.glassfish.jersey.uri.PathPattern;
+
+/**
+ * An index of the paths and request methods served by the
+ * {@linkplain ExtendedResourceContext#getResourceModel() resource
+ * model} of an {@link ApplicationHandler}, used to recognize
+ * requests that Jersey is certain to answer with {@code 404 Not
+ * Found} or {@code 405 Method Not Allowed}.
+ *
+ * <p>The index is built once per {@link ApplicationHandler} and
+ * cached.  It errs on the side of routability: a request is only
+ * {@linkplain #reject(String, String) rejected} if <em>no</em>
+ * resource matches its path, or if no resource whose path matches
+ * fully supports its method.  Paths handled by sub-resource locators
+ * are never rejected, nor are {@code OPTIONS} requests, and an
+ * application that registers {@linkplain PreMatching pre-matching}
+ * filters, which may rewrite request URIs and methods, is not
+ * indexed at all.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are immutable and safe for concurrent
+ * use by multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #of(ApplicationHandler)
+ *
+ * @see UnroutableRequestHandler
+ */
+final class ResourceModelIndex {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ResourceModelIndex.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  /**
+   * A {@link ResourceModelIndex} that rejects nothing.
+   */
+  static final ResourceModelIndex NONE = new ResourceModelIndex(null);
+
+  /**
+   * The {@link Rejection} for requests whose paths no resource
+   * matches.
+   */
+  static final Rejection NOT_FOUND = new Rejection(HttpResponseStatus.NOT_FOUND, null);
+
+  private static final Map<ApplicationHandler, ResourceModelIndex> cache = new WeakHashMap<>();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The root {@link Node}s, or {@code null} if nothing is to be
+   * rejected.
+   */
+  private final List<Node> roots;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  private ResourceModelIndex(final List<Node> roots) {
+    super();
+    this.roots = roots;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a {@link Rejection} describing the response Jersey would
+   * give to a request with the supplied method and path, if it is
+   * certain not to be routable, or {@code null} if it may be
+   * routable.
+   *
+   * @param method the request method; may be {@code null} in which
+   * case {@code null} will be returned
+   *
+   * @param path the request path, relative to the base URI and
+   * still encoded, as returned by {@link
+   * org.glassfish.jersey.server.ContainerRequest#getPath(boolean)
+   * ContainerRequest.getPath(false)}; may be {@code null} in which
+   * case {@code null} will be returned
+   *
+   * @return a {@link Rejection}, or {@code null}
+   */
+  final Rejection reject(final String method, final String path) {
+    Rejection returnValue = null;
+    if (this.roots != null && method != null && path != null && !HttpMethod.OPTIONS.equalsIgnoreCase(method)) {
+      final Collection<Node> matches = new ArrayList<>(2);
+      if (!match(this.roots, path.startsWith("/") ? path : "/" + path, matches)) {
+        if (matches.isEmpty()) {
+          returnValue = NOT_FOUND;
+        } else {
+          final String upperCaseMethod = method.toUpperCase();
+          boolean allowed = false;
+          for (final Node node : matches) {
+            if (node.allowedMethods.contains(upperCaseMethod)) {
+              allowed = true;
+              break;
+            }
+          }
+          if (!allowed) {
+            if (matches.size() == 1) {
+              returnValue = matches.iterator().next().methodNotAllowed;
+            } else {
+              final Set<String> allowedMethods = new TreeSet<>();
+              for (final Node node : matches) {
+                allowedMethods.addAll(node.allowedMethods);
+              }
+              returnValue = allowedMethods.isEmpty() ? NOT_FOUND : methodNotAllowed(allowedMethods);
+            }
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ResourceModelIndex}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link ResourceModelIndex}
+   */
+  @Override
+  public final String toString() {
+    return this.roots == null ? "(none)" : this.roots.toString();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a {@link ResourceModelIndex} for the supplied {@link
+   * ApplicationHandler}, building it if it has not already been
+   * built.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param applicationHandler the {@link ApplicationHandler} whose
+   * resource model should be indexed; may be {@code null} in which
+   * case {@link #NONE} will be returned
+   *
+   * @return a non-{@code null} {@link ResourceModelIndex}
+   */
+  static final ResourceModelIndex of(final ApplicationHandler applicationHandler) {
+    ResourceModelIndex returnValue;
+    if (applicationHandler == null) {
+      returnValue = NONE;
+    } else {
+      synchronized (cache) {
+        returnValue = cache.get(applicationHandler);
+      }
+      if (returnValue == null) {
+        returnValue = build(applicationHandler);
+        synchronized (cache) {
+          cache.putIfAbsent(applicationHandler, returnValue);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, cn, "of", "Resource model index: {0}", returnValue);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final ResourceModelIndex build(final ApplicationHandler applicationHandler) {
+    ResourceModelIndex returnValue = NONE;
+    if (!hasPreMatchingFilters(applicationHandler.getConfiguration())) {
+      final InjectionManager injectionManager = applicationHandler.getInjectionManager();
+      final ExtendedResourceContext resourceContext =
+        injectionManager == null ? null : injectionManager.getInstance(ExtendedResourceContext.class);
+      final ResourceModel resourceModel = resourceContext == null ? null : resourceContext.getResourceModel();
+      if (resourceModel != null) {
+        returnValue = new ResourceModelIndex(toNodes(resourceModel.getRootResources()));
+      }
+    }
+    return returnValue;
+  }
+
+  private static final List<Node> toNodes(final Collection<? extends Resource> resources) {
+    final List<Node> returnValue;
+    if (resources == null || resources.isEmpty()) {
+      returnValue = Collections.emptyList();
+    } else {
+      returnValue = new ArrayList<>(resources.size());
+      for (final Resource resource : resources) {
+        returnValue.add(new Node(resource));
+      }
+    }
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  /**
+   * Adds the {@link Node}s among the supplied ones, or among their
+   * descendants, whose paths fully match the supplied path to the
+   * supplied {@link Collection}, and returns {@code true} if a
+   * sub-resource locator might handle the path, in which case
+   * nothing can be concluded.
+   */
+  private static final boolean match(final List<Node> nodes, final String path, final Collection<? super Node> matches) {
+    boolean returnValue = false;
+    for (final Node node : nodes) {
+      final MatchResult matchResult = node.pathPattern.match(path);
+      if (matchResult != null) {
+        final String rightHandPath = matchResult.groupCount() > 0 ? matchResult.group(matchResult.groupCount()) : null;
+        if (rightHandPath == null || rightHandPath.isEmpty() || "/".equals(rightHandPath)) {
+          if (node.locator) {
+            returnValue = true;
+          } else {
+            matches.add(node);
+          }
+        }
+        if (!returnValue && rightHandPath != null && !rightHandPath.isEmpty()) {
+          returnValue = node.locator || match(node.children, rightHandPath, matches);
+        }
+        if (returnValue) {
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final boolean hasPreMatchingFilters(final Configuration configuration) {
+    boolean returnValue = false;
+    if (configuration != null) {
+      for (final Class<?> c : configuration.getClasses()) {
+        if (c != null && c.isAnnotationPresent(PreMatching.class)) {
+          returnValue = true;
+          break;
+        }
+      }
+      if (!returnValue) {
+        for (final Object instance : configuration.getInstances()) {
+          if (instance != null && instance.getClass().isAnnotationPresent(PreMatching.class)) {
+            returnValue = true;
+            break;
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final Rejection methodNotAllowed(final Set<String> allowedMethods) {
+    final HttpHeaders headers = new DefaultHttpHeaders();
+    headers.set(HttpHeaderNames.ALLOW, String.join(",", allowedMethods));
+    return new Rejection(HttpResponseStatus.METHOD_NOT_ALLOWED, headers);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A precomputed response to a request that Jersey could not route.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Rejection {
+
+    private final HttpResponseStatus status;
+
+    private final HttpHeaders headers;
+
+    private Rejection(final HttpResponseStatus status, final HttpHeaders headers) {
+      super();
+      this.status = status;
+      this.headers = headers;
+    }
+
+    /**
+     * Returns the response status.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} response status
+     */
+    final HttpResponseStatus getStatus() {
+      return this.status;
+    }
+
+    /**
+     * Returns the response headers, which must not be modified.
+     *
+     * @return the response headers, or {@code null}
+     */
+    final HttpHeaders getHeaders() {
+      return this.headers;
+    }
+
+    @Override
+    public final String toString() {
+      return this.headers == null ? this.status.toString() : this.status + " " + this.headers;
+    }
+
+  }
+
+  /**
+   * The index entry for a single {@link Resource}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Node {
+
+    private final PathPattern pathPattern;
+
+    private final boolean locator;
+
+    private final Set<String> allowedMethods;
+
+    private final Rejection methodNotAllowed;
+
+    private final List<Node> children;
+
+    private Node(final Resource resource) {
+      super();
+      this.pathPattern = resource.getPathPattern();
+      this.locator = resource.getResourceLocator() != null;
+      final Set<String> allowedMethods = new TreeSet<>();
+      for (final ResourceMethod resourceMethod : resource.getResourceMethods()) {
+        final String httpMethod = resourceMethod.getHttpMethod();
+        if (httpMethod != null) {
+          allowedMethods.add(httpMethod.toUpperCase());
+        }
+      }
+      if (!allowedMethods.isEmpty()) {
+        // Jersey answers these itself.
+        if (allowedMethods.contains(HttpMethod.GET)) {
+          allowedMethods.add(HttpMethod.HEAD);
+        }
+        allowedMethods.add(HttpMethod.OPTIONS);
+      }
+      this.allowedMethods = Collections.unmodifiableSet(allowedMethods);
+      this.methodNotAllowed = allowedMethods.isEmpty() ? NOT_FOUND : methodNotAllowed(allowedMethods);
+      this.children = toNodes(resource.getChildResources());
+    }
+
+    @Override
+    public final String toString() {
+      return this.pathPattern.getTemplate().getTemplate() + " " + this.allowedMethods + (this.children.isEmpty() ? "" : " " + this.children);
+    }
+
+  }
+
+}
@@ -0,0 +1,690 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.HttpMethod;
+
+import io.netty.buffer.ByteBuf;
+
+import io.netty.handler.codec.DateFormatter;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import io.netty.handler.codec.http2.Http2Headers;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A thread-safe, size-bounded cache of complete, serialized HTTP
+ * responses, shared by all connections served by a {@link
+ * JerseyChannelInitializer}.
+ *
+ * <p>Entries are keyed by request method, scheme, authority (the
+ * {@code Host} header, or the HTTP/2 {@code :authority}
+ * pseudo-header) and request URI, and by the values of the request
+ * headers named by the response's {@code Vary} header, so that
+ * virtual hosts sharing a path never share an entry.  Only responses
+ * to {@code GET} requests are stored, and they serve both {@code
+ * GET} and {@code HEAD} requests.  Each URI may have a small number
+ * of variants.  When the total size of all entries would
+ * exceed the {@linkplain #getMaxSize() maximum size}, the least
+ * recently used URIs are evicted.</p>
+ *
+ * <p>Response bodies are held in {@link ByteBuf}s allocated by the
+ * {@link io.netty.channel.Channel} that produced them; every hit is
+ * served from a retained duplicate, so no copy is made.</p>
+ *
+ * <p>Instances of this class also serve as a source of metrics via
+ * their {@code get*} methods.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ResponseCacheHandler
+ *
+ * @see NettyContainerProperties#RESPONSE_CACHE_SIZE
+ */
+public final class ResponseCache {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final int MAX_VARIANTS = 8;
+
+  /**
+   * A rough allowance, in bytes, for the bookkeeping and headers of
+   * each entry, so that many tiny entries cannot evade the size
+   * bound.
+   */
+  private static final int ENTRY_OVERHEAD = 512;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final long maxSize;
+
+  private final long maxEntrySize;
+
+  private final LinkedHashMap<String, List<Entry>> entries;
+
+  private long size;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  private final LongAdder stores;
+
+  private final LongAdder evictions;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ResponseCache}.
+   *
+   * @param maxSize the maximum total size, in bytes, of all cached
+   * responses; must be positive
+   *
+   * @param maxEntrySize the maximum size, in bytes, of the body of
+   * any one cached response; if less than or equal to {@code 0} or
+   * greater than {@code maxSize}, one sixteenth of {@code maxSize}
+   * will be used instead
+   *
+   * @exception IllegalArgumentException if {@code maxSize} is not
+   * positive
+   */
+  public ResponseCache(final long maxSize, final long maxEntrySize) {
+    super();
+    if (maxSize <= 0L) {
+      throw new IllegalArgumentException("maxSize <= 0L: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.maxEntrySize = maxEntrySize <= 0L || maxEntrySize > maxSize ? Math.max(1L, maxSize / 16L) : maxEntrySize;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true /* access order */);
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.stores = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum total size, in bytes, of all cached
+   * responses.
+   *
+   * @return the maximum total size of all cached responses
+   */
+  public final long getMaxSize() {
+    return this.maxSize;
+  }
+
+  /**
+   * Returns the maximum size, in bytes, of the body of any one cached
+   * response.
+   *
+   * @return the maximum size of the body of any one cached response
+   */
+  public final long getMaxEntrySize() {
+    return this.maxEntrySize;
+  }
+
+  /**
+   * Returns the current total size, in bytes, of all cached
+   * responses.
+   *
+   * @return the current total size of all cached responses
+   */
+  public final synchronized long getSize() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of URIs that currently have cached responses.
+   *
+   * @return the number of URIs that currently have cached responses
+   */
+  public final synchronized int getUriCount() {
+    return this.entries.size();
+  }
+
+  /**
+   * Returns the number of requests served from this cache so far.
+   *
+   * @return the number of cache hits so far
+   */
+  public final long getHits() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Returns the number of cacheable requests that could not be
+   * served from this cache so far.
+   *
+   * @return the number of cache misses so far
+   */
+  public final long getMisses() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Returns the number of responses stored in this cache so far.
+   *
+   * @return the number of responses stored so far
+   */
+  public final long getStores() {
+    return this.stores.sum();
+  }
+
+  /**
+   * Returns the number of responses evicted from this cache so far
+   * to make room for others.
+   *
+   * @return the number of evictions so far
+   */
+  public final long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Removes all entries from this {@link ResponseCache}.
+   */
+  public final synchronized void clear() {
+    for (final List<Entry> variants : this.entries.values()) {
+      for (final Entry entry : variants) {
+        entry.content.release();
+      }
+    }
+    this.entries.clear();
+    this.size = 0L;
+  }
+
+  /**
+   * Returns a {@link Hit} representing a fresh response to the
+   * supplied {@link ContainerRequest}, or {@code null} if there is
+   * no such response.
+   *
+   * <p>The caller must {@linkplain ByteBuf#release() release} the
+   * {@linkplain Hit#getContent() content} of any {@link Hit}
+   * returned.</p>
+   *
+   * @param containerRequest the {@link ContainerRequest} in
+   * question; must not be {@code null}
+   *
+   * @return a {@link Hit}, or {@code null}
+   *
+   * @exception NullPointerException if {@code containerRequest} is
+   * {@code null}
+   */
+  final Hit get(final ContainerRequest containerRequest) {
+    final String key = key(containerRequest);
+    final long now = System.nanoTime();
+    Hit returnValue = null;
+    synchronized (this) {
+      final List<Entry> variants = this.entries.get(key);
+      if (variants != null) {
+        final Iterator<Entry> iterator = variants.iterator();
+        while (iterator.hasNext()) {
+          final Entry entry = iterator.next();
+          if (now - entry.expiresAtNanos >= 0L) {
+            iterator.remove();
+            this.size -= entry.size;
+            entry.content.release();
+          } else if (returnValue == null && entry.matches(containerRequest)) {
+            returnValue = new Hit(entry.status,
+                                  entry.headers,
+                                  entry.content.retainedDuplicate(),
+                                  TimeUnit.NANOSECONDS.toSeconds(now - entry.storedAtNanos));
+          }
+        }
+        if (variants.isEmpty()) {
+          this.entries.remove(key);
+        }
+      }
+    }
+    if (returnValue == null) {
+      this.misses.increment();
+    } else {
+      this.hits.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Stores a response to the supplied {@link ContainerRequest} if it
+   * is small enough.
+   *
+   * <p>Ownership of the supplied {@code content} passes to this
+   * method in all cases.</p>
+   *
+   * @param containerRequest the {@link ContainerRequest} that was
+   * answered; must not be {@code null}
+   *
+   * @param status the response status; must not be {@code null}
+   *
+   * @param headers the response headers, which must not include
+   * hop-by-hop headers and must not be modified afterwards; must not
+   * be {@code null}
+   *
+   * @param content the response body; must not be {@code null}
+   *
+   * @param varyHeaderNames the names of the request headers
+   * identified by the response's {@code Vary} header; must not be
+   * {@code null}
+   *
+   * @param freshnessLifetimeNanos how long, in nanoseconds, the
+   * response remains fresh; must be positive
+   *
+   * @exception NullPointerException if any parameter is {@code null}
+   */
+  final void put(final ContainerRequest containerRequest,
+                 final HttpResponseStatus status,
+                 final HttpHeaders headers,
+                 final ByteBuf content,
+                 final List<String> varyHeaderNames,
+                 final long freshnessLifetimeNanos) {
+    if (content.readableBytes() > this.maxEntrySize) {
+      content.release();
+    } else {
+      final String key = key(containerRequest);
+      final Entry newEntry = new Entry(status,
+                                       headers,
+                                       content,
+                                       varyHeaderNames,
+                                       varyValues(containerRequest, varyHeaderNames),
+                                       System.nanoTime(),
+                                       freshnessLifetimeNanos);
+      synchronized (this) {
+        List<Entry> variants = this.entries.get(key);
+        if (variants == null) {
+          variants = new ArrayList<>(2);
+          this.entries.put(key, variants);
+        } else {
+          final Iterator<Entry> iterator = variants.iterator();
+          while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.varyValues.equals(newEntry.varyValues) && entry.varyHeaderNames.equals(newEntry.varyHeaderNames)) {
+              iterator.remove();
+              this.size -= entry.size;
+              entry.content.release();
+            }
+          }
+          if (variants.size() >= MAX_VARIANTS) {
+            final Entry oldest = variants.remove(0);
+            this.size -= oldest.size;
+            oldest.content.release();
+            this.evictions.increment();
+          }
+        }
+        variants.add(newEntry);
+        this.size += newEntry.size;
+        this.evict(key);
+      }
+      this.stores.increment();
+    }
+  }
+
+  /**
+   * Removes any responses stored for the supplied {@link
+   * ContainerRequest}'s URI on its authority, as should happen when a
+   * request with an unsafe method is made of it.
+   *
+   * @param containerRequest the {@link ContainerRequest} in
+   * question; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code containerRequest} is
+   * {@code null}
+   */
+  final void invalidate(final ContainerRequest containerRequest) {
+    final String key = key(containerRequest, HttpMethod.GET);
+    synchronized (this) {
+      final List<Entry> variants = this.entries.remove(key);
+      if (variants != null) {
+        for (final Entry entry : variants) {
+          this.size -= entry.size;
+          entry.content.release();
+        }
+      }
+    }
+  }
+
+  private final void evict(final String keep) {
+    assert Thread.holdsLock(this);
+    final Iterator<Map.Entry<String, List<Entry>>> iterator = this.entries.entrySet().iterator();
+    while (this.size > this.maxSize && iterator.hasNext()) {
+      final Map.Entry<String, List<Entry>> mapEntry = iterator.next();
+      if (!keep.equals(mapEntry.getKey())) {
+        iterator.remove();
+        for (final Entry entry : mapEntry.getValue()) {
+          this.size -= entry.size;
+          entry.content.release();
+          this.evictions.increment();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ResponseCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link ResponseCache}
+   */
+  @Override
+  public final String toString() {
+    return
+      "size: " + this.getSize() + "/" + this.getMaxSize() +
+      ", hits: " + this.getHits() +
+      ", misses: " + this.getMisses() +
+      ", stores: " + this.getStores() +
+      ", evictions: " + this.getEvictions();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final String key(final ContainerRequest containerRequest) {
+    final String method = containerRequest.getMethod();
+    // HEAD requests are answered from the stored GET response.
+    return key(containerRequest, HttpMethod.HEAD.equalsIgnoreCase(method) ? HttpMethod.GET : method.toUpperCase(Locale.ROOT));
+  }
+
+  private static final String key(final ContainerRequest containerRequest, final String method) {
+    final URI requestUri = containerRequest.getRequestUri();
+    String scheme = containerRequest.getHeaderString(Http2Headers.PseudoHeaderName.SCHEME.value().toString());
+    if (scheme == null) {
+      scheme = requestUri.getScheme();
+    }
+    String authority = containerRequest.getHeaderString(Http2Headers.PseudoHeaderName.AUTHORITY.value().toString());
+    if (authority == null) {
+      authority = containerRequest.getHeaderString(HttpHeaderNames.HOST.toString());
+    }
+    return
+      method + " " +
+      (scheme == null ? "" : scheme.toLowerCase(Locale.ROOT)) + "://" +
+      (authority == null ? "" : authority.toLowerCase(Locale.ROOT)) + " " +
+      requestUri;
+  }
+
+  private static final List<String> varyValues(final ContainerRequest containerRequest, final List<String> varyHeaderNames) {
+    final List<String> returnValue;
+    if (varyHeaderNames.isEmpty()) {
+      returnValue = Collections.emptyList();
+    } else {
+      returnValue = new ArrayList<>(varyHeaderNames.size());
+      for (final String varyHeaderName : varyHeaderNames) {
+        returnValue.add(containerRequest.getHeaderString(varyHeaderName));
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns how long, in nanoseconds, a response with the supplied
+   * headers may be served from a shared cache, or {@code 0L} if it
+   * may not be stored at all.
+   *
+   * <p>The {@code s-maxage} and {@code max-age} directives of the
+   * {@code Cache-Control} header are honored, in that order, followed
+   * by the {@code Expires} header.  Responses marked {@code
+   * no-store}, {@code no-cache} or {@code private}, responses that
+   * set cookies and responses that vary on every header are not
+   * stored.</p>
+   *
+   * @param headers the response headers; must not be {@code null}
+   *
+   * @return a freshness lifetime in nanoseconds, or {@code 0L}
+   *
+   * @exception NullPointerException if {@code headers} is {@code
+   * null}
+   */
+  static final long freshnessLifetimeNanos(final HttpHeaders headers) {
+    if (headers.contains(HttpHeaderNames.SET_COOKIE) || "*".equals(headers.get(HttpHeaderNames.VARY))) {
+      return 0L;
+    }
+    long maxAge = -1L;
+    long sMaxAge = -1L;
+    for (final String cacheControl : headers.getAll(HttpHeaderNames.CACHE_CONTROL)) {
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase();
+        if (directive.equals("no-store") || directive.equals("no-cache") || directive.startsWith("private")) {
+          return 0L;
+        } else if (directive.startsWith("s-maxage=")) {
+          sMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+        } else if (directive.startsWith("max-age=")) {
+          maxAge = parseSeconds(directive.substring("max-age=".length()));
+        }
+      }
+    }
+    final long seconds;
+    if (sMaxAge >= 0L) {
+      seconds = sMaxAge;
+    } else if (maxAge >= 0L) {
+      seconds = maxAge;
+    } else {
+      final String expiresString = headers.get(HttpHeaderNames.EXPIRES);
+      final Date expires = expiresString == null ? null : DateFormatter.parseHttpDate(expiresString);
+      if (expires == null) {
+        seconds = 0L;
+      } else {
+        final String dateString = headers.get(HttpHeaderNames.DATE);
+        final Date date = dateString == null ? null : DateFormatter.parseHttpDate(dateString);
+        final long nowMillis = date == null ? System.currentTimeMillis() : date.getTime();
+        seconds = Math.max(0L, TimeUnit.MILLISECONDS.toSeconds(expires.getTime() - nowMillis));
+      }
+    }
+    return TimeUnit.SECONDS.toNanos(seconds);
+  }
+
+  private static final long parseSeconds(final String value) {
+    long returnValue;
+    try {
+      returnValue = Long.parseLong(value.trim());
+    } catch (final NumberFormatException numberFormatException) {
+      returnValue = 0L;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the names of the request headers identified by the
+   * {@code Vary} header in the supplied response headers.
+   *
+   * @param headers the response headers; must not be {@code null}
+   *
+   * @return a non-{@code null}, possibly empty {@link List} of
+   * lowercase header names
+   *
+   * @exception NullPointerException if {@code headers} is {@code
+   * null}
+   */
+  static final List<String> varyHeaderNames(final HttpHeaders headers) {
+    List<String> returnValue = null;
+    for (final String vary : headers.getAll(HttpHeaderNames.VARY)) {
+      for (final String name : vary.split(",")) {
+        final String trimmedName = name.trim();
+        if (!trimmedName.isEmpty()) {
+          if (returnValue == null) {
+            returnValue = new ArrayList<>(3);
+          }
+          returnValue.add(trimmedName.toLowerCase());
+        }
+      }
+    }
+    return returnValue == null ? Collections.emptyList() : returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A cached response.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Entry {
+
+    private final HttpResponseStatus status;
+
+    private final HttpHeaders headers;
+
+    private final ByteBuf content;
+
+    private final List<String> varyHeaderNames;
+
+    private final List<String> varyValues;
+
+    private final long storedAtNanos;
+
+    private final long expiresAtNanos;
+
+    private final long size;
+
+    private Entry(final HttpResponseStatus status,
+                  final HttpHeaders headers,
+                  final ByteBuf content,
+                  final List<String> varyHeaderNames,
+                  final List<String> varyValues,
+                  final long storedAtNanos,
+                  final long freshnessLifetimeNanos) {
+      super();
+      this.status = Objects.requireNonNull(status);
+      this.headers = Objects.requireNonNull(headers);
+      this.content = Objects.requireNonNull(content);
+      this.varyHeaderNames = Objects.requireNonNull(varyHeaderNames);
+      this.varyValues = Objects.requireNonNull(varyValues);
+      this.storedAtNanos = storedAtNanos;
+      this.expiresAtNanos = storedAtNanos + freshnessLifetimeNanos;
+      this.size = content.readableBytes() + ENTRY_OVERHEAD;
+    }
+
+    private final boolean matches(final ContainerRequest containerRequest) {
+      return this.varyValues.equals(varyValues(containerRequest, this.varyHeaderNames));
+    }
+
+  }
+
+  /**
+   * A response found in a {@link ResponseCache}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Hit {
+
+    private final HttpResponseStatus status;
+
+    private final HttpHeaders headers;
+
+    private final ByteBuf content;
+
+    private final long ageSeconds;
+
+    private Hit(final HttpResponseStatus status,
+                final HttpHeaders headers,
+                final ByteBuf content,
+                final long ageSeconds) {
+      super();
+      this.status = status;
+      this.headers = headers;
+      this.content = content;
+      this.ageSeconds = ageSeconds;
+    }
+
+    /**
+     * Returns the status of the cached response.
+     *
+     * @return the status of the cached response; never {@code null}
+     */
+    final HttpResponseStatus getStatus() {
+      return this.status;
+    }
+
+    /**
+     * Returns the headers of the cached response, which must not be
+     * modified.
+     *
+     * @return the headers of the cached response; never {@code null}
+     */
+    final HttpHeaders getHeaders() {
+      return this.headers;
+    }
+
+    /**
+     * Returns a retained duplicate of the body of the cached
+     * response, which the caller must release.
+     *
+     * @return the body of the cached response; never {@code null}
+     */
+    final ByteBuf getContent() {
+      return this.content;
+    }
+
+    /**
+     * Returns the number of seconds since the response was stored.
+     *
+     * @return the age of the cached response in seconds
+     */
+    final long getAgeSeconds() {
+      return this.ageSeconds;
+    }
+
+  }
+
+}
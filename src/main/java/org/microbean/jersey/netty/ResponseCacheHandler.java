@@ -0,0 +1,343 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.HttpMethod;
+
+import io.netty.buffer.ByteBuf;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits between an {@link
+ * AbstractContainerRequestDecoder} and an {@link
+ * AbstractContainerRequestHandlingResponseWriter}, answers {@code
+ * GET} and {@code HEAD} {@link ContainerRequest}s from a {@link
+ * ResponseCache} on the Netty event loop where it can, and stores
+ * cacheable responses written by the {@link
+ * AbstractContainerRequestHandlingResponseWriter} in that {@link
+ * ResponseCache}.
+ *
+ * <p>Only complete {@code 200 OK} responses to {@code GET} requests
+ * are stored, and only if they carry an explicit freshness lifetime
+ * in the form of a {@code Cache-Control} {@code s-maxage} or {@code
+ * max-age} directive or an {@code Expires} header, and are not
+ * marked {@code no-store}, {@code no-cache} or {@code private}.
+ * Requests that carry credentials, or that ask for a fresh response
+ * with {@code Cache-Control: no-cache}, {@code Cache-Control:
+ * max-age=0} or {@code Pragma: no-cache}, are never answered from
+ * the cache.  A request with any other method invalidates the
+ * responses stored for its URI.  Responses sent as a {@link
+ * io.netty.channel.FileRegion} are not stored.</p>
+ *
+ * <p>If a {@link ValidatorRegistry} is supplied, the {@code ETag} and
+ * {@code Last-Modified} headers of each stored response that does
+ * not vary are recorded in it for as long as the response remains
+ * fresh, so that a {@link ConditionalRequestHandler} can answer
+ * revalidation requests for it.</p>
+ *
+ * <p>An HTTP 1.1 request that arrives (pipelined) while an earlier
+ * request on the same connection is still being answered is passed
+ * on, since a cached response could not be written ahead of the
+ * earlier one.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}, but any number
+ * of them may share a {@link ResponseCache}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ResponseCache
+ */
+public final class ResponseCacheHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ResponseCacheHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final ResponseCache responseCache;
+
+  private final ValidatorRegistry validatorRegistry;
+
+  /**
+   * A {@link Queue} of {@link Capture}s, one for each request that
+   * has been passed on and not yet completely answered, in the
+   * order in which the requests arrived.
+   */
+  private final Queue<Capture> captures;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ResponseCacheHandler}.
+   *
+   * @param responseCache the {@link ResponseCache} to use; must not
+   * be {@code null}
+   *
+   * @exception NullPointerException if {@code responseCache} is
+   * {@code null}
+   *
+   * @see #ResponseCacheHandler(ResponseCache, ValidatorRegistry)
+   */
+  public ResponseCacheHandler(final ResponseCache responseCache) {
+    this(responseCache, null);
+  }
+
+  /**
+   * Creates a new {@link ResponseCacheHandler}.
+   *
+   * @param responseCache the {@link ResponseCache} to use; must not
+   * be {@code null}
+   *
+   * @param validatorRegistry a {@link ValidatorRegistry} in which to
+   * record the validators of stored responses; may be {@code null}
+   *
+   * @exception NullPointerException if {@code responseCache} is
+   * {@code null}
+   */
+  public ResponseCacheHandler(final ResponseCache responseCache, final ValidatorRegistry validatorRegistry) {
+    super();
+    this.responseCache = Objects.requireNonNull(responseCache);
+    this.validatorRegistry = validatorRegistry;
+    this.captures = new ArrayDeque<>(2);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    boolean served = false;
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      final String method = containerRequest.getMethod();
+      final boolean get = HttpMethod.GET.equalsIgnoreCase(method);
+      if (get || HttpMethod.HEAD.equalsIgnoreCase(method)) {
+        if (containerRequest.getHeaderString(HttpHeaderNames.AUTHORIZATION.toString()) == null) {
+          final String cacheControl = containerRequest.getHeaderString(HttpHeaderNames.CACHE_CONTROL.toString());
+          final String pragma = containerRequest.getHeaderString(HttpHeaderNames.PRAGMA.toString());
+          if ((this.captures.isEmpty() || ImmediateResponses.isHttp2(channelHandlerContext.channel())) &&
+              !requiresRevalidation(cacheControl, pragma)) {
+            final ResponseCache.Hit hit = this.responseCache.get(containerRequest);
+            if (hit != null) {
+              if (logger.isLoggable(Level.FINE)) {
+                logger.logp(Level.FINE, cn, "channelRead", "Serving {0} from cache", containerRequest.getRequestUri());
+              }
+              final HttpHeaders headers = new DefaultHttpHeaders().set(hit.getHeaders());
+              headers.set(HttpHeaderNames.AGE, hit.getAgeSeconds());
+              ImmediateResponses.writeResponse(channelHandlerContext, containerRequest, hit.getStatus(), headers, hit.getContent());
+              served = true;
+            }
+          }
+          if (!served) {
+            this.captures.add(get && !contains(cacheControl, "no-store") ? new Capture(containerRequest, this.responseCache.getMaxEntrySize()) : Capture.NONE);
+          }
+        } else {
+          this.captures.add(Capture.NONE);
+        }
+      } else {
+        if (!HttpMethod.OPTIONS.equalsIgnoreCase(method)) {
+          this.responseCache.invalidate(containerRequest);
+        }
+        this.captures.add(Capture.NONE);
+      }
+    }
+    if (!served) {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    final Capture capture = this.captures.peek();
+    if (capture != null) {
+      if (capture != Capture.NONE) {
+        this.capture(channelHandlerContext, capture, message);
+      }
+      if (ImmediateResponses.isEndOfResponse(message)) {
+        this.captures.remove();
+        capture.release();
+      }
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+  }
+
+  private final void capture(final ChannelHandlerContext channelHandlerContext,
+                             final Capture capture,
+                             final Object message) {
+    final ResponseCapture response = capture.response;
+    if (response.isActive()) {
+      response.add(channelHandlerContext, message);
+      if (capture.freshnessLifetimeNanos < 0L && response.getStatus() != null) {
+        if (response.getStatus().code() == HttpResponseStatus.OK.code()) {
+          capture.freshnessLifetimeNanos = ResponseCache.freshnessLifetimeNanos(response.getHeaders());
+        } else {
+          capture.freshnessLifetimeNanos = 0L;
+        }
+        if (capture.freshnessLifetimeNanos <= 0L) {
+          response.abort();
+        }
+      }
+      if (response.isComplete()) {
+        capture.finish(this.responseCache, this.validatorRegistry);
+      }
+    }
+  }
+
+  @Override
+  public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.channelInactive(channelHandlerContext);
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext channelHandlerContext) throws Exception {
+    this.releaseAll();
+    super.handlerRemoved(channelHandlerContext);
+  }
+
+  private final void releaseAll() {
+    Capture capture;
+    while ((capture = this.captures.poll()) != null) {
+      capture.release();
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final boolean requiresRevalidation(final String cacheControl, final String pragma) {
+    return
+      contains(cacheControl, "no-cache") ||
+      contains(cacheControl, "no-store") ||
+      contains(cacheControl, "max-age=0") ||
+      contains(pragma, "no-cache");
+  }
+
+  private static final boolean contains(final String headerValue, final String directive) {
+    return headerValue != null && headerValue.toLowerCase().contains(directive);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The state of the capture of a single response.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Capture {
+
+    /**
+     * A {@link Capture} representing a response that is not to be
+     * stored.
+     */
+    private static final Capture NONE = new Capture(null, 0L);
+
+    private final ContainerRequest containerRequest;
+
+    private final ResponseCapture response;
+
+    private long freshnessLifetimeNanos;
+
+    private Capture(final ContainerRequest containerRequest, final long maxContentLength) {
+      super();
+      this.containerRequest = containerRequest;
+      this.response = containerRequest == null ? null : new ResponseCapture(maxContentLength);
+      this.freshnessLifetimeNanos = -1L;
+    }
+
+    private final void finish(final ResponseCache responseCache, final ValidatorRegistry validatorRegistry) {
+      final ByteBuf content = this.response.takeContent();
+      if (content != null) {
+        final HttpHeaders headers = this.response.getHeaders();
+        final List<String> varyHeaderNames = ResponseCache.varyHeaderNames(headers);
+        if (validatorRegistry != null && varyHeaderNames.isEmpty()) {
+          final String entityTag = headers.get(HttpHeaderNames.ETAG);
+          final String lastModified = headers.get(HttpHeaderNames.LAST_MODIFIED);
+          if (entityTag != null || lastModified != null) {
+            validatorRegistry.put(this.containerRequest.getRequestUri().toString(),
+                                  entityTag,
+                                  lastModified,
+                                  this.freshnessLifetimeNanos);
+          }
+        }
+        responseCache.put(this.containerRequest,
+                          this.response.getStatus(),
+                          headers,
+                          content,
+                          varyHeaderNames,
+                          this.freshnessLifetimeNanos);
+      }
+    }
+
+    private final void release() {
+      if (this.response != null) {
+        this.response.release();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,281 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
+
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * An accumulator that observes the outbound messages making up a
+ * single HTTP 1.1 or HTTP/2 response and assembles the response's
+ * status, headers and body so that it can be replayed later.
+ *
+ * <p>Captured headers exclude pseudo-headers and the hop-by-hop and
+ * framing headers {@code Connection}, {@code Keep-Alive}, {@code
+ * Transfer-Encoding} and {@code Content-Length}.  The body is copied,
+ * once, into a single {@link ByteBuf} allocated from the {@link
+ * ChannelHandlerContext} that wrote it; it is copied rather than
+ * retained because the {@linkplain
+ * AbstractByteBufBackedChannelOutboundInvokingOutputStream.ByteBufCreator
+ * default <code>ByteBufCreator</code>} wraps arrays that may be
+ * reused once a write completes.</p>
+ *
+ * <p>A capture is abandoned if the response is larger than a maximum
+ * size, has trailers, is reset, or is sent as a {@link FileRegion}
+ * or {@link ChunkedInput} that has not been broken into content
+ * messages.</p>
+ *
+ * <p>Instances of this class are not safe for concurrent use by
+ * multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ResponseCacheHandler
+ *
+ * @see RequestCoalescingHandler
+ */
+final class ResponseCapture {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final long maxContentLength;
+
+  private boolean aborted;
+
+  private boolean complete;
+
+  private HttpResponseStatus status;
+
+  private HttpHeaders headers;
+
+  private ByteBuf content;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ResponseCapture}.
+   *
+   * @param maxContentLength the maximum size, in bytes, of a body
+   * that may be captured
+   */
+  ResponseCapture(final long maxContentLength) {
+    super();
+    this.maxContentLength = maxContentLength;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns {@code true} if this {@link ResponseCapture} has been
+   * neither abandoned nor completed.
+   *
+   * @return {@code true} if this {@link ResponseCapture} is still
+   * accumulating messages
+   */
+  final boolean isActive() {
+    return !this.aborted && !this.complete;
+  }
+
+  /**
+   * Returns {@code true} if an entire response has been captured.
+   *
+   * @return {@code true} if an entire response has been captured
+   */
+  final boolean isComplete() {
+    return this.complete;
+  }
+
+  /**
+   * Returns the status of the response, or {@code null} if its
+   * headers have not yet been seen.
+   *
+   * @return the status of the response, or {@code null}
+   */
+  final HttpResponseStatus getStatus() {
+    return this.status;
+  }
+
+  /**
+   * Returns the captured headers of the response, or {@code null} if
+   * they have not yet been seen.
+   *
+   * @return the captured headers of the response, or {@code null}
+   */
+  final HttpHeaders getHeaders() {
+    return this.headers;
+  }
+
+  /**
+   * Returns the captured body of a {@linkplain #isComplete()
+   * complete} response, transferring ownership of it to the caller,
+   * or {@code null} if there is no such body or it has already been
+   * taken.
+   *
+   * @return the captured body, which the caller must release, or
+   * {@code null}
+   */
+  final ByteBuf takeContent() {
+    final ByteBuf returnValue = this.complete ? this.content : null;
+    if (returnValue != null) {
+      this.content = null;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Adds the supplied outbound message to this {@link
+   * ResponseCapture}, if it is {@linkplain #isActive() active}.
+   *
+   * @param channelHandlerContext the {@link ChannelHandlerContext}
+   * through which the message is being written; must not be {@code
+   * null}
+   *
+   * @param message the message; may be {@code null}
+   *
+   * @return {@code true} if this {@link ResponseCapture} is
+   * {@linkplain #isComplete() complete} as a result
+   */
+  final boolean add(final ChannelHandlerContext channelHandlerContext, final Object message) {
+    if (this.isActive()) {
+      if (message instanceof HttpResponse) {
+        final HttpResponse httpResponse = (HttpResponse)message;
+        this.begin(channelHandlerContext, httpResponse.status(), new DefaultHttpHeaders().set(httpResponse.headers()));
+      } else if (message instanceof Http2HeadersFrame) {
+        final Http2Headers http2Headers = ((Http2HeadersFrame)message).headers();
+        final CharSequence status = http2Headers.status();
+        if (this.status != null || status == null) {
+          // Trailers, or a malformed response.
+          this.abort();
+        } else {
+          final HttpHeaders headers = new DefaultHttpHeaders();
+          for (final Map.Entry<CharSequence, CharSequence> entry : http2Headers) {
+            final CharSequence name = entry.getKey();
+            if (name.length() > 0 && name.charAt(0) != ':') {
+              headers.add(name, entry.getValue());
+            }
+          }
+          this.begin(channelHandlerContext, HttpResponseStatus.parseLine(status), headers);
+        }
+      } else if (message instanceof FileRegion || message instanceof ChunkedInput || message instanceof Http2ResetFrame) {
+        this.abort();
+      }
+      if (this.isActive()) {
+        if (message instanceof HttpContent) {
+          this.append(((HttpContent)message).content());
+          if (message instanceof LastHttpContent && !((LastHttpContent)message).trailingHeaders().isEmpty()) {
+            this.abort();
+          }
+        } else if (message instanceof Http2DataFrame) {
+          this.append(((Http2DataFrame)message).content());
+        }
+        if (this.isActive() && ImmediateResponses.isEndOfResponse(message)) {
+          this.complete = true;
+        }
+      }
+    }
+    return this.complete;
+  }
+
+  private final void begin(final ChannelHandlerContext channelHandlerContext,
+                           final HttpResponseStatus status,
+                           final HttpHeaders headers) {
+    if (this.status != null) {
+      this.abort();
+    } else {
+      final long contentLength = headers.getInt(HttpHeaderNames.CONTENT_LENGTH, -1);
+      if (contentLength > this.maxContentLength) {
+        this.abort();
+      } else {
+        headers.remove(HttpHeaderNames.CONNECTION);
+        headers.remove(HttpHeaderNames.KEEP_ALIVE);
+        headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+        this.status = status;
+        this.headers = headers;
+        this.content = contentLength > 0L ?
+          channelHandlerContext.alloc().buffer((int)contentLength) :
+          channelHandlerContext.alloc().buffer();
+      }
+    }
+  }
+
+  private final void append(final ByteBuf content) {
+    if (this.status == null) {
+      this.abort();
+    } else if (content != null && content.isReadable()) {
+      if (this.content.readableBytes() + (long)content.readableBytes() > this.maxContentLength) {
+        this.abort();
+      } else {
+        this.content.writeBytes(content, content.readerIndex(), content.readableBytes());
+      }
+    }
+  }
+
+  /**
+   * Abandons this {@link ResponseCapture} and {@linkplain #release()
+   * releases} its resources.
+   */
+  final void abort() {
+    this.aborted = true;
+    this.release();
+  }
+
+  /**
+   * Releases any body accumulated by this {@link ResponseCapture}
+   * that has not been {@linkplain #takeContent() taken}.
+   */
+  final void release() {
+    final ByteBuf content = this.content;
+    if (content != null) {
+      this.content = null;
+      content.release();
+    }
+  }
+
+}
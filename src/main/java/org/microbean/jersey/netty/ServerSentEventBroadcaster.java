@@ -0,0 +1,447 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.Produces; // for javadoc only
+
+import javax.ws.rs.core.MediaType; // for javadoc only
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import io.netty.channel.Channel;
+
+/**
+ * A broadcaster of <a
+ * href="https://html.spec.whatwg.org/multipage/server-sent-events.html"
+ * target="_parent">server-sent events</a> that encodes each event
+ * once, into a single {@link ByteBuf}, and writes a {@linkplain
+ * ByteBuf#retainedDuplicate() retained duplicate} of it to every
+ * subscriber, so that broadcasting to thousands of subscribers costs
+ * one encoding and no copying.
+ *
+ * <p>To subscribe a client, return the result of {@link
+ * #subscribe()} from a resource method annotated with {@link
+ * Produces @Produces(MediaType.SERVER_SENT_EVENTS)}, and
+ * {@linkplain org.glassfish.jersey.server.ResourceConfig#register(Class)
+ * register} a {@link DirectEntityWriterInterceptor} with the
+ * application.  The response headers are then written by Jersey as
+ * usual, and the response body is left open and handed to this
+ * {@link ServerSentEventBroadcaster}.  A subscriber is dropped when
+ * its connection (or HTTP/2 stream) closes or a write to it fails.
+ * An event is not written to a subscriber whose {@link Channel} is
+ * not {@linkplain Channel#isWritable() writable}, so that a slow
+ * client cannot make events pile up in memory; a subscriber that
+ * misses more than a {@linkplain
+ * #ServerSentEventBroadcaster(ByteBufAllocator, int) configurable}
+ * number of consecutive events this way is dropped and its {@link
+ * Channel} closed.  Subscribers receive {@linkplain
+ * NettyContainerProperties#SSE_HEARTBEAT_INTERVAL heartbeats} like
+ * any other event stream.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #subscribe()
+ *
+ * @see #broadcast(String, String, String)
+ *
+ * @see DirectEntityWriterInterceptor
+ */
+public final class ServerSentEventBroadcaster implements AutoCloseable {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ServerSentEventBroadcaster.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final int DEFAULT_MAX_SKIPPED_EVENTS = 16;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final ByteBufAllocator allocator;
+
+  private final int maxSkippedEvents;
+
+  private final Map<ServerSentEventOutputStream, Subscriber> subscribers;
+
+  private volatile boolean closed;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ServerSentEventBroadcaster} that encodes
+   * events into buffers obtained from {@link
+   * ByteBufAllocator#DEFAULT} and drops a subscriber that misses more
+   * than {@code 16} consecutive events.
+   *
+   * @see #ServerSentEventBroadcaster(ByteBufAllocator, int)
+   */
+  public ServerSentEventBroadcaster() {
+    this(ByteBufAllocator.DEFAULT, DEFAULT_MAX_SKIPPED_EVENTS);
+  }
+
+  /**
+   * Creates a new {@link ServerSentEventBroadcaster} that drops a
+   * subscriber that misses more than {@code 16} consecutive events.
+   *
+   * @param allocator the {@link ByteBufAllocator} from which to
+   * obtain buffers into which events are encoded; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if {@code allocator} is {@code
+   * null}
+   *
+   * @see #ServerSentEventBroadcaster(ByteBufAllocator, int)
+   */
+  public ServerSentEventBroadcaster(final ByteBufAllocator allocator) {
+    this(allocator, DEFAULT_MAX_SKIPPED_EVENTS);
+  }
+
+  /**
+   * Creates a new {@link ServerSentEventBroadcaster}.
+   *
+   * @param allocator the {@link ByteBufAllocator} from which to
+   * obtain buffers into which events are encoded; must not be {@code
+   * null}
+   *
+   * @param maxSkippedEvents the number of consecutive events a
+   * subscriber may miss because its {@link Channel} is not
+   * {@linkplain Channel#isWritable() writable} before it is dropped
+   * and its {@link Channel} closed; if less than {@code 0} {@code 0}
+   * will be used instead
+   *
+   * @exception NullPointerException if {@code allocator} is {@code
+   * null}
+   */
+  public ServerSentEventBroadcaster(final ByteBufAllocator allocator, final int maxSkippedEvents) {
+    super();
+    this.allocator = Objects.requireNonNull(allocator);
+    this.maxSkippedEvents = Math.max(0, maxSkippedEvents);
+    this.subscribers = new ConcurrentHashMap<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns a new {@link Subscription} that, when returned from a
+   * resource method, subscribes the requesting client to this {@link
+   * ServerSentEventBroadcaster}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link Subscription}
+   */
+  public final Subscription subscribe() {
+    return new Subscription(this);
+  }
+
+  /**
+   * Returns the number of current subscribers.
+   *
+   * @return the number of current subscribers
+   */
+  public final int getSubscriberCount() {
+    return this.subscribers.size();
+  }
+
+  /**
+   * Broadcasts an unnamed event without an identifier, carrying the
+   * supplied data, to all current subscribers.
+   *
+   * @param data the data; may be {@code null} in which case the
+   * event carries empty data; may contain line breaks
+   *
+   * @return the number of subscribers the event was written to
+   *
+   * @see #broadcast(String, String, String)
+   */
+  public final int broadcast(final String data) {
+    return this.broadcast(null, null, data);
+  }
+
+  /**
+   * Broadcasts an event to all current subscribers.
+   *
+   * <p>The event is not written to, and so not counted for, a
+   * subscriber whose {@link Channel} is not {@linkplain
+   * Channel#isWritable() writable}.  A subscriber that has missed
+   * more than the {@linkplain
+   * #ServerSentEventBroadcaster(ByteBufAllocator, int) permitted
+   * number} of consecutive events is dropped and its {@link Channel}
+   * closed.</p>
+   *
+   * @param name the name of the event; may be {@code null}; must not
+   * contain line breaks
+   *
+   * @param id the identifier of the event; may be {@code null}; must
+   * not contain line breaks
+   *
+   * @param data the data; may be {@code null} in which case the
+   * event carries empty data; may contain line breaks
+   *
+   * @return the number of subscribers the event was written to
+   *
+   * @exception IllegalArgumentException if {@code name} or {@code id}
+   * contains a line break
+   */
+  public final int broadcast(final String name, final String id, final String data) {
+    int returnValue = 0;
+    if (!this.subscribers.isEmpty()) {
+      final ByteBuf event = encode(this.allocator, name, id, data);
+      try {
+        for (final Entry<ServerSentEventOutputStream, Subscriber> entry : this.subscribers.entrySet()) {
+          final ServerSentEventOutputStream outputStream = entry.getKey();
+          final Subscriber subscriber = entry.getValue();
+          if (subscriber.channel.isWritable()) {
+            subscriber.skippedEvents.set(0);
+            try {
+              outputStream.writeEvents(event.retainedDuplicate());
+              returnValue++;
+            } catch (final IOException | RuntimeException exception) {
+              if (logger.isLoggable(Level.FINE)) {
+                logger.logp(Level.FINE, cn, "broadcast", "Dropping subscriber", exception);
+              }
+              this.unsubscribe(outputStream);
+            }
+          } else if (subscriber.skippedEvents.incrementAndGet() > this.maxSkippedEvents) {
+            if (logger.isLoggable(Level.FINE)) {
+              logger.logp(Level.FINE, cn, "broadcast", "Dropping slow subscriber on {0}", subscriber.channel);
+            }
+            // Ending the response would only queue more behind what
+            // the client has not read; closing the Channel releases
+            // it all.
+            this.subscribers.remove(outputStream);
+            subscriber.channel.close();
+          }
+        }
+      } finally {
+        event.release();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Ends the responses of all current subscribers and causes any
+   * later subscribers to be refused.
+   *
+   * <p>Calling this method more than once has no further effect.</p>
+   */
+  @Override
+  public final void close() {
+    this.closed = true;
+    for (final ServerSentEventOutputStream subscriber : this.subscribers.keySet()) {
+      this.unsubscribe(subscriber);
+    }
+  }
+
+  /**
+   * Adds the supplied {@link ServerSentEventOutputStream} as a
+   * subscriber until the supplied {@link Channel} closes.
+   *
+   * @param outputStream the {@link ServerSentEventOutputStream}
+   * writing the body of a response; must not be {@code null}
+   *
+   * @param channel the {@link Channel} the response is written to;
+   * must not be {@code null}
+   *
+   * @exception NullPointerException if either argument is {@code
+   * null}
+   */
+  private final void subscribe(final ServerSentEventOutputStream outputStream, final Channel channel) {
+    Objects.requireNonNull(outputStream);
+    if (this.closed) {
+      this.unsubscribe(outputStream);
+    } else {
+      this.subscribers.put(outputStream, new Subscriber(channel));
+      channel.closeFuture().addListener(f -> this.subscribers.remove(outputStream));
+      if (this.closed) {
+        // close() may have missed it.
+        this.unsubscribe(outputStream);
+      }
+    }
+  }
+
+  private final void unsubscribe(final ServerSentEventOutputStream outputStream) {
+    this.subscribers.remove(outputStream);
+    try {
+      outputStream.close();
+    } catch (final IOException | RuntimeException exception) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.logp(Level.FINE, cn, "unsubscribe", exception.getMessage(), exception);
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a new {@link ByteBuf} holding the supplied event, encoded
+   * in {@code UTF-8}.
+   *
+   * @param allocator the {@link ByteBufAllocator} to use; must not be
+   * {@code null}
+   *
+   * @param name the name of the event; may be {@code null}
+   *
+   * @param id the identifier of the event; may be {@code null}
+   *
+   * @param data the data; may be {@code null}
+   *
+   * @return a new {@link ByteBuf}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code name} or {@code id}
+   * contains a line break
+   */
+  static final ByteBuf encode(final ByteBufAllocator allocator, final String name, final String id, final String data) {
+    final StringBuilder sb = new StringBuilder(32 + (data == null ? 0 : data.length()));
+    if (name != null) {
+      sb.append("event: ").append(checkField("name", name)).append('\n');
+    }
+    if (id != null) {
+      sb.append("id: ").append(checkField("id", id)).append('\n');
+    }
+    if (data == null) {
+      sb.append("data: \n");
+    } else {
+      for (final String line : data.split("\r\n|\r|\n", -1)) {
+        sb.append("data: ").append(line).append('\n');
+      }
+    }
+    sb.append('\n');
+    final ByteBuf returnValue = allocator.buffer(sb.length());
+    returnValue.writeCharSequence(sb, StandardCharsets.UTF_8);
+    return returnValue;
+  }
+
+  private static final String checkField(final String fieldName, final String value) {
+    if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException(fieldName + " contains a line break: " + value);
+    }
+    return value;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An entity that, when returned from a resource method, subscribes
+   * the requesting client to the {@link ServerSentEventBroadcaster}
+   * that created it.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ServerSentEventBroadcaster#subscribe()
+   */
+  public static final class Subscription {
+
+    private final ServerSentEventBroadcaster broadcaster;
+
+    private Subscription(final ServerSentEventBroadcaster broadcaster) {
+      super();
+      this.broadcaster = Objects.requireNonNull(broadcaster);
+    }
+
+    /**
+     * Adds the supplied {@link ServerSentEventOutputStream} to the
+     * {@link ServerSentEventBroadcaster} that created this {@link
+     * Subscription} until the supplied {@link Channel} closes.
+     *
+     * @param outputStream the {@link ServerSentEventOutputStream}
+     * writing the body of a response; must not be {@code null}
+     *
+     * @param channel the {@link Channel} the response is written to;
+     * must not be {@code null}
+     *
+     * @exception NullPointerException if either argument is {@code
+     * null}
+     */
+    final void attach(final ServerSentEventOutputStream outputStream, final Channel channel) {
+      this.broadcaster.subscribe(outputStream, channel);
+    }
+
+  }
+
+  /**
+   * The {@link Channel} of a subscriber and the number of consecutive
+   * events it has missed because that {@link Channel} was not
+   * {@linkplain Channel#isWritable() writable}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Subscriber {
+
+    private final Channel channel;
+
+    private final AtomicInteger skippedEvents;
+
+    private Subscriber(final Channel channel) {
+      super();
+      this.channel = Objects.requireNonNull(channel);
+      this.skippedEvents = new AtomicInteger();
+    }
+
+  }
+
+}
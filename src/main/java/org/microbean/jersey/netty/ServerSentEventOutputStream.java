@@ -0,0 +1,362 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * An {@link OutputStream} for {@code text/event-stream} response
+ * bodies that {@linkplain #flush() flushes} at the end of every
+ * event rather than after some number of bytes, and that sends a
+ * comment line as a heartbeat whenever the stream has been idle for
+ * a while.
+ *
+ * <p>The end of an event is the blank line that terminates it, where
+ * lines may end with {@code LF}, {@code CR} or {@code CRLF}.  Many
+ * small writes that make up an event are therefore sent together,
+ * and no event waits for later ones to fill a buffer.</p>
+ *
+ * <p>Heartbeats are scheduled on an {@link EventExecutor}, normally
+ * the channel's event loop, and are only ever written between
+ * events.  A heartbeat that would have to wait for a write in
+ * progress is skipped, so the event loop never blocks.</p>
+ *
+ * <h2>Thread Safety</h2>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ServerSentEventBroadcaster
+ *
+ * @see NettyContainerProperties#SSE_HEARTBEAT_INTERVAL
+ */
+final class ServerSentEventOutputStream extends OutputStream {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = ServerSentEventOutputStream.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  /**
+   * A comment line, which clients ignore.
+   */
+  private static final byte[] HEARTBEAT = new byte[] { ':', '\n' };
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final OutputStream delegate;
+
+  private final EventExecutor heartbeatExecutor;
+
+  private final long heartbeatIntervalNanos;
+
+  private final ReentrantLock lock;
+
+  /**
+   * Whether the last byte written ended a line.
+   *
+   * <p>Guarded by {@link #lock}.</p>
+   */
+  private boolean atLineStart;
+
+  /**
+   * Whether the last byte written was a {@code CR}, in which case an
+   * immediately following {@code LF} belongs to the same line ending.
+   *
+   * <p>Guarded by {@link #lock}.</p>
+   */
+  private boolean lastWasCarriageReturn;
+
+  /**
+   * Whether the last byte written ended an event.
+   *
+   * <p>Guarded by {@link #lock}.</p>
+   */
+  private boolean betweenEvents;
+
+  private volatile long lastWriteNanos;
+
+  private volatile boolean closed;
+
+  private volatile ScheduledFuture<?> heartbeatFuture;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ServerSentEventOutputStream}.
+   *
+   * @param delegate the {@link OutputStream} to write to; must not be
+   * {@code null}; normally an {@link
+   * AbstractByteBufBackedChannelOutboundInvokingOutputStream} whose
+   * {@linkplain
+   * AbstractChannelOutboundInvokingOutputStream#getFlushThreshold()
+   * flush threshold} is {@link Integer#MAX_VALUE}
+   *
+   * @param heartbeatExecutor the {@link EventExecutor} on which to
+   * schedule heartbeats; may be {@code null} in which case no
+   * heartbeats are sent
+   *
+   * @param heartbeatIntervalNanos the number of nanoseconds the
+   * stream may be idle before a heartbeat is sent; if not positive no
+   * heartbeats are sent
+   *
+   * @exception NullPointerException if {@code delegate} is {@code
+   * null}
+   */
+  ServerSentEventOutputStream(final OutputStream delegate,
+                              final EventExecutor heartbeatExecutor,
+                              final long heartbeatIntervalNanos) {
+    super();
+    this.delegate = Objects.requireNonNull(delegate);
+    this.heartbeatExecutor = heartbeatExecutor;
+    this.heartbeatIntervalNanos = heartbeatIntervalNanos;
+    this.lock = new ReentrantLock();
+    this.atLineStart = true;
+    this.betweenEvents = true;
+    this.lastWriteNanos = System.nanoTime();
+    if (heartbeatExecutor != null && heartbeatIntervalNanos > 0L) {
+      this.heartbeatFuture = heartbeatExecutor.schedule(this::heartbeat, heartbeatIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void write(final int singleByte) throws IOException {
+    this.lock.lock();
+    try {
+      this.ensureOpen();
+      this.delegate.write(singleByte);
+      this.lastWriteNanos = System.nanoTime();
+      if (this.scan((byte)singleByte)) {
+        this.delegate.flush();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public final void write(final byte[] bytes, final int offset, final int length) throws IOException {
+    if (offset < 0 || length < 0 || offset + length > bytes.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    this.lock.lock();
+    try {
+      this.ensureOpen();
+      this.delegate.write(bytes, offset, length);
+      this.lastWriteNanos = System.nanoTime();
+      boolean endOfEvent = false;
+      for (int i = offset; i < offset + length; i++) {
+        // Deliberately not short-circuited: every byte updates state.
+        endOfEvent = this.scan(bytes[i]) | endOfEvent;
+      }
+      if (endOfEvent) {
+        this.delegate.flush();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Writes and flushes the supplied {@link ByteBuf}, which must hold
+   * one or more complete events, without copying it if possible.
+   *
+   * <p>Ownership of the {@link ByteBuf} passes to this method, which
+   * will arrange for it to be {@linkplain ByteBuf#release()
+   * released}.</p>
+   *
+   * @param events the {@link ByteBuf} to write; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if {@code events} is {@code null}
+   *
+   * @exception IOException if this {@link
+   * ServerSentEventOutputStream} is closed or the write fails
+   */
+  final void writeEvents(final ByteBuf events) throws IOException {
+    boolean handedOff = false;
+    this.lock.lock();
+    try {
+      this.ensureOpen();
+      if (this.delegate instanceof AbstractByteBufBackedChannelOutboundInvokingOutputStream) {
+        handedOff = true;
+        ((AbstractByteBufBackedChannelOutboundInvokingOutputStream<?>)this.delegate).write(events);
+      } else {
+        events.getBytes(events.readerIndex(), this.delegate, events.readableBytes());
+      }
+      this.delegate.flush();
+      this.lastWriteNanos = System.nanoTime();
+      this.atLineStart = true;
+      this.lastWasCarriageReturn = false;
+      this.betweenEvents = true;
+    } finally {
+      this.lock.unlock();
+      if (!handedOff) {
+        events.release();
+      }
+    }
+  }
+
+  @Override
+  public final void flush() throws IOException {
+    this.lock.lock();
+    try {
+      this.delegate.flush();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Stops sending heartbeats and {@linkplain OutputStream#close()
+   * closes} the underlying {@link OutputStream}, which ends the
+   * response.
+   *
+   * <p>Calling this method more than once has no further
+   * effect.</p>
+   *
+   * @exception IOException if the underlying {@link OutputStream}
+   * could not be closed
+   */
+  @Override
+  public final void close() throws IOException {
+    this.lock.lock();
+    try {
+      if (!this.closed) {
+        this.closed = true;
+        final ScheduledFuture<?> heartbeatFuture = this.heartbeatFuture;
+        if (heartbeatFuture != null) {
+          heartbeatFuture.cancel(false);
+        }
+        this.delegate.close();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns {@code true} if this {@link ServerSentEventOutputStream}
+   * has been {@linkplain #close() closed}.
+   *
+   * @return {@code true} if this {@link ServerSentEventOutputStream}
+   * has been closed
+   */
+  final boolean isClosed() {
+    return this.closed;
+  }
+
+  private final void ensureOpen() throws IOException {
+    if (this.closed) {
+      throw new IOException("closed");
+    }
+  }
+
+  /**
+   * Updates line-tracking state with the supplied {@code byte} and
+   * returns {@code true} if it ended an event.
+   *
+   * <p>Must be called while holding {@link #lock}.</p>
+   */
+  private final boolean scan(final byte b) {
+    boolean returnValue = false;
+    if (b == '\n' && this.lastWasCarriageReturn) {
+      // Second half of a CRLF; the line already ended.
+      this.lastWasCarriageReturn = false;
+    } else if (b == '\n' || b == '\r') {
+      if (this.atLineStart) {
+        // A blank line ends an event.
+        returnValue = true;
+        this.betweenEvents = true;
+      } else {
+        this.atLineStart = true;
+      }
+      this.lastWasCarriageReturn = b == '\r';
+    } else {
+      this.atLineStart = false;
+      this.lastWasCarriageReturn = false;
+      this.betweenEvents = false;
+    }
+    return returnValue;
+  }
+
+  private final void heartbeat() {
+    if (!this.closed) {
+      long delayNanos = this.lastWriteNanos + this.heartbeatIntervalNanos - System.nanoTime();
+      if (delayNanos <= 0L) {
+        delayNanos = this.heartbeatIntervalNanos;
+        if (this.lock.tryLock()) {
+          try {
+            if (!this.closed && this.betweenEvents) {
+              this.delegate.write(HEARTBEAT);
+              this.delegate.flush();
+              this.lastWriteNanos = System.nanoTime();
+            }
+          } catch (final IOException | RuntimeException exception) {
+            if (logger.isLoggable(Level.FINE)) {
+              logger.logp(Level.FINE, cn, "heartbeat", "Closing after failed heartbeat", exception);
+            }
+            this.closed = true;
+          } finally {
+            this.lock.unlock();
+          }
+        }
+      }
+      if (!this.closed) {
+        this.heartbeatFuture = this.heartbeatExecutor.schedule(this::heartbeat, delayNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+}
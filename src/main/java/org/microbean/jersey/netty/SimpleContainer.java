@@ -16,23 +16,78 @@
  */
 package org.microbean.jersey.netty;
 
+import java.util.List;
+import java.util.Objects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.ws.rs.core.Application;
 
 import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
 import org.glassfish.jersey.server.spi.Container;
 
 /**
  * A straightforward {@link Container} implementation that is not
- * actually needed for Jersey integration.
+ * actually needed for Jersey integration, but that, as a {@link
+ * Supplier} of {@link ApplicationHandler}s, can be supplied to a
+ * {@link JerseyChannelInitializer} so that the application it hosts
+ * can be reloaded while connections are being served.
+ *
+ * <p>A {@link SimpleContainer} {@linkplain
+ * #SimpleContainer(Application, Executor, Consumer, long) created
+ * with an <code>Executor</code>} reloads in the background: the new
+ * {@link ApplicationHandler} is built, started and optionally warmed
+ * up on that {@link Executor} while the old one continues to serve
+ * requests; the two are then swapped atomically, and the old one is
+ * shut down only once the requests it was handling have finished, or
+ * a drain timeout has elapsed.  Those requests are counted as they
+ * are dispatched by a {@link JerseyChannelInitializer}'s pipeline;
+ * to learn when they have finished, such a {@link SimpleContainer}
+ * registers an {@link ApplicationEventListener} with each
+ * application it builds, which enables Jersey's monitoring events
+ * for it.</p>
  *
  * @author <a href="https://about.me/lairdnelson"
  * target="_parent">Laird Nelson</a>
  *
  * @see Container
+ *
+ * @see #reloadInBackground(ResourceConfig)
  */
-public class SimpleContainer implements Container {
+public class SimpleContainer implements Container, Supplier<ApplicationHandler> {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = SimpleContainer.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+  private static final String IN_FLIGHT_REQUESTS_PROPERTY_NAME = InFlightRequests.class.getName();
 
 
   /*
@@ -42,6 +97,20 @@ public class SimpleContainer implements Container {
 
   private volatile ApplicationHandler applicationHandler;
 
+  private volatile InFlightRequests inFlightRequests;
+
+  private volatile Application application;
+
+  private final Executor reloadExecutor;
+
+  private final Consumer<? super ApplicationHandler> warmer;
+
+  private final long drainTimeoutMillis;
+
+  private final List<Consumer<? super ApplicationHandler>> applicationHandlerInitializers;
+
+  private volatile CompletableFuture<ApplicationHandler> lastReload;
+
 
   /*
    * Constructors.
@@ -73,6 +142,55 @@ public class SimpleContainer implements Container {
   public SimpleContainer(final ApplicationHandler applicationHandler) {
     super();
     this.applicationHandler = applicationHandler == null ? new ApplicationHandler() : applicationHandler;
+    this.reloadExecutor = null;
+    this.warmer = null;
+    this.drainTimeoutMillis = 0L;
+    this.applicationHandlerInitializers = new CopyOnWriteArrayList<>();
+    this.lastReload = CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Creates a new {@link SimpleContainer} that {@linkplain
+   * #reload(ResourceConfig) reloads} in the background.
+   *
+   * @param application the {@link Application} to host; may be {@code
+   * null} in which case a {@linkplain Application#Application() new}
+   * {@link Application} will be used instead
+   *
+   * @param reloadExecutor the {@link Executor} on which new {@link
+   * ApplicationHandler}s will be built and old ones drained and shut
+   * down; must not be {@code null}
+   *
+   * @param warmer a {@link Consumer} that will be given each new
+   * {@link ApplicationHandler}, after it has started but before it
+   * serves any requests, so that it can, for example, {@linkplain
+   * ApplicationHandler#apply(org.glassfish.jersey.server.ContainerRequest)
+   * apply} representative requests to it; may be {@code null}
+   *
+   * @param drainTimeoutMillis the maximum number of milliseconds to
+   * wait for the requests being handled by an old {@link
+   * ApplicationHandler} to finish before shutting it down anyway; if
+   * less than {@code 0} {@code 0} will be used instead
+   *
+   * @exception NullPointerException if {@code reloadExecutor} is
+   * {@code null}
+   *
+   * @see #reloadInBackground(ResourceConfig)
+   */
+  public SimpleContainer(final Application application,
+                         final Executor reloadExecutor,
+                         final Consumer<? super ApplicationHandler> warmer,
+                         final long drainTimeoutMillis) {
+    super();
+    this.reloadExecutor = Objects.requireNonNull(reloadExecutor);
+    this.warmer = warmer;
+    this.drainTimeoutMillis = Math.max(0L, drainTimeoutMillis);
+    this.applicationHandlerInitializers = new CopyOnWriteArrayList<>();
+    this.lastReload = CompletableFuture.completedFuture(null);
+    this.application = application == null ? new Application() : application;
+    final InFlightRequests inFlightRequests = new InFlightRequests();
+    this.applicationHandler = new ApplicationHandler(track(this.application, inFlightRequests));
+    this.inFlightRequests = inFlightRequests;
   }
 
 
@@ -119,6 +237,37 @@ public class SimpleContainer implements Container {
     return this.applicationHandler;
   }
 
+  /**
+   * Returns the {@link ApplicationHandler} this {@link
+   * SimpleContainer} currently uses.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the {@link ApplicationHandler} this {@link
+   * SimpleContainer} currently uses, or {@code null}
+   *
+   * @see #getApplicationHandler()
+   */
+  @Override
+  public final ApplicationHandler get() {
+    return this.getApplicationHandler();
+  }
+
+  /**
+   * Arranges for the supplied {@link Consumer} to be given every
+   * {@link ApplicationHandler} that this {@link SimpleContainer}
+   * builds from now on, before that {@link ApplicationHandler} serves
+   * any requests.
+   *
+   * @param initializer the {@link Consumer}; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code initializer} is {@code
+   * null}
+   */
+  final void addApplicationHandlerInitializer(final Consumer<? super ApplicationHandler> initializer) {
+    this.applicationHandlerInitializers.add(Objects.requireNonNull(initializer));
+  }
+
   /**
    * Reloads the application hosted by this {@link SimpleContainer}.
    *
@@ -133,6 +282,13 @@ public class SimpleContainer implements Container {
    * Loads what amounts to a new application using the supplied {@link
    * ResourceConfig}.
    *
+   * <p>If this {@link SimpleContainer} was {@linkplain
+   * #SimpleContainer(Application, Executor, Consumer, long) created
+   * with an <code>Executor</code>}, this method simply calls {@link
+   * #reloadInBackground(ResourceConfig)} and returns.  Otherwise the
+   * current {@link ApplicationHandler} is shut down and the new one
+   * built on the calling thread.</p>
+   *
    * @param resourceConfig the {@link ResourceConfig} representing the
    * new application; may be {@code null}
    *
@@ -144,14 +300,323 @@ public class SimpleContainer implements Container {
    */
   @Override
   public void reload(final ResourceConfig resourceConfig) {
-    ApplicationHandler handler = this.getApplicationHandler(); // volatile read
-    if (handler != null) {
-      handler.onShutdown(this);
-    }
-    handler = new ApplicationHandler(resourceConfig);
-    this.applicationHandler = handler; // volatile write
-    handler.onReload(this); // reference to local handler variable vs. instance variable is deliberate
-    handler.onStartup(this); // reference to local handler variable vs. instance variable is deliberate
+    final String mn = "reload";
+    if (this.reloadExecutor == null) {
+      ApplicationHandler handler = this.getApplicationHandler(); // volatile read
+      if (handler != null) {
+        handler.onShutdown(this);
+      }
+      handler = new ApplicationHandler(resourceConfig);
+      this.initialize(handler);
+      this.applicationHandler = handler; // volatile write
+      handler.onReload(this); // reference to local handler variable vs. instance variable is deliberate
+      handler.onStartup(this); // reference to local handler variable vs. instance variable is deliberate
+    } else {
+      this.reloadInBackground(resourceConfig).whenComplete((ignoredApplicationHandler, throwable) -> {
+          if (throwable != null && logger.isLoggable(Level.WARNING)) {
+            logger.logp(Level.WARNING, cn, mn, "Reloading failed; the current application remains in place", throwable);
+          }
+        });
+    }
+  }
+
+  /**
+   * Builds, starts and warms up a new {@link ApplicationHandler} for
+   * the supplied {@link ResourceConfig} on the {@link Executor}
+   * {@linkplain #SimpleContainer(Application, Executor, Consumer,
+   * long) supplied at construction time}, atomically makes it the
+   * {@link ApplicationHandler} {@linkplain #get() supplied} by this
+   * {@link SimpleContainer}, and then, once the requests being handled
+   * by the old {@link ApplicationHandler} have finished (or the drain
+   * timeout has elapsed), {@linkplain
+   * ApplicationHandler#onShutdown(Container) shuts the old one down}.
+   *
+   * <p>Reloads happen one at a time, in the order in which they are
+   * requested.  If building, starting or warming up the new {@link
+   * ApplicationHandler} fails, it is shut down and the old one
+   * remains in place.</p>
+   *
+   * <p>The new {@link ApplicationHandler} is {@linkplain
+   * ApplicationHandler#onReload(Container) reloaded} and {@linkplain
+   * ApplicationHandler#onStartup(Container) started} before the swap,
+   * so any {@link
+   * org.glassfish.jersey.server.spi.ContainerLifecycleListener} that
+   * asks this {@link SimpleContainer} for its {@link
+   * ApplicationHandler} at that point will receive the old one.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param resourceConfig the {@link ResourceConfig} representing the
+   * new application; may be {@code null} in which case the
+   * application currently hosted will be reloaded
+   *
+   * @return a non-{@code null} {@link CompletableFuture} that will be
+   * completed with the new {@link ApplicationHandler} once the old
+   * one has been shut down, or exceptionally if the new {@link
+   * ApplicationHandler} could not be put in place
+   *
+   * @exception IllegalStateException if this {@link SimpleContainer}
+   * was not {@linkplain #SimpleContainer(Application, Executor,
+   * Consumer, long) created with an <code>Executor</code>}
+   */
+  public final synchronized CompletableFuture<ApplicationHandler> reloadInBackground(final ResourceConfig resourceConfig) {
+    if (this.reloadExecutor == null) {
+      throw new IllegalStateException("No reload executor was supplied at construction time");
+    }
+    final CompletableFuture<ApplicationHandler> returnValue =
+      this.lastReload.handleAsync((ignoredApplicationHandler, ignoredThrowable) -> this.swap(resourceConfig), this.reloadExecutor);
+    this.lastReload = returnValue;
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if a {@linkplain
+   * #reloadInBackground(ResourceConfig) background reload} has been
+   * requested but has not yet completed.
+   *
+   * <p>While a reload is in progress the {@linkplain
+   * #getApplicationHandler() current <code>ApplicationHandler</code>}
+   * continues to serve requests, but it is about to be drained and
+   * shut down.</p>
+   *
+   * @return {@code true} if a background reload is in progress
+   *
+   * @see #reloadInBackground(ResourceConfig)
+   *
+   * @see HealthCheckHandler
+   */
+  public final boolean isReloading() {
+    final CompletableFuture<?> lastReload = this.lastReload;
+    return lastReload != null && !lastReload.isDone();
+  }
+
+  private final ApplicationHandler swap(final ResourceConfig resourceConfig) {
+    final Application application;
+    if (resourceConfig == null || isTracked(resourceConfig)) {
+      // A tracked ResourceConfig is the runtime configuration of an
+      // application we built; rebuild from what it was built from.
+      application = this.application;
+    } else {
+      application = resourceConfig;
+    }
+    final InFlightRequests newInFlightRequests = new InFlightRequests();
+    final ApplicationHandler newApplicationHandler = new ApplicationHandler(track(application, newInFlightRequests));
+    try {
+      this.initialize(newApplicationHandler);
+      newApplicationHandler.onReload(this);
+      newApplicationHandler.onStartup(this);
+      if (this.warmer != null) {
+        this.warmer.accept(newApplicationHandler);
+      }
+    } catch (final RuntimeException | Error e) {
+      newApplicationHandler.onShutdown(this);
+      throw e;
+    }
+    final ApplicationHandler oldApplicationHandler = this.applicationHandler;
+    final InFlightRequests oldInFlightRequests = this.inFlightRequests;
+    this.application = application;
+    this.inFlightRequests = newInFlightRequests;
+    this.applicationHandler = newApplicationHandler; // volatile write; the swap
+    if (oldApplicationHandler != null) {
+      this.drain(oldInFlightRequests);
+      oldApplicationHandler.onShutdown(this);
+    }
+    return newApplicationHandler;
+  }
+
+  private final void initialize(final ApplicationHandler applicationHandler) {
+    for (final Consumer<? super ApplicationHandler> initializer : this.applicationHandlerInitializers) {
+      initializer.accept(applicationHandler);
+    }
+  }
+
+  private final void drain(final InFlightRequests inFlightRequests) {
+    if (inFlightRequests != null) {
+      try {
+        inFlightRequests.drain().get(this.drainTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (final ExecutionException | TimeoutException e) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.logp(Level.WARNING, cn, "drain", "Shutting down an ApplicationHandler with {0} requests still in flight", inFlightRequests.get());
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Records that the supplied {@link ContainerRequest} is about to be
+   * {@linkplain ApplicationHandler#handle(ContainerRequest) handled}
+   * by the supplied {@link ApplicationHandler}, so that a {@link
+   * SimpleContainer} that built it will not shut it down until the
+   * request has finished.
+   *
+   * <p>If this method returns {@code false}, the supplied {@link
+   * ApplicationHandler} has been replaced and drained, and the caller
+   * should obtain the current {@link ApplicationHandler} and try
+   * again.</p>
+   *
+   * @param applicationHandler the {@link ApplicationHandler} that
+   * will handle the request; must not be {@code null}
+   *
+   * @param containerRequest the {@link ContainerRequest} to be
+   * handled; must not be {@code null}
+   *
+   * @return {@code false} if the supplied {@link ApplicationHandler}
+   * has been drained; {@code true} otherwise
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @see #abandonDispatch(ContainerRequest)
+   */
+  static final boolean beginDispatch(final ApplicationHandler applicationHandler, final ContainerRequest containerRequest) {
+    final boolean returnValue;
+    final Object inFlightRequests = applicationHandler.getConfiguration().getProperty(IN_FLIGHT_REQUESTS_PROPERTY_NAME);
+    if (inFlightRequests instanceof InFlightRequests) {
+      returnValue = ((InFlightRequests)inFlightRequests).enter();
+      if (returnValue) {
+        containerRequest.setProperty(IN_FLIGHT_REQUESTS_PROPERTY_NAME, inFlightRequests);
+      }
+    } else {
+      returnValue = true;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Undoes a {@linkplain #beginDispatch(ApplicationHandler,
+   * ContainerRequest) successful call to
+   * <code>beginDispatch</code>} for a {@link ContainerRequest} that,
+   * in the end, was not {@linkplain
+   * ApplicationHandler#handle(ContainerRequest) handled}.
+   *
+   * @param containerRequest the {@link ContainerRequest} that was not
+   * handled; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code containerRequest} is
+   * {@code null}
+   */
+  static final void abandonDispatch(final ContainerRequest containerRequest) {
+    final Object inFlightRequests = containerRequest.getProperty(IN_FLIGHT_REQUESTS_PROPERTY_NAME);
+    if (inFlightRequests instanceof InFlightRequests) {
+      containerRequest.removeProperty(IN_FLIGHT_REQUESTS_PROPERTY_NAME);
+      ((InFlightRequests)inFlightRequests).exit();
+    }
+  }
+
+  private static final ResourceConfig track(final Application application, final InFlightRequests inFlightRequests) {
+    final ResourceConfig returnValue;
+    if (application instanceof ResourceConfig) {
+      // Copy so that neither the caller's ResourceConfig nor a later
+      // copy of it carries this InFlightRequests.
+      returnValue = new ResourceConfig((ResourceConfig)application);
+    } else {
+      // A new wrapper every time.
+      returnValue = ResourceConfig.forApplication(application);
+    }
+    returnValue.property(IN_FLIGHT_REQUESTS_PROPERTY_NAME, inFlightRequests);
+    returnValue.register(inFlightRequests);
+    return returnValue;
+  }
+
+  private static final boolean isTracked(final ResourceConfig resourceConfig) {
+    boolean returnValue = false;
+    for (final Object instance : resourceConfig.getInstances()) {
+      if (instance instanceof InFlightRequests) {
+        returnValue = true;
+        break;
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An {@link ApplicationEventListener} and {@link
+   * RequestEventListener} that counts the requests an application is
+   * handling.
+   *
+   * <p>A request is counted when it is {@linkplain
+   * SimpleContainer#beginDispatch(ApplicationHandler,
+   * ContainerRequest) dispatched}, not when Jersey begins processing
+   * it, so that a request that has obtained an {@link
+   * ApplicationHandler} but has not yet reached it cannot be missed by
+   * a {@linkplain #drain() drain}.  It stops being counted when Jersey
+   * reports that it has {@linkplain RequestEvent.Type#FINISHED
+   * finished}.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class InFlightRequests extends AtomicInteger implements ApplicationEventListener, RequestEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DRAINED = -1;
+
+    private final CompletableFuture<Void> drained;
+
+    private volatile boolean draining;
+
+    private InFlightRequests() {
+      super();
+      this.drained = new CompletableFuture<>();
+    }
+
+    private final boolean enter() {
+      boolean returnValue = false;
+      int count = this.get();
+      while (count != DRAINED && !(returnValue = this.compareAndSet(count, count + 1))) {
+        count = this.get();
+      }
+      return returnValue;
+    }
+
+    private final void exit() {
+      if (this.decrementAndGet() == 0 && this.draining && this.compareAndSet(0, DRAINED)) {
+        this.drained.complete(null);
+      }
+    }
+
+    private final CompletableFuture<Void> drain() {
+      this.draining = true;
+      if (this.compareAndSet(0, DRAINED)) {
+        this.drained.complete(null);
+      }
+      return this.drained;
+    }
+
+    @Override
+    public final void onEvent(final ApplicationEvent event) {
+      // Only request events are of interest.
+    }
+
+    @Override
+    public final RequestEventListener onRequest(final RequestEvent requestEvent) {
+      // Requests that were not dispatched through beginDispatch(),
+      // such as warm-up requests, are not counted.
+      return requestEvent.getContainerRequest().getProperty(IN_FLIGHT_REQUESTS_PROPERTY_NAME) == this ? this : null;
+    }
+
+    @Override
+    public final void onEvent(final RequestEvent event) {
+      if (event.getType() == RequestEvent.Type.FINISHED) {
+        this.exit();
+      }
+    }
+
   }
 
 }
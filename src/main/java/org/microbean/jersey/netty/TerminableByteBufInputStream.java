@@ -45,8 +45,10 @@ import io.netty.buffer.CompositeByteBuf;
  *
  * <p>The {@link AbstractContainerRequestDecoder} implementation will
  * typically call {@link #addByteBuf(ByteBuf)} on the Netty event
- * loop, and then will call {@link #terminate()} when it is done.
- * Meanwhile, Jersey may call the {@link #read(byte[], int, int)}
+ * loop, and then will call {@link #terminate()} when it is done,
+ * or {@link #abort(Throwable)} if the content will never arrive in
+ * full (for example because the client went away or stopped
+ * sending).  Meanwhile, Jersey may call the {@link #read(byte[], int, int)}
  * method on its own thread, and such a call may block at any point
  * until Netty supplies more content.</p>
  *
@@ -68,8 +70,14 @@ public final class TerminableByteBufInputStream extends InputStream {
 
   private static final int CLOSED = 2;
 
+  private static final int ABORTED = 3;
+
   private volatile int state;
-  
+
+  // Written before, and read after, this.state, so need not be
+  // volatile itself.
+  private Throwable abortCause;
+
   private final CompositeByteBuf byteBuf;
 
   private final Phaser phaser;
@@ -112,16 +120,25 @@ public final class TerminableByteBufInputStream extends InputStream {
     switch (state) {
     case CLOSED:
       break;
+    case ABORTED:
+      // fall through
     case TERMINATED:
       // fall through
     case OPEN:
       try {
-        assert allComponentsHaveRefCount(1);
-        // No need to synchronize; release() works on a volatile int
-        final boolean released = this.byteBuf.release();
-        assert released;
+        // Synchronize so that a concurrent #addByteBuf(ByteBuf) call
+        // either completes before the release or sees the CLOSED
+        // state and releases its own ByteBuf.
+        synchronized (this.byteBuf) {
+          try {
+            assert allComponentsHaveRefCount(1);
+            final boolean released = this.byteBuf.release();
+            assert released;
+          } finally {
+            this.state = CLOSED;
+          }
+        }
       } finally {
-        this.state = CLOSED;
         this.phaser.forceTermination();
       }
       break;
@@ -136,7 +153,8 @@ public final class TerminableByteBufInputStream extends InputStream {
    * being thrown.
    *
    * <p>If this method has been called before, or if {@link #close()}
-   * has been called before, no action is taken.</p>
+   * or {@link #abort(Throwable)} has been called before, no action is
+   * taken.</p>
    *
    * @see #addByteBuf(ByteBuf)
    *
@@ -149,6 +167,8 @@ public final class TerminableByteBufInputStream extends InputStream {
       break;
     case TERMINATED:
       break;
+    case ABORTED:
+      break;
     case OPEN:
       this.state = TERMINATED;
       this.phaser.forceTermination();
@@ -158,6 +178,49 @@ public final class TerminableByteBufInputStream extends InputStream {
     }
   }
 
+  /**
+   * Irrevocably marks this {@link TerminableByteBufInputStream} as
+   * never going to receive the rest of its content, such that any
+   * current or future {@linkplain #read(byte[], int, int) read}
+   * results in an {@link IOException} whose {@linkplain
+   * Throwable#getCause() cause} is the supplied {@code cause}, and
+   * any future {@linkplain #addByteBuf(ByteBuf) additions} are
+   * silently {@linkplain ByteBuf#release() released}.
+   *
+   * <p>This unblocks any thread that is waiting in one of the {@code
+   * read} methods.  The underlying {@link CompositeByteBuf} is still
+   * released only by {@link #close()}.</p>
+   *
+   * <p>If this method has been called before, or if {@link
+   * #terminate()} or {@link #close()} has been called before, no
+   * action is taken.</p>
+   *
+   * @param cause the reason the content will not arrive; may be
+   * {@code null}
+   *
+   * @see #terminate()
+   *
+   * @see #close()
+   */
+  public final void abort(final Throwable cause) {
+    final int state = this.state;
+    switch (state) {
+    case CLOSED:
+      break;
+    case TERMINATED:
+      break;
+    case ABORTED:
+      break;
+    case OPEN:
+      this.abortCause = cause;
+      this.state = ABORTED;
+      this.phaser.forceTermination();
+      break;
+    default:
+      throw new IllegalStateException("Unexpected state: " + state);
+    }
+  }
+
   /**
    * Returns an estimate of the number of bytes that may be read
    * without blocking.
@@ -167,7 +230,7 @@ public final class TerminableByteBufInputStream extends InputStream {
    *
    * @exception IOException if this {@link
    * TerminableByteBufInputStream} has been {@linkplain #close()
-   * closed}
+   * closed} or {@linkplain #abort(Throwable) aborted}
    *
    * @see #close()
    */
@@ -177,6 +240,8 @@ public final class TerminableByteBufInputStream extends InputStream {
     switch (state) {
     case CLOSED:
       throw new IOException("closed");
+    case ABORTED:
+      throw this.createAbortedException();
     case TERMINATED:
       // No further writes will happen so no synchronization needed.
       return this.byteBuf.readableBytes();
@@ -198,7 +263,7 @@ public final class TerminableByteBufInputStream extends InputStream {
    *
    * @exception IOException if this {@link
    * TerminableByteBufInputStream} has been {@linkplain #close()
-   * closed}
+   * closed} or {@linkplain #abort(Throwable) aborted}
    *
    * @see #terminate()
    *
@@ -210,6 +275,8 @@ public final class TerminableByteBufInputStream extends InputStream {
     switch (state) {
     case CLOSED:
       throw new IOException("closed");
+    case ABORTED:
+      throw this.createAbortedException();
     case TERMINATED:
       // fall through
     case OPEN:
@@ -293,6 +360,7 @@ public final class TerminableByteBufInputStream extends InputStream {
    *
    * @exception IOException if this {@link
    * TerminableByteBufInputStream} has been {@link #close() closed}
+   * or {@linkplain #abort(Throwable) aborted}
    *
    * @see #terminate()
    *
@@ -309,6 +377,8 @@ public final class TerminableByteBufInputStream extends InputStream {
     switch (state) {
     case CLOSED:
       throw new IOException("closed");
+    case ABORTED:
+      throw this.createAbortedException();
     case TERMINATED:
       // fall through
     case OPEN:
@@ -337,8 +407,12 @@ public final class TerminableByteBufInputStream extends InputStream {
    * {@linkplain ByteBuf#isReadable() not readable}
    *
    * @exception IllegalStateException if this {@link
-   * TerminableByteBufInputStream} is {@link #close() closed} or
-   * {@linkplain #terminate() terminated}
+   * TerminableByteBufInputStream} is {@linkplain #terminate()
+   * terminated}; if it has been {@linkplain #close() closed} (for
+   * example by a reader that did not want the rest of the content, or
+   * by something that answered the request without reading it) or
+   * {@linkplain #abort(Throwable) aborted} the supplied {@link
+   * ByteBuf} is {@linkplain ByteBuf#release() released} instead
    *
    * @see #terminate()
    *
@@ -355,14 +429,29 @@ public final class TerminableByteBufInputStream extends InputStream {
     final int state = this.state;
     switch (state) {
     case CLOSED:
-      throw new IllegalStateException("closed");
+      // fall through
+    case ABORTED:
+      // No one will ever read this content.
+      byteBuf.release();
+      break;
     case TERMINATED:
       throw new IllegalStateException("terminated");
     case OPEN:
+      final boolean added;
       synchronized (this.byteBuf) {
-        this.byteBuf.addComponent(true /* advance the writerIndex */, byteBuf);
+        // Re-check: #close() may have been called on another thread.
+        if (this.state == CLOSED) {
+          added = false;
+        } else {
+          this.byteBuf.addComponent(true /* advance the writerIndex */, byteBuf);
+          added = true;
+        }
+      }
+      if (added) {
+        this.phaser.arrive(); // (Nonblocking)
+      } else {
+        byteBuf.release();
       }
-      this.phaser.arrive(); // (Nonblocking)
       break;
     default:
       throw new IllegalStateException("Unexected state: " + state);
@@ -375,6 +464,8 @@ public final class TerminableByteBufInputStream extends InputStream {
     switch (state) {
     case CLOSED:
       throw new IOException("closed");
+    case ABORTED:
+      throw this.createAbortedException();
     case TERMINATED:
       // No further writes will happen so no synchronization needed.
       return this.byteBuf.isReadable() ? function.apply(this.byteBuf) : -1;
@@ -394,6 +485,8 @@ public final class TerminableByteBufInputStream extends InputStream {
       switch (state) {
       case CLOSED:
         throw new IOException("closed");
+      case ABORTED:
+        throw this.createAbortedException();
       case TERMINATED:
         // No further writes will happen so no synchronization needed.
         return this.byteBuf.isReadable() ? function.apply(this.byteBuf) : -1;
@@ -409,6 +502,17 @@ public final class TerminableByteBufInputStream extends InputStream {
     }
   }
 
+  private final IOException createAbortedException() {
+    final Throwable abortCause = this.abortCause;
+    final IOException returnValue;
+    if (abortCause == null) {
+      returnValue = new IOException("aborted");
+    } else {
+      returnValue = new IOException("aborted: " + abortCause.getMessage(), abortCause);
+    }
+    return returnValue;
+  }
+
   private final boolean allComponentsHaveRefCount(final int refCnt) {
     assert this.byteBuf.refCnt() == refCnt;
     if (refCnt > 0) {
@@ -0,0 +1,176 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Objects;
+
+import java.util.function.Supplier;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.ext.ExceptionMapper; // for javadoc only
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * A {@link ChannelDuplexHandler} that sits immediately after an
+ * {@link AbstractContainerRequestDecoder} (and any {@link
+ * ApplicationRoutingHandler}) and, on the Netty event loop, answers
+ * {@link ContainerRequest}s that no resource of their application
+ * could handle with {@code 404 Not Found} or {@code 405 Method Not
+ * Allowed}, so that such requests never reach Jersey.
+ *
+ * <p>Whether a request is routable is decided by a {@link
+ * ResourceModelIndex} built from the resource model of the {@link
+ * ApplicationHandler} that would handle it.  Only requests that
+ * Jersey is certain not to route are answered; see {@link
+ * ResourceModelIndex} for details.  Any request entity is
+ * discarded as it arrives.  Responses written this way bypass
+ * Jersey entirely, so any {@link ExceptionMapper} that customizes
+ * {@code 404} or {@code 405} responses is not consulted.</p>
+ *
+ * <p>An HTTP 1.1 request that arrives (pipelined) while an earlier
+ * request on the same connection is still being answered is passed
+ * on, since a response could not be written ahead of the earlier
+ * one.</p>
+ *
+ * <p>Instances of this class are not {@linkplain
+ * io.netty.channel.ChannelHandler.Sharable sharable}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ResourceModelIndex
+ *
+ * @see NettyContainerProperties#REJECT_UNROUTABLE_REQUESTS
+ */
+public final class UnroutableRequestHandler extends ChannelDuplexHandler {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  private static final String cn = UnroutableRequestHandler.class.getName();
+
+  private static final Logger logger = Logger.getLogger(cn);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final Supplier<? extends ApplicationHandler> applicationHandlerSupplier;
+
+  private ApplicationHandler indexedApplicationHandler;
+
+  private ResourceModelIndex resourceModelIndex;
+
+  private int inFlightRequests;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link UnroutableRequestHandler}.
+   *
+   * @param applicationHandlerSupplier a {@link Supplier} of the
+   * {@link ApplicationHandler} that handles requests that have not
+   * been {@linkplain ApplicationRoutingHandler routed} elsewhere;
+   * must not be {@code null}
+   *
+   * @exception NullPointerException if {@code
+   * applicationHandlerSupplier} is {@code null}
+   */
+  public UnroutableRequestHandler(final Supplier<? extends ApplicationHandler> applicationHandlerSupplier) {
+    super();
+    this.applicationHandlerSupplier = Objects.requireNonNull(applicationHandlerSupplier);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+    boolean answered = false;
+    if (message instanceof ContainerRequest) {
+      final ContainerRequest containerRequest = (ContainerRequest)message;
+      if (this.inFlightRequests == 0 || ImmediateResponses.isHttp2(channelHandlerContext.channel())) {
+        final ResourceModelIndex.Rejection rejection =
+          this.getResourceModelIndex(containerRequest).reject(containerRequest.getMethod(), containerRequest.getPath(false));
+        if (rejection != null) {
+          if (logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "channelRead", "{0} {1}: {2}",
+                        new Object[] { containerRequest.getMethod(), containerRequest.getRequestUri(), rejection });
+          }
+          ImmediateResponses.writeResponse(channelHandlerContext, containerRequest, rejection.getStatus(), rejection.getHeaders(), null);
+          answered = true;
+        }
+      }
+      if (!answered) {
+        this.inFlightRequests++;
+      }
+    }
+    if (!answered) {
+      super.channelRead(channelHandlerContext, message);
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext channelHandlerContext,
+                          final Object message,
+                          final ChannelPromise channelPromise)
+    throws Exception {
+    if (this.inFlightRequests > 0 && ImmediateResponses.isEndOfResponse(message)) {
+      this.inFlightRequests--;
+    }
+    super.write(channelHandlerContext, message, channelPromise);
+  }
+
+  private final ResourceModelIndex getResourceModelIndex(final ContainerRequest containerRequest) {
+    final Object routedApplicationHandler =
+      containerRequest.getProperty(ApplicationRoutingHandler.APPLICATION_HANDLER_PROPERTY_NAME);
+    final ApplicationHandler applicationHandler;
+    if (routedApplicationHandler instanceof ApplicationHandler) {
+      applicationHandler = (ApplicationHandler)routedApplicationHandler;
+    } else {
+      applicationHandler = this.applicationHandlerSupplier.get();
+    }
+    // Most connections only ever see one application; avoid the
+    // shared cache when possible.
+    if (applicationHandler != this.indexedApplicationHandler || this.resourceModelIndex == null) {
+      this.resourceModelIndex = ResourceModelIndex.of(applicationHandler);
+      this.indexedApplicationHandler = applicationHandler;
+    }
+    return this.resourceModelIndex;
+  }
+
+}
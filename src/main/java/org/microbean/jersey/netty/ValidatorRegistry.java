@@ -0,0 +1,448 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.container.ContainerRequestContext; // for javadoc only
+
+import javax.ws.rs.core.EntityTag;
+
+import io.netty.handler.codec.DateFormatter;
+
+/**
+ * A thread-safe, size-bounded registry of the current validators
+ * (entity tags and last-modified dates) of resources, shared by all
+ * connections served by a {@link JerseyChannelInitializer}, that
+ * allows a {@link ConditionalRequestHandler} to answer conditional
+ * {@code GET} and {@code HEAD} requests with {@code 304 Not Modified}
+ * on the Netty event loop.
+ *
+ * <p>Validators are published in one of two ways:</p>
+ *
+ * <ul>
+ *
+ * <li>A resource that knows its current validators {@linkplain
+ * #put(URI, EntityTag, Date, long, TimeUnit) publishes them}, and
+ * {@linkplain #remove(URI) withdraws} them when it changes.  The
+ * registry in effect for a request is available to resources as the
+ * {@linkplain ContainerRequestContext#getProperty(String) request
+ * property} named by {@link #PROPERTY_NAME}.</li>
+ *
+ * <li>A {@link ResponseCacheHandler} records the validators of each
+ * response it stores in its {@link ResponseCache}, for as long as the
+ * response remains fresh.</li>
+ *
+ * </ul>
+ *
+ * <p>A request with an unsafe method withdraws the validators of its
+ * URI.  When more than the {@linkplain #getMaxEntries() maximum
+ * number} of URIs have validators, those of the least recently used
+ * URIs are discarded.</p>
+ *
+ * <p>Instances of this class also serve as a source of metrics via
+ * their {@code get*} methods.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ConditionalRequestHandler
+ *
+ * @see NettyContainerProperties#VALIDATOR_REGISTRY_SIZE
+ */
+public final class ValidatorRegistry {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The name of the {@linkplain
+   * ContainerRequestContext#getProperty(String) request property}
+   * whose value is the {@link ValidatorRegistry} in effect.
+   */
+  public static final String PROPERTY_NAME = ValidatorRegistry.class.getName();
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final int maxEntries;
+
+  private final LinkedHashMap<String, Validators> entries;
+
+  private final LongAdder notModifiedResponses;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ValidatorRegistry}.
+   *
+   * @param maxEntries the maximum number of URIs that may have
+   * validators at once; must be positive
+   *
+   * @exception IllegalArgumentException if {@code maxEntries} is not
+   * positive
+   */
+  public ValidatorRegistry(final int maxEntries) {
+    super();
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries <= 0: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    this.entries = new LinkedHashMap<String, Validators>(16, 0.75f, true /* access order */) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected final boolean removeEldestEntry(final Map.Entry<String, Validators> eldest) {
+          return this.size() > maxEntries;
+        }
+      };
+    this.notModifiedResponses = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum number of URIs that may have validators at
+   * once.
+   *
+   * @return the maximum number of URIs that may have validators at
+   * once
+   */
+  public final int getMaxEntries() {
+    return this.maxEntries;
+  }
+
+  /**
+   * Returns the number of URIs that currently have validators.
+   *
+   * @return the number of URIs that currently have validators
+   */
+  public final synchronized int getSize() {
+    return this.entries.size();
+  }
+
+  /**
+   * Returns the number of {@code 304 Not Modified} responses sent so
+   * far on the strength of validators in this registry.
+   *
+   * @return the number of {@code 304 Not Modified} responses sent so
+   * far
+   */
+  public final long getNotModifiedResponses() {
+    return this.notModifiedResponses.sum();
+  }
+
+  /**
+   * Publishes the current validators of the resource identified by
+   * the supplied request {@link URI}, replacing any published
+   * earlier, with no expiry.
+   *
+   * @param requestUri the absolute request {@link URI} of the
+   * resource; must not be {@code null}
+   *
+   * @param entityTag the current entity tag of the resource; may be
+   * {@code null}
+   *
+   * @param lastModified the date the resource was last modified; may
+   * be {@code null}
+   *
+   * @exception NullPointerException if {@code requestUri} is {@code
+   * null}
+   *
+   * @see #put(URI, EntityTag, Date, long, TimeUnit)
+   */
+  public final void put(final URI requestUri, final EntityTag entityTag, final Date lastModified) {
+    this.put(requestUri, entityTag, lastModified, 0L, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Publishes the current validators of the resource identified by
+   * the supplied request {@link URI}, replacing any published
+   * earlier.
+   *
+   * <p>If both {@code entityTag} and {@code lastModified} are {@code
+   * null}, the effect is that of {@link #remove(URI)}.</p>
+   *
+   * @param requestUri the absolute request {@link URI} of the
+   * resource, as returned by {@link
+   * javax.ws.rs.core.UriInfo#getRequestUri()}; must not be {@code
+   * null}
+   *
+   * @param entityTag the current entity tag of the resource; may be
+   * {@code null}
+   *
+   * @param lastModified the date the resource was last modified; may
+   * be {@code null}
+   *
+   * @param timeToLive how long the validators remain valid; if less
+   * than or equal to {@code 0} they remain valid until replaced or
+   * {@linkplain #remove(URI) removed}
+   *
+   * @param timeUnit the {@link TimeUnit} of {@code timeToLive}; must
+   * not be {@code null}
+   *
+   * @exception NullPointerException if {@code requestUri} or {@code
+   * timeUnit} is {@code null}
+   */
+  public final void put(final URI requestUri,
+                        final EntityTag entityTag,
+                        final Date lastModified,
+                        final long timeToLive,
+                        final TimeUnit timeUnit) {
+    this.put(requestUri.toString(),
+             entityTag == null ? null : toString(entityTag),
+             lastModified == null ? null : DateFormatter.format(lastModified),
+             timeUnit.toNanos(timeToLive));
+  }
+
+  /**
+   * Publishes the supplied validators, in the form of header values,
+   * for the supplied key.
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @param entityTag the {@code ETag} header value; may be {@code
+   * null}
+   *
+   * @param lastModified the {@code Last-Modified} header value; may
+   * be {@code null}
+   *
+   * @param timeToLiveNanos how long the validators remain valid in
+   * nanoseconds; if less than or equal to {@code 0L} they do not
+   * expire
+   */
+  final void put(final String key, final String entityTag, final String lastModified, final long timeToLiveNanos) {
+    Objects.requireNonNull(key);
+    final Date lastModifiedDate = lastModified == null ? null : DateFormatter.parseHttpDate(lastModified);
+    if (entityTag == null && lastModifiedDate == null) {
+      this.remove(key);
+    } else {
+      final Validators validators =
+        new Validators(entityTag,
+                       lastModifiedDate == null ? null : lastModified,
+                       lastModifiedDate == null ? -1L : lastModifiedDate.getTime(),
+                       timeToLiveNanos <= 0L ? 0L : System.nanoTime() + timeToLiveNanos);
+      synchronized (this) {
+        this.entries.put(key, validators);
+      }
+    }
+  }
+
+  /**
+   * Withdraws any validators published for the resource identified
+   * by the supplied request {@link URI}.
+   *
+   * @param requestUri the absolute request {@link URI} of the
+   * resource; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code requestUri} is {@code
+   * null}
+   */
+  public final void remove(final URI requestUri) {
+    this.remove(requestUri.toString());
+  }
+
+  final synchronized void remove(final String key) {
+    this.entries.remove(key);
+  }
+
+  /**
+   * Withdraws all validators.
+   */
+  public final synchronized void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Returns the current, unexpired {@link Validators} for the supplied
+   * key, or {@code null} if there are none.
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return the {@link Validators} for the supplied key, or {@code
+   * null}
+   */
+  final Validators get(final String key) {
+    Validators returnValue;
+    synchronized (this) {
+      returnValue = this.entries.get(key);
+      if (returnValue != null && returnValue.expiresAtNanos != 0L && System.nanoTime() - returnValue.expiresAtNanos >= 0L) {
+        this.entries.remove(key);
+        returnValue = null;
+      }
+    }
+    return returnValue;
+  }
+
+  final void notModified() {
+    this.notModifiedResponses.increment();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ValidatorRegistry}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link ValidatorRegistry}
+   */
+  @Override
+  public final String toString() {
+    return "size: " + this.getSize() + "/" + this.getMaxEntries() + ", notModifiedResponses: " + this.getNotModifiedResponses();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  private static final String toString(final EntityTag entityTag) {
+    final String value = entityTag.getValue();
+    final StringBuilder sb = new StringBuilder(value.length() + 4);
+    if (entityTag.isWeak()) {
+      sb.append("W/");
+    }
+    return sb.append('"').append(value).append('"').toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The validators of a resource, in the form of header values.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Validators {
+
+    private final String entityTag;
+
+    private final String lastModified;
+
+    private final long lastModifiedMillis;
+
+    private final long expiresAtNanos;
+
+    private Validators(final String entityTag,
+                       final String lastModified,
+                       final long lastModifiedMillis,
+                       final long expiresAtNanos) {
+      super();
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * Returns the {@code ETag} header value, or {@code null}.
+     *
+     * @return the {@code ETag} header value, or {@code null}
+     */
+    final String getEntityTag() {
+      return this.entityTag;
+    }
+
+    /**
+     * Returns the {@code Last-Modified} header value, or {@code
+     * null}.
+     *
+     * @return the {@code Last-Modified} header value, or {@code null}
+     */
+    final String getLastModified() {
+      return this.lastModified;
+    }
+
+    /**
+     * Returns {@code true} if a request bearing the supplied
+     * conditional header values may be answered with {@code 304 Not
+     * Modified}.
+     *
+     * <p>As required by RFC 7232, {@code If-Modified-Since} is
+     * ignored when {@code If-None-Match} is present, and entity tags
+     * are compared weakly.</p>
+     *
+     * @param ifNoneMatch the {@code If-None-Match} header value; may
+     * be {@code null}
+     *
+     * @param ifModifiedSince the {@code If-Modified-Since} header
+     * value; may be {@code null}
+     *
+     * @return {@code true} if {@code 304 Not Modified} may be sent
+     */
+    final boolean isNotModified(final String ifNoneMatch, final String ifModifiedSince) {
+      final boolean returnValue;
+      if (ifNoneMatch != null) {
+        returnValue = this.entityTag != null && matches(ifNoneMatch, this.entityTag);
+      } else if (ifModifiedSince != null && this.lastModifiedMillis >= 0L) {
+        final Date date = DateFormatter.parseHttpDate(ifModifiedSince);
+        returnValue = date != null && this.lastModifiedMillis / 1000L <= date.getTime() / 1000L;
+      } else {
+        returnValue = false;
+      }
+      return returnValue;
+    }
+
+    private static final boolean matches(final String ifNoneMatch, final String entityTag) {
+      boolean returnValue = false;
+      final String opaqueTag = opaqueTag(entityTag);
+      for (final String candidate : ifNoneMatch.split(",")) {
+        final String trimmedCandidate = candidate.trim();
+        if (trimmedCandidate.equals("*") || opaqueTag(trimmedCandidate).equals(opaqueTag)) {
+          returnValue = true;
+          break;
+        }
+      }
+      return returnValue;
+    }
+
+    private static final String opaqueTag(final String entityTag) {
+      return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    }
+
+  }
+
+}
@@ -0,0 +1,190 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable report of a {@linkplain
+ * JerseyChannelInitializer#warmUp(java.util.Collection, int) warm-up}
+ * performed by a {@link JerseyChannelInitializer}.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see JerseyChannelInitializer#warmUp(java.util.Collection, int)
+ */
+public final class WarmUpResult {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  private final int requests;
+
+  private final int failures;
+
+  private final int clientErrors;
+
+  private final long elapsedNanos;
+
+  private final long coldLatencyNanos;
+
+  private final long warmLatencyNanos;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link WarmUpResult}.
+   *
+   * @param requests the number of synthetic requests sent
+   *
+   * @param failures the number of those requests that did not receive
+   * a complete response with a {@code 2xx} or {@code 3xx} status code
+   *
+   * @param clientErrors the number of those failures that were
+   * complete responses with a {@code 4xx} status code
+   *
+   * @param elapsedNanos the total time the warm-up took, in
+   * nanoseconds
+   *
+   * @param coldLatencyNanos the latency of the first request, in
+   * nanoseconds, or {@code -1L} if there was no such request or it
+   * failed
+   *
+   * @param warmLatencyNanos the latency of the same request sent once
+   * more after the warm-up, in nanoseconds, or {@code -1L} if there
+   * was no such request or it failed
+   */
+  WarmUpResult(final int requests,
+               final int failures,
+               final int clientErrors,
+               final long elapsedNanos,
+               final long coldLatencyNanos,
+               final long warmLatencyNanos) {
+    super();
+    this.requests = requests;
+    this.failures = failures;
+    this.clientErrors = clientErrors;
+    this.elapsedNanos = elapsedNanos;
+    this.coldLatencyNanos = coldLatencyNanos;
+    this.warmLatencyNanos = warmLatencyNanos;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the number of synthetic requests sent.
+   *
+   * @return the number of synthetic requests sent
+   */
+  public final int getRequests() {
+    return this.requests;
+  }
+
+  /**
+   * Returns the number of synthetic requests that did not receive a
+   * complete response with a {@code 2xx} or {@code 3xx} status code.
+   *
+   * @return the number of failed synthetic requests
+   *
+   * @see #getClientErrors()
+   */
+  public final int getFailures() {
+    return this.failures;
+  }
+
+  /**
+   * Returns the number of {@linkplain #getFailures() failed}
+   * synthetic requests that received a complete response with a
+   * {@code 4xx} status code.
+   *
+   * <p>A client error usually means that a warm-up request is
+   * misconfigured, for example that its path does not match any
+   * resource, and so did not warm up what it was meant to.</p>
+   *
+   * @return the number of synthetic requests that received a client
+   * error response
+   */
+  public final int getClientErrors() {
+    return this.clientErrors;
+  }
+
+  /**
+   * Returns the total time the warm-up took, in nanoseconds.
+   *
+   * @return the total time the warm-up took, in nanoseconds
+   */
+  public final long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  /**
+   * Returns the latency, in nanoseconds, of the very first synthetic
+   * request, or {@code -1L} if there was no such request or it
+   * failed.
+   *
+   * @return the latency of the first request, or {@code -1L}
+   */
+  public final long getColdLatencyNanos() {
+    return this.coldLatencyNanos;
+  }
+
+  /**
+   * Returns the latency, in nanoseconds, of the first synthetic
+   * request sent once more after the warm-up, which approximates the
+   * latency the first real request will see, or {@code -1L} if there
+   * was no such request or it failed.
+   *
+   * @return the latency of the first request after the warm-up, or
+   * {@code -1L}
+   */
+  public final long getWarmLatencyNanos() {
+    return this.warmLatencyNanos;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * WarmUpResult}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link WarmUpResult}
+   */
+  @Override
+  public final String toString() {
+    return
+      "requests: " + this.getRequests() +
+      ", failures: " + this.getFailures() +
+      ", client errors: " + this.getClientErrors() +
+      ", elapsed: " + TimeUnit.NANOSECONDS.toMillis(this.getElapsedNanos()) + " ms" +
+      ", cold latency: " + TimeUnit.NANOSECONDS.toMicros(this.getColdLatencyNanos()) + " µs" +
+      ", warm latency: " + TimeUnit.NANOSECONDS.toMicros(this.getWarmLatencyNanos()) + " µs";
+  }
+
+}
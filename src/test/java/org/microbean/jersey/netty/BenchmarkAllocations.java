@@ -0,0 +1,138 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.util.ReferenceCountUtil;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Profiles the bytes allocated per HTTP/1.1 request, both for a
+ * request/response round trip through the pipeline {@link
+ * JerseyChannelInitializer} builds and for decoding alone.
+ *
+ * <p>The decoding benchmark isolates the per-request allocations
+ * made by an {@link HttpObjectToContainerRequestDecoder}, which,
+ * among other things, no longer allocates a {@link
+ * SecurityContextAdapter} for each request but shares one.</p>
+ *
+ * <p>Run with {@code mvn -DrunBenchmarks=true
+ * -Dbenchmarks=BenchmarkAllocations -Dtest=TestBenchmarks test} and
+ * read the {@code gc.alloc.rate.norm} secondary result, which is the
+ * number of bytes allocated per request.  Comparing the {@code
+ * target/jmh-result.json} files of two runs shows the effect of a
+ * change on per-request garbage.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkAllocations {
+
+  private EmbeddedChannel channel;
+
+  private ByteBuf requestBytes;
+
+  private EmbeddedChannel decoderChannel;
+
+  private HttpRequest request;
+
+  public BenchmarkAllocations() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final ResourceConfig resourceConfig = new ResourceConfig(Hork.class);
+    this.channel =
+      new EmbeddedChannel(new JerseyChannelInitializer(null,
+                                                       null,
+                                                       true,
+                                                       -1L,
+                                                       ImmediateEventExecutor.INSTANCE,
+                                                       true,
+                                                       new ImmutableSupplier<>(new ApplicationHandler(resourceConfig)),
+                                                       8192,
+                                                       null));
+    this.requestBytes =
+      Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("GET /hork HTTP/1.1\r\nHost: localhost\r\n\r\n", StandardCharsets.US_ASCII));
+    this.decoderChannel = new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null, resourceConfig));
+    this.request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hork");
+    this.request.headers().set(HttpHeaderNames.HOST, "localhost");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.channel.finishAndReleaseAll();
+    this.decoderChannel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public int roundTrip() {
+    this.channel.writeInbound(this.requestBytes.duplicate());
+    int returnValue = 0;
+    Object message;
+    while ((message = this.channel.readOutbound()) != null) {
+      if (message instanceof ByteBuf) {
+        returnValue += ((ByteBuf)message).readableBytes();
+      }
+      ReferenceCountUtil.release(message);
+    }
+    return returnValue;
+  }
+
+  @Benchmark
+  public Object decode() {
+    this.decoderChannel.writeInbound(this.request, LastHttpContent.EMPTY_LAST_CONTENT);
+    return this.decoderChannel.readInbound();
+  }
+
+}
@@ -0,0 +1,163 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URI;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link HttpObjectToContainerRequestDecoder} and {@link
+ * Http2StreamFrameToContainerRequestDecoder} in isolation on an
+ * {@link EmbeddedChannel}, including the cost of draining the
+ * resulting {@linkplain ContainerRequest#getEntityStream() entity
+ * stream}.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkDecoders {
+
+  private static final URI baseUri = URI.create("/");
+
+  @Param({ "0", "1024", "65536" })
+  public int contentLength;
+
+  @Param({ "8192" })
+  public int chunkSize;
+
+  private EmbeddedChannel httpChannel;
+
+  private EmbeddedChannel http2Channel;
+
+  private ByteBuf content;
+
+  private byte[] sink;
+
+  public BenchmarkDecoders() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final ResourceConfig configuration = new ResourceConfig();
+    this.httpChannel = new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(baseUri, configuration));
+    this.http2Channel = new EmbeddedChannel(new Http2StreamFrameToContainerRequestDecoder(baseUri, configuration));
+    final byte[] bytes = new byte[this.contentLength];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte)('a' + (i % 26));
+    }
+    this.content = Unpooled.wrappedBuffer(bytes);
+    this.sink = new byte[Math.max(1, this.chunkSize)];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.httpChannel.finishAndReleaseAll();
+    this.http2Channel.finishAndReleaseAll();
+    this.content.release();
+  }
+
+  @Benchmark
+  public int decodeHttp() throws IOException {
+    final HttpRequest httpRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, this.contentLength == 0 ? HttpMethod.GET : HttpMethod.POST, "/benchmark?a=b");
+    httpRequest.headers().set(HttpHeaderNames.HOST, "localhost");
+    httpRequest.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, this.contentLength);
+    this.httpChannel.writeInbound(httpRequest);
+    for (int index = 0; index < this.contentLength; index += this.chunkSize) {
+      final int length = Math.min(this.chunkSize, this.contentLength - index);
+      this.httpChannel.writeInbound(new DefaultHttpContent(this.content.retainedSlice(index, length)));
+    }
+    this.httpChannel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    return this.drain(this.httpChannel.readInbound());
+  }
+
+  @Benchmark
+  public int decodeHttp2() throws IOException {
+    final Http2Headers headers = new DefaultHttp2Headers()
+      .method(this.contentLength == 0 ? "GET" : "POST")
+      .path("/benchmark?a=b")
+      .scheme("http")
+      .authority("localhost");
+    if (this.contentLength == 0) {
+      this.http2Channel.writeInbound(new DefaultHttp2HeadersFrame(headers, true));
+    } else {
+      headers.setInt("content-length", this.contentLength);
+      this.http2Channel.writeInbound(new DefaultHttp2HeadersFrame(headers, false));
+      for (int index = 0; index < this.contentLength; index += this.chunkSize) {
+        final int length = Math.min(this.chunkSize, this.contentLength - index);
+        this.http2Channel.writeInbound(new DefaultHttp2DataFrame(this.content.retainedSlice(index, length), index + length >= this.contentLength));
+      }
+    }
+    return this.drain(this.http2Channel.readInbound());
+  }
+
+  private final int drain(final ContainerRequest containerRequest) throws IOException {
+    int returnValue = 0;
+    if (containerRequest != null) {
+      try (final InputStream entityStream = containerRequest.getEntityStream()) {
+        int bytesRead;
+        while ((bytesRead = entityStream.read(this.sink, 0, this.sink.length)) >= 0) {
+          returnValue += bytesRead;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,165 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import javax.ws.rs.core.Context;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-request cost of making Netty types available for
+ * dependency injection, by decoding a request with {@link
+ * HttpObjectToContainerRequestDecoder} and then {@linkplain
+ * ApplicationHandler#apply(ContainerRequest) applying} it to a
+ * trivial resource.
+ *
+ * <p>{@code none} uses a resource that injects nothing, so no
+ * request-scoped initialization happens; {@code context} uses a
+ * resource that injects a {@link ChannelHandlerContext}; both turn
+ * on {@linkplain NettyContainerProperties#ANALYZE_INJECTION injection
+ * analysis}.  {@code forced} uses the resource that injects nothing
+ * without injection analysis, which reproduces the cost of binding
+ * and initializing every Netty type for every request.</p>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkInjection {
+
+  private static final URI baseUri = URI.create("/");
+
+  @Param({ "none", "context", "forced" })
+  public String injection;
+
+  private ApplicationHandler applicationHandler;
+
+  private EmbeddedChannel channel;
+
+  public BenchmarkInjection() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final ResourceConfig resourceConfig;
+    if ("context".equals(this.injection)) {
+      resourceConfig = new ResourceConfig(InjectingResource.class);
+    } else {
+      resourceConfig = new ResourceConfig(PlainResource.class);
+    }
+    if (!"forced".equals(this.injection)) {
+      resourceConfig.property(NettyContainerProperties.ANALYZE_INJECTION, Boolean.TRUE);
+    }
+    this.applicationHandler = new ApplicationHandler(resourceConfig);
+    // Constructed only for its side effect of registering bindings.
+    new JerseyChannelInitializer(baseUri,
+                                 null,
+                                 false,
+                                 0L,
+                                 ImmediateEventExecutor.INSTANCE,
+                                 true,
+                                 this.applicationHandler,
+                                 8192,
+                                 null);
+    this.channel = new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(baseUri, this.applicationHandler.getConfiguration()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public int handle() throws Exception {
+    final DefaultFullHttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/benchmark");
+    httpRequest.headers().set(HttpHeaderNames.HOST, "localhost");
+    this.channel.writeInbound(httpRequest);
+    final ContainerRequest containerRequest = this.channel.readInbound();
+    final ContainerResponse containerResponse = this.applicationHandler.apply(containerRequest).get();
+    return containerResponse.getStatus();
+  }
+
+  @Path("benchmark")
+  public static class PlainResource {
+
+    public PlainResource() {
+      super();
+    }
+
+    @GET
+    public String get() {
+      return "Hello";
+    }
+
+  }
+
+  @Path("benchmark")
+  public static class InjectingResource {
+
+    @Context
+    private ChannelHandlerContext channelHandlerContext;
+
+    public InjectingResource() {
+      super();
+    }
+
+    @GET
+    public String get() {
+      return this.channelHandlerContext == null ? "Goodbye" : "Hello";
+    }
+
+  }
+
+}
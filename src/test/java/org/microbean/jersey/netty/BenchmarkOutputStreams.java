@@ -0,0 +1,125 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelPromise;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link
+ * ByteBufBackedChannelOutboundInvokingHttpContentOutputStream} and
+ * {@link ByteBufBackedChannelOutboundInvokingHttp2DataFrameOutputStream}
+ * in isolation, writing a fixed number of bytes in writes of varying
+ * sizes to an {@link EmbeddedChannel} and then closing the stream.
+ *
+ * <p>The {@code writeHttpContentWithVoidPromises} benchmark writes
+ * with {@linkplain io.netty.channel.Channel#voidPromise() void
+ * promises}, so comparing it with {@code writeHttpContent} isolates
+ * the cost of promise handling on the write path.</p>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkOutputStreams {
+
+  @Param({ "65536" })
+  public int totalBytes;
+
+  @Param({ "1", "128", "8192" })
+  public int writeSize;
+
+  @Param({ "0", "1024", "8192" })
+  public int flushThreshold;
+
+  private EmbeddedChannel channel;
+
+  private byte[] bytes;
+
+  public BenchmarkOutputStreams() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.channel = new EmbeddedChannel();
+    this.bytes = new byte[this.writeSize];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public boolean writeHttpContent() throws IOException {
+    return this.write(new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(this.channel, this.flushThreshold, false, null));
+  }
+
+  @Benchmark
+  public boolean writeHttpContentWithVoidPromises() throws IOException {
+    return this.write(new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(this.channel, this.flushThreshold, false, null) {
+        @Override
+        protected final ChannelPromise newPromise() {
+          return this.channelOutboundInvoker.voidPromise();
+        }
+      });
+  }
+
+  @Benchmark
+  public boolean writeHttp2DataFrames() throws IOException {
+    return this.write(new ByteBufBackedChannelOutboundInvokingHttp2DataFrameOutputStream(this.channel, this.flushThreshold, false, null));
+  }
+
+  private final boolean write(final OutputStream outputStream) throws IOException {
+    try (final OutputStream os = outputStream) {
+      if (this.writeSize == 1) {
+        for (int i = 0; i < this.totalBytes; i++) {
+          os.write(i);
+        }
+      } else {
+        for (int i = 0; i < this.totalBytes; i += this.writeSize) {
+          os.write(this.bytes, 0, Math.min(this.writeSize, this.totalBytes - i));
+        }
+      }
+    }
+    return this.channel.releaseOutbound();
+  }
+
+}
@@ -0,0 +1,144 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import io.netty.util.ReferenceCountUtil;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures complete request/response round trips through Jersey on
+ * {@link EmbeddedChannel}s.
+ *
+ * <p>The HTTP/1.1 benchmark feeds raw request bytes through the
+ * pipeline {@link JerseyChannelInitializer} builds (with the {@link
+ * ImmediateEventExecutor} standing in for the Jersey {@link
+ * io.netty.util.concurrent.EventExecutorGroup}) and reads back
+ * encoded response bytes.  The HTTP/2 benchmark feeds HTTP/2 frames
+ * through the stream-level pipeline of an {@link
+ * Http2StreamFrameToContainerRequestDecoder} followed by an {@link
+ * Http2ContainerRequestHandlingResponseWriter}.</p>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkPipelines {
+
+  private ApplicationHandler applicationHandler;
+
+  private EmbeddedChannel httpChannel;
+
+  private EmbeddedChannel http2Channel;
+
+  private ByteBuf httpRequestBytes;
+
+  public BenchmarkPipelines() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.applicationHandler = new ApplicationHandler(new Application());
+    this.httpChannel =
+      new EmbeddedChannel(new JerseyChannelInitializer(null,
+                                                       null,
+                                                       true,
+                                                       -1L,
+                                                       ImmediateEventExecutor.INSTANCE,
+                                                       true,
+                                                       new ImmutableSupplier<>(this.applicationHandler),
+                                                       8192,
+                                                       null));
+    this.http2Channel =
+      new EmbeddedChannel(new Http2StreamFrameToContainerRequestDecoder(null, this.applicationHandler.getConfiguration()),
+                          new Http2ContainerRequestHandlingResponseWriter(this.applicationHandler));
+    this.httpRequestBytes =
+      Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("GET /hork HTTP/1.1\r\nHost: localhost\r\n\r\n", StandardCharsets.US_ASCII));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.httpChannel.finishAndReleaseAll();
+    this.http2Channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public int http() {
+    this.httpChannel.writeInbound(this.httpRequestBytes.duplicate());
+    return drainOutbound(this.httpChannel);
+  }
+
+  @Benchmark
+  public int http2() {
+    final Http2Headers headers = new DefaultHttp2Headers()
+      .method("GET")
+      .path("/hork")
+      .scheme("http")
+      .authority("localhost");
+    this.http2Channel.writeInbound(new DefaultHttp2HeadersFrame(headers, true));
+    return drainOutbound(this.http2Channel);
+  }
+
+  private static final int drainOutbound(final EmbeddedChannel channel) {
+    int returnValue = 0;
+    Object message;
+    while ((message = channel.readOutbound()) != null) {
+      if (message instanceof ByteBuf) {
+        returnValue += ((ByteBuf)message).readableBytes();
+      } else if (message instanceof ByteBufHolder) {
+        returnValue += ((ByteBufHolder)message).content().readableBytes();
+      } else {
+        returnValue++;
+      }
+      ReferenceCountUtil.release(message);
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,101 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+import org.glassfish.jersey.internal.PropertiesDelegate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-request cost, and in particular the allocation
+ * reported by the {@link org.openjdk.jmh.profile.GCProfiler} as
+ * {@code gc.alloc.rate.norm}, of {@link MapBackedPropertiesDelegate}
+ * and {@link ArrayBackedPropertiesDelegate}.
+ *
+ * <p>Each operation mimics a request: the two properties that {@link
+ * AbstractContainerRequestDecoder#installMessage(ChannelHandlerContext,
+ * Object, org.glassfish.jersey.server.ContainerRequest)} sets, plus
+ * {@code extraProperties} more, are set and then read back.</p>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkPropertiesDelegates {
+
+  private static final String channelHandlerContextKey = ChannelHandlerContext.class.getName();
+
+  private static final String httpRequestKey = HttpRequest.class.getName();
+
+  private static final String[] extraKeys = new String[] { "a", "b", "c", "d", "e", "f", "g", "h" };
+
+  @Param({ "0", "2", "6" })
+  public int extraProperties;
+
+  public BenchmarkPropertiesDelegates() {
+    super();
+  }
+
+  @Benchmark
+  public int mapBacked() {
+    return this.exercise(new MapBackedPropertiesDelegate());
+  }
+
+  @Benchmark
+  public int arrayBacked() {
+    return this.exercise(new ArrayBackedPropertiesDelegate());
+  }
+
+  private final int exercise(final PropertiesDelegate propertiesDelegate) {
+    propertiesDelegate.setProperty(channelHandlerContextKey, this);
+    propertiesDelegate.setProperty(httpRequestKey, this);
+    for (int i = 0; i < this.extraProperties; i++) {
+      propertiesDelegate.setProperty(extraKeys[i], this);
+    }
+    int returnValue = 0;
+    if (propertiesDelegate.getProperty(channelHandlerContextKey) != null) {
+      returnValue++;
+    }
+    if (propertiesDelegate.getProperty(httpRequestKey) != null) {
+      returnValue++;
+    }
+    for (int i = 0; i < this.extraProperties; i++) {
+      if (propertiesDelegate.getProperty(extraKeys[i]) != null) {
+        returnValue++;
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,129 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link TerminableByteBufInputStream} in isolation: adding
+ * {@link ByteBuf}s, terminating, reading them back in chunks and
+ * closing.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkTerminableByteBufInputStream {
+
+  @Param({ "1", "16" })
+  public int byteBufCount;
+
+  @Param({ "1024", "16384" })
+  public int byteBufSize;
+
+  @Param({ "1", "8192" })
+  public int readSize;
+
+  private ByteBuf content;
+
+  private byte[] sink;
+
+  public BenchmarkTerminableByteBufInputStream() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.content = Unpooled.wrappedBuffer(new byte[this.byteBufSize]);
+    this.sink = new byte[this.readSize];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.content.release();
+  }
+
+  @Benchmark
+  public int addTerminateAndRead() throws IOException {
+    int returnValue = 0;
+    try (final TerminableByteBufInputStream stream = new TerminableByteBufInputStream(ByteBufAllocator.DEFAULT)) {
+      for (int i = 0; i < this.byteBufCount; i++) {
+        stream.addByteBuf(this.content.retainedDuplicate());
+      }
+      stream.terminate();
+      returnValue = this.readFully(stream);
+    }
+    return returnValue;
+  }
+
+  @Benchmark
+  public int interleavedAddAndRead() throws IOException {
+    int returnValue = 0;
+    try (final TerminableByteBufInputStream stream = new TerminableByteBufInputStream(ByteBufAllocator.DEFAULT)) {
+      for (int i = 0; i < this.byteBufCount; i++) {
+        stream.addByteBuf(this.content.retainedDuplicate());
+        int remaining = this.byteBufSize;
+        while (remaining > 0) {
+          final int bytesRead = stream.read(this.sink, 0, Math.min(remaining, this.sink.length));
+          remaining -= bytesRead;
+          returnValue += bytesRead;
+        }
+      }
+      stream.terminate();
+      returnValue += Math.max(0, stream.read());
+    }
+    return returnValue;
+  }
+
+  private final int readFully(final TerminableByteBufInputStream stream) throws IOException {
+    int returnValue = 0;
+    if (this.readSize == 1) {
+      while (stream.read() >= 0) {
+        returnValue++;
+      }
+    } else {
+      int bytesRead;
+      while ((bytesRead = stream.read(this.sink, 0, this.sink.length)) >= 0) {
+        returnValue += bytesRead;
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,539 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.InetSocketAddress;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.bootstrap.Bootstrap;
+
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpVersion;
+
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+
+import io.netty.util.concurrent.Future;
+
+/**
+ * A Netty-based HTTP client that drives a server on a fixed number
+ * of connections and concurrent requests and reports latency
+ * percentiles and throughput.
+ *
+ * <p>HTTP/1.1 uses one connection per concurrent request.  {@link
+ * Protocol#H2C} (prior knowledge) and {@link Protocol#H2} (TLS with
+ * ALPN) spread the concurrent requests across the configured number
+ * of connections as HTTP/2 streams.</p>
+ *
+ * @see TestLoad
+ */
+final class LoadGenerator {
+
+  private final Protocol protocol;
+
+  private final InetSocketAddress address;
+
+  private final SslContext sslContext;
+
+  private final HttpMethod method;
+
+  private final String path;
+
+  private final byte[] body;
+
+  private final int connections;
+
+  private final int concurrency;
+
+  LoadGenerator(final Protocol protocol,
+                final InetSocketAddress address,
+                final SslContext sslContext,
+                final String method,
+                final String path,
+                final int bodySize,
+                final int connections,
+                final int concurrency) {
+    super();
+    this.protocol = Objects.requireNonNull(protocol);
+    this.address = Objects.requireNonNull(address);
+    if (protocol == Protocol.H2 && sslContext == null) {
+      throw new IllegalArgumentException("protocol == Protocol.H2 && sslContext == null");
+    }
+    this.sslContext = protocol == Protocol.H2 ? sslContext : null;
+    this.method = HttpMethod.valueOf(method);
+    this.path = Objects.requireNonNull(path);
+    this.body = new byte[Math.max(0, bodySize)];
+    this.concurrency = Math.max(1, concurrency);
+    this.connections = protocol == Protocol.HTTP_1_1 ? this.concurrency : Math.max(1, Math.min(connections, this.concurrency));
+  }
+
+  final Report run(final int requests, final long timeout, final TimeUnit timeUnit) throws Exception {
+    final EventLoopGroup group = new NioEventLoopGroup(Math.min(this.connections, Runtime.getRuntime().availableProcessors()));
+    try {
+      final Run run = new Run(requests);
+      final long start = System.nanoTime();
+      if (requests > 0) {
+        final Bootstrap bootstrap = new Bootstrap()
+          .group(group)
+          .channel(NioSocketChannel.class)
+          .option(ChannelOption.TCP_NODELAY, Boolean.TRUE);
+        for (int i = 0; i < this.connections; i++) {
+          final ChannelInitializer<Channel> channelInitializer;
+          if (this.protocol == Protocol.HTTP_1_1) {
+            channelInitializer = new Http1ChannelInitializer(run);
+          } else {
+            final int streams = this.concurrency / this.connections + (i < this.concurrency % this.connections ? 1 : 0);
+            channelInitializer = new Http2ChannelInitializer(run, streams);
+          }
+          bootstrap.clone()
+            .handler(channelInitializer)
+            .connect(this.address)
+            .addListener((ChannelFuture f) -> {
+                if (!f.isSuccess()) {
+                  run.abort(f.cause());
+                }
+              });
+        }
+        if (!run.done.await(timeout, timeUnit)) {
+          throw new TimeoutException("completed " + run.completed.get() + " of " + requests + " requests");
+        }
+      }
+      final long elapsedNanos = System.nanoTime() - start;
+      final Throwable failure = run.failure;
+      if (failure instanceof Exception) {
+        throw (Exception)failure;
+      } else if (failure instanceof Error) {
+        throw (Error)failure;
+      }
+      return new Report(this.protocol, this.concurrency, run.latencies, run.errors.get(), elapsedNanos);
+    } finally {
+      group.shutdownGracefully(0L, 1L, TimeUnit.SECONDS).sync();
+    }
+  }
+
+  private final FullHttpRequest newHttpRequest() {
+    final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, this.method, this.path, Unpooled.wrappedBuffer(this.body));
+    request.headers().set(HttpHeaderNames.HOST, this.address.getHostString() + ":" + this.address.getPort());
+    request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, this.body.length);
+    return request;
+  }
+
+  private final void openStream(final Channel parent, final Run run) {
+    if (run.tryIssue()) {
+      final Http2StreamHandler handler = new Http2StreamHandler(parent, run);
+      new Http2StreamChannelBootstrap(parent)
+        .handler(handler)
+        .open()
+        .addListener((Future<Http2StreamChannel> f) -> {
+            if (f.isSuccess()) {
+              handler.send(f.getNow());
+            } else {
+              run.complete(0L, true);
+            }
+          });
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  static enum Protocol {
+
+    HTTP_1_1,
+
+    H2C,
+
+    H2
+
+  }
+
+  static final class Report {
+
+    private final Protocol protocol;
+
+    private final int concurrency;
+
+    private final long[] latencies;
+
+    private final int errors;
+
+    private final long elapsedNanos;
+
+    private Report(final Protocol protocol,
+                   final int concurrency,
+                   final long[] latencies,
+                   final int errors,
+                   final long elapsedNanos) {
+      super();
+      this.protocol = protocol;
+      this.concurrency = concurrency;
+      this.latencies = latencies.clone();
+      Arrays.sort(this.latencies);
+      this.errors = errors;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    final int getRequests() {
+      return this.latencies.length;
+    }
+
+    final int getErrors() {
+      return this.errors;
+    }
+
+    final double getThroughput() {
+      return this.elapsedNanos <= 0L ? 0D : this.latencies.length * 1_000_000_000D / this.elapsedNanos;
+    }
+
+    final long getLatencyNanos(final double percentile) {
+      if (this.latencies.length == 0) {
+        return 0L;
+      }
+      final int index = (int)Math.ceil(percentile / 100D * this.latencies.length) - 1;
+      return this.latencies[Math.max(0, Math.min(this.latencies.length - 1, index))];
+    }
+
+    @Override
+    public final String toString() {
+      return String.format("%-8s requests=%d errors=%d concurrency=%d elapsed=%.1f ms throughput=%.1f req/s " +
+                           "p50=%.3f ms p99=%.3f ms p99.9=%.3f ms max=%.3f ms",
+                           this.protocol,
+                           this.getRequests(),
+                           this.errors,
+                           this.concurrency,
+                           this.elapsedNanos / 1_000_000D,
+                           this.getThroughput(),
+                           this.getLatencyNanos(50D) / 1_000_000D,
+                           this.getLatencyNanos(99D) / 1_000_000D,
+                           this.getLatencyNanos(99.9D) / 1_000_000D,
+                           this.getLatencyNanos(100D) / 1_000_000D);
+    }
+
+  }
+
+  private static final class Run {
+
+    private final int requests;
+
+    private final AtomicInteger issued;
+
+    private final AtomicInteger completed;
+
+    private final AtomicInteger errors;
+
+    private final long[] latencies;
+
+    private final CountDownLatch done;
+
+    private volatile Throwable failure;
+
+    private Run(final int requests) {
+      super();
+      this.requests = Math.max(0, requests);
+      this.issued = new AtomicInteger();
+      this.completed = new AtomicInteger();
+      this.errors = new AtomicInteger();
+      this.latencies = new long[this.requests];
+      this.done = new CountDownLatch(1);
+    }
+
+    private final boolean tryIssue() {
+      return this.issued.getAndIncrement() < this.requests;
+    }
+
+    private final void complete(final long latencyNanos, final boolean error) {
+      if (error) {
+        this.errors.incrementAndGet();
+      }
+      final int index = this.completed.getAndIncrement();
+      if (index < this.requests) {
+        this.latencies[index] = latencyNanos;
+        if (index + 1 == this.requests) {
+          this.done.countDown();
+        }
+      }
+    }
+
+    private final void abort(final Throwable failure) {
+      if (this.failure == null) {
+        this.failure = failure;
+      }
+      this.done.countDown();
+    }
+
+  }
+
+  private final class Http1ChannelInitializer extends ChannelInitializer<Channel> {
+
+    private final Run run;
+
+    private Http1ChannelInitializer(final Run run) {
+      super();
+      this.run = run;
+    }
+
+    @Override
+    protected final void initChannel(final Channel channel) {
+      channel.pipeline().addLast(new HttpClientCodec(),
+                                 new HttpObjectAggregator(Integer.MAX_VALUE),
+                                 new Http1ConnectionHandler(this.run));
+    }
+
+  }
+
+  private final class Http1ConnectionHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+    private final Run run;
+
+    private long start;
+
+    private boolean inFlight;
+
+    private Http1ConnectionHandler(final Run run) {
+      super();
+      this.run = run;
+    }
+
+    @Override
+    public final void channelActive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+      super.channelActive(channelHandlerContext);
+      this.sendNext(channelHandlerContext);
+    }
+
+    @Override
+    protected final void channelRead0(final ChannelHandlerContext channelHandlerContext, final FullHttpResponse response) {
+      this.inFlight = false;
+      this.run.complete(System.nanoTime() - this.start, response.status().codeClass() != HttpStatusClass.SUCCESS);
+      this.sendNext(channelHandlerContext);
+    }
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+      if (this.inFlight) {
+        this.inFlight = false;
+        this.run.complete(System.nanoTime() - this.start, true);
+      }
+      super.channelInactive(channelHandlerContext);
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext channelHandlerContext, final Throwable cause) {
+      channelHandlerContext.close();
+    }
+
+    private final void sendNext(final ChannelHandlerContext channelHandlerContext) {
+      if (this.run.tryIssue()) {
+        this.inFlight = true;
+        this.start = System.nanoTime();
+        channelHandlerContext.writeAndFlush(newHttpRequest()).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+      } else {
+        channelHandlerContext.close();
+      }
+    }
+
+  }
+
+  private final class Http2ChannelInitializer extends ChannelInitializer<Channel> {
+
+    private final Run run;
+
+    private final int streams;
+
+    private Http2ChannelInitializer(final Run run, final int streams) {
+      super();
+      this.run = run;
+      this.streams = streams;
+    }
+
+    @Override
+    protected final void initChannel(final Channel channel) {
+      final ChannelPipeline pipeline = channel.pipeline();
+      if (sslContext == null) {
+        addHttp2Handlers(pipeline);
+        pipeline.addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public final void channelActive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+              super.channelActive(channelHandlerContext);
+              channelHandlerContext.pipeline().remove(this);
+              startStreams(channelHandlerContext.channel());
+            }
+          });
+      } else {
+        pipeline.addLast(sslContext.newHandler(channel.alloc(), address.getHostString(), address.getPort()),
+                         new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                           @Override
+                           protected final void configurePipeline(final ChannelHandlerContext channelHandlerContext,
+                                                                  final String protocol) {
+                             if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                               addHttp2Handlers(channelHandlerContext.pipeline());
+                               startStreams(channelHandlerContext.channel());
+                             } else {
+                               throw new IllegalStateException("Unexpected protocol: " + protocol);
+                             }
+                           }
+
+                           @Override
+                           protected final void handshakeFailure(final ChannelHandlerContext channelHandlerContext,
+                                                                 final Throwable cause) throws Exception {
+                             run.abort(cause);
+                             super.handshakeFailure(channelHandlerContext, cause);
+                           }
+                         });
+      }
+    }
+
+    private final void addHttp2Handlers(final ChannelPipeline pipeline) {
+      pipeline.addLast(Http2FrameCodecBuilder.forClient().build(),
+                       new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+    }
+
+    private final void startStreams(final Channel parent) {
+      for (int i = 0; i < this.streams; i++) {
+        openStream(parent, this.run);
+      }
+    }
+
+  }
+
+  private final class Http2StreamHandler extends SimpleChannelInboundHandler<Http2StreamFrame> {
+
+    private final Channel parent;
+
+    private final Run run;
+
+    private long start;
+
+    private boolean success;
+
+    private boolean completed;
+
+    private Http2StreamHandler(final Channel parent, final Run run) {
+      super();
+      this.parent = parent;
+      this.run = run;
+    }
+
+    private final void send(final Http2StreamChannel streamChannel) {
+      this.start = System.nanoTime();
+      final Http2Headers headers = new DefaultHttp2Headers()
+        .method(method.name())
+        .path(path)
+        .scheme(sslContext == null ? "http" : "https")
+        .authority(address.getHostString() + ":" + address.getPort());
+      if (body.length == 0) {
+        streamChannel.writeAndFlush(new DefaultHttp2HeadersFrame(headers, true));
+      } else {
+        headers.setInt(HttpHeaderNames.CONTENT_LENGTH, body.length);
+        streamChannel.write(new DefaultHttp2HeadersFrame(headers, false));
+        streamChannel.writeAndFlush(new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(body), true));
+      }
+    }
+
+    @Override
+    protected final void channelRead0(final ChannelHandlerContext channelHandlerContext, final Http2StreamFrame frame) {
+      if (frame instanceof Http2HeadersFrame) {
+        final Http2HeadersFrame headersFrame = (Http2HeadersFrame)frame;
+        final CharSequence status = headersFrame.headers().status();
+        if (status != null) {
+          this.success = status.length() == 3 && status.charAt(0) == '2';
+        }
+        if (headersFrame.isEndStream()) {
+          this.complete(channelHandlerContext, !this.success);
+        }
+      } else if (frame instanceof Http2DataFrame) {
+        if (((Http2DataFrame)frame).isEndStream()) {
+          this.complete(channelHandlerContext, !this.success);
+        }
+      } else {
+        // Http2ResetFrame and the like
+        this.complete(channelHandlerContext, true);
+      }
+    }
+
+    @Override
+    public final void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+      this.complete(channelHandlerContext, true);
+      super.channelInactive(channelHandlerContext);
+    }
+
+    @Override
+    public final void exceptionCaught(final ChannelHandlerContext channelHandlerContext, final Throwable cause) {
+      this.complete(channelHandlerContext, true);
+    }
+
+    private final void complete(final ChannelHandlerContext channelHandlerContext, final boolean error) {
+      if (!this.completed) {
+        this.completed = true;
+        this.run.complete(System.nanoTime() - this.start, error);
+        channelHandlerContext.close();
+        if (this.parent.isActive()) {
+          openStream(this.parent, this.run);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,137 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestAdaptiveConcurrencyLimiter {
+
+  private TestAdaptiveConcurrencyLimiter() {
+    super();
+  }
+
+  @Test
+  final void testRejection() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 0);
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    assertEquals(1L, limiter.getRejectedRequests());
+    limiter.release();
+    assertTrue(limiter.tryAcquire());
+  }
+
+  @Test
+  final void testIncreaseWhileStable() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 20);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(1_000_000L, limiter.getLimit());
+    }
+    assertEquals(20, limiter.getLimit());
+  }
+
+  @Test
+  final void testNoIncreaseWhenUnderused() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 20);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(1_000_000L, 1);
+    }
+    assertEquals(10, limiter.getLimit());
+  }
+
+  @Test
+  final void testDecreaseWhenLatencyRises() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 100);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(1_000_000L, 100);
+    }
+    assertEquals(100, limiter.getLimit());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(10_000_000L, 100);
+    }
+    assertTrue(limiter.getLimit() < 100);
+  }
+
+  @Test
+  final void testRefusalOnEventLoop() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+    final EmbeddedChannel first =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null), new ConcurrencyLimitHandler(limiter));
+    final EmbeddedChannel second =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null), new ConcurrencyLimitHandler(limiter));
+
+    first.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hoopy"));
+    final ContainerRequest admitted = first.readInbound();
+    assertNotNull(admitted);
+    final AdaptiveConcurrencyLimiter.Permit permit =
+      (AdaptiveConcurrencyLimiter.Permit)admitted.getProperty(ConcurrencyLimitHandler.PERMIT_PROPERTY_NAME);
+    assertNotNull(permit);
+    assertEquals(1, limiter.getInFlightRequests());
+
+    // Refused before it could ever reach a writer.
+    second.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hork"));
+    assertNull(second.readInbound());
+    final FullHttpResponse response = second.readOutbound();
+    assertNotNull(response);
+    assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+    response.release();
+    assertEquals(1L, limiter.getRejectedRequests());
+
+    // What a writer's commit() does; releasing again is harmless.
+    permit.release(true);
+    permit.release(false);
+    assertTrue(permit.isReleased());
+    assertEquals(0, limiter.getInFlightRequests());
+
+    first.finishAndReleaseAll();
+    second.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testOutstandingPermitsReleasedOnClose() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null), new ConcurrencyLimitHandler(limiter));
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hoopy"));
+    assertNotNull(channel.readInbound());
+    assertEquals(1, limiter.getInFlightRequests());
+    channel.close();
+    assertEquals(0, limiter.getInFlightRequests());
+    channel.finishAndReleaseAll();
+  }
+
+}
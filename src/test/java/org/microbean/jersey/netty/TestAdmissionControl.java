@@ -0,0 +1,116 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestAdmissionControl {
+
+  private TestAdmissionControl() {
+    super();
+  }
+
+  @Test
+  final void testTryAcquire() {
+    final AdmissionController admissionController = new AdmissionController(1, 4);
+    assertFalse(admissionController.tryAcquire(4));
+    assertTrue(admissionController.tryAcquire(0));
+    assertFalse(admissionController.tryAcquire(0));
+    admissionController.release();
+    assertTrue(admissionController.tryAcquire(3));
+    assertEquals(1, admissionController.getInFlightRequests());
+    assertEquals(2L, admissionController.getAdmittedRequests());
+    assertEquals(2L, admissionController.getRejectedRequests());
+  }
+
+  @Test
+  final void testRefusal() {
+    final AdmissionController admissionController = new AdmissionController(1, 0);
+    final EmbeddedChannel first =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null), new AdmissionControlHandler(admissionController));
+    final EmbeddedChannel second =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null), new AdmissionControlHandler(admissionController));
+
+    first.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hoopy"));
+    final ContainerRequest admitted = first.readInbound();
+    assertNotNull(admitted);
+    assertEquals(1, admissionController.getInFlightRequests());
+
+    second.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hork"));
+    assertNull(second.readInbound());
+    final FullHttpResponse response = second.readOutbound();
+    assertNotNull(response);
+    assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+    response.release();
+    assertEquals(1L, admissionController.getRejectedRequests());
+
+    first.writeOutbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertEquals(0, admissionController.getInFlightRequests());
+
+    first.finishAndReleaseAll();
+    second.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testPipelinedRefusal() {
+    final AdmissionController admissionController = new AdmissionController(1, 0);
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null), new AdmissionControlHandler(admissionController));
+
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hoopy"));
+    final ContainerRequest admitted = channel.readInbound();
+    assertNotNull(admitted);
+
+    // Pipelined behind the first request, and over the limit.
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hork"));
+    assertNull(channel.readInbound());
+    assertNull(channel.readOutbound());
+    assertEquals(1L, admissionController.getRejectedRequests());
+
+    channel.writeOutbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertEquals(0, admissionController.getInFlightRequests());
+    assertTrue(channel.readOutbound() instanceof LastHttpContent);
+    final FullHttpResponse response = channel.readOutbound();
+    assertNotNull(response);
+    assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+    assertTrue(response.headers().containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE, true));
+    response.release();
+    assertFalse(channel.isOpen());
+
+    channel.finishAndReleaseAll();
+  }
+
+}
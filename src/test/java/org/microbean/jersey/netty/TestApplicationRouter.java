@@ -0,0 +1,71 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class TestApplicationRouter {
+
+  private TestApplicationRouter() {
+    super();
+  }
+
+  @Test
+  final void testMatch() {
+    final ApplicationHandler defaultApplication = new ApplicationHandler(new ResourceConfig());
+    final ApplicationHandler orders = new ApplicationHandler(new ResourceConfig());
+    final ApplicationHandler ordersAdmin = new ApplicationHandler(new ResourceConfig());
+    final ApplicationHandler api = new ApplicationHandler(new ResourceConfig());
+    final ApplicationRouter router = new ApplicationRouter(defaultApplication)
+      .route("/orders", orders)
+      .route("/orders//admin/", ordersAdmin)
+      .route("API.example.com", "/", new ImmutableSupplier<>(api));
+    assertSame(defaultApplication, router.get());
+
+    assertNull(router.match("localhost", "customers/1"));
+    assertNull(router.match(null, "ordersx"));
+    assertSame(orders, router.match(null, "orders").getApplicationHandler());
+    assertSame(orders, router.match("localhost:8080", "orders/1").getApplicationHandler());
+    assertSame(ordersAdmin, router.match(null, "orders/admin/users").getApplicationHandler());
+    assertEquals("orders/admin", router.match(null, "orders/admin").getPathPrefix());
+
+    // A host-specific route beats a longer any-host route.
+    final ApplicationRouter.Route route = router.match("api.example.com:8443", "orders/admin");
+    assertSame(api, route.getApplicationHandler());
+    assertEquals("api.example.com", route.getHost());
+    assertEquals("", route.getPathPrefix());
+
+    assertThrows(IllegalArgumentException.class, () -> router.route("*", "orders/", new ImmutableSupplier<>(orders)));
+  }
+
+  @Test
+  final void testNormalizeHost() {
+    assertNull(ApplicationRouter.normalizeHost(" * "));
+    assertEquals("example.com", ApplicationRouter.normalizeHost("Example.COM:80"));
+    assertEquals("[::1]", ApplicationRouter.normalizeHost("[::1]:8080"));
+    assertEquals("[::1]", ApplicationRouter.normalizeHost("[::1]"));
+  }
+
+}
@@ -0,0 +1,55 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestArrayBackedPropertiesDelegate {
+
+  private TestArrayBackedPropertiesDelegate() {
+    super();
+  }
+
+  @Test
+  final void testSetGetRemove() {
+    final ArrayBackedPropertiesDelegate delegate = new ArrayBackedPropertiesDelegate(2);
+    assertTrue(delegate.getPropertyNames().isEmpty());
+    assertNull(delegate.getProperty("a"));
+    for (int i = 0; i < 10; i++) {
+      delegate.setProperty("k" + i, Integer.valueOf(i));
+    }
+    // A different String instance with the same characters.
+    assertEquals(Integer.valueOf(3), delegate.getProperty(new String("k3")));
+    delegate.setProperty("k3", "three");
+    assertEquals("three", delegate.getProperty("k3"));
+    assertEquals(10, delegate.getPropertyNames().size());
+    delegate.removeProperty("k0");
+    delegate.removeProperty("k9");
+    delegate.removeProperty("missing");
+    assertNull(delegate.getProperty("k0"));
+    assertEquals(Arrays.asList("k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8"), delegate.getPropertyNames());
+    delegate.setProperty(null, "null");
+    assertEquals("null", delegate.getProperty(null));
+  }
+
+}
@@ -0,0 +1,72 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Collection;
+
+import org.junit.jupiter.api.Test;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import org.openjdk.jmh.profile.GCProfiler;
+
+import org.openjdk.jmh.results.RunResult;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+import org.openjdk.jmh.runner.Runner;
+
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Runs the JMH benchmarks found in this package.
+ *
+ * <p>Run with {@code mvn -DrunBenchmarks=true -Dtest=TestBenchmarks
+ * test}.  The {@code benchmarks} system property, a regular
+ * expression, selects which benchmarks run (by default, all classes
+ * whose names contain {@code Benchmark}).  Throughput and sampled
+ * latency are reported for every benchmark; the {@link GCProfiler}
+ * adds allocation per operation ({@code gc.alloc.rate.norm}).
+ * Results are also written in JSON format to {@code
+ * target/jmh-result.json} so that runs can be compared.  Assertions
+ * are disabled in the forked benchmark JVMs.</p>
+ */
+final class TestBenchmarks {
+
+  private TestBenchmarks() {
+    super();
+  }
+
+  @EnabledIfSystemProperty(named = "runBenchmarks", matches = "true")
+  @Test
+  final void runBenchmarks() throws Exception {
+    final Options options = new OptionsBuilder()
+      .include(System.getProperty("benchmarks", ".*Benchmark.*"))
+      .addProfiler(GCProfiler.class)
+      .jvmArgsAppend("-disableassertions")
+      .resultFormat(ResultFormatType.JSON)
+      .result("target/jmh-result.json")
+      .shouldFailOnError(true)
+      .build();
+    final Collection<RunResult> results = new Runner(options).run();
+    assertFalse(results.isEmpty());
+  }
+
+}
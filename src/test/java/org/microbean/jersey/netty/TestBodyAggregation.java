@@ -0,0 +1,147 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+final class TestBodyAggregation {
+
+  private TestBodyAggregation() {
+    super();
+  }
+
+  @Test
+  final void testSmallBodyIsAggregated() throws IOException {
+    final EmbeddedChannel channel = newChannel();
+    channel.writeInbound(newRequest(10));
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.US_ASCII)));
+    assertNull(channel.readInbound());
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("World", StandardCharsets.US_ASCII)));
+    final ContainerRequest containerRequest = channel.readInbound();
+    assertNotNull(containerRequest);
+    assertEquals("HelloWorld", read(containerRequest));
+    assertNull(channel.readInbound());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testLargeBodyIsStreamed() throws IOException {
+    final EmbeddedChannel channel = newChannel();
+    channel.writeInbound(newRequest(1000));
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.US_ASCII)));
+    final ContainerRequest containerRequest = channel.readInbound();
+    assertNotNull(containerRequest);
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    // The request is passed on exactly once.
+    assertNull(channel.readInbound());
+    assertEquals("Hello", read(containerRequest));
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testRoutedApplicationSettings() throws IOException {
+    final ApplicationHandler small =
+      new ApplicationHandler(new ResourceConfig().property(NettyContainerProperties.MAX_AGGREGATED_CONTENT_LENGTH, 0L));
+    final ApplicationHandler large =
+      new ApplicationHandler(new ResourceConfig().property(NettyContainerProperties.MAX_AGGREGATED_CONTENT_LENGTH, 10000L));
+    final ApplicationRouter router = new ApplicationRouter(new ApplicationHandler(new ResourceConfig()))
+      .route("/small", small)
+      .route("/large", large);
+    final ResourceConfig configuration = new ResourceConfig().property(NettyContainerProperties.MAX_AGGREGATED_CONTENT_LENGTH, 100L);
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null, configuration),
+                          new ApplicationRoutingHandler(router));
+
+    // Under the default application's limit, but the routed one
+    // does not aggregate.
+    channel.writeInbound(newRequest("/small/hoopy", 10));
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.US_ASCII)));
+    ContainerRequest containerRequest = channel.readInbound();
+    assertNotNull(containerRequest);
+    assertSame(small.getConfiguration(), containerRequest.getConfiguration());
+    assertSame(small, containerRequest.getProperty(ApplicationRoutingHandler.APPLICATION_HANDLER_PROPERTY_NAME));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("World", StandardCharsets.US_ASCII)));
+    assertNull(channel.readInbound());
+    assertEquals("HelloWorld", read(containerRequest));
+
+    // Over the default application's limit, but under the routed
+    // one's.
+    channel.writeInbound(newRequest("/large/hoopy", 1000));
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.US_ASCII)));
+    assertNull(channel.readInbound());
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("World", StandardCharsets.US_ASCII)));
+    containerRequest = channel.readInbound();
+    assertNotNull(containerRequest);
+    assertSame(large.getConfiguration(), containerRequest.getConfiguration());
+    assertEquals("HelloWorld", read(containerRequest));
+    channel.finishAndReleaseAll();
+  }
+
+  private static final EmbeddedChannel newChannel() {
+    final ResourceConfig configuration = new ResourceConfig().property(NettyContainerProperties.MAX_AGGREGATED_CONTENT_LENGTH, 100L);
+    return new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null, configuration));
+  }
+
+  private static final HttpRequest newRequest(final int contentLength) {
+    return newRequest("/hoopy", contentLength);
+  }
+
+  private static final HttpRequest newRequest(final String uri, final int contentLength) {
+    final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri);
+    request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, contentLength);
+    return request;
+  }
+
+  private static final String read(final ContainerRequest containerRequest) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    try (final InputStream entityStream = containerRequest.getEntityStream()) {
+      int b;
+      while ((b = entityStream.read()) >= 0) {
+        sb.append((char)b);
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,163 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestBulkheads {
+
+  private TestBulkheads() {
+    super();
+  }
+
+  @Test
+  final void testSelect() {
+    final Bulkhead reports = new Bulkhead("reports", 1, 0);
+    final Bulkhead exports = new Bulkhead("exports", 1, 0);
+    try (final Bulkheads bulkheads = new Bulkheads().add(reports).add(exports).route("/legacy(/.*)?", "exports")) {
+      final ResourceConfig resourceConfig = new ResourceConfig(Reports.class, Orders.class);
+      final ApplicationHandler applicationHandler = new ApplicationHandler(resourceConfig);
+      assertSame(reports, bulkheads.select(applicationHandler, newRequest(resourceConfig, "GET", "reports/daily")));
+      assertSame(exports, bulkheads.select(applicationHandler, newRequest(resourceConfig, "GET", "legacy/reports")));
+      assertSame(exports, bulkheads.select(applicationHandler, newRequest(resourceConfig, "POST", "orders/export")));
+      assertNull(bulkheads.select(applicationHandler, newRequest(resourceConfig, "GET", "orders/export")));
+      assertNull(bulkheads.select(applicationHandler, newRequest(resourceConfig, "POST", "orders")));
+    }
+  }
+
+  @Test
+  final void testQueueLimit() throws InterruptedException {
+    try (final Bulkhead bulkhead = new Bulkhead("slow", 1, 1)) {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      assertTrue(bulkhead.execute(() -> {
+            started.countDown();
+            try {
+              release.await();
+            } catch (final InterruptedException interruptedException) {
+              Thread.currentThread().interrupt();
+            }
+          }));
+      assertTrue(started.await(10L, TimeUnit.SECONDS));
+      assertEquals(1, bulkhead.getActiveRequests());
+      assertTrue(bulkhead.execute(() -> {}));
+      assertEquals(1, bulkhead.getQueueDepth());
+      assertFalse(bulkhead.execute(() -> {}));
+      assertEquals(1L, bulkhead.getRejectedRequests());
+      release.countDown();
+    }
+  }
+
+  @Test
+  final void testSharedQueue() throws InterruptedException {
+    try (final Bulkhead bulkhead = new Bulkhead("shared", 2, 0)) {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      assertTrue(bulkhead.execute(() -> {
+            started.countDown();
+            try {
+              release.await();
+            } catch (final InterruptedException interruptedException) {
+              Thread.currentThread().interrupt();
+            }
+          }));
+      assertTrue(started.await(10L, TimeUnit.SECONDS));
+      // None of these waits behind the blocked thread; the free
+      // thread takes them all from the shared queue.
+      final CountDownLatch done = new CountDownLatch(4);
+      for (int i = 0; i < 4; i++) {
+        assertTrue(bulkhead.execute(done::countDown));
+      }
+      assertTrue(done.await(10L, TimeUnit.SECONDS));
+      assertEquals(1, bulkhead.getActiveRequests());
+      release.countDown();
+    }
+  }
+
+  private static final ContainerRequest newRequest(final ResourceConfig resourceConfig, final String method, final String path) {
+    final URI baseUri = URI.create("/");
+    return new ContainerRequest(baseUri,
+                                baseUri.resolve(path),
+                                method,
+                                new SecurityContextAdapter(),
+                                new ArrayBackedPropertiesDelegate(),
+                                resourceConfig);
+  }
+
+  @Path("reports")
+  @InBulkhead("reports")
+  public static final class Reports {
+
+    public Reports() {
+      super();
+    }
+
+    @GET
+    @Path("daily")
+    public final String daily() {
+      return "";
+    }
+
+  }
+
+  @Path("orders")
+  public static final class Orders {
+
+    public Orders() {
+      super();
+    }
+
+    @POST
+    public final String create() {
+      return "";
+    }
+
+    @GET
+    @Path("export")
+    public final String view() {
+      return "";
+    }
+
+    @POST
+    @Path("export")
+    @InBulkhead("exports")
+    public final String export() {
+      return "";
+    }
+
+  }
+
+}
@@ -0,0 +1,101 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestConnectionTimeouts {
+
+  private TestConnectionTimeouts() {
+    super();
+  }
+
+  @Test
+  final void testIdleTimeout() throws InterruptedException {
+    final EmbeddedChannel channel = new EmbeddedChannel(new HttpConnectionTimeoutHandler(50L, 0L, TimeUnit.MILLISECONDS));
+    assertTrue(channel.isOpen());
+    Thread.sleep(100L);
+    channel.runScheduledPendingTasks();
+    assertFalse(channel.isOpen());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testRequestHeaderTimeout() throws InterruptedException {
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new HttpServerCodec(), new HttpConnectionTimeoutHandler(0L, 50L, TimeUnit.MILLISECONDS));
+    channel.writeInbound(Unpooled.copiedBuffer("GET /hork HTTP/1.1\r\nHo", StandardCharsets.US_ASCII));
+    assertTrue(channel.isOpen());
+    Thread.sleep(100L);
+    channel.runScheduledPendingTasks();
+    final ByteBuf response = channel.readOutbound();
+    assertNotNull(response);
+    assertTrue(response.toString(StandardCharsets.US_ASCII).startsWith("HTTP/1.1 408"));
+    response.release();
+    assertFalse(channel.isOpen());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testBodyReadTimeout() throws IOException, InterruptedException {
+    final ResourceConfig configuration = new ResourceConfig().property(NettyContainerProperties.BODY_READ_TIMEOUT, 50L);
+    final EmbeddedChannel channel = new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null, configuration));
+    final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/hoopy");
+    request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 10);
+    channel.writeInbound(request);
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.US_ASCII)));
+    final ContainerRequest containerRequest = channel.readInbound();
+    assertNotNull(containerRequest);
+    try (final InputStream entityStream = containerRequest.getEntityStream()) {
+      assertTrue(entityStream.read(new byte[5]) == 5);
+      Thread.sleep(100L);
+      channel.runScheduledPendingTasks();
+      assertThrows(IOException.class, () -> entityStream.read());
+    }
+    assertFalse(channel.isOpen());
+    channel.finishAndReleaseAll();
+  }
+
+}
@@ -0,0 +1,407 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import io.netty.bootstrap.ServerBootstrap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataChunkedInput;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+
+import io.netty.handler.ssl.SslHandler;
+
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import io.netty.util.ReferenceCountUtil;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestDirectEntities {
+
+  private static final String CONTENT = "Hello, direct entities";
+
+  private static final ByteBuf BYTE_BUF = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(CONTENT, StandardCharsets.UTF_8));
+
+  private static volatile ByteBuf countedByteBuf;
+
+  private static File file;
+
+  private static ApplicationHandler applicationHandler;
+
+  private static NioEventLoopGroup group;
+
+  private static WebTarget webTarget;
+
+  @BeforeAll
+  private static final void beforeAll() throws InterruptedException, IOException {
+    file = File.createTempFile("TestDirectEntities", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+    group = new NioEventLoopGroup();
+    final ResourceConfig resourceConfig = new ResourceConfig(Resources.class)
+      .register(DirectEntityWriterInterceptor.class)
+      .register(ByteBufMessageBodyWriter.class);
+    applicationHandler = new ApplicationHandler(resourceConfig);
+    final Channel serverChannel = new ServerBootstrap()
+      .group(group)
+      .channel(NioServerSocketChannel.class)
+      .localAddress(new InetSocketAddress("127.0.0.1", 0))
+      .childHandler(new JerseyChannelInitializer(null, null, true, 20000000L, null, applicationHandler, 8192, null))
+      .bind()
+      .sync()
+      .channel();
+    final InetSocketAddress address = (InetSocketAddress)serverChannel.localAddress();
+    webTarget = ClientBuilder.newClient().target("http://127.0.0.1:" + address.getPort() + "/");
+  }
+
+  @AfterAll
+  private static final void afterAll() throws InterruptedException {
+    group.shutdownGracefully().sync();
+  }
+
+  private TestDirectEntities() {
+    super();
+  }
+
+  @Test
+  final void testFile() {
+    final Response response = webTarget.path("/file").request().get();
+    assertEquals(200, response.getStatus());
+    assertEquals(String.valueOf(CONTENT.length()), response.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+    assertEquals(CONTENT, response.readEntity(String.class));
+  }
+
+  @Test
+  final void testByteBuf() {
+    final Response response = webTarget.path("/bytebuf").request().get();
+    assertEquals(200, response.getStatus());
+    assertEquals(String.valueOf(CONTENT.length()), response.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+    assertEquals(CONTENT, response.readEntity(String.class));
+    assertEquals(0, BYTE_BUF.readerIndex());
+  }
+
+  @Test
+  final void testByteBuffer() {
+    final Response response = webTarget.path("/bytebuffer").request().get();
+    assertEquals(200, response.getStatus());
+    assertEquals(CONTENT, response.readEntity(String.class));
+  }
+
+  @Test
+  final void testFileOverTls() throws Exception {
+    final SSLEngine sslEngine = SSLContext.getDefault().createSSLEngine();
+    sslEngine.setUseClientMode(false);
+    final Recorder recorder = new Recorder(false);
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new SslHandler(sslEngine),
+                          new HttpObjectToContainerRequestDecoder(null),
+                          new ChunkedWriteHandler(),
+                          recorder,
+                          new HttpContainerRequestHandlingResponseWriter(applicationHandler));
+    // Skip the SslHandler, which would otherwise expect a handshake.
+    channel.pipeline().context(SslHandler.class).fireChannelRead(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/file"));
+
+    assertEquals(2, recorder.messages.size());
+    assertTrue(recorder.messages.get(0) instanceof HttpResponse);
+    assertTrue(recorder.messages.get(1) instanceof HttpChunkedInput);
+    final HttpChunkedInput chunkedInput = (HttpChunkedInput)recorder.messages.get(1);
+    final StringBuilder content = new StringBuilder();
+    while (!chunkedInput.isEndOfInput()) {
+      final HttpContent chunk = chunkedInput.readChunk(ByteBufAllocator.DEFAULT);
+      if (chunk != null) {
+        content.append(chunk.content().toString(StandardCharsets.UTF_8));
+        chunk.release();
+      }
+    }
+    chunkedInput.close();
+    assertEquals(CONTENT, content.toString());
+
+    channel.pipeline().remove(SslHandler.class);
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testFileOverHttp2() {
+    final Recorder recorder = new Recorder(true);
+    final EmbeddedChannel server =
+      new EmbeddedChannel(Http2FrameCodecBuilder.forServer().build(),
+                          new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+                              @Override
+                              protected final void initChannel(final Http2StreamChannel channel) {
+                                channel.pipeline().addLast(new Http2StreamFrameToContainerRequestDecoder(null),
+                                                           new ChunkedWriteHandler(),
+                                                           recorder,
+                                                           new Http2ContainerRequestHandlingResponseWriter(applicationHandler));
+                              }
+                            }));
+    final EmbeddedChannel client =
+      new EmbeddedChannel(Http2FrameCodecBuilder.forClient().build(),
+                          new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+    exchange(client, server);
+
+    final List<Object> frames = new ArrayList<>();
+    final Http2StreamChannel stream = new Http2StreamChannelBootstrap(client)
+      .handler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+            frames.add(message);
+          }
+        })
+      .open()
+      .syncUninterruptibly()
+      .getNow();
+    final Http2Headers headers = new DefaultHttp2Headers()
+      .method("GET")
+      .path("/file")
+      .scheme("http")
+      .authority("localhost");
+    stream.writeAndFlush(new DefaultHttp2HeadersFrame(headers, true));
+    exchange(client, server);
+
+    assertTrue(recorder.messages.stream().anyMatch(m -> m instanceof Http2DataChunkedInput));
+    assertTrue(frames.get(0) instanceof Http2HeadersFrame);
+    final StringBuilder content = new StringBuilder();
+    boolean endStream = false;
+    for (final Object frame : frames) {
+      if (frame instanceof Http2DataFrame) {
+        content.append(((Http2DataFrame)frame).content().toString(StandardCharsets.UTF_8));
+        endStream = ((Http2DataFrame)frame).isEndStream();
+      }
+      ReferenceCountUtil.release(frame);
+    }
+    assertEquals(CONTENT, content.toString());
+    assertTrue(endStream);
+
+    client.finishAndReleaseAll();
+    server.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testByteBufReleasedOverHttp() {
+    countedByteBuf = Unpooled.copiedBuffer(CONTENT, StandardCharsets.UTF_8);
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null),
+                          new HttpContainerRequestHandlingResponseWriter(applicationHandler));
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/counted"));
+
+    final HttpResponse response = channel.readOutbound();
+    assertNotNull(response);
+    final Object last = channel.readOutbound();
+    assertTrue(last instanceof DefaultLastHttpContent);
+    assertEquals(CONTENT, ((DefaultLastHttpContent)last).content().toString(StandardCharsets.UTF_8));
+    // The message holds its own reference until it has been written...
+    assertEquals(2, countedByteBuf.refCnt());
+    ReferenceCountUtil.release(last);
+    // ...and only the application's remains afterwards.
+    assertEquals(1, countedByteBuf.refCnt());
+    assertEquals(0, countedByteBuf.readerIndex());
+    countedByteBuf.release();
+
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testByteBufReleasedOverHttp2() {
+    countedByteBuf = Unpooled.copiedBuffer(CONTENT, StandardCharsets.UTF_8);
+    final EmbeddedChannel channel =
+      new EmbeddedChannel(new Http2StreamFrameToContainerRequestDecoder(null),
+                          new Http2ContainerRequestHandlingResponseWriter(applicationHandler));
+    final Http2Headers headers = new DefaultHttp2Headers()
+      .method("GET")
+      .path("/counted")
+      .scheme("http")
+      .authority("localhost");
+    channel.writeInbound(new DefaultHttp2HeadersFrame(headers, true));
+
+    final Http2HeadersFrame headersFrame = channel.readOutbound();
+    assertNotNull(headersFrame);
+    final Object data = channel.readOutbound();
+    assertTrue(data instanceof DefaultHttp2DataFrame);
+    assertTrue(((DefaultHttp2DataFrame)data).isEndStream());
+    assertEquals(CONTENT, ((DefaultHttp2DataFrame)data).content().toString(StandardCharsets.UTF_8));
+    assertEquals(2, countedByteBuf.refCnt());
+    ReferenceCountUtil.release(data);
+    assertEquals(1, countedByteBuf.refCnt());
+    countedByteBuf.release();
+
+    channel.finishAndReleaseAll();
+  }
+
+  private static final void exchange(final EmbeddedChannel client, final EmbeddedChannel server) {
+    boolean moved;
+    do {
+      moved = false;
+      client.runPendingTasks();
+      server.runPendingTasks();
+      client.flushOutbound();
+      server.flushOutbound();
+      Object message;
+      while ((message = client.readOutbound()) != null) {
+        server.writeInbound(message);
+        moved = true;
+      }
+      while ((message = server.readOutbound()) != null) {
+        client.writeInbound(message);
+        moved = true;
+      }
+    } while (moved);
+  }
+
+  private static final class Recorder extends ChannelOutboundHandlerAdapter {
+
+    private final boolean forward;
+
+    private final List<Object> messages;
+
+    private Recorder(final boolean forward) {
+      super();
+      this.forward = forward;
+      this.messages = new ArrayList<>();
+    }
+
+    @Override
+    public final boolean isSharable() {
+      return true;
+    }
+
+    @Override
+    public final void write(final ChannelHandlerContext channelHandlerContext, final Object message, final ChannelPromise channelPromise) {
+      this.messages.add(message);
+      if (this.forward) {
+        channelHandlerContext.write(message, channelPromise);
+      } else {
+        channelPromise.setSuccess();
+      }
+    }
+
+    @Override
+    public final void flush(final ChannelHandlerContext channelHandlerContext) {
+      if (this.forward) {
+        channelHandlerContext.flush();
+      }
+    }
+
+  }
+
+  @Path("/")
+  public static final class Resources {
+
+    public Resources() {
+      super();
+    }
+
+    @GET
+    @Path("file")
+    @Produces(MediaType.TEXT_PLAIN)
+    public File getFile() {
+      return file;
+    }
+
+    @GET
+    @Path("bytebuf")
+    @Produces(MediaType.TEXT_PLAIN)
+    public ByteBuf getByteBuf() {
+      return BYTE_BUF;
+    }
+
+    @GET
+    @Path("counted")
+    @Produces(MediaType.TEXT_PLAIN)
+    public ByteBuf getCountedByteBuf() {
+      return countedByteBuf;
+    }
+
+    @GET
+    @Path("bytebuffer")
+    @Produces(MediaType.TEXT_PLAIN)
+    public ByteBuffer getByteBuffer() {
+      return ByteBuffer.wrap(CONTENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+  }
+
+}
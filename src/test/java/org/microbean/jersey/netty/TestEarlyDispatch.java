@@ -0,0 +1,87 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+final class TestEarlyDispatch {
+
+  private TestEarlyDispatch() {
+    super();
+  }
+
+  @Test
+  final void testRequestWithEntityIsDispatchedOnHeaders() throws IOException {
+    final EmbeddedChannel channel = newChannel();
+    final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/hoopy");
+    request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 5);
+    channel.writeInbound(request);
+    final ContainerRequest containerRequest = channel.readInbound();
+    assertNotNull(containerRequest);
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.US_ASCII)));
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertNull(channel.readInbound());
+    try (final InputStream entityStream = containerRequest.getEntityStream()) {
+      final byte[] bytes = new byte[5];
+      assertEquals(5, entityStream.read(bytes));
+      assertEquals("Hello", new String(bytes, StandardCharsets.US_ASCII));
+      assertEquals(-1, entityStream.read());
+    }
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testRequestWithoutEntityIsNotDispatchedEarly() {
+    final EmbeddedChannel channel = newChannel();
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hoopy"));
+    assertNull(channel.readInbound());
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertNotNull(channel.readInbound());
+    assertNull(channel.readInbound());
+    channel.finishAndReleaseAll();
+  }
+
+  private static final EmbeddedChannel newChannel() {
+    final ResourceConfig configuration = new ResourceConfig().property(NettyContainerProperties.EARLY_DISPATCH, Boolean.TRUE);
+    return new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null, configuration));
+  }
+
+}
@@ -0,0 +1,99 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestHealthCheckHandler {
+
+  private TestHealthCheckHandler() {
+    super();
+  }
+
+  @Test
+  final void testProbes() throws InterruptedException {
+    final DefaultEventExecutorGroup jerseyEventExecutorGroup = new DefaultEventExecutorGroup(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      final EmbeddedChannel channel =
+        new EmbeddedChannel(new HttpObjectToContainerRequestDecoder(null),
+                            new HealthCheckHandler("/livez", "readyz", jerseyEventExecutorGroup, 1, null));
+
+      assertEquals(HttpResponseStatus.OK, probe(channel, "/livez/", "UP\n"));
+      assertEquals(HttpResponseStatus.OK, probe(channel, "/readyz", "UP\n"));
+
+      // Saturate the Jersey executor.
+      jerseyEventExecutorGroup.execute(() -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (final InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      assertTrue(started.await(10L, TimeUnit.SECONDS));
+      jerseyEventExecutorGroup.execute(() -> {});
+      assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, probe(channel, "/readyz", "DOWN\n"));
+      assertEquals(HttpResponseStatus.OK, probe(channel, "/livez", "UP\n"));
+
+      channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hoopy"));
+      final ContainerRequest passedOn = channel.readInbound();
+      assertNotNull(passedOn);
+      assertNull(channel.readOutbound());
+
+      channel.finishAndReleaseAll();
+    } finally {
+      release.countDown();
+      jerseyEventExecutorGroup.shutdownGracefully();
+    }
+  }
+
+  private static final HttpResponseStatus probe(final EmbeddedChannel channel, final String uri, final String expectedContent) {
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri));
+    assertNull(channel.readInbound());
+    final FullHttpResponse response = channel.readOutbound();
+    assertNotNull(response);
+    assertEquals(expectedContent, response.content().toString(StandardCharsets.US_ASCII));
+    final HttpResponseStatus returnValue = response.status();
+    response.release();
+    return returnValue;
+  }
+
+}
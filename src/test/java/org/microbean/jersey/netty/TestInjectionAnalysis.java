@@ -0,0 +1,163 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import javax.ws.rs.core.Context;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+
+import org.glassfish.jersey.internal.inject.AbstractBinder;
+
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestInjectionAnalysis {
+
+  private TestInjectionAnalysis() {
+    super();
+  }
+
+  @Test
+  final void testNothingInjected() {
+    final InjectionAnalysis analysis = InjectionAnalysis.of(analyzed(new ResourceConfig(Plain.class)));
+    assertFalse(analysis.isAnyInjected());
+  }
+
+  @Test
+  final void testInjected() {
+    final InjectionAnalysis analysis = InjectionAnalysis.of(analyzed(new ResourceConfig(Injecting.class)));
+    assertTrue(analysis.isInjected(ChannelHandlerContext.class));
+    assertTrue(analysis.isInjected(HttpRequest.class));
+    assertFalse(analysis.isInjected(Http2HeadersFrame.class));
+  }
+
+  @Test
+  final void testSubResourceLocator() {
+    final InjectionAnalysis analysis = InjectionAnalysis.of(analyzed(new ResourceConfig(Locating.class)));
+    assertFalse(analysis.isInjected(ChannelHandlerContext.class));
+    assertTrue(analysis.isInjected(Http2HeadersFrame.class));
+  }
+
+  @Test
+  final void testTransitiveInjection() {
+    final InjectionAnalysis analysis = InjectionAnalysis.of(analyzed(new ResourceConfig(Delegating.class)));
+    assertTrue(analysis.isInjected(ChannelHandlerContext.class));
+    assertFalse(analysis.isInjected(HttpRequest.class));
+  }
+
+  @Test
+  final void testBinderRegistered() {
+    final ResourceConfig resourceConfig = analyzed(new ResourceConfig(Plain.class));
+    resourceConfig.register(new AbstractBinder() {
+        @Override
+        protected final void configure() {
+        }
+      });
+    assertSame(InjectionAnalysis.ALL, InjectionAnalysis.of(resourceConfig));
+  }
+
+  @Test
+  final void testAnalysisDisabled() {
+    assertSame(InjectionAnalysis.ALL, InjectionAnalysis.of(new ResourceConfig(Plain.class)));
+    final ResourceConfig resourceConfig = new ResourceConfig(Plain.class);
+    resourceConfig.property(NettyContainerProperties.ANALYZE_INJECTION, "false");
+    assertSame(InjectionAnalysis.ALL, InjectionAnalysis.of(resourceConfig));
+    assertSame(InjectionAnalysis.ALL, InjectionAnalysis.of(null));
+  }
+
+  private static final ResourceConfig analyzed(final ResourceConfig resourceConfig) {
+    return resourceConfig.property(NettyContainerProperties.ANALYZE_INJECTION, Boolean.TRUE);
+  }
+
+  @Path("plain")
+  public static final class Plain {
+
+    @GET
+    public String get() {
+      return "Hello";
+    }
+
+  }
+
+  @Path("injecting")
+  public static final class Injecting {
+
+    @Context
+    private Provider<ChannelHandlerContext> channelHandlerContextProvider;
+
+    @GET
+    public String get(@Context final HttpRequest httpRequest) {
+      return httpRequest.uri();
+    }
+
+  }
+
+  @Path("delegating")
+  public static final class Delegating {
+
+    @Inject
+    private Service service;
+
+    @GET
+    public String get() {
+      return this.service.toString();
+    }
+
+  }
+
+  public static final class Service {
+
+    @Inject
+    private Provider<ChannelHandlerContext> channelHandlerContextProvider;
+
+  }
+
+  @Path("locating")
+  public static final class Locating {
+
+    @Path("sub")
+    public Sub sub() {
+      return new Sub();
+    }
+
+  }
+
+  public static final class Sub {
+
+    @GET
+    public String get(@Context final Http2HeadersFrame headersFrame) {
+      return headersFrame.toString();
+    }
+
+  }
+
+}
@@ -0,0 +1,183 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.InetSocketAddress;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.ServerBootstrap;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.EventLoopGroup;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+
+import org.junit.jupiter.api.Test;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Starts a {@link JerseyChannelInitializer}-based server on loopback
+ * and drives it with a {@link LoadGenerator} over HTTP/1.1, h2c
+ * (prior knowledge) and h2 (TLS with ALPN).
+ *
+ * <p>Run with {@code mvn -DrunLoadTests=true -Dtest=TestLoad test}.
+ * The following system properties tune the workload:</p>
+ *
+ * <ul>
+ *
+ * <li>{@code loadTest.protocols}: a comma-separated list drawn from
+ * {@code HTTP_1_1}, {@code H2C} and {@code H2} (default: all)</li>
+ *
+ * <li>{@code loadTest.requests}: measured requests per protocol
+ * (default: {@code 10000})</li>
+ *
+ * <li>{@code loadTest.warmupRequests}: unmeasured requests issued
+ * first (default: {@code 2000})</li>
+ *
+ * <li>{@code loadTest.concurrency}: concurrent requests (default:
+ * {@code 16})</li>
+ *
+ * <li>{@code loadTest.connections}: HTTP/2 connections (default:
+ * {@code 2}); HTTP/1.1 always uses one connection per concurrent
+ * request</li>
+ *
+ * <li>{@code loadTest.method} (default: {@code GET}), {@code
+ * loadTest.path} (default: {@code /workload?size=1024}) and {@code
+ * loadTest.bodySize} (default: {@code 0}) describe the request; see
+ * {@link Workload} for the parameters it understands</li>
+ *
+ * </ul>
+ *
+ * <p>Reports are printed and written to {@code
+ * target/load-report.txt}.</p>
+ */
+final class TestLoad {
+
+  private TestLoad() {
+    super();
+  }
+
+  @EnabledIfSystemProperty(named = "runLoadTests", matches = "true")
+  @Test
+  final void testLoad() throws Exception {
+    final int requests = Integer.getInteger("loadTest.requests", 10000);
+    final int warmupRequests = Integer.getInteger("loadTest.warmupRequests", 2000);
+    final int concurrency = Integer.getInteger("loadTest.concurrency", 16);
+    final int connections = Integer.getInteger("loadTest.connections", 2);
+    final String method = System.getProperty("loadTest.method", "GET");
+    final String path = System.getProperty("loadTest.path", "/workload?size=1024");
+    final int bodySize = Integer.getInteger("loadTest.bodySize", 0);
+
+    final SelfSignedCertificate certificate = new SelfSignedCertificate();
+    final ApplicationProtocolConfig applicationProtocolConfig =
+      new ApplicationProtocolConfig(Protocol.ALPN,
+                                    SelectorFailureBehavior.NO_ADVERTISE,
+                                    SelectedListenerFailureBehavior.ACCEPT,
+                                    ApplicationProtocolNames.HTTP_2,
+                                    ApplicationProtocolNames.HTTP_1_1);
+    final SslContext serverSslContext = SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey())
+      .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+      .applicationProtocolConfig(applicationProtocolConfig)
+      .build();
+    final SslContext clientSslContext = SslContextBuilder.forClient()
+      .trustManager(InsecureTrustManagerFactory.INSTANCE)
+      .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+      .applicationProtocolConfig(applicationProtocolConfig)
+      .build();
+
+    final EventLoopGroup group = new NioEventLoopGroup();
+    final EventExecutorGroup jerseyEventExecutorGroup = new DefaultEventExecutorGroup(Runtime.getRuntime().availableProcessors() * 2);
+    try {
+      final InetSocketAddress cleartextAddress =
+        bind(group, new JerseyChannelInitializer(null, null, true, -1L, jerseyEventExecutorGroup, new ApplicationHandler(new Application()), 8192, null));
+      final InetSocketAddress tlsAddress =
+        bind(group, new JerseyChannelInitializer(null, serverSslContext, true, -1L, jerseyEventExecutorGroup, new ApplicationHandler(new Application()), 8192, null));
+
+      final List<String> lines = new ArrayList<>();
+      for (final String protocolName : System.getProperty("loadTest.protocols", "HTTP_1_1,H2C,H2").split(",")) {
+        final LoadGenerator.Protocol protocol = LoadGenerator.Protocol.valueOf(protocolName.trim());
+        final LoadGenerator loadGenerator =
+          new LoadGenerator(protocol,
+                            protocol == LoadGenerator.Protocol.H2 ? tlsAddress : cleartextAddress,
+                            protocol == LoadGenerator.Protocol.H2 ? clientSslContext : null,
+                            method,
+                            path,
+                            bodySize,
+                            connections,
+                            concurrency);
+        loadGenerator.run(warmupRequests, 5L, TimeUnit.MINUTES);
+        final LoadGenerator.Report report = loadGenerator.run(requests, 5L, TimeUnit.MINUTES);
+        System.out.println("*** " + report);
+        lines.add(report.toString());
+        assertEquals(0, report.getErrors(), report.toString());
+      }
+      final Path reportPath = Paths.get("target", "load-report.txt");
+      Files.createDirectories(reportPath.getParent());
+      Files.write(reportPath, lines);
+    } finally {
+      group.shutdownGracefully().sync();
+      jerseyEventExecutorGroup.shutdownGracefully().sync();
+      certificate.delete();
+    }
+  }
+
+  private static final InetSocketAddress bind(final EventLoopGroup group, final ChannelHandler childHandler) throws InterruptedException {
+    final Channel serverChannel = new ServerBootstrap()
+      .group(group)
+      .channel(NioServerSocketChannel.class)
+      .localAddress(new InetSocketAddress("127.0.0.1", 0))
+      .childHandler(childHandler)
+      .bind()
+      .sync()
+      .channel();
+    return (InetSocketAddress)serverChannel.localAddress();
+  }
+
+}
@@ -0,0 +1,136 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+final class TestRequestCoalescing {
+
+  private static final URI BASE_URI = URI.create("http://localhost/");
+
+  private TestRequestCoalescing() {
+    super();
+  }
+
+  @Test
+  final void testCoalesce() {
+    final RequestCoalescer coalescer = new RequestCoalescer(1024);
+    final EmbeddedChannel leader = new EmbeddedChannel(new RequestCoalescingHandler(coalescer));
+    final EmbeddedChannel follower = new EmbeddedChannel(new RequestCoalescingHandler(coalescer));
+
+    final ContainerRequest leaderRequest = request("GET", "x");
+    leader.writeInbound(leaderRequest);
+    assertSame(leaderRequest, leader.readInbound());
+    follower.writeInbound(request("GET", "x"));
+    assertNull(follower.readInbound());
+    assertEquals(1L, coalescer.getLeaders());
+    assertEquals(1L, coalescer.getFollowers());
+
+    leader.writeOutbound(response(false));
+    final FullHttpResponse leaderResponse = leader.readOutbound();
+    assertNotNull(leaderResponse);
+    leaderResponse.release();
+
+    follower.runPendingTasks();
+    final FullHttpResponse followerResponse = follower.readOutbound();
+    assertNotNull(followerResponse);
+    assertEquals(HttpResponseStatus.OK, followerResponse.status());
+    assertEquals("Hello", followerResponse.content().toString(StandardCharsets.UTF_8));
+    followerResponse.release();
+    assertEquals(0, coalescer.getInFlightLeaders());
+
+    leader.finishAndReleaseAll();
+    follower.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testAbandon() {
+    final RequestCoalescer coalescer = new RequestCoalescer(1024);
+    final EmbeddedChannel leader = new EmbeddedChannel(new RequestCoalescingHandler(coalescer));
+    final EmbeddedChannel follower = new EmbeddedChannel(new RequestCoalescingHandler(coalescer));
+
+    leader.writeInbound(request("GET", "x"));
+    assertNotNull(leader.readInbound());
+    final ContainerRequest followerRequest = request("GET", "x");
+    follower.writeInbound(followerRequest);
+    assertNull(follower.readInbound());
+
+    leader.writeOutbound(response(true));
+    final FullHttpResponse leaderResponse = leader.readOutbound();
+    leaderResponse.release();
+
+    follower.runPendingTasks();
+    assertNull(follower.readOutbound());
+    assertSame(followerRequest, follower.readInbound());
+    assertEquals(1L, coalescer.getAbandonedFlights());
+
+    leader.finishAndReleaseAll();
+    follower.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testDifferentRequestsAreNotCoalesced() {
+    final RequestCoalescer coalescer = new RequestCoalescer(1024);
+    final EmbeddedChannel a = new EmbeddedChannel(new RequestCoalescingHandler(coalescer));
+    final EmbeddedChannel b = new EmbeddedChannel(new RequestCoalescingHandler(coalescer));
+    a.writeInbound(request("GET", "x"));
+    assertNotNull(a.readInbound());
+    b.writeInbound(request("GET", "y"));
+    assertNotNull(b.readInbound());
+    a.writeInbound(request("POST", "x"));
+    assertNotNull(a.readInbound());
+    assertEquals(0L, coalescer.getFollowers());
+    a.finishAndReleaseAll();
+    b.finishAndReleaseAll();
+  }
+
+  private static final ContainerRequest request(final String method, final String path) {
+    return new ContainerRequest(BASE_URI, BASE_URI.resolve(path), method, new SecurityContextAdapter(), new MapBackedPropertiesDelegate(), null);
+  }
+
+  private static final FullHttpResponse response(final boolean setCookie) {
+    final FullHttpResponse returnValue =
+      new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer("Hello", StandardCharsets.UTF_8));
+    returnValue.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 5);
+    if (setCookie) {
+      returnValue.headers().set(HttpHeaderNames.SET_COOKIE, "a=b");
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,96 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+final class TestResourceModelIndex {
+
+  private TestResourceModelIndex() {
+    super();
+  }
+
+  @Test
+  final void testReject() {
+    final ResourceModelIndex index =
+      ResourceModelIndex.of(new ApplicationHandler(new ResourceConfig(Orders.class, Customers.class)));
+    assertSame(ResourceModelIndex.NONE, ResourceModelIndex.of(null));
+
+    assertNull(index.reject("GET", "orders"));
+    assertNull(index.reject("HEAD", "orders/"));
+    assertNull(index.reject("POST", "orders/42"));
+    assertNull(index.reject("OPTIONS", "wp-login.php"));
+    // Anything under a sub-resource locator may be routable.
+    assertNull(index.reject("DELETE", "customers/7/anything/at/all"));
+
+    assertSame(ResourceModelIndex.NOT_FOUND, index.reject("GET", "wp-login.php"));
+    assertSame(ResourceModelIndex.NOT_FOUND, index.reject("GET", "orders/42/lines"));
+
+    final ResourceModelIndex.Rejection rejection = index.reject("DELETE", "orders");
+    assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, rejection.getStatus());
+    assertEquals("GET,HEAD,OPTIONS", rejection.getHeaders().get(HttpHeaderNames.ALLOW));
+  }
+
+  @Path("orders")
+  public static final class Orders {
+
+    public Orders() {
+      super();
+    }
+
+    @GET
+    public final String list() {
+      return "";
+    }
+
+    @POST
+    @Path("{id}")
+    public final String update() {
+      return "";
+    }
+
+  }
+
+  @Path("customers")
+  public static final class Customers {
+
+    public Customers() {
+      super();
+    }
+
+    @Path("{id}")
+    public final Object customer() {
+      return this;
+    }
+
+  }
+
+}
@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import org.glassfish.jersey.server.ContainerRequest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+final class TestResponseCache {
+
+  private static final URI BASE_URI = URI.create("http://localhost/");
+
+  private TestResponseCache() {
+    super();
+  }
+
+  @Test
+  final void testFreshnessLifetime() {
+    final HttpHeaders headers = new DefaultHttpHeaders();
+    assertEquals(0L, ResponseCache.freshnessLifetimeNanos(headers));
+    headers.set(HttpHeaderNames.CACHE_CONTROL, "public, max-age=60");
+    assertEquals(TimeUnit.SECONDS.toNanos(60L), ResponseCache.freshnessLifetimeNanos(headers));
+    headers.set(HttpHeaderNames.CACHE_CONTROL, "max-age=60, s-maxage=10");
+    assertEquals(TimeUnit.SECONDS.toNanos(10L), ResponseCache.freshnessLifetimeNanos(headers));
+    headers.set(HttpHeaderNames.CACHE_CONTROL, "private, max-age=60");
+    assertEquals(0L, ResponseCache.freshnessLifetimeNanos(headers));
+    headers.set(HttpHeaderNames.CACHE_CONTROL, "max-age=60");
+    headers.set(HttpHeaderNames.SET_COOKIE, "a=b");
+    assertEquals(0L, ResponseCache.freshnessLifetimeNanos(headers));
+  }
+
+  @Test
+  final void testHitAndMiss() {
+    final ResponseCache cache = new ResponseCache(1024L * 1024L, 0L);
+    assertNull(cache.get(request("GET", "a", null)));
+    cache.put(request("GET", "a", null), HttpResponseStatus.OK, new DefaultHttpHeaders(), content("a"), Collections.emptyList(), TimeUnit.MINUTES.toNanos(1L));
+    final ResponseCache.Hit hit = cache.get(request("HEAD", "a", null));
+    assertNotNull(hit);
+    assertEquals("a", hit.getContent().toString(StandardCharsets.UTF_8));
+    hit.getContent().release();
+    assertEquals(1L, cache.getHits());
+    assertEquals(1L, cache.getMisses());
+    cache.invalidate(request("POST", "a", null));
+    assertNull(cache.get(request("GET", "a", null)));
+    assertEquals(0L, cache.getSize());
+  }
+
+  @Test
+  final void testVary() {
+    final ResponseCache cache = new ResponseCache(1024L * 1024L, 0L);
+    final List<String> vary = Collections.singletonList("accept-language");
+    cache.put(request("GET", "a", "en"), HttpResponseStatus.OK, new DefaultHttpHeaders(), content("hello"), vary, TimeUnit.MINUTES.toNanos(1L));
+    cache.put(request("GET", "a", "fr"), HttpResponseStatus.OK, new DefaultHttpHeaders(), content("bonjour"), vary, TimeUnit.MINUTES.toNanos(1L));
+    final ResponseCache.Hit hit = cache.get(request("GET", "a", "fr"));
+    assertNotNull(hit);
+    assertEquals("bonjour", hit.getContent().toString(StandardCharsets.UTF_8));
+    hit.getContent().release();
+    assertNull(cache.get(request("GET", "a", "de")));
+  }
+
+  @Test
+  final void testHostsDoNotShareEntries() {
+    final ResponseCache cache = new ResponseCache(1024L * 1024L, 0L);
+    cache.put(request("GET", "a", "hoopy.example.com", null), HttpResponseStatus.OK, new DefaultHttpHeaders(), content("hoopy"), Collections.emptyList(), TimeUnit.MINUTES.toNanos(1L));
+    assertNull(cache.get(request("GET", "a", "hork.example.com", null)));
+    cache.put(request("GET", "a", "hork.example.com", null), HttpResponseStatus.OK, new DefaultHttpHeaders(), content("hork"), Collections.emptyList(), TimeUnit.MINUTES.toNanos(1L));
+
+    ResponseCache.Hit hit = cache.get(request("GET", "a", "hoopy.example.com", null));
+    assertNotNull(hit);
+    assertEquals("hoopy", hit.getContent().toString(StandardCharsets.UTF_8));
+    hit.getContent().release();
+    hit = cache.get(request("GET", "a", "HORK.example.com", null));
+    assertNotNull(hit);
+    assertEquals("hork", hit.getContent().toString(StandardCharsets.UTF_8));
+    hit.getContent().release();
+
+    // An unsafe request on one host leaves the other's entry alone.
+    cache.invalidate(request("POST", "a", "hork.example.com", null));
+    assertNull(cache.get(request("GET", "a", "hork.example.com", null)));
+    hit = cache.get(request("GET", "a", "hoopy.example.com", null));
+    assertNotNull(hit);
+    hit.getContent().release();
+    cache.clear();
+  }
+
+  @Test
+  final void testEviction() {
+    final ResponseCache cache = new ResponseCache(4096L, 1024L);
+    for (int i = 0; i < 16; i++) {
+      cache.put(request("GET", "r" + i, null), HttpResponseStatus.OK, new DefaultHttpHeaders(), Unpooled.buffer(512).writeZero(512), Collections.emptyList(), TimeUnit.MINUTES.toNanos(1L));
+    }
+    assertEquals(16L, cache.getStores());
+    assertEquals(4, cache.getUriCount());
+    assertEquals(12L, cache.getEvictions());
+    assertNull(cache.get(request("GET", "r0", null)));
+    final ResponseCache.Hit hit = cache.get(request("GET", "r15", null));
+    assertNotNull(hit);
+    hit.getContent().release();
+    cache.clear();
+    assertEquals(0L, cache.getSize());
+  }
+
+  private static final ContainerRequest request(final String method, final String path, final String acceptLanguage) {
+    return request(method, path, null, acceptLanguage);
+  }
+
+  private static final ContainerRequest request(final String method, final String path, final String host, final String acceptLanguage) {
+    final ContainerRequest returnValue =
+      new ContainerRequest(BASE_URI, BASE_URI.resolve(path), method, new SecurityContextAdapter(), new MapBackedPropertiesDelegate(), null);
+    if (host != null) {
+      returnValue.header("Host", host);
+    }
+    if (acceptLanguage != null) {
+      returnValue.header("Accept-Language", acceptLanguage);
+    }
+    return returnValue;
+  }
+
+  private static final ByteBuf content(final String content) {
+    return Unpooled.copiedBuffer(content, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,122 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.WriteBufferWaterMark;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.HttpContent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestServerSentEvents {
+
+  private TestServerSentEvents() {
+    super();
+  }
+
+  @Test
+  final void testFlushAtEventBoundaries() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final ServerSentEventOutputStream outputStream = new ServerSentEventOutputStream(newStream(channel), null, 0L);
+    outputStream.write("data: a".getBytes(StandardCharsets.UTF_8));
+    outputStream.write('\n');
+    assertNull(channel.readOutbound());
+    outputStream.write('\n');
+    // Small writes are staged and sent together.
+    assertEquals("data: a\n\n", read(channel));
+    assertNull(channel.readOutbound());
+    outputStream.write("data: b\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    assertEquals("data: b\r\n\r\n", read(channel));
+    outputStream.close();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testBroadcast() throws Exception {
+    final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster();
+    final EmbeddedChannel one = new EmbeddedChannel();
+    final EmbeddedChannel two = new EmbeddedChannel();
+    broadcaster.subscribe().attach(new ServerSentEventOutputStream(newStream(one), null, 0L), one);
+    broadcaster.subscribe().attach(new ServerSentEventOutputStream(newStream(two), null, 0L), two);
+    assertEquals(2, broadcaster.getSubscriberCount());
+    assertEquals(2, broadcaster.broadcast("tick", "1", "x\ny"));
+    assertEquals("event: tick\nid: 1\ndata: x\ndata: y\n\n", read(one));
+    assertEquals("event: tick\nid: 1\ndata: x\ndata: y\n\n", read(two));
+    one.close();
+    assertEquals(1, broadcaster.getSubscriberCount());
+    broadcaster.close();
+    assertEquals(0, broadcaster.getSubscriberCount());
+    one.finishAndReleaseAll();
+    two.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testSlowSubscriberIsSkippedThenDropped() throws Exception {
+    final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster(ByteBufAllocator.DEFAULT, 2);
+    final EmbeddedChannel fast = new EmbeddedChannel();
+    final EmbeddedChannel slow = new EmbeddedChannel();
+    slow.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+    broadcaster.subscribe().attach(new ServerSentEventOutputStream(newStream(fast), null, 0L), fast);
+    broadcaster.subscribe().attach(new ServerSentEventOutputStream(newStream(slow), null, 0L), slow);
+
+    // Bytes the client has not read yet.
+    slow.write(Unpooled.wrappedBuffer(new byte[32]));
+    assertFalse(slow.isWritable());
+
+    assertEquals(1, broadcaster.broadcast("1"));
+    assertEquals(1, broadcaster.broadcast("2"));
+    assertEquals(2, broadcaster.getSubscriberCount());
+    assertTrue(slow.isOpen());
+
+    assertEquals(1, broadcaster.broadcast("3"));
+    assertEquals(1, broadcaster.getSubscriberCount());
+    assertFalse(slow.isOpen());
+
+    assertEquals("data: 1\n\n", read(fast));
+    assertEquals("data: 2\n\n", read(fast));
+    assertEquals("data: 3\n\n", read(fast));
+    broadcaster.close();
+    fast.finishAndReleaseAll();
+    slow.finishAndReleaseAll();
+  }
+
+  private static final ByteBufBackedChannelOutboundInvokingHttpContentOutputStream newStream(final EmbeddedChannel channel) {
+    return new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(channel, Integer.MAX_VALUE, false, null);
+  }
+
+  private static final String read(final EmbeddedChannel channel) {
+    final HttpContent content = channel.readOutbound();
+    try {
+      return content.content().toString(StandardCharsets.UTF_8);
+    } finally {
+      content.release();
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestSimpleContainer {
+
+  private static final URI BASE_URI = URI.create("http://localhost/");
+
+  private TestSimpleContainer() {
+    super();
+  }
+
+  @Test
+  final void testReloadInBackground() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final AtomicInteger warmUps = new AtomicInteger();
+      final SimpleContainer container =
+        new SimpleContainer(new ResourceConfig(One.class), executor, applicationHandler -> warmUps.incrementAndGet(), 1000L);
+      final ApplicationHandler first = container.get();
+      assertEquals("one", get(first));
+
+      final ApplicationHandler second = container.reloadInBackground(new ResourceConfig(Two.class)).get();
+      assertNotSame(first, second);
+      assertSame(second, container.get());
+      assertEquals("two", get(container.get()));
+      assertEquals(1, warmUps.get());
+
+      // Reloading the current (runtime) configuration rebuilds the
+      // application it came from.
+      final ApplicationHandler third = container.reloadInBackground(container.getConfiguration()).get();
+      assertNotSame(second, third);
+      assertEquals("two", get(third));
+      assertEquals(2, warmUps.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  final void testDrainWaitsForDispatchedRequests() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final SimpleContainer container = new SimpleContainer(new ResourceConfig(One.class), executor, null, 10000L);
+      final ApplicationHandler first = container.get();
+      final ContainerRequest containerRequest = newContainerRequest();
+      assertTrue(SimpleContainer.beginDispatch(first, containerRequest));
+
+      final CompletableFuture<ApplicationHandler> reload = container.reloadInBackground(null);
+      Thread.sleep(200L);
+      assertFalse(reload.isDone());
+
+      // The dispatched request never reaches the old
+      // ApplicationHandler; once it is abandoned the drain completes.
+      SimpleContainer.abandonDispatch(containerRequest);
+      final ApplicationHandler second = reload.get(5L, TimeUnit.SECONDS);
+      assertNotSame(first, second);
+      assertSame(second, container.get());
+
+      // The old ApplicationHandler now refuses new dispatches.
+      assertFalse(SimpleContainer.beginDispatch(first, newContainerRequest()));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static final ContainerRequest newContainerRequest() {
+    return new ContainerRequest(BASE_URI, BASE_URI.resolve("version"), "GET", new SecurityContextAdapter(), new ArrayBackedPropertiesDelegate(), null);
+  }
+
+  private static final String get(final ApplicationHandler applicationHandler) throws Exception {
+    final ContainerRequest containerRequest = newContainerRequest();
+    final ContainerResponse containerResponse = applicationHandler.apply(containerRequest).get();
+    return (String)containerResponse.getEntity();
+  }
+
+  @Path("version")
+  public static final class One {
+
+    @GET
+    public String get() {
+      return "one";
+    }
+
+  }
+
+  @Path("version")
+  public static final class Two {
+
+    @GET
+    public String get() {
+      return "two";
+    }
+
+  }
+
+}
@@ -0,0 +1,99 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestStagedWrites {
+
+  private TestStagedWrites() {
+    super();
+  }
+
+  @Test
+  final void testStagedWrites() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final ByteBufBackedChannelOutboundInvokingHttpContentOutputStream outputStream =
+      new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(channel, Integer.MAX_VALUE, false, null);
+    final int size = AbstractChannelOutboundInvokingOutputStream.STAGING_BUFFER_SIZE;
+
+    for (int i = 0; i <= size; i++) {
+      outputStream.write(i);
+    }
+    assertNull(channel.readOutbound());
+    outputStream.flush();
+    assertEquals(size, readableBytes(channel));
+    assertEquals(1, readableBytes(channel));
+    assertNull(channel.readOutbound());
+
+    // A larger write sends whatever was staged ahead of it.
+    outputStream.write(new byte[3]);
+    outputStream.write(new byte[size]);
+    outputStream.flush();
+    assertEquals(3, readableBytes(channel));
+    assertEquals(size, readableBytes(channel));
+
+    outputStream.write(new byte[7]);
+    outputStream.write(1);
+    outputStream.close();
+    assertEquals(8, readableBytes(channel));
+    final HttpContent last = channel.readOutbound();
+    assertTrue(last instanceof LastHttpContent);
+    last.release();
+    assertNull(channel.readOutbound());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  final void testFlushThreshold() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final ByteBufBackedChannelOutboundInvokingHttpContentOutputStream outputStream =
+      new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(channel, 1024, false, null);
+    final byte[] bytes = new byte[600];
+    outputStream.write(bytes);
+    outputStream.write(bytes);
+    assertNull(channel.readOutbound());
+    // 1200 unflushed bytes exceed the threshold, so they are flushed
+    // before the third write.
+    outputStream.write(bytes);
+    assertEquals(600, readableBytes(channel));
+    assertEquals(600, readableBytes(channel));
+    assertNull(channel.readOutbound());
+    outputStream.close();
+    assertEquals(600, readableBytes(channel));
+    channel.finishAndReleaseAll();
+  }
+
+  private static final int readableBytes(final EmbeddedChannel channel) {
+    final HttpContent content = channel.readOutbound();
+    try {
+      return content.content().readableBytes();
+    } finally {
+      content.release();
+    }
+  }
+
+}
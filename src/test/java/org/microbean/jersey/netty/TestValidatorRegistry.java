@@ -0,0 +1,91 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.net.URI;
+
+import java.util.Date;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.EntityTag;
+
+import io.netty.handler.codec.DateFormatter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestValidatorRegistry {
+
+  private static final URI URI_A = URI.create("http://localhost/a");
+
+  private TestValidatorRegistry() {
+    super();
+  }
+
+  @Test
+  final void testEntityTag() {
+    final ValidatorRegistry registry = new ValidatorRegistry(10);
+    registry.put(URI_A, new EntityTag("v1"), null);
+    final ValidatorRegistry.Validators validators = registry.get(URI_A.toString());
+    assertNotNull(validators);
+    assertEquals("\"v1\"", validators.getEntityTag());
+    assertTrue(validators.isNotModified("\"v1\"", null));
+    assertTrue(validators.isNotModified("W/\"v1\"", null));
+    assertTrue(validators.isNotModified("\"v0\", \"v1\"", null));
+    assertTrue(validators.isNotModified("*", null));
+    assertFalse(validators.isNotModified("\"v2\"", null));
+    // If-Modified-Since is ignored when If-None-Match is present.
+    assertFalse(validators.isNotModified("\"v2\"", DateFormatter.format(new Date())));
+  }
+
+  @Test
+  final void testLastModified() {
+    final ValidatorRegistry registry = new ValidatorRegistry(10);
+    final Date lastModified = new Date(1600000000000L);
+    registry.put(URI_A, null, lastModified);
+    final ValidatorRegistry.Validators validators = registry.get(URI_A.toString());
+    assertNotNull(validators);
+    assertNull(validators.getEntityTag());
+    assertTrue(validators.isNotModified(null, DateFormatter.format(lastModified)));
+    assertTrue(validators.isNotModified(null, DateFormatter.format(new Date(1600000001000L))));
+    assertFalse(validators.isNotModified(null, DateFormatter.format(new Date(1599999999000L))));
+    assertFalse(validators.isNotModified(null, null));
+  }
+
+  @Test
+  final void testRemovalAndExpiry() throws InterruptedException {
+    final ValidatorRegistry registry = new ValidatorRegistry(2);
+    registry.put(URI_A, new EntityTag("v1"), null);
+    registry.remove(URI_A);
+    assertNull(registry.get(URI_A.toString()));
+    registry.put(URI_A, new EntityTag("v1"), null, 1L, TimeUnit.MILLISECONDS);
+    Thread.sleep(10L);
+    assertNull(registry.get(URI_A.toString()));
+    registry.put(URI.create("http://localhost/1"), new EntityTag("1"), null);
+    registry.put(URI.create("http://localhost/2"), new EntityTag("2"), null);
+    registry.put(URI.create("http://localhost/3"), new EntityTag("3"), null);
+    assertEquals(2, registry.getSize());
+    assertNull(registry.get("http://localhost/1"));
+  }
+
+}
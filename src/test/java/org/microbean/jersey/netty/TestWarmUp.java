@@ -0,0 +1,103 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.util.Collections;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import io.netty.buffer.Unpooled;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestWarmUp {
+
+  private static final AtomicInteger calls = new AtomicInteger();
+
+  private TestWarmUp() {
+    super();
+  }
+
+  @Test
+  final void testWarmUp() {
+    calls.set(0);
+    final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/warm", Unpooled.EMPTY_BUFFER);
+    final WarmUpResult result = initializer(new ResourceConfig(Resource.class)).warmUp(Collections.singleton(request), 3);
+    assertEquals(4, result.getRequests());
+    assertEquals(0, result.getFailures());
+    assertEquals(0, result.getClientErrors());
+    assertEquals(4, calls.get());
+    assertTrue(result.getColdLatencyNanos() >= 0L);
+    assertTrue(result.getWarmLatencyNanos() >= 0L);
+  }
+
+  @Test
+  final void testWarmUpFromProperties() {
+    calls.set(0);
+    final ResourceConfig resourceConfig = new ResourceConfig(Resource.class)
+      .property(NettyContainerProperties.WARM_UP_REQUESTS, "/warm, HEAD /warm")
+      .property(NettyContainerProperties.WARM_UP_ITERATIONS, "2");
+    final WarmUpResult result = initializer(resourceConfig).warmUp();
+    assertEquals(5, result.getRequests());
+    assertEquals(0, result.getFailures());
+  }
+
+  @Test
+  final void testClientErrorsAreFailures() {
+    calls.set(0);
+    final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/cold", Unpooled.EMPTY_BUFFER);
+    final WarmUpResult result = initializer(new ResourceConfig(Resource.class)).warmUp(Collections.singleton(request), 2);
+    assertEquals(3, result.getRequests());
+    assertEquals(3, result.getFailures());
+    assertEquals(3, result.getClientErrors());
+    assertEquals(0, calls.get());
+    assertEquals(-1L, result.getColdLatencyNanos());
+    assertEquals(-1L, result.getWarmLatencyNanos());
+  }
+
+  private static final JerseyChannelInitializer initializer(final ResourceConfig resourceConfig) {
+    return new JerseyChannelInitializer(null, null, false, 0L, ImmediateEventExecutor.INSTANCE, new ApplicationHandler(resourceConfig), 8192, null);
+  }
+
+  @Path("warm")
+  public static final class Resource {
+
+    @GET
+    public String get() {
+      calls.incrementAndGet();
+      return "Hello";
+    }
+
+  }
+
+}
@@ -0,0 +1,293 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import javax.ws.rs.container.ContainerRequestContext;
+
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import io.netty.util.ReferenceCountUtil;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestWriteBatching {
+
+  private TestWriteBatching() {
+    super();
+  }
+
+  @Test
+  final void testOneTaskPerFlush() throws Exception {
+    final AtomicInteger tasks = new AtomicInteger();
+    final EventLoopGroup clientGroup = new DefaultEventLoopGroup(1) {
+        @Override
+        protected final EventLoop newChild(final Executor executor, final Object... args) {
+          return new DefaultEventLoop(this, executor) {
+            @Override
+            public final void execute(final Runnable task) {
+              tasks.incrementAndGet();
+              super.execute(task);
+            }
+
+            @Override
+            public final void lazyExecute(final Runnable task) {
+              tasks.incrementAndGet();
+              super.lazyExecute(task);
+            }
+          };
+        }
+      };
+    final EventLoopGroup serverGroup = new DefaultEventLoopGroup(1);
+    final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    try {
+      final Channel channel = connect(clientGroup, serverGroup, received);
+      assertFalse(channel.eventLoop().inEventLoop());
+
+      final ByteBufBackedChannelOutboundInvokingHttpContentOutputStream outputStream =
+        new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(channel, Integer.MAX_VALUE, false, null);
+      final byte[] bytes = new byte[1024];
+      tasks.set(0);
+      for (int i = 0; i < 10; i++) {
+        outputStream.write(bytes);
+      }
+      outputStream.flush();
+      // Ten writes and a flush used to be eleven tasks.
+      assertEquals(1, tasks.get());
+      outputStream.close();
+      assertEquals(2, tasks.get());
+
+      for (int i = 0; i < 10; i++) {
+        final Object message = received.poll(10L, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals(bytes.length, ((HttpContent)message).content().readableBytes());
+        ReferenceCountUtil.release(message);
+      }
+      final Object last = received.poll(10L, TimeUnit.SECONDS);
+      assertTrue(last instanceof LastHttpContent);
+      ReferenceCountUtil.release(last);
+      channel.close().sync();
+    } finally {
+      clientGroup.shutdownGracefully();
+      serverGroup.shutdownGracefully();
+    }
+  }
+
+  @Test
+  final void testQueuedWritesDiscardedOnChannelClose() throws Exception {
+    final EventLoopGroup clientGroup = new DefaultEventLoopGroup(1);
+    final EventLoopGroup serverGroup = new DefaultEventLoopGroup(1);
+    final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    try {
+      final Channel channel = connect(clientGroup, serverGroup, received);
+      final List<ByteBuf> created = new ArrayList<>();
+      final ByteBufBackedChannelOutboundInvokingHttpContentOutputStream outputStream =
+        new ByteBufBackedChannelOutboundInvokingHttpContentOutputStream(channel, Integer.MAX_VALUE, false, (bytes, offset, length) -> {
+            final ByteBuf byteBuf = Unpooled.copiedBuffer(bytes, offset, length);
+            created.add(byteBuf);
+            return byteBuf;
+          });
+      final byte[] bytes = new byte[1024];
+      for (int i = 0; i < 3; i++) {
+        outputStream.write(bytes);
+      }
+      assertEquals(3, created.size());
+      // The stream is abandoned: never flushed, never closed.
+      channel.close().sync();
+      // Close listeners run after sync() returns; wait for them.
+      channel.eventLoop().submit(() -> {}).sync();
+      for (final ByteBuf byteBuf : created) {
+        assertEquals(0, byteBuf.refCnt());
+      }
+      assertThrows(IOException.class, () -> outputStream.write(bytes));
+      assertEquals(0, created.get(3).refCnt());
+    } finally {
+      clientGroup.shutdownGracefully();
+      serverGroup.shutdownGracefully();
+    }
+  }
+
+  @Test
+  final void testFailureDoesNotOvertakeQueuedWrites() throws Exception {
+    final EventLoopGroup clientGroup = new DefaultEventLoopGroup(1);
+    final EventLoopGroup serverGroup = new DefaultEventLoopGroup(1);
+    // The writer runs off the event loop, so its writes are queued.
+    final EventExecutorGroup jerseyGroup = new DefaultEventExecutorGroup(1);
+    final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    try {
+      final ApplicationHandler applicationHandler = new ApplicationHandler(new ResourceConfig(Resources.class));
+      final Channel serverChannel = new ServerBootstrap()
+        .group(serverGroup)
+        .channel(LocalServerChannel.class)
+        .childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected final void initChannel(final Channel channel) {
+              channel.pipeline().addLast(new HttpObjectToContainerRequestDecoder(null, applicationHandler.getConfiguration()));
+              channel.pipeline().addLast(jerseyGroup, new HttpContainerRequestHandlingResponseWriter(applicationHandler));
+            }
+          })
+        .bind(LocalAddress.ANY)
+        .sync()
+        .channel();
+      final Channel channel = new Bootstrap()
+        .group(clientGroup)
+        .channel(LocalChannel.class)
+        .handler(new ChannelInboundHandlerAdapter() {
+            @Override
+            public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+              received.add(message);
+            }
+          })
+        .connect(serverChannel.localAddress())
+        .sync()
+        .channel();
+      final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/fail");
+      request.headers().set(HttpHeaderNames.HOST, "localhost");
+      channel.writeAndFlush(request).sync();
+
+      final Object headers = received.poll(10L, TimeUnit.SECONDS);
+      assertTrue(headers instanceof HttpResponse);
+      assertEquals(HttpResponseStatus.OK, ((HttpResponse)headers).status());
+      int contentLength = 0;
+      Object message;
+      while ((message = received.poll(10L, TimeUnit.SECONDS)) instanceof HttpContent && !(message instanceof FullHttpResponse)) {
+        contentLength += ((HttpContent)message).content().readableBytes();
+        ReferenceCountUtil.release(message);
+      }
+      // The content queued before failure() was called went out
+      // ahead of the failure message.
+      assertEquals(9000, contentLength);
+      assertTrue(message instanceof FullHttpResponse);
+      assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, ((FullHttpResponse)message).status());
+      ReferenceCountUtil.release(message);
+      channel.closeFuture().sync();
+      serverChannel.close().sync();
+    } finally {
+      clientGroup.shutdownGracefully();
+      serverGroup.shutdownGracefully();
+      jerseyGroup.shutdownGracefully();
+    }
+  }
+
+  private static final Channel connect(final EventLoopGroup clientGroup,
+                                       final EventLoopGroup serverGroup,
+                                       final BlockingQueue<Object> received)
+    throws InterruptedException {
+    final LocalAddress address = new LocalAddress(TestWriteBatching.class);
+    new ServerBootstrap()
+      .group(serverGroup)
+      .channel(LocalServerChannel.class)
+      .childHandler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public final void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+            received.add(message);
+          }
+        })
+      .bind(address)
+      .sync();
+    return new Bootstrap()
+      .group(clientGroup)
+      .channel(LocalChannel.class)
+      .handler(new ChannelInboundHandlerAdapter())
+      .connect(address)
+      .sync()
+      .channel();
+  }
+
+  @Path("/")
+  public static final class Resources {
+
+    public Resources() {
+      super();
+    }
+
+    @GET
+    @Path("fail")
+    @Produces(MediaType.TEXT_PLAIN)
+    public StreamingOutput fail(@Context final ContainerRequestContext containerRequestContext) {
+      final AbstractContainerRequestHandlingResponseWriter<?> writer =
+        (AbstractContainerRequestHandlingResponseWriter<?>)containerRequestContext.getProperty(AbstractContainerRequestHandlingResponseWriter.class.getName());
+      return outputStream -> {
+        // Large enough to commit the response, but not to flush it,
+        // so the content is still queued when failure() is called.
+        outputStream.write(new byte[9000]);
+        writer.failure(new IOException("failure"));
+      };
+    }
+
+  }
+
+}
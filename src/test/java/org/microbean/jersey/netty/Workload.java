@@ -0,0 +1,77 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2020 microBean™.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jersey.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+
+/**
+ * A resource whose cost can be tuned with query parameters, used by
+ * the {@link LoadGenerator}.
+ *
+ * <p>{@code GET /workload?size=n&delayMillis=m} sleeps for {@code m}
+ * milliseconds and then returns {@code n} bytes.  {@code POST
+ * /workload?delayMillis=m} reads the request entity, sleeps for
+ * {@code m} milliseconds and returns the number of bytes read.</p>
+ */
+@Path("/workload")
+public class Workload {
+
+  public Workload() {
+    super();
+  }
+
+  @GET
+  @Produces("application/octet-stream")
+  public byte[] get(@QueryParam("size") @DefaultValue("0") final int size,
+                    @QueryParam("delayMillis") @DefaultValue("0") final long delayMillis)
+    throws InterruptedException {
+    sleep(delayMillis);
+    return new byte[Math.max(0, size)];
+  }
+
+  @POST
+  @Consumes("*/*")
+  @Produces("text/plain")
+  public String post(@QueryParam("delayMillis") @DefaultValue("0") final long delayMillis,
+                     final InputStream entity)
+    throws InterruptedException, IOException {
+    final byte[] buffer = new byte[8192];
+    long count = 0L;
+    int bytesRead;
+    while ((bytesRead = entity.read(buffer)) >= 0) {
+      count += bytesRead;
+    }
+    sleep(delayMillis);
+    return Long.toString(count);
+  }
+
+  private static final void sleep(final long delayMillis) throws InterruptedException {
+    if (delayMillis > 0L) {
+      Thread.sleep(delayMillis);
+    }
+  }
+
+}